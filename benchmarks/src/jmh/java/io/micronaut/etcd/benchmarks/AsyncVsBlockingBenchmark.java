@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.benchmarks;
+
+import io.etcd.jetcd.ByteSequence;
+import io.micronaut.etcd.client.ClientFactory;
+import io.micronaut.etcd.config.EtcdFactoryConfig;
+import io.micronaut.etcd.config.SingleEtcdFactoryConfig;
+import io.micronaut.etcd.kv.AsyncKVService;
+import io.micronaut.etcd.kv.KVService;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the throughput of {@value #CONCURRENT_CALLERS} concurrent callers of the blocking
+ * {@link KVService}, each on its own platform thread parked until its response, with the same
+ * number of gets in flight through {@link AsyncKVService} from a single thread, against a
+ * {@link io.micronaut.etcd.local.LocalEtcdServer}.
+ *
+ * <p>Run it with {@code ./gradlew :benchmarks:jmh -PjmhInclude=AsyncVsBlockingBenchmark}.</p>
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AsyncVsBlockingBenchmark {
+
+  static final int CONCURRENT_CALLERS = 1000;
+
+  private static final int KEY_COUNT = 1024;
+
+  private ClientFactory clientFactory;
+  private AsyncKVService asyncKVService;
+  private KVService kvService;
+  private ExecutorService callers;
+  private ByteSequence[] keys;
+
+  /**
+   * Starts the local server, the client and the caller threads.
+   * @throws Exception if the keys cannot be stored
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    EtcdFactoryConfig config = new SingleEtcdFactoryConfig();
+    config.setLocalServer(true);
+    clientFactory = new ClientFactory();
+    asyncKVService = new AsyncKVService(config, clientFactory);
+    kvService = new KVService(asyncKVService);
+    callers = Executors.newFixedThreadPool(CONCURRENT_CALLERS);
+    ByteSequence value = ByteSequence.from(new byte[16]);
+    keys = new ByteSequence[KEY_COUNT];
+    for (int i = 0; i < KEY_COUNT; i++) {
+      keys[i] = ByteSequence.from("benchmark/" + i, StandardCharsets.UTF_8);
+      kvService.put(keys[i], value);
+    }
+  }
+
+  /**
+   * Stops the caller threads, the client and the local server.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    callers.shutdownNow();
+    clientFactory.close();
+  }
+
+  /**
+   * Gets {@value #CONCURRENT_CALLERS} random keys, each by a caller thread blocked until its
+   * response.
+   * @throws Exception if a get fails
+   */
+  @Benchmark
+  @OperationsPerInvocation(CONCURRENT_CALLERS)
+  public void blockingGets() throws Exception {
+    List<Future<ByteSequence>> futures = new ArrayList<>(CONCURRENT_CALLERS);
+    Callable<ByteSequence> get = () -> kvService.get(randomKey());
+    for (int i = 0; i < CONCURRENT_CALLERS; i++) {
+      futures.add(callers.submit(get));
+    }
+    for (Future<ByteSequence> future : futures) {
+      future.get();
+    }
+  }
+
+  /**
+   * Gets {@value #CONCURRENT_CALLERS} random keys, all in flight at once without blocking a
+   * thread each.
+   */
+  @Benchmark
+  @OperationsPerInvocation(CONCURRENT_CALLERS)
+  public void asyncGets() {
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[CONCURRENT_CALLERS];
+    for (int i = 0; i < CONCURRENT_CALLERS; i++) {
+      futures[i] = asyncKVService.get(randomKey());
+    }
+    CompletableFuture.allOf(futures).join();
+  }
+
+  private ByteSequence randomKey() {
+    return keys[ThreadLocalRandom.current().nextInt(KEY_COUNT)];
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.benchmarks;
+
+import io.etcd.jetcd.ByteSequence;
+import io.micronaut.etcd.client.ClientFactory;
+import io.micronaut.etcd.config.EtcdFactoryConfig;
+import io.micronaut.etcd.config.SingleEtcdFactoryConfig;
+import io.micronaut.etcd.kv.AsyncKVService;
+import io.micronaut.etcd.kv.KVBulkResult;
+import io.micronaut.etcd.kv.KVService;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the load of {@value #KEY_COUNT} keys with {@link KVService#putAll(Stream,
+ * java.util.function.LongConsumer)}, for a number of transactions in flight, against a
+ * {@link io.micronaut.etcd.local.LocalEtcdServer}; the score is the time of a whole load.
+ * {@code bulkParallelism=1} sends the transactions one by one, which shows the gain of keeping
+ * several in flight; a loop of single puts would be slower still, by one round trip per key.
+ *
+ * <p>Run it with {@code ./gradlew :benchmarks:jmh -PjmhInclude=BulkLoadBenchmark}.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BulkLoadBenchmark {
+
+  static final int KEY_COUNT = 100_000;
+
+  /**
+   * The maximum number of transactions in flight.
+   */
+  @Param({"1", "8"})
+  public int bulkParallelism;
+
+  private ClientFactory clientFactory;
+  private KVService kvService;
+  private ByteSequence value;
+
+  /**
+   * Starts the local server and the client.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    EtcdFactoryConfig config = new SingleEtcdFactoryConfig();
+    config.setLocalServer(true);
+    config.setBulkParallelism(bulkParallelism);
+    clientFactory = new ClientFactory();
+    kvService = new KVService(new AsyncKVService(config, clientFactory));
+    value = ByteSequence.from(new byte[64]);
+  }
+
+  /**
+   * Stops the client and the local server.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    clientFactory.close();
+  }
+
+  /**
+   * @return the result of the load of {@value #KEY_COUNT} keys
+   * @throws Exception if the load fails
+   */
+  @Benchmark
+  public KVBulkResult putAll() throws Exception {
+    Stream<Map.Entry<ByteSequence, ByteSequence>> entries = IntStream.range(0, KEY_COUNT)
+        .mapToObj(i -> new AbstractMap.SimpleImmutableEntry<>(
+            ByteSequence.from("bulk/" + i, StandardCharsets.UTF_8), value));
+    return kvService.putAll(entries, null);
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.benchmarks;
+
+import io.etcd.jetcd.ByteSequence;
+import io.micronaut.etcd.client.ClientFactory;
+import io.micronaut.etcd.client.VirtualThreads;
+import io.micronaut.etcd.config.EtcdFactoryConfig;
+import io.micronaut.etcd.config.SingleEtcdFactoryConfig;
+import io.micronaut.etcd.kv.AsyncKVService;
+import io.micronaut.etcd.kv.KVService;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the default executor of jetcd with virtual threads, see
+ * {@link EtcdFactoryConfig#setVirtualThreads(boolean)}, for {@value #CONCURRENT_CALLS} concurrent
+ * callers of the blocking {@link KVService}. With the default executor the callers are
+ * {@value #PLATFORM_THREADS} platform threads, a typical bounded pool; with virtual threads each
+ * caller is a virtual thread. On a JDK older than 21 both modes run on platform threads.
+ *
+ * <p>Run it with {@code ./gradlew :benchmarks:jmh -PjmhInclude=ExecutorModeBenchmark}.</p>
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ExecutorModeBenchmark {
+
+  static final int CONCURRENT_CALLS = 10_000;
+  static final int PLATFORM_THREADS = 64;
+
+  private static final int KEY_COUNT = 1024;
+
+  /**
+   * The executor mode: {@code default} or {@code virtual}.
+   */
+  @Param({"default", "virtual"})
+  public String executorMode;
+
+  private ClientFactory clientFactory;
+  private KVService kvService;
+  private ExecutorService callers;
+  private ByteSequence[] keys;
+
+  /**
+   * Starts the local server, the client in the executor mode, and the callers.
+   * @throws Exception if the keys cannot be stored
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    EtcdFactoryConfig config = new SingleEtcdFactoryConfig();
+    config.setLocalServer(true);
+    boolean virtual = executorMode.equals("virtual");
+    config.setVirtualThreads(virtual);
+    clientFactory = new ClientFactory();
+    kvService = new KVService(new AsyncKVService(config, clientFactory));
+    callers = virtual
+        ? VirtualThreads.newExecutor("caller-").orElseGet(Executors::newCachedThreadPool)
+        : Executors.newFixedThreadPool(PLATFORM_THREADS);
+    ByteSequence value = ByteSequence.from(new byte[16]);
+    keys = new ByteSequence[KEY_COUNT];
+    for (int i = 0; i < KEY_COUNT; i++) {
+      keys[i] = ByteSequence.from("benchmark/" + i, StandardCharsets.UTF_8);
+      kvService.put(keys[i], value);
+    }
+  }
+
+  /**
+   * Stops the callers, the client and the local server.
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    callers.shutdownNow();
+    clientFactory.close();
+  }
+
+  /**
+   * Gets {@value #CONCURRENT_CALLS} random keys, each by a caller blocked until its response.
+   * @throws Exception if a get fails
+   */
+  @Benchmark
+  @OperationsPerInvocation(CONCURRENT_CALLS)
+  public void blockingGets() throws Exception {
+    List<Future<ByteSequence>> futures = new ArrayList<>(CONCURRENT_CALLS);
+    Callable<ByteSequence> get = () -> kvService.get(keys[ThreadLocalRandom.current().nextInt(KEY_COUNT)]);
+    for (int i = 0; i < CONCURRENT_CALLS; i++) {
+      futures.add(callers.submit(get));
+    }
+    for (Future<ByteSequence> future : futures) {
+      future.get();
+    }
+  }
+}
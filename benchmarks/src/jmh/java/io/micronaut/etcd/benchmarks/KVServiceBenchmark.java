@@ -0,0 +1,181 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.benchmarks;
+
+import io.etcd.jetcd.ByteSequence;
+import io.micronaut.etcd.client.ClientFactory;
+import io.micronaut.etcd.config.EtcdFactoryConfig;
+import io.micronaut.etcd.config.SingleEtcdFactoryConfig;
+import io.micronaut.etcd.local.LocalEtcdServer;
+import io.micronaut.etcd.kv.AsyncKVService;
+import io.micronaut.etcd.kv.KVService;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the {@link KVService} and {@link AsyncKVService} operations against a
+ * {@link LocalEtcdServer}. The blocking benchmarks measure one round trip per operation; the
+ * async ones keep {@value #PIPELINE_DEPTH} operations in flight per thread. The batch window
+ * parameter compares one request per operation with the operations batched into transactions.
+ *
+ * <p>Run them with {@code ./gradlew :benchmarks:jmh}, or {@code ./gradlew :benchmarks:benchmarkThreads}
+ * for 1, 4 and 16 threads. The sample mode gives the latency percentiles, and the gc profiler the
+ * allocation rate.</p>
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class KVServiceBenchmark {
+
+  /**
+   * Number of async operations in flight per benchmark thread.
+   */
+  static final int PIPELINE_DEPTH = 16;
+
+  private static final int KEY_COUNT = 1024;
+
+  /**
+   * Size of the values, in bytes.
+   */
+  @Param({"16", "1024", "65536", "1048576"})
+  public int valueSize;
+
+  /**
+   * Time window in milliseconds in which operations are batched, 0 to send one request each.
+   */
+  @Param({"0", "1"})
+  public long batchWindowMs;
+
+  private LocalEtcdServer server;
+  private ClientFactory clientFactory;
+  private AsyncKVService asyncKVService;
+  private KVService kvService;
+  private ByteSequence[] keys;
+  private ByteSequence value;
+
+  /**
+   * Starts the local server and stores the keys read by the benchmarks. Only the last revision is
+   * retained, so that the values overwritten by the put benchmarks do not pile up in memory.
+   * @throws Exception if the server cannot start
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    server = new LocalEtcdServer();
+    server.setRetainedRevisions(1);
+    EtcdFactoryConfig config = new SingleEtcdFactoryConfig();
+    config.setEndpoints(server.getEndpoint());
+    config.setMaxInboundMessageSize(Integer.MAX_VALUE);
+    config.setBatchWindowMs(batchWindowMs > 0 ? batchWindowMs : null);
+    clientFactory = new ClientFactory();
+    asyncKVService = new AsyncKVService(config, clientFactory);
+    kvService = new KVService(asyncKVService);
+    byte[] bytes = new byte[valueSize];
+    ThreadLocalRandom.current().nextBytes(bytes);
+    value = ByteSequence.from(bytes);
+    keys = new ByteSequence[KEY_COUNT];
+    for (int i = 0; i < KEY_COUNT; i++) {
+      keys[i] = ByteSequence.from("benchmark/" + i, StandardCharsets.UTF_8);
+      kvService.put(keys[i], value);
+    }
+  }
+
+  /**
+   * Stops the client and the server.
+   * @throws Exception if the server does not stop
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    asyncKVService.close();
+    clientFactory.close();
+    server.close();
+  }
+
+  /**
+   * @return the value of a random key
+   * @throws Exception if the get fails
+   */
+  @Benchmark
+  public ByteSequence get() throws Exception {
+    return kvService.get(randomKey());
+  }
+
+  /**
+   * @return the previous value of a random key
+   * @throws Exception if the put fails
+   */
+  @Benchmark
+  public byte[] put() throws Exception {
+    return kvService.put(randomKey(), value);
+  }
+
+  /**
+   * Deletes a random key and stores it back, so the next deletes find a key to delete.
+   * @return the number of keys deleted
+   * @throws Exception if the delete or the put fails
+   */
+  @Benchmark
+  @OperationsPerInvocation(2)
+  public long deleteAndPut() throws Exception {
+    ByteSequence key = randomKey();
+    long deleted = kvService.delete(key);
+    kvService.put(key, value);
+    return deleted;
+  }
+
+  /**
+   * Gets random keys, {@value #PIPELINE_DEPTH} at a time.
+   */
+  @Benchmark
+  @OperationsPerInvocation(PIPELINE_DEPTH)
+  public void asyncGet() {
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[PIPELINE_DEPTH];
+    for (int i = 0; i < PIPELINE_DEPTH; i++) {
+      futures[i] = asyncKVService.get(randomKey());
+    }
+    CompletableFuture.allOf(futures).join();
+  }
+
+  /**
+   * Puts random keys, {@value #PIPELINE_DEPTH} at a time.
+   */
+  @Benchmark
+  @OperationsPerInvocation(PIPELINE_DEPTH)
+  public void asyncPut() {
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[PIPELINE_DEPTH];
+    for (int i = 0; i < PIPELINE_DEPTH; i++) {
+      futures[i] = asyncKVService.put(randomKey(), value);
+    }
+    CompletableFuture.allOf(futures).join();
+  }
+
+  private ByteSequence randomKey() {
+    return keys[ThreadLocalRandom.current().nextInt(KEY_COUNT)];
+  }
+}
@@ -19,79 +19,204 @@ import io.etcd.jetcd.ByteSequence;
 import io.etcd.jetcd.Client;
 import io.etcd.jetcd.ClientBuilder;
 import io.etcd.jetcd.KV;
+import io.grpc.ClientInterceptor;
+import io.micronaut.context.annotation.BootstrapContextCompatible;
+import io.micronaut.context.annotation.EachBean;
+import io.micronaut.context.annotation.Factory;
 import io.micronaut.etcd.config.EtcdFactoryConfig;
+import io.micronaut.etcd.local.LocalEtcdServer;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import javax.inject.Singleton;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
 
 /**
  * Client factory for jetcd clients.
+ *
+ * <p>Every {@link Client} holds its own gRPC channel, executor and keepalive threads, so the
+ * factory builds a single client per configuration (or per set of endpoints) and hands out the
+ * same instance to every KV, Watch or Lease user. All the clients are closed when the factory is
+ * closed, which happens on application context shutdown.</p>
  */
-@Singleton
-public class ClientFactory {
+@Factory
+@BootstrapContextCompatible
+public class ClientFactory implements AutoCloseable {
+
+  /**
+   * The clients built so far, by {@link EtcdFactoryConfig} or list of endpoints.
+   */
+  private final Map<Object, Client> clients = new ConcurrentHashMap<>();
+
+  /**
+   * The executors created for the clients, shut down with them.
+   */
+  private final List<ExecutorService> executors = new CopyOnWriteArrayList<>();
+
+  /**
+   * The local servers started for the configurations that connect to one, closed with the clients.
+   */
+  private final Map<EtcdFactoryConfig, LocalEtcdServer> localServers = new ConcurrentHashMap<>();
+
+  /**
+   * The factories of the interceptors added to every client built from a configuration.
+   */
+  private final List<EtcdClientInterceptorFactory> interceptorFactories;
+
+  /**
+   * Constructor.
+   */
+  public ClientFactory() {
+    this(Collections.emptyList());
+  }
+
+  /**
+   * Constructor.
+   * @param interceptorFactories The factories of the interceptors to add to every client
+   */
+  @Inject
+  public ClientFactory(List<EtcdClientInterceptorFactory> interceptorFactories) {
+    this.interceptorFactories = interceptorFactories;
+  }
+
+  /**
+   * Create the shared {@link Client} for each etcd configuration.
+   * @param config The configuration to connect to the etcd server
+   * @return {@link Client}
+   */
+  @EachBean(EtcdFactoryConfig.class)
+  public Client etcdClient(EtcdFactoryConfig config) {
+    return clients.computeIfAbsent(config, key -> getClient(config, getEndpoints(config)));
+  }
+
+  /**
+   * Get the endpoints the clients of a configuration connect to: its own, or the one of its local
+   * server when {@link EtcdFactoryConfig#isLocalServer()} is set.
+   * @param config The configuration to connect to the etcd server
+   * @return The endpoints
+   */
+  public String[] getEndpoints(EtcdFactoryConfig config) {
+    return config.isLocalServer() ? new String[] {getLocalServer(config).getEndpoint()} : config.getEndpoints();
+  }
+
+  /**
+   * Get the local server the clients of a configuration connect to, started on first use, for
+   * instance to inject latency or failures.
+   * @param config A configuration with {@link EtcdFactoryConfig#isLocalServer()} set
+   * @return The local server
+   */
+  public LocalEtcdServer getLocalServer(EtcdFactoryConfig config) {
+    return localServers.computeIfAbsent(config, key -> {
+      try {
+        LocalEtcdServer localServer = new LocalEtcdServer();
+        localServer.setLatencyMs(config.getLocalServerLatencyMs());
+        localServer.setFailureRate(config.getLocalServerFailureRate());
+        return localServer;
+      } catch (IOException e) {
+        throw new UncheckedIOException("Cannot start the local etcd server", e);
+      }
+    });
+  }
+
+  /**
+   * Get the shared {@link Client} connected to a single endpoint of a configuration, with all its
+   * other settings. Such clients let requests be sent to a chosen member of the cluster.
+   * @param config The configuration to connect to the etcd server
+   * @param endpoint One of the endpoints of the configuration
+   * @return {@link Client}
+   */
+  public Client etcdClient(EtcdFactoryConfig config, String endpoint) {
+    return clients.computeIfAbsent(Arrays.asList(config, endpoint), key -> getClient(config, endpoint));
+  }
 
   /**
    * Create a KV client {@link KV} base on the configuration injected.
    * @param config The configuration to connect to the etcd server
    * @return {@link KV}
    */
+  @EachBean(EtcdFactoryConfig.class)
   public KV etcdKVClient(EtcdFactoryConfig config) {
-    Client client = getClient(config);
-    return client.getKVClient();
+    return etcdClient(config).getKVClient();
   }
 
   /**
-   * Create a singleton {@link KV} client, based on the string endpoints.
+   * Create a {@link KV} client, based on the string endpoints. The underlying {@link Client} is
+   * shared with any other call for the same endpoints.
    *
    * @param endpoints Array of String endpoints
    * @return {@link KV}
    */
-  @Singleton
   public KV etcdKVClient(String... endpoints) {
-    Client client = Client.builder().endpoints(endpoints).build();
-    return client.getKVClient();
+    return clients.computeIfAbsent(Arrays.asList(endpoints),
+        key -> Client.builder().endpoints(endpoints).build()).getKVClient();
   }
 
   /**
-   * Create a singleton {@link KV} client, based on the URI endpoints.
+   * Create a {@link KV} client, based on the URI endpoints. The underlying {@link Client} is
+   * shared with any other call for the same endpoints.
    *
    * @param endpoints Array of URI endpoints
    * @return {@link KV}
    */
-  @Singleton
   public KV etcdKVClient(URI... endpoints) {
-    Client client = Client.builder().endpoints(endpoints).build();
-    return client.getKVClient();
+    return clients.computeIfAbsent(Arrays.asList(endpoints),
+        key -> Client.builder().endpoints(endpoints).build()).getKVClient();
   }
 
   /**
-   * Create a singleton {@link KV} client, based on the Collection of URI endpoints.
+   * Create a {@link KV} client, based on the Collection of URI endpoints. The underlying
+   * {@link Client} is shared with any other call for the same endpoints.
    *
    * @param endpoints Collection of URI endpoints
    * @return {@link KV}
    */
-  @Singleton
   public KV etcdKVClient(Collection<URI> endpoints) {
-    Client client = Client.builder().endpoints(endpoints).build();
-    return client.getKVClient();
+    return clients.computeIfAbsent(new ArrayList<>(endpoints),
+        key -> Client.builder().endpoints(endpoints).build()).getKVClient();
+  }
+
+  /**
+   * Closes every client built by this factory, and the local servers they connect to.
+   */
+  @PreDestroy
+  @Override
+  public void close() {
+    clients.values().forEach(Client::close);
+    clients.clear();
+    executors.forEach(ExecutorService::shutdown);
+    executors.clear();
+    localServers.values().forEach(LocalEtcdServer::close);
+    localServers.clear();
   }
 
   /**
    * Gets a generic etcd client factory to obtain any of the available etcd clients.
    * @param config The configuration to connect to the etcd server
+   * @param endpoints The endpoints to connect to
    * @return {@link Client}
    */
-  private Client getClient(EtcdFactoryConfig config) {
-    ClientBuilder clientBuilder = Client.builder().endpoints(config.getEndpoints());
+  private Client getClient(EtcdFactoryConfig config, String... endpoints) {
+    ClientBuilder clientBuilder = Client.builder().endpoints(endpoints);
     if (config.getUser() != null) {
       clientBuilder.user(ByteSequence.from(config.getUser().getBytes()));
     }
     if (config.getPassword() != null) {
       clientBuilder.password(ByteSequence.from(config.getPassword().getBytes()));
     }
-    if (config.getExecutorService() != null) {
-      clientBuilder.executorService(config.getExecutorService());
-    }
+    ExecutorService executor = config.getExecutorService() != null ? config.getExecutorService() : newExecutor(config);
+    // jetcd sends its requests from this executor, and shuts it down when it is closed
+    clientBuilder.executorService(new ContextExecutorService(executor != null ? executor : Executors.newCachedThreadPool()));
     if (config.getLoadBalancerPolicy() != null) {
       clientBuilder.loadBalancerPolicy(config.getLoadBalancerPolicy());
     }
@@ -107,8 +232,18 @@ public class ClientFactory {
     if (config.getHeaders() != null) {
       clientBuilder.headers(config.getHeaders());
     }
+    List<ClientInterceptor> interceptors = new ArrayList<>();
     if (config.getInterceptors() != null) {
-      clientBuilder.interceptors(config.getInterceptors());
+      interceptors.addAll(config.getInterceptors());
+    }
+    for (EtcdClientInterceptorFactory interceptorFactory : interceptorFactories) {
+      interceptors.add(interceptorFactory.create(config));
+    }
+    if (config.getRequestTimeoutMs() != null) {
+      interceptors.add(new KVDeadlineInterceptor(config.getRequestTimeoutMs()));
+    }
+    if (!interceptors.isEmpty()) {
+      clientBuilder.interceptors(interceptors);
     }
     clientBuilder.namespace(config.getNamespace());
     clientBuilder.retryDelay(config.getRetryDelay());
@@ -127,4 +262,28 @@ public class ClientFactory {
     return clientBuilder.build();
   }
 
+  /**
+   * @param config The configuration to connect to the etcd server
+   * @return An executor of virtual threads, or of {@link EtcdFactoryConfig#getExecutorThreads()}
+   * daemon threads, or {@code null} to use the default executor
+   */
+  private ExecutorService newExecutor(EtcdFactoryConfig config) {
+    String namePrefix = "etcd-" + config.getName() + "-";
+    ExecutorService executor = null;
+    if (config.isVirtualThreads()) {
+      executor = VirtualThreads.newExecutor(namePrefix).orElse(null);
+    }
+    if (executor == null && config.getExecutorThreads() != null) {
+      AtomicInteger threadCount = new AtomicInteger();
+      executor = Executors.newFixedThreadPool(config.getExecutorThreads(), runnable -> {
+        Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    if (executor != null) {
+      executors.add(executor);
+    }
+    return executor;
+  }
 }
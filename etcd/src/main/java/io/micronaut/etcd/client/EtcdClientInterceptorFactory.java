@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.client;
+
+import io.grpc.ClientInterceptor;
+import io.micronaut.etcd.config.EtcdFactoryConfig;
+
+/**
+ * Provides a gRPC {@link ClientInterceptor} for each etcd client built by {@link ClientFactory},
+ * in addition to the interceptors of its configuration. Beans of this type are picked up by the
+ * factory.
+ */
+public interface EtcdClientInterceptorFactory {
+
+  /**
+   * @param config The configuration of the client being built
+   * @return The interceptor to add to the client
+   */
+  ClientInterceptor create(EtcdFactoryConfig config);
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.client;
+
+import io.etcd.jetcd.api.KVGrpc;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.MethodDescriptor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sets a deadline on every request of the KV api that has none, so that a stalled member fails
+ * the request instead of leaving it pending; gRPC cancels the request once its deadline expires.
+ * A shorter deadline of the caller's {@link io.grpc.Context} still applies. Watches, leases and
+ * locks, whose requests may legitimately last long, are left alone.
+ */
+final class KVDeadlineInterceptor implements ClientInterceptor {
+
+  private final long timeoutMs;
+
+  /**
+   * Constructor.
+   * @param timeoutMs The deadline of each request, in milliseconds from its start
+   */
+  KVDeadlineInterceptor(long timeoutMs) {
+    this.timeoutMs = timeoutMs;
+  }
+
+  @Override
+  public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+      CallOptions callOptions, Channel next) {
+    if (callOptions.getDeadline() == null && KVGrpc.SERVICE_NAME.equals(method.getServiceName())) {
+      return next.newCall(method, callOptions.withDeadlineAfter(timeoutMs, TimeUnit.MILLISECONDS));
+    }
+    return next.newCall(method, callOptions);
+  }
+}
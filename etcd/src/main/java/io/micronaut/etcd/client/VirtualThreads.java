@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.client;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates executors running each task on a new virtual thread, when the JDK supports them: from
+ * JDK 21 on. The JDK API is looked up by reflection, so that this library still runs on older
+ * JDKs, where {@link #isSupported()} is {@code false}.
+ */
+public final class VirtualThreads {
+
+  private static final Method OF_VIRTUAL = method(Thread.class, "ofVirtual");
+  private static final Method NAME = OF_VIRTUAL == null ? null
+      : method(OF_VIRTUAL.getReturnType(), "name", String.class, long.class);
+  private static final Method FACTORY = OF_VIRTUAL == null ? null
+      : method(OF_VIRTUAL.getReturnType(), "factory");
+  private static final Method NEW_THREAD_PER_TASK_EXECUTOR =
+      method(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * @return whether virtual threads are available
+   */
+  public static boolean isSupported() {
+    return OF_VIRTUAL != null && NAME != null && FACTORY != null && NEW_THREAD_PER_TASK_EXECUTOR != null;
+  }
+
+  /**
+   * Creates an executor starting a virtual thread for each task.
+   * @param namePrefix The prefix of the names of the threads, followed by a counter
+   * @return The executor, or empty if virtual threads are not available
+   */
+  public static Optional<ExecutorService> newExecutor(String namePrefix) {
+    if (!isSupported()) {
+      return Optional.empty();
+    }
+    try {
+      Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix, 0L);
+      ThreadFactory threadFactory = (ThreadFactory) FACTORY.invoke(builder);
+      return Optional.of((ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory));
+    } catch (ReflectiveOperationException e) {
+      return Optional.empty();
+    }
+  }
+
+  private static Method method(Class<?> type, String name, Class<?>... parameterTypes) {
+    try {
+      return type.getMethod(name, parameterTypes);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+}
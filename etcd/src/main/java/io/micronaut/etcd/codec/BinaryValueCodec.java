@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.codec;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import javax.inject.Singleton;
+
+/**
+ * Compact codec of the basic types: strings are stored as UTF-8 and byte arrays as such, so they
+ * are read the same as with the untyped gets and puts; numbers, booleans and UUIDs are stored in
+ * their fixed size big-endian binary form.
+ */
+@Singleton
+public class BinaryValueCodec implements EtcdValueCodec {
+
+  /**
+   * The order of this codec, before the others.
+   */
+  public static final int ORDER = -200;
+
+  private static final Set<Class<?>> TYPES = new HashSet<>(Arrays.asList(
+      String.class, byte[].class, Boolean.class, Byte.class, Short.class, Integer.class, Long.class,
+      Float.class, Double.class, UUID.class));
+
+  @Override
+  public int getOrder() {
+    return ORDER;
+  }
+
+  @Override
+  public boolean supports(Class<?> type) {
+    return TYPES.contains(type);
+  }
+
+  @Override
+  public void encode(Object value, OutputStream out) throws IOException {
+    if (value instanceof String) {
+      out.write(((String) value).getBytes(StandardCharsets.UTF_8));
+    } else if (value instanceof byte[]) {
+      out.write((byte[]) value);
+    } else {
+      DataOutputStream data = new DataOutputStream(out);
+      if (value instanceof Boolean) {
+        data.writeBoolean((Boolean) value);
+      } else if (value instanceof Byte) {
+        data.writeByte((Byte) value);
+      } else if (value instanceof Short) {
+        data.writeShort((Short) value);
+      } else if (value instanceof Integer) {
+        data.writeInt((Integer) value);
+      } else if (value instanceof Long) {
+        data.writeLong((Long) value);
+      } else if (value instanceof Float) {
+        data.writeFloat((Float) value);
+      } else if (value instanceof Double) {
+        data.writeDouble((Double) value);
+      } else if (value instanceof UUID) {
+        data.writeLong(((UUID) value).getMostSignificantBits());
+        data.writeLong(((UUID) value).getLeastSignificantBits());
+      } else {
+        throw new CodecException("Unsupported type " + value.getClass().getName());
+      }
+    }
+  }
+
+  @Override
+  public <T> T decode(ByteBuffer bytes, Class<T> type) throws IOException {
+    Object value;
+    if (type == String.class) {
+      value = new String(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining(), StandardCharsets.UTF_8);
+    } else if (type == byte[].class) {
+      byte[] array = new byte[bytes.remaining()];
+      bytes.get(array);
+      value = array;
+    } else {
+      value = decodeFixedSize(bytes, type);
+      if (bytes.hasRemaining()) {
+        throw new CodecException(bytes.remaining() + " bytes left after decoding a " + type.getName());
+      }
+    }
+    return type.cast(value);
+  }
+
+  private static Object decodeFixedSize(ByteBuffer bytes, Class<?> type) {
+    try {
+      if (type == Boolean.class) {
+        return bytes.get() != 0;
+      } else if (type == Byte.class) {
+        return bytes.get();
+      } else if (type == Short.class) {
+        return bytes.getShort();
+      } else if (type == Integer.class) {
+        return bytes.getInt();
+      } else if (type == Long.class) {
+        return bytes.getLong();
+      } else if (type == Float.class) {
+        return bytes.getFloat();
+      } else if (type == Double.class) {
+        return bytes.getDouble();
+      } else if (type == UUID.class) {
+        return new UUID(bytes.getLong(), bytes.getLong());
+      }
+    } catch (java.nio.BufferUnderflowException e) {
+      throw new CodecException("Too few bytes to decode a " + type.getName(), e);
+    }
+    throw new CodecException("Unsupported type " + type.getName());
+  }
+}
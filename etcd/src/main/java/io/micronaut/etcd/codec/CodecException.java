@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.codec;
+
+/**
+ * Thrown when a value cannot be encoded or decoded.
+ */
+public class CodecException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Constructor.
+   * @param message The description of the error
+   */
+  public CodecException(String message) {
+    super(message);
+  }
+
+  /**
+   * Constructor.
+   * @param message The description of the error
+   * @param cause The cause of the error
+   */
+  public CodecException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.codec;
+
+import io.micronaut.core.order.Ordered;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts the values of a set of types to and from the bytes stored in etcd.
+ *
+ * <p>Codecs registered as beans are used by the KV services for the typed gets and puts, next to
+ * the built-in {@link BinaryValueCodec}, {@link ProtobufValueCodec} and {@link JsonValueCodec}. For
+ * a given type, the codec with the highest precedence, see {@link Ordered}, that supports it is
+ * used.</p>
+ */
+public interface EtcdValueCodec extends Ordered {
+
+  /**
+   * @param type The type of a value
+   * @return whether values of that type can be encoded and decoded
+   */
+  boolean supports(Class<?> type);
+
+  /**
+   * Encodes a value. The stream is a reused in-memory buffer, there is no need to buffer or close
+   * it.
+   * @param value The value, of a supported type
+   * @param out The stream to write the bytes to
+   * @throws IOException if the value cannot be encoded
+   */
+  void encode(Object value, OutputStream out) throws IOException;
+
+  /**
+   * Decodes a value. The buffer is a heap buffer, which may be reused once this method returns.
+   * @param bytes The bytes between the position and the limit of the buffer
+   * @param type The type of the value, a supported one
+   * @param <T> The type of the value
+   * @return The value
+   * @throws IOException if the bytes are not a value of the type
+   */
+  <T> T decode(ByteBuffer bytes, Class<T> type) throws IOException;
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micronaut.context.annotation.Requires;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Codec of any type, stored as JSON with Jackson. As it supports every type, it comes after all
+ * the other codecs. It requires Jackson, which the Micronaut runtime brings.
+ */
+@Singleton
+@Requires(beans = ObjectMapper.class)
+public class JsonValueCodec implements EtcdValueCodec {
+
+  /**
+   * The order of this codec, after the others.
+   */
+  public static final int ORDER = 100;
+
+  private final ObjectMapper objectMapper;
+
+  /**
+   * Constructor, with a default {@link ObjectMapper}.
+   */
+  public JsonValueCodec() {
+    this(new ObjectMapper());
+  }
+
+  /**
+   * Constructor.
+   * @param objectMapper The mapper of the application
+   */
+  @Inject
+  public JsonValueCodec(ObjectMapper objectMapper) {
+    this.objectMapper = objectMapper;
+  }
+
+  @Override
+  public int getOrder() {
+    return ORDER;
+  }
+
+  @Override
+  public boolean supports(Class<?> type) {
+    return true;
+  }
+
+  @Override
+  public void encode(Object value, OutputStream out) throws IOException {
+    objectMapper.writeValue(out, value);
+  }
+
+  @Override
+  public <T> T decode(ByteBuffer bytes, Class<T> type) throws IOException {
+    return objectMapper.readValue(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining(), type);
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.codec;
+
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import javax.inject.Singleton;
+
+/**
+ * Codec of the protocol buffers messages, stored in their binary wire format. The parser of each
+ * message type is looked up once.
+ */
+@Singleton
+public class ProtobufValueCodec implements EtcdValueCodec {
+
+  /**
+   * The order of this codec, after {@link BinaryValueCodec} and before the codecs of the
+   * application.
+   */
+  public static final int ORDER = -100;
+
+  private static final ClassValue<Parser<?>> PARSERS = new ClassValue<Parser<?>>() {
+    @Override
+    protected Parser<?> computeValue(Class<?> type) {
+      try {
+        return ((Message) type.getMethod("getDefaultInstance").invoke(null)).getParserForType();
+      } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+        throw new CodecException("No default instance of the message " + type.getName(), e);
+      }
+    }
+  };
+
+  @Override
+  public int getOrder() {
+    return ORDER;
+  }
+
+  @Override
+  public boolean supports(Class<?> type) {
+    return Message.class.isAssignableFrom(type);
+  }
+
+  @Override
+  public void encode(Object value, OutputStream out) throws IOException {
+    ((Message) value).writeTo(out);
+  }
+
+  @Override
+  public <T> T decode(ByteBuffer bytes, Class<T> type) throws IOException {
+    return type.cast(PARSERS.get(type).parseFrom(bytes));
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.codec;
+
+import com.google.protobuf.ByteString;
+import io.etcd.jetcd.ByteSequence;
+import io.micronaut.core.order.OrderUtil;
+import io.micronaut.core.reflect.ClassUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Encodes and decodes values with the first {@link EtcdValueCodec} supporting their type.
+ *
+ * <p>Values are encoded into a buffer of the calling thread, reused from one value to the next,
+ * and copied once into the {@link ByteSequence} sent to etcd. When a compression threshold is set,
+ * encoded values at least that large are compressed as GZIP, if that makes them smaller, with a
+ * {@link Deflater} also reused by the thread. Compressed values are recognized when decoding by the
+ * GZIP magic bytes, which no UTF-8 text starts with; values written by the codecs that start with
+ * them anyway are always compressed, so that they read back unchanged. All the readers of the keys
+ * must therefore agree on whether compression is enabled.</p>
+ */
+public final class ValueCodecs {
+
+  private static final String OBJECT_MAPPER = "com.fasterxml.jackson.databind.ObjectMapper";
+  private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+  /**
+   * The size above which the buffer of a thread is not kept after use, so that one large value
+   * does not pin memory for the lifetime of the thread.
+   */
+  private static final int MAX_RETAINED_BUFFER_SIZE = 1 << 20;
+  private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+  private final List<EtcdValueCodec> codecs;
+  private final Integer compressionThreshold;
+  private final Map<Class<?>, EtcdValueCodec> codecsByType = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor.
+   * @param codecs The codecs, in any order
+   * @param compressionThreshold The size in bytes from which values are compressed, or
+   *                             {@code null} to not compress values
+   */
+  public ValueCodecs(List<EtcdValueCodec> codecs, Integer compressionThreshold) {
+    this.codecs = new ArrayList<>(codecs);
+    this.codecs.sort(OrderUtil.COMPARATOR);
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  /**
+   * @return the built-in codecs, including {@link JsonValueCodec} if Jackson is present
+   */
+  public static List<EtcdValueCodec> defaultCodecs() {
+    List<EtcdValueCodec> codecs = new ArrayList<>();
+    codecs.add(new BinaryValueCodec());
+    codecs.add(new ProtobufValueCodec());
+    if (ClassUtils.isPresent(OBJECT_MAPPER, ValueCodecs.class.getClassLoader())) {
+      codecs.add(new JsonValueCodec());
+    }
+    return codecs;
+  }
+
+  /**
+   * Encodes a value.
+   * @param value The value
+   * @return The bytes to store
+   * @throws CodecException if no codec supports the type of the value, or it fails
+   */
+  public ByteSequence encode(Object value) {
+    Buffers buffers = BUFFERS.get();
+    try {
+      ExposedByteArrayOutputStream encoded = buffers.encoded;
+      codecFor(value.getClass()).encode(value, encoded);
+      if (compressionThreshold != null && (encoded.size() >= compressionThreshold || isCompressed(encoded.buffer(), encoded.size()))) {
+        buffers.compress();
+        if (buffers.compressed.size() < encoded.size() || isCompressed(encoded.buffer(), encoded.size())) {
+          return copy(buffers.compressed);
+        }
+      }
+      return copy(encoded);
+    } catch (IOException e) {
+      throw new CodecException("Cannot encode a " + value.getClass().getName(), e);
+    } finally {
+      buffers.release();
+    }
+  }
+
+  /**
+   * Decodes a value.
+   * @param bytes The bytes stored, or {@code null}
+   * @param type The type of the value
+   * @param <T> The type of the value
+   * @return The value, or {@code null} if the bytes are {@code null}
+   * @throws CodecException if no codec supports the type, or it fails
+   */
+  public <T> T decode(ByteSequence bytes, Class<T> type) {
+    if (bytes == null) {
+      return null;
+    }
+    EtcdValueCodec codec = codecFor(type);
+    byte[] array = bytes.getBytes();
+    try {
+      if (compressionThreshold != null && isCompressed(array, array.length)) {
+        Buffers buffers = BUFFERS.get();
+        try {
+          buffers.decompress(array);
+          return codec.decode(ByteBuffer.wrap(buffers.encoded.buffer(), 0, buffers.encoded.size()), type);
+        } finally {
+          buffers.release();
+        }
+      }
+      return codec.decode(ByteBuffer.wrap(array), type);
+    } catch (IOException e) {
+      throw new CodecException("Cannot decode a " + type.getName(), e);
+    }
+  }
+
+  /**
+   * @param type The type of a value
+   * @return The codec of the type
+   * @throws CodecException if no codec supports the type
+   */
+  public EtcdValueCodec codecFor(Class<?> type) {
+    EtcdValueCodec codec = codecsByType.get(type);
+    if (codec == null) {
+      for (EtcdValueCodec candidate : codecs) {
+        if (candidate.supports(type)) {
+          codec = candidate;
+          break;
+        }
+      }
+      if (codec == null) {
+        throw new CodecException("No codec for the type " + type.getName());
+      }
+      codecsByType.put(type, codec);
+    }
+    return codec;
+  }
+
+  private static boolean isCompressed(byte[] bytes, int length) {
+    return length >= 2 && bytes[0] == GZIP_HEADER[0] && bytes[1] == GZIP_HEADER[1];
+  }
+
+  private static ByteSequence copy(ExposedByteArrayOutputStream out) {
+    return ByteSequence.from(ByteString.copyFrom(out.buffer(), 0, out.size()));
+  }
+
+  /**
+   * A {@link ByteArrayOutputStream} giving access to its buffer, to read it without a copy.
+   */
+  private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+
+    private ExposedByteArrayOutputStream() {
+      super(256);
+    }
+
+    private byte[] buffer() {
+      return buf;
+    }
+
+    private boolean isLarge() {
+      return buf.length > MAX_RETAINED_BUFFER_SIZE;
+    }
+  }
+
+  /**
+   * The buffers and the compressor of a thread.
+   */
+  private static final class Buffers {
+    private ExposedByteArrayOutputStream encoded = new ExposedByteArrayOutputStream();
+    private ExposedByteArrayOutputStream compressed = new ExposedByteArrayOutputStream();
+    private final byte[] chunk = new byte[8192];
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Compresses the encoded bytes as GZIP.
+     */
+    private void compress() {
+      compressed.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+      deflater.reset();
+      deflater.setInput(encoded.buffer(), 0, encoded.size());
+      deflater.finish();
+      while (!deflater.finished()) {
+        compressed.write(chunk, 0, deflater.deflate(chunk));
+      }
+      crc.reset();
+      crc.update(encoded.buffer(), 0, encoded.size());
+      writeIntLittleEndian((int) crc.getValue());
+      writeIntLittleEndian(encoded.size());
+    }
+
+    /**
+     * Decompresses GZIP bytes into the encoded buffer.
+     * @param bytes The compressed bytes
+     * @throws IOException if the bytes are not valid GZIP
+     */
+    private void decompress(byte[] bytes) throws IOException {
+      try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes), chunk.length)) {
+        int read;
+        while ((read = in.read(chunk)) > 0) {
+          encoded.write(chunk, 0, read);
+        }
+      }
+    }
+
+    private void writeIntLittleEndian(int value) {
+      compressed.write(value);
+      compressed.write(value >>> 8);
+      compressed.write(value >>> 16);
+      compressed.write(value >>> 24);
+    }
+
+    /**
+     * Empties the buffers, and drops the ones that grew too large.
+     */
+    private void release() {
+      encoded = encoded.isLarge() ? new ExposedByteArrayOutputStream() : encoded;
+      compressed = compressed.isLarge() ? new ExposedByteArrayOutputStream() : compressed;
+      encoded.reset();
+      compressed.reset();
+    }
+  }
+}
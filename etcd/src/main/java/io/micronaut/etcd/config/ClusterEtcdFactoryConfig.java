@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.config;
+
+import io.micronaut.context.annotation.EachProperty;
+import io.micronaut.context.annotation.Parameter;
+
+/**
+ * The configuration of a named etcd cluster, under {@code etcd.clusters.<name>}. Each cluster gets
+ * its own client, and its own services, qualified by the name of the cluster.
+ */
+@EachProperty(ClusterEtcdFactoryConfig.PREFIX)
+public class ClusterEtcdFactoryConfig extends EtcdFactoryConfig {
+
+  /**
+   * The prefix of the configurations of the clusters.
+   */
+  public static final String PREFIX = "etcd.clusters";
+
+  /**
+   * Constructor.
+   * @param name The name of the cluster
+   */
+  public ClusterEtcdFactoryConfig(@Parameter String name) {
+    super(SingleEtcdFactoryConfig.DEFAULT_ENDPOINTS);
+    setName(name);
+  }
+}
@@ -29,10 +29,35 @@ import java.util.concurrent.ExecutorService;
  * Base class for etcd to be configured.
  */
 public abstract class EtcdFactoryConfig {
+
+  /**
+   * The name of a configuration when {@code etcd.name} is not set.
+   */
+  public static final String DEFAULT_NAME = "default";
+
+  /**
+   * The default maximum number of operations of a transaction, the default of the etcd server.
+   */
+  public static final int DEFAULT_MAX_TXN_OPERATIONS = 128;
+
+  /**
+   * The default maximum size of the keys and values of a bulk transaction, below the 1.5 MiB
+   * request size limit of the etcd server.
+   */
+  public static final int DEFAULT_BULK_MAX_REQUEST_BYTES = 1024 * 1024;
+
+  /**
+   * The default maximum number of bulk transactions in flight.
+   */
+  public static final int DEFAULT_BULK_PARALLELISM = 8;
+
+  private String name = DEFAULT_NAME;
   private String[] endpoints;
   private String user;
   private String password;
   private ExecutorService executorService;
+  private Integer executorThreads;
+  private boolean virtualThreads;
   private String loadBalancerPolicy;
   private SslContext sslContext;
   private String authority;
@@ -48,7 +73,29 @@ public abstract class EtcdFactoryConfig {
   private ChronoUnit retryChronoUnit = ChronoUnit.MILLIS;
   private String retryMaxDuration = "";
   private Integer connectTimeoutMs;
+  private Long requestTimeoutMs;
   private boolean discovery;
+  private Long batchWindowMs;
+  private int batchMaxOperations = DEFAULT_MAX_TXN_OPERATIONS;
+  private String cachePrefix;
+  private int cacheMaxSize = 10000;
+  private int keyCacheSize;
+  private boolean coalesceGets;
+  private long coalesceTtlMs;
+  private Integer concurrencyLimit;
+  private int maxConcurrencyLimit = 1000;
+  private double readConcurrencyShare = 0.8;
+  private boolean serializableReads;
+  private Double hedgeReadsPercentile;
+  private int bulkMaxRequestBytes = DEFAULT_BULK_MAX_REQUEST_BYTES;
+  private int bulkParallelism = DEFAULT_BULK_PARALLELISM;
+  private boolean localServer;
+  private long localServerLatencyMs;
+  private double localServerFailureRate;
+  private long healthCacheTtlMs = 5000;
+  private long healthTimeoutMs = 3000;
+  private long sessionTtlSeconds = 60;
+  private Integer compressionThreshold;
 
   /**
    * Constructor.
@@ -58,6 +105,22 @@ public abstract class EtcdFactoryConfig {
     this.endpoints = endpoints;
   }
 
+  /**
+   * Returns the name of this configuration, used to tell its metrics apart.
+   * @return {@link String}
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Sets the name of this configuration, used to tell its metrics apart. Default value "default".
+   * @param name The name of this configuration
+   */
+  public void setName(String name) {
+    this.name = name;
+  }
+
   /**
    * Returns the comma-separated endpoints of the etcd cluster.
    * @return {@link String}
@@ -117,6 +180,45 @@ public abstract class EtcdFactoryConfig {
     this.executorService = executorService;
   }
 
+  /**
+   * @return the number of threads of the executor of the client, or {@code null} to use the
+   * default executor of jetcd.
+   */
+  public Integer getExecutorThreads() {
+    return executorThreads;
+  }
+
+  /**
+   * Bounds the executor running the callbacks of the calls of the client, instead of the unbounded
+   * pool jetcd creates by default. It is ignored if an executor service is set. Each client has its
+   * own executor, so a cluster with slow or large responses does not delay the callbacks of
+   * another one.
+   * @param executorThreads the number of threads of the executor, {@code null} to use the default
+   *                        executor of jetcd.
+   */
+  public void setExecutorThreads(Integer executorThreads) {
+    this.executorThreads = executorThreads;
+  }
+
+  /**
+   * @return whether the callbacks of the client run on virtual threads, when the JDK supports them.
+   */
+  public boolean isVirtualThreads() {
+    return virtualThreads;
+  }
+
+  /**
+   * Runs the callbacks of the calls of the client on virtual threads, on JDK 21 and later. It is
+   * ignored if an executor service is set; on older JDKs, the executor of
+   * {@link #getExecutorThreads()}, or the default one of jetcd, is used instead. The blocking
+   * {@code KVService} then scales with the number of virtual threads calling it, as waiting for a
+   * response does not hold a platform thread.
+   * @param virtualThreads whether the callbacks run on virtual threads.
+   */
+  public void setVirtualThreads(boolean virtualThreads) {
+    this.virtualThreads = virtualThreads;
+  }
+
   /**
    * @return etcd load balancer policy
    */
@@ -340,6 +442,25 @@ public abstract class EtcdFactoryConfig {
     this.connectTimeoutMs = connectTimeoutMs;
   }
 
+  /**
+   * @return the deadline of each KV request in milliseconds, or {@code null} if requests have no
+   * deadline.
+   */
+  public Long getRequestTimeoutMs() {
+    return requestTimeoutMs;
+  }
+
+  /**
+   * Sets the deadline of each KV request in milliseconds. It is sent to etcd as the gRPC deadline
+   * of the request, which is cancelled once it expires, and bounds the wait of the blocking
+   * {@code KVService} calls, retries included. A shorter deadline of the gRPC context of the caller
+   * takes precedence.
+   * @param requestTimeoutMs the deadline of each KV request in milliseconds.
+   */
+  public void setRequestTimeoutMs(Long requestTimeoutMs) {
+    this.requestTimeoutMs = requestTimeoutMs;
+  }
+
   /**
    * @return if the endpoint represent a discovery address using dns+srv.
    */
@@ -353,4 +474,357 @@ public abstract class EtcdFactoryConfig {
   public void setDiscovery(boolean discovery) {
     this.discovery = discovery;
   }
+
+  /**
+   * @return the time window in milliseconds in which KV operations are batched, or {@code null}
+   * if batching is disabled.
+   */
+  public Long getBatchWindowMs() {
+    return batchWindowMs;
+  }
+
+  /**
+   * Enables batching of KV puts and gets. Operations issued within the window are sent together
+   * in a single etcd transaction, instead of one request each.
+   * @param batchWindowMs the time window in milliseconds, {@code null} to disable batching.
+   */
+  public void setBatchWindowMs(Long batchWindowMs) {
+    this.batchWindowMs = batchWindowMs;
+  }
+
+  /**
+   * @return the maximum number of operations sent in a single batch.
+   */
+  public int getBatchMaxOperations() {
+    return batchMaxOperations;
+  }
+
+  /**
+   * Sets the maximum number of operations sent in a single batch. A batch is sent as soon as it
+   * is full, without waiting for the window to expire. It must not exceed the etcd server
+   * {@code --max-txn-ops} setting, 128 by default.
+   * @param batchMaxOperations the maximum number of operations of a batch.
+   */
+  public void setBatchMaxOperations(int batchMaxOperations) {
+    this.batchMaxOperations = batchMaxOperations;
+  }
+
+  /**
+   * @return the prefix of the keys cached locally, or {@code null} if the cache is disabled.
+   */
+  public String getCachePrefix() {
+    return cachePrefix;
+  }
+
+  /**
+   * Enables a local cache of the keys under the given prefix. Cached keys are read from etcd once,
+   * and then kept up to date by watching the prefix.
+   * @param cachePrefix the prefix of the keys to cache, {@code null} to disable the cache.
+   */
+  public void setCachePrefix(String cachePrefix) {
+    this.cachePrefix = cachePrefix;
+  }
+
+  /**
+   * @return the maximum number of keys cached locally.
+   */
+  public int getCacheMaxSize() {
+    return cacheMaxSize;
+  }
+
+  /**
+   * Sets the maximum number of keys cached locally. The least recently used keys are evicted
+   * first.
+   * @param cacheMaxSize the maximum number of keys cached.
+   */
+  public void setCacheMaxSize(int cacheMaxSize) {
+    this.cacheMaxSize = cacheMaxSize;
+  }
+
+  /**
+   * @return the maximum number of string keys whose UTF-8 encoding is kept, 0 if keys are encoded
+   * on each call.
+   */
+  public int getKeyCacheSize() {
+    return keyCacheSize;
+  }
+
+  /**
+   * Sets the maximum number of string keys whose UTF-8 encoding is kept, so that a small set of
+   * keys used over and over is not encoded again on each call. The least recently used keys are
+   * evicted first. Keys known in advance can rather be encoded once as
+   * {@link io.micronaut.etcd.kv.EtcdKey}s.
+   * @param keyCacheSize the maximum number of encoded keys kept, 0 to disable the cache.
+   */
+  public void setKeyCacheSize(int keyCacheSize) {
+    this.keyCacheSize = keyCacheSize;
+  }
+
+  /**
+   * @return whether concurrent gets of the same key share one request.
+   */
+  public boolean isCoalesceGets() {
+    return coalesceGets;
+  }
+
+  /**
+   * Enables the coalescing of concurrent gets: while a get of a key is in flight, the gets of the
+   * same key and options share its response instead of sending their own request.
+   * @param coalesceGets whether concurrent gets of the same key share one request.
+   */
+  public void setCoalesceGets(boolean coalesceGets) {
+    this.coalesceGets = coalesceGets;
+  }
+
+  /**
+   * @return the time in milliseconds the response of a coalesced get keeps being shared.
+   */
+  public long getCoalesceTtlMs() {
+    return coalesceTtlMs;
+  }
+
+  /**
+   * Sets the time the response of a coalesced get keeps being shared once received, so that a
+   * burst of gets of the same key sends a single request. The gets answered by it may miss the
+   * writes made in the meantime.
+   * @param coalesceTtlMs the time in milliseconds a response is shared, 0 to share it only while
+   *                      in flight.
+   */
+  public void setCoalesceTtlMs(long coalesceTtlMs) {
+    this.coalesceTtlMs = coalesceTtlMs;
+  }
+
+  /**
+   * @return the initial limit of KV requests in flight, or {@code null} if they are not limited.
+   */
+  public Integer getConcurrencyLimit() {
+    return concurrencyLimit;
+  }
+
+  /**
+   * Enables the adaptive limit of KV requests in flight. The limit starts at the given value and
+   * then follows the latency of the responses: it grows while the latency stays close to the
+   * lowest one observed, and shrinks as requests start queueing in etcd. Requests beyond the limit
+   * fail at once with a {@link io.micronaut.etcd.kv.KVSaturatedException}.
+   * @param concurrencyLimit the initial number of requests in flight, {@code null} to disable the
+   *                         limit.
+   */
+  public void setConcurrencyLimit(Integer concurrencyLimit) {
+    this.concurrencyLimit = concurrencyLimit;
+  }
+
+  /**
+   * @return the maximum the adaptive limit of KV requests in flight can grow to.
+   */
+  public int getMaxConcurrencyLimit() {
+    return maxConcurrencyLimit;
+  }
+
+  /**
+   * @param maxConcurrencyLimit the maximum the adaptive limit of KV requests in flight can grow
+   *                            to.
+   */
+  public void setMaxConcurrencyLimit(int maxConcurrencyLimit) {
+    this.maxConcurrencyLimit = maxConcurrencyLimit;
+  }
+
+  /**
+   * @return the share of the limit of KV requests in flight that reads can use.
+   */
+  public double getReadConcurrencyShare() {
+    return readConcurrencyShare;
+  }
+
+  /**
+   * Sets the share of the limit of KV requests in flight that reads can use. The rest is kept for
+   * writes, so when etcd slows down the reads are rejected before the writes.
+   * @param readConcurrencyShare the share of the limit reads can use, between 0 and 1.
+   */
+  public void setReadConcurrencyShare(double readConcurrencyShare) {
+    this.readConcurrencyShare = readConcurrencyShare;
+  }
+
+  /**
+   * @return whether single key gets are serializable reads sent to the fastest member.
+   */
+  public boolean isSerializableReads() {
+    return serializableReads;
+  }
+
+  /**
+   * Enables serializable reads: single key gets are answered by the member they are sent to,
+   * without going through the leader, and are sent to the member with the lowest recent latency.
+   * They may return a value older than the last write, by the replication lag of that member.
+   * Writes and the other reads are not affected.
+   * @param serializableReads whether single key gets are serializable reads sent to the fastest
+   *                          member.
+   */
+  public void setSerializableReads(boolean serializableReads) {
+    this.serializableReads = serializableReads;
+  }
+
+  /**
+   * @return the percentile of the latency of serializable reads after which they are hedged, or
+   * {@code null} if they are not hedged.
+   */
+  public Double getHedgeReadsPercentile() {
+    return hedgeReadsPercentile;
+  }
+
+  /**
+   * Enables hedged reads, with {@link #setSerializableReads(boolean)}: a serializable get that is
+   * not answered within the given percentile of the recent latencies, 0.95 for instance, is sent
+   * again to another member, and the first response wins while the other request is cancelled.
+   * This bounds the latency of the gets when one member is slow, for a few percent more gets.
+   * @param hedgeReadsPercentile the percentile, between 0 and 1, of the latency after which a get
+   *                             is sent to another member.
+   */
+  public void setHedgeReadsPercentile(Double hedgeReadsPercentile) {
+    this.hedgeReadsPercentile = hedgeReadsPercentile;
+  }
+
+  /**
+   * @return the maximum size in bytes of the keys and values of a bulk transaction.
+   */
+  public int getBulkMaxRequestBytes() {
+    return bulkMaxRequestBytes;
+  }
+
+  /**
+   * Sets the maximum size of the keys and values put in a single transaction by the bulk puts. It
+   * must stay below the etcd server {@code --max-request-bytes} setting, 1.5 MiB by default, and
+   * is also bounded by {@link #getMaxInboundMessageSize()} when set. Bulk transactions also hold at
+   * most {@link #getBatchMaxOperations()} operations.
+   * @param bulkMaxRequestBytes the maximum size in bytes of the keys and values of a transaction.
+   */
+  public void setBulkMaxRequestBytes(int bulkMaxRequestBytes) {
+    this.bulkMaxRequestBytes = bulkMaxRequestBytes;
+  }
+
+  /**
+   * @return the maximum number of bulk transactions in flight.
+   */
+  public int getBulkParallelism() {
+    return bulkParallelism;
+  }
+
+  /**
+   * @param bulkParallelism the maximum number of transactions in flight for a bulk put or delete.
+   */
+  public void setBulkParallelism(int bulkParallelism) {
+    this.bulkParallelism = bulkParallelism;
+  }
+
+  /**
+   * @return whether the clients connect to a {@link io.micronaut.etcd.local.LocalEtcdServer}
+   * instead of the endpoints.
+   */
+  public boolean isLocalServer() {
+    return localServer;
+  }
+
+  /**
+   * Makes the clients of this configuration connect to a
+   * {@link io.micronaut.etcd.local.LocalEtcdServer} started for it, which serves the KV, Watch and
+   * Lease APIs from memory, instead of the endpoints. Meant for tests and benchmarks.
+   * @param localServer whether to connect to a local server started for this configuration.
+   */
+  public void setLocalServer(boolean localServer) {
+    this.localServer = localServer;
+  }
+
+  /**
+   * @return the time in milliseconds the local server delays its responses by.
+   */
+  public long getLocalServerLatencyMs() {
+    return localServerLatencyMs;
+  }
+
+  /**
+   * @param localServerLatencyMs the time in milliseconds the local server delays its responses by.
+   */
+  public void setLocalServerLatencyMs(long localServerLatencyMs) {
+    this.localServerLatencyMs = localServerLatencyMs;
+  }
+
+  /**
+   * @return the share of the calls the local server fails.
+   */
+  public double getLocalServerFailureRate() {
+    return localServerFailureRate;
+  }
+
+  /**
+   * @param localServerFailureRate the share of the calls the local server fails as unavailable,
+   *                               between 0 and 1.
+   */
+  public void setLocalServerFailureRate(double localServerFailureRate) {
+    this.localServerFailureRate = localServerFailureRate;
+  }
+
+  /**
+   * @return the time in milliseconds the result of a health check is reused.
+   */
+  public long getHealthCacheTtlMs() {
+    return healthCacheTtlMs;
+  }
+
+  /**
+   * Sets the time the result of a health check is reused, so that frequent probes do not each
+   * query the cluster.
+   * @param healthCacheTtlMs the time in milliseconds a health result is reused.
+   */
+  public void setHealthCacheTtlMs(long healthCacheTtlMs) {
+    this.healthCacheTtlMs = healthCacheTtlMs;
+  }
+
+  /**
+   * @return the time in milliseconds to wait for the status of an endpoint in a health check.
+   */
+  public long getHealthTimeoutMs() {
+    return healthTimeoutMs;
+  }
+
+  /**
+   * Sets the time to wait for the status of an endpoint in a health check, after which the
+   * endpoint is reported as unreachable.
+   * @param healthTimeoutMs the time in milliseconds to wait for the status of an endpoint.
+   */
+  public void setHealthTimeoutMs(long healthTimeoutMs) {
+    this.healthTimeoutMs = healthTimeoutMs;
+  }
+
+  /**
+   * @return the TTL in seconds of the lease shared by the locks and elections.
+   */
+  public long getSessionTtlSeconds() {
+    return sessionTtlSeconds;
+  }
+
+  /**
+   * Sets the TTL of the lease shared by the locks and elections. If the application cannot keep
+   * it alive for that long, its locks are released and its leaderships lost.
+   * @param sessionTtlSeconds the TTL in seconds of the lease of the locks and elections.
+   */
+  public void setSessionTtlSeconds(long sessionTtlSeconds) {
+    this.sessionTtlSeconds = sessionTtlSeconds;
+  }
+
+  /**
+   * @return the size in bytes from which typed values are compressed, or {@code null} if they are
+   * not compressed.
+   */
+  public Integer getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  /**
+   * Enables the compression of the values written by the typed puts, once encoded, from the given
+   * size. All the applications reading these values must enable it too.
+   * @param compressionThreshold the size in bytes from which values are compressed, {@code null}
+   *                             to not compress values.
+   */
+  public void setCompressionThreshold(Integer compressionThreshold) {
+    this.compressionThreshold = compressionThreshold;
+  }
 }
@@ -16,18 +16,26 @@
 package io.micronaut.etcd.config;
 
 
+import io.micronaut.context.annotation.BootstrapContextCompatible;
 import io.micronaut.context.annotation.ConfigurationProperties;
+import io.micronaut.context.annotation.Primary;
 import io.micronaut.context.annotation.Requires;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
 /**
- * The default etcd configuration class.
+ * The default etcd configuration class. Its services are the ones injected without qualifier when
+ * clusters are also configured, see {@link ClusterEtcdFactoryConfig}.
+ *
+ * <p>{@code @Named} is declared before {@code @Primary}: the first qualifier found is the one the
+ * services of the configuration get, so they stay qualified as {@code etcd} while being primary.</p>
  */
 @ConfigurationProperties("etcd")
+@BootstrapContextCompatible
 @Requires("etcd")
 @Singleton
 @Named("etcd")
+@Primary
 public class SingleEtcdFactoryConfig extends EtcdFactoryConfig {
 
   public static final String DEFAULT_ENDPOINTS = "http://localhost:2379";
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.configuration;
+
+import io.micronaut.context.annotation.BootstrapContextCompatible;
+import io.micronaut.context.annotation.ConfigurationProperties;
+import io.micronaut.etcd.kv.KVService;
+
+/**
+ * The configuration of the distributed configuration read from etcd, under
+ * {@code etcd.config-client}.
+ */
+@ConfigurationProperties(EtcdConfigClientConfiguration.PREFIX)
+@BootstrapContextCompatible
+public class EtcdConfigClientConfiguration {
+
+  /**
+   * The prefix of the properties.
+   */
+  public static final String PREFIX = "etcd.config-client";
+
+  /**
+   * The default prefix of the keys holding the configuration.
+   */
+  public static final String DEFAULT_PATH = "config/";
+
+  private String path = DEFAULT_PATH;
+  private int pageSize = KVService.DEFAULT_SCAN_PAGE_SIZE;
+  private boolean watch = true;
+
+  /**
+   * @return the prefix of the keys holding the configuration.
+   */
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * Sets the prefix of the keys holding the configuration. The key {@code config/datasources/default/url}
+   * under the prefix {@code config/} is the property {@code datasources.default.url}.
+   * @param path the prefix of the keys holding the configuration.
+   */
+  public void setPath(String path) {
+    this.path = path;
+  }
+
+  /**
+   * @return the maximum number of keys read at once.
+   */
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Sets the maximum number of keys read at once when the configuration is loaded.
+   * @param pageSize the maximum number of keys read at once.
+   */
+  public void setPageSize(int pageSize) {
+    this.pageSize = pageSize;
+  }
+
+  /**
+   * @return whether the changes of the configuration are watched.
+   */
+  public boolean isWatch() {
+    return watch;
+  }
+
+  /**
+   * Sets whether the changes of the configuration are watched, and the beans depending on the
+   * changed properties refreshed.
+   * @param watch whether the changes of the configuration are watched.
+   */
+  public void setWatch(boolean watch) {
+    this.watch = watch;
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.configuration;
+
+import io.etcd.jetcd.ByteSequence;
+import io.micronaut.context.annotation.BootstrapContextCompatible;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.env.Environment;
+import io.micronaut.context.env.PropertySource;
+import io.micronaut.core.async.publisher.Publishers;
+import io.micronaut.discovery.config.ConfigurationClient;
+import io.micronaut.etcd.client.ClientFactory;
+import io.micronaut.etcd.config.SingleEtcdFactoryConfig;
+import io.micronaut.etcd.kv.AsyncKVService;
+import io.micronaut.etcd.kv.KVScanner;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.reactivestreams.Publisher;
+
+/**
+ * Reads the distributed configuration from the keys under a prefix of etcd, see
+ * {@link EtcdPropertySource}, when {@code micronaut.config-client.enabled} is {@code true}.
+ *
+ * <p>The keys are read once, page by page at the same revision. When the environment is refreshed
+ * the same {@link EtcdPropertySource} is returned again, without reading etcd: it is kept up to
+ * date by {@link EtcdConfigurationWatcher}.</p>
+ */
+@Singleton
+@BootstrapContextCompatible
+@Requires(classes = ConfigurationClient.class)
+@Requires(property = ConfigurationClient.ENABLED, value = "true", defaultValue = "false")
+public class EtcdConfigurationClient implements ConfigurationClient {
+
+  private final AsyncKVService asyncKVService;
+  private final EtcdConfigClientConfiguration configuration;
+  private volatile EtcdPropertySource propertySource;
+
+  /**
+   * Constructor.
+   * @param config configuration to connect to the etcd server.
+   * @param clientFactory The factory holding the shared etcd clients
+   * @param configuration The configuration of the distributed configuration
+   */
+  @Inject
+  public EtcdConfigurationClient(SingleEtcdFactoryConfig config, ClientFactory clientFactory,
+                                 EtcdConfigClientConfiguration configuration) {
+    this(new AsyncKVService(clientFactory.etcdClient(config).getKVClient()), configuration);
+  }
+
+  /**
+   * Constructor.
+   * @param asyncKVService The service to read the keys with
+   * @param configuration The configuration of the distributed configuration
+   */
+  public EtcdConfigurationClient(AsyncKVService asyncKVService, EtcdConfigClientConfiguration configuration) {
+    this.asyncKVService = asyncKVService;
+    this.configuration = configuration;
+  }
+
+  @Override
+  public Publisher<PropertySource> getPropertySources(Environment environment) {
+    return Publishers.fromCompletableFuture(() -> {
+      CompletableFuture<PropertySource> future = new CompletableFuture<>();
+      try {
+        future.complete(load());
+      } catch (RuntimeException e) {
+        future.completeExceptionally(e);
+      }
+      return future;
+    });
+  }
+
+  @Override
+  public String getDescription() {
+    return "etcd";
+  }
+
+  private synchronized EtcdPropertySource load() {
+    if (propertySource == null) {
+      ByteSequence prefix = ByteSequence.from(configuration.getPath(), StandardCharsets.UTF_8);
+      KVScanner scanner = asyncKVService.scan(prefix, configuration.getPageSize(), false);
+      // reads the first page, and with it the revision
+      scanner.hasNext();
+      EtcdPropertySource source = new EtcdPropertySource(prefix, scanner.getRevision());
+      scanner.forEachRemaining(source::put);
+      propertySource = source;
+    }
+    return propertySource;
+  }
+}
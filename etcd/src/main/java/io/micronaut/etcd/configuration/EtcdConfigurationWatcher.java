@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.configuration;
+
+import io.etcd.jetcd.common.exception.CompactedException;
+import io.etcd.jetcd.watch.WatchEvent;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.env.Environment;
+import io.micronaut.context.event.ApplicationEventListener;
+import io.micronaut.context.event.ApplicationEventPublisher;
+import io.micronaut.context.event.StartupEvent;
+import io.micronaut.discovery.config.ConfigurationClient;
+import io.micronaut.etcd.client.ClientFactory;
+import io.micronaut.etcd.config.SingleEtcdFactoryConfig;
+import io.micronaut.etcd.kv.AsyncKVService;
+import io.micronaut.etcd.kv.KVScanner;
+import io.micronaut.etcd.watch.WatchService;
+import io.micronaut.runtime.context.scope.refresh.RefreshEvent;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the {@link EtcdPropertySource} of the environment up to date, by watching its prefix from
+ * the revision it was read at, and refreshes the beans depending on the properties that changed.
+ *
+ * <p>Each change is applied to the property source as it is received, without reading the prefix
+ * again. The environment is then refreshed, and a {@link RefreshEvent} is published with only the
+ * properties whose value changed, so that only the beans of these properties are refreshed.
+ * Changes received while a refresh is running are applied by the next one.</p>
+ *
+ * <p>If the changes since the revision last seen have been compacted, the prefix is read again and
+ * watched from the revision it was read at, and the properties that changed meanwhile are
+ * refreshed.</p>
+ */
+@Singleton
+@Requires(classes = RefreshEvent.class)
+@Requires(property = ConfigurationClient.ENABLED, value = "true", defaultValue = "false")
+@Requires(property = EtcdConfigClientConfiguration.PREFIX + ".watch", notEquals = "false")
+public class EtcdConfigurationWatcher implements ApplicationEventListener<StartupEvent>, AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(EtcdConfigurationWatcher.class);
+
+  private final Environment environment;
+  private final ApplicationEventPublisher eventPublisher;
+  private final WatchService watchService;
+  private final AsyncKVService asyncKVService;
+  private final int pageSize;
+  private final AtomicBoolean refreshPending = new AtomicBoolean();
+  private final ExecutorService executor;
+  private volatile Subscription subscription;
+
+  /**
+   * Constructor.
+   * @param environment The environment to refresh
+   * @param eventPublisher The publisher of the refresh events
+   * @param config configuration to connect to the etcd server.
+   * @param clientFactory The factory holding the shared etcd clients
+   * @param configuration The configuration of the distributed configuration
+   */
+  @Inject
+  public EtcdConfigurationWatcher(Environment environment, ApplicationEventPublisher eventPublisher,
+                                  SingleEtcdFactoryConfig config, ClientFactory clientFactory,
+                                  EtcdConfigClientConfiguration configuration) {
+    this(environment, eventPublisher, new WatchService(clientFactory.etcdClient(config).getWatchClient()),
+        new AsyncKVService(clientFactory.etcdClient(config).getKVClient()), configuration);
+  }
+
+  /**
+   * Constructor.
+   * @param environment The environment to refresh
+   * @param eventPublisher The publisher of the refresh events
+   * @param watchService The service to watch the prefix with
+   * @param asyncKVService The service to read the prefix again with, once compacted
+   * @param configuration The configuration of the distributed configuration
+   */
+  public EtcdConfigurationWatcher(Environment environment, ApplicationEventPublisher eventPublisher,
+                                  WatchService watchService, AsyncKVService asyncKVService,
+                                  EtcdConfigClientConfiguration configuration) {
+    this.environment = environment;
+    this.eventPublisher = eventPublisher;
+    this.watchService = watchService;
+    this.asyncKVService = asyncKVService;
+    this.pageSize = configuration.getPageSize();
+    this.executor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "etcd-config-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @Override
+  public void onApplicationEvent(StartupEvent event) {
+    environment.getPropertySources().stream()
+        .filter(EtcdPropertySource.class::isInstance)
+        .map(EtcdPropertySource.class::cast)
+        .findFirst()
+        .ifPresent(this::watch);
+  }
+
+  /**
+   * Stops watching the configuration.
+   */
+  @PreDestroy
+  @Override
+  public void close() {
+    Subscription current = subscription;
+    if (current != null) {
+      current.cancel();
+    }
+    watchService.close();
+    executor.shutdownNow();
+  }
+
+  private void watch(EtcdPropertySource propertySource) {
+    watchService.watchPrefix(propertySource.getPrefix(), propertySource.getRevision() + 1)
+        .subscribe(new Subscriber<WatchEvent>() {
+          @Override
+          public void onSubscribe(Subscription s) {
+            subscription = s;
+            s.request(Long.MAX_VALUE);
+          }
+
+          @Override
+          public void onNext(WatchEvent watchEvent) {
+            if (propertySource.apply(watchEvent) && refreshPending.compareAndSet(false, true)) {
+              executor.execute(EtcdConfigurationWatcher.this::refresh);
+            }
+          }
+
+          @Override
+          public void onError(Throwable t) {
+            if (t instanceof CompactedException) {
+              LOG.warn("Changes of the configuration under {} were compacted, reading it again",
+                  propertySource.getName());
+              executor.execute(() -> reload(propertySource));
+              return;
+            }
+            LOG.error("Stopped watching the configuration under {}, restart the application to watch it again",
+                propertySource.getName(), t);
+          }
+
+          @Override
+          public void onComplete() {
+          }
+        });
+  }
+
+  private void reload(EtcdPropertySource propertySource) {
+    try {
+      KVScanner scanner = asyncKVService.scan(propertySource.getPrefix(), pageSize, false);
+      // reads the first page, and with it the revision
+      scanner.hasNext();
+      if (propertySource.reload(scanner, scanner.getRevision())) {
+        refresh();
+      }
+    } catch (RuntimeException e) {
+      LOG.error("Stopped watching the configuration under {}, restart the application to watch it again",
+          propertySource.getName(), e);
+      return;
+    }
+    watch(propertySource);
+  }
+
+  private void refresh() {
+    refreshPending.set(false);
+    Map<String, Object> changes = environment.refreshAndDiff();
+    if (!changes.isEmpty()) {
+      eventPublisher.publishEvent(new RefreshEvent(changes));
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.configuration;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.KeyValue;
+import io.etcd.jetcd.watch.WatchEvent;
+import io.micronaut.context.env.EnvironmentPropertySource;
+import io.micronaut.context.env.MapPropertySource;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The properties read from the keys under a prefix of etcd, kept up to date by applying the
+ * changes of the keys as they are watched.
+ *
+ * <p>The part of a key after the prefix is the name of the property, with {@code /} replaced by
+ * {@code .}; the value of the key is the value of the property, as UTF-8. The properties override
+ * those of the configuration files, but not the environment variables nor the system
+ * properties.</p>
+ */
+public class EtcdPropertySource extends MapPropertySource {
+
+  /**
+   * The order of the source, between the configuration files and the environment variables.
+   */
+  public static final int POSITION = EnvironmentPropertySource.POSITION - 50;
+
+  private final ByteSequence prefix;
+  private volatile long revision;
+  private final Map<String, Object> properties;
+
+  /**
+   * Constructor.
+   * @param prefix The prefix of the keys
+   * @param revision The revision the keys were read at
+   */
+  EtcdPropertySource(ByteSequence prefix, long revision) {
+    this(prefix, revision, new ConcurrentHashMap<>());
+  }
+
+  private EtcdPropertySource(ByteSequence prefix, long revision, Map<String, Object> properties) {
+    super("etcd-" + prefix.toString(StandardCharsets.UTF_8), properties);
+    this.prefix = prefix;
+    this.revision = revision;
+    this.properties = properties;
+  }
+
+  @Override
+  public int getOrder() {
+    return POSITION;
+  }
+
+  /**
+   * @return the prefix of the keys
+   */
+  public ByteSequence getPrefix() {
+    return prefix;
+  }
+
+  /**
+   * @return the revision the keys were last read at, the changes after it are to be applied
+   */
+  public long getRevision() {
+    return revision;
+  }
+
+  /**
+   * Sets the property of a key read from etcd.
+   * @param keyValue The key-value
+   */
+  void put(KeyValue keyValue) {
+    String name = propertyName(keyValue.getKey());
+    if (name != null) {
+      properties.put(name, keyValue.getValue().toString(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Applies the change of a key.
+   * @param event The watch event of the key
+   * @return whether a property changed
+   */
+  boolean apply(WatchEvent event) {
+    String name = propertyName(event.getKeyValue().getKey());
+    if (name == null) {
+      return false;
+    }
+    if (event.getEventType() == WatchEvent.EventType.DELETE) {
+      return properties.remove(name) != null;
+    }
+    String value = event.getKeyValue().getValue().toString(StandardCharsets.UTF_8);
+    return !value.equals(properties.put(name, value));
+  }
+
+  /**
+   * Replaces the properties with the keys read again, for instance once the changes since the last
+   * revision read have been compacted.
+   * @param keyValues The keys under the prefix
+   * @param revision The revision the keys were read at
+   * @return whether a property changed
+   */
+  boolean reload(Iterator<KeyValue> keyValues, long revision) {
+    Map<String, Object> reloaded = new HashMap<>();
+    keyValues.forEachRemaining(keyValue -> {
+      String name = propertyName(keyValue.getKey());
+      if (name != null) {
+        reloaded.put(name, keyValue.getValue().toString(StandardCharsets.UTF_8));
+      }
+    });
+    boolean changed = !reloaded.equals(properties);
+    properties.keySet().retainAll(reloaded.keySet());
+    properties.putAll(reloaded);
+    this.revision = revision;
+    return changed;
+  }
+
+  /**
+   * @param key A key under the prefix
+   * @return the name of its property, or {@code null} for the prefix itself and the keys ending
+   *     with {@code /}
+   */
+  private String propertyName(ByteSequence key) {
+    String name = key.substring(prefix.size()).toString(StandardCharsets.UTF_8);
+    if (name.isEmpty() || name.endsWith("/")) {
+      return null;
+    }
+    return name.replace('/', '.');
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.coordination;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.Election;
+import io.etcd.jetcd.election.CampaignResponse;
+import io.etcd.jetcd.election.LeaderKey;
+import io.micronaut.context.annotation.EachBean;
+import io.micronaut.context.annotation.Parameter;
+import io.micronaut.etcd.client.ClientFactory;
+import io.micronaut.etcd.config.EtcdFactoryConfig;
+import io.micronaut.etcd.lease.LeaseService;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import javax.inject.Inject;
+
+/**
+ * Service to elect a leader among the instances of an application with the Election API of etcd.
+ *
+ * <p>Candidates are queued by etcd in the order they campaigned, each one watching the key of the
+ * candidate before it, so when the leader resigns or its lease expires only the next candidate is
+ * woken up. Every campaign is held under the lease of
+ * {@link EtcdFactoryConfig#getSessionTtlSeconds()} shared through the {@link LeaseService}; if that
+ * lease expires, the leadership is lost. As etcd tells the candidates apart by their lease, the
+ * candidates of this instance in the same election are queued locally, and only the first one
+ * campaigns on etcd.</p>
+ *
+ * <p>One instance is created for each {@link EtcdFactoryConfig} bean.</p>
+ */
+@EachBean(EtcdFactoryConfig.class)
+public class ElectionService {
+
+  private final Election electionClient;
+  private final LeaseService leaseService;
+  private final long sessionTtlSeconds;
+  private final LocalMutex localMutex = new LocalMutex();
+
+  /**
+   * Constructor.
+   * @param config configuration to connect to the etcd server.
+   * @param clientFactory The factory holding the shared etcd clients
+   * @param leaseService The service holding the lease of the campaigns
+   */
+  @Inject
+  public ElectionService(EtcdFactoryConfig config, ClientFactory clientFactory,
+                         @Parameter LeaseService leaseService) {
+    this(clientFactory.etcdClient(config).getElectionClient(), leaseService, config.getSessionTtlSeconds());
+  }
+
+  /**
+   * Constructor.
+   * @param electionClient The jetcd Election client to use
+   * @param leaseService The service holding the lease of the campaigns
+   * @param sessionTtlSeconds The TTL in seconds of the lease of the campaigns
+   */
+  public ElectionService(Election electionClient, LeaseService leaseService, long sessionTtlSeconds) {
+    this.electionClient = electionClient;
+    this.leaseService = leaseService;
+    this.sessionTtlSeconds = sessionTtlSeconds;
+  }
+
+  /**
+   * Campaigns to be the leader of an election.
+   * @param election The name of the election
+   * @param proposal The value announced as leader, for instance the address of this instance
+   * @return A future completed once elected, with the key to pass to {@link #proclaim} and
+   * {@link #resign}
+   */
+  public CompletableFuture<LeaderKey> campaign(String election, String proposal) {
+    return campaign(ByteSequence.from(election, StandardCharsets.UTF_8),
+        ByteSequence.from(proposal, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Campaigns to be the leader of an election.
+   * @param election The name of the election
+   * @param proposal The value announced as leader, for instance the address of this instance
+   * @return A future completed once elected, with the key to pass to {@link #proclaim} and
+   * {@link #resign}
+   */
+  public CompletableFuture<LeaderKey> campaign(ByteSequence election, ByteSequence proposal) {
+    return localMutex.acquire(election, () -> leaseService.getLeaseId(sessionTtlSeconds)
+        .thenCompose(leaseId -> electionClient.campaign(election, leaseId, proposal))
+        .thenApply(CampaignResponse::getLeader), ElectionService::ownerKey);
+  }
+
+  /**
+   * Announces a new value as leader, without a new election.
+   * @param leaderKey The key returned by {@link #campaign}
+   * @param value The new value
+   * @return A future completed once the value is announced
+   */
+  public CompletableFuture<Void> proclaim(LeaderKey leaderKey, ByteSequence value) {
+    return electionClient.proclaim(leaderKey, value).thenApply(response -> null);
+  }
+
+  /**
+   * Gives the leadership up, letting the next candidate be elected.
+   * @param leaderKey The key returned by {@link #campaign}
+   * @return A future completed once resigned
+   */
+  public CompletableFuture<Void> resign(LeaderKey leaderKey) {
+    return electionClient.resign(leaderKey)
+        .whenComplete((response, throwable) -> localMutex.release(ownerKey(leaderKey)))
+        .thenApply(response -> null);
+  }
+
+  /**
+   * Gets the value announced by the current leader of an election.
+   * @param election The name of the election
+   * @return A future completed with the value of the leader, or failed with a
+   * {@link io.etcd.jetcd.common.exception.EtcdException} if there is no leader
+   */
+  public CompletableFuture<ByteSequence> leader(String election) {
+    return electionClient.leader(ByteSequence.from(election, StandardCharsets.UTF_8))
+        .thenApply(response -> response.getKv().getValue());
+  }
+
+  private static ByteSequence ownerKey(LeaderKey leaderKey) {
+    return ByteSequence.from(leaderKey.getKey());
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.coordination;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import io.micronaut.aop.Around;
+import io.micronaut.context.annotation.Type;
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Runs the annotated method holding an etcd lock, so it is not run concurrently by any other
+ * instance of the application. The lock is acquired with the {@link LockService}. A method
+ * returning a {@link java.util.concurrent.CompletionStage} holds the lock until it completes.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target({METHOD, TYPE})
+@Around
+@Type(EtcdLockInterceptor.class)
+public @interface EtcdLock {
+
+  /**
+   * @return The name of the lock
+   */
+  String value();
+
+  /**
+   * @return The name of the etcd configuration to lock with, the only one if empty
+   */
+  String config() default "";
+}
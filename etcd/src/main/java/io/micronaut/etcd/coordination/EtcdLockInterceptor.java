@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.coordination;
+
+import io.micronaut.aop.MethodInterceptor;
+import io.micronaut.aop.MethodInvocationContext;
+import io.micronaut.context.BeanContext;
+import io.micronaut.core.annotation.AnnotationValue;
+import io.micronaut.inject.qualifiers.Qualifiers;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import javax.inject.Singleton;
+
+/**
+ * Implements {@link EtcdLock}.
+ */
+@Singleton
+public class EtcdLockInterceptor implements MethodInterceptor<Object, Object> {
+
+  private final BeanContext beanContext;
+
+  /**
+   * Constructor.
+   * @param beanContext The context to look the {@link LockService} up in
+   */
+  public EtcdLockInterceptor(BeanContext beanContext) {
+    this.beanContext = beanContext;
+  }
+
+  @Override
+  public Object intercept(MethodInvocationContext<Object, Object> context) {
+    AnnotationValue<EtcdLock> etcdLock = context.getAnnotation(EtcdLock.class);
+    if (etcdLock == null) {
+      return context.proceed();
+    }
+    String name = etcdLock.stringValue().orElseThrow(() -> new IllegalStateException("No lock name"));
+    String config = etcdLock.stringValue("config").orElse("");
+    LockService lockService = config.isEmpty()
+        ? beanContext.getBean(LockService.class)
+        : beanContext.getBean(LockService.class, Qualifiers.byName(config));
+    if (CompletionStage.class.isAssignableFrom(context.getReturnType().getType())) {
+      return lockService.lock(name).thenCompose(key -> {
+        CompletionStage<?> result;
+        try {
+          result = (CompletionStage<?>) context.proceed();
+        } catch (RuntimeException e) {
+          lockService.unlock(key);
+          throw e;
+        }
+        CompletableFuture<Object> released = new CompletableFuture<>();
+        result.whenComplete((value, throwable) -> lockService.unlock(key).whenComplete((unlocked, t) -> {
+          if (throwable != null) {
+            released.completeExceptionally(throwable);
+          } else {
+            released.complete(value);
+          }
+        }));
+        return released;
+      });
+    }
+    return lockService.withLock(name, context::proceed);
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.coordination;
+
+import io.etcd.jetcd.ByteSequence;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Makes the callers of this instance take turns on a name before asking etcd for it.
+ *
+ * <p>etcd tells the holders of a lock, or the candidates of an election, apart by their key, made
+ * of the name and of their lease. The lease being shared, two callers of the same instance would
+ * get the same key, and both believe they hold the name; they are queued here instead.</p>
+ */
+final class LocalMutex {
+
+  private final Map<ByteSequence, CompletableFuture<Void>> lastTurns = new ConcurrentHashMap<>();
+  private final Map<ByteSequence, Turn> holders = new ConcurrentHashMap<>();
+
+  /**
+   * Waits for the previous holder of this instance to release the name, then acquires it from etcd.
+   * @param name The name to acquire
+   * @param acquire Acquires the name from etcd
+   * @param ownerKey The key owning the name once acquired, to pass to {@link #release(ByteSequence)}
+   * @param <T> The type of response of etcd
+   * @return A future completed with the response of etcd
+   */
+  <T> CompletableFuture<T> acquire(ByteSequence name, Supplier<CompletableFuture<T>> acquire,
+                                   Function<T, ByteSequence> ownerKey) {
+    Turn turn = new Turn(name);
+    CompletableFuture<Void> previous = lastTurns.put(name, turn.released);
+    CompletableFuture<Void> ready = previous != null ? previous : CompletableFuture.completedFuture(null);
+    return ready.thenCompose(ignored -> acquire.get()).whenComplete((response, throwable) -> {
+      if (throwable != null) {
+        turn.release();
+      } else {
+        holders.put(ownerKey.apply(response), turn);
+      }
+    });
+  }
+
+  /**
+   * Lets the next caller of this instance acquire the name. Must be called once etcd released it.
+   * @param ownerKey The key owning the name
+   */
+  void release(ByteSequence ownerKey) {
+    Turn turn = holders.remove(ownerKey);
+    if (turn != null) {
+      turn.release();
+    }
+  }
+
+  /**
+   * The turn of a caller on a name.
+   */
+  private final class Turn {
+    private final ByteSequence name;
+    private final CompletableFuture<Void> released = new CompletableFuture<>();
+
+    private Turn(ByteSequence name) {
+      this.name = name;
+    }
+
+    private void release() {
+      lastTurns.remove(name, released);
+      released.complete(null);
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.coordination;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.Lock;
+import io.etcd.jetcd.lock.LockResponse;
+import io.micronaut.context.annotation.EachBean;
+import io.micronaut.context.annotation.Parameter;
+import io.micronaut.etcd.client.ClientFactory;
+import io.micronaut.etcd.config.EtcdFactoryConfig;
+import io.micronaut.etcd.lease.LeaseService;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+import javax.inject.Inject;
+
+/**
+ * Service to acquire distributed locks with the Lock API of etcd.
+ *
+ * <p>Waiters are queued by etcd in the order they asked for the lock, each one watching the key of
+ * the waiter before it, so releasing a lock wakes up a single waiter and no client polls. Every
+ * lock is held under the lease of {@link EtcdFactoryConfig#getSessionTtlSeconds()} shared through
+ * the {@link LeaseService}; if that lease expires, the locks are released by etcd. As etcd tells
+ * the holders apart by their lease, the callers of this instance waiting for the same lock are
+ * queued locally, and only the first one waits for it on etcd.</p>
+ *
+ * <p>One instance is created for each {@link EtcdFactoryConfig} bean. Methods can also be guarded
+ * with {@link EtcdLock}.</p>
+ */
+@EachBean(EtcdFactoryConfig.class)
+public class LockService {
+
+  private final Lock lockClient;
+  private final LeaseService leaseService;
+  private final long sessionTtlSeconds;
+  private final LocalMutex localMutex = new LocalMutex();
+
+  /**
+   * Constructor.
+   * @param config configuration to connect to the etcd server.
+   * @param clientFactory The factory holding the shared etcd clients
+   * @param leaseService The service holding the lease of the locks
+   */
+  @Inject
+  public LockService(EtcdFactoryConfig config, ClientFactory clientFactory, @Parameter LeaseService leaseService) {
+    this(clientFactory.etcdClient(config).getLockClient(), leaseService, config.getSessionTtlSeconds());
+  }
+
+  /**
+   * Constructor.
+   * @param lockClient The jetcd Lock client to use
+   * @param leaseService The service holding the lease of the locks
+   * @param sessionTtlSeconds The TTL in seconds of the lease of the locks
+   */
+  public LockService(Lock lockClient, LeaseService leaseService, long sessionTtlSeconds) {
+    this.lockClient = lockClient;
+    this.leaseService = leaseService;
+    this.sessionTtlSeconds = sessionTtlSeconds;
+  }
+
+  /**
+   * Waits for a lock.
+   * @param name The name of the lock
+   * @return A future completed with the key owning the lock, to pass to {@link #unlock(ByteSequence)}
+   */
+  public CompletableFuture<ByteSequence> lock(String name) {
+    return lock(ByteSequence.from(name, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Waits for a lock.
+   * @param name The name of the lock
+   * @return A future completed with the key owning the lock, to pass to {@link #unlock(ByteSequence)}
+   */
+  public CompletableFuture<ByteSequence> lock(ByteSequence name) {
+    return localMutex.acquire(name, () -> leaseService.getLeaseId(sessionTtlSeconds)
+        .thenCompose(leaseId -> lockClient.lock(name, leaseId))
+        .thenApply(LockResponse::getKey), key -> key);
+  }
+
+  /**
+   * Releases a lock.
+   * @param key The key owning the lock, as returned by {@link #lock(String)}
+   * @return A future completed once the lock is released
+   */
+  public CompletableFuture<Void> unlock(ByteSequence key) {
+    return lockClient.unlock(key)
+        .whenComplete((response, throwable) -> localMutex.release(key))
+        .thenApply(response -> null);
+  }
+
+  /**
+   * Runs an action holding a lock, waiting for the lock first.
+   * @param name The name of the lock
+   * @param action The action to run
+   * @param <T> The type of result of the action
+   * @return The result of the action
+   * @throws LockException if the lock cannot be acquired
+   */
+  public <T> T withLock(String name, Supplier<T> action) {
+    CompletableFuture<ByteSequence> future = lock(name);
+    ByteSequence key;
+    try {
+      key = future.get();
+    } catch (InterruptedException e) {
+      // the lock may still be granted later, and must then be released
+      future.thenAccept(this::unlock);
+      Thread.currentThread().interrupt();
+      throw new LockException("Interrupted while waiting for lock " + name, e);
+    } catch (ExecutionException e) {
+      throw new LockException("Cannot acquire lock " + name, e.getCause());
+    }
+    try {
+      return action.get();
+    } finally {
+      unlock(key);
+    }
+  }
+}
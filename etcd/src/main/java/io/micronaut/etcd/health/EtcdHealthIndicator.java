@@ -0,0 +1,233 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.health;
+
+import io.etcd.jetcd.Maintenance;
+import io.etcd.jetcd.maintenance.StatusResponse;
+import io.micronaut.context.annotation.EachBean;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.core.async.publisher.Publishers;
+import io.micronaut.core.util.StringUtils;
+import io.micronaut.etcd.client.ClientFactory;
+import io.micronaut.etcd.config.EtcdFactoryConfig;
+import io.micronaut.health.HealthStatus;
+import io.micronaut.management.endpoint.health.HealthEndpoint;
+import io.micronaut.management.health.indicator.HealthIndicator;
+import io.micronaut.management.health.indicator.HealthResult;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import org.reactivestreams.Publisher;
+
+/**
+ * Health indicator querying the status of every endpoint of an etcd configuration with the
+ * Maintenance API.
+ *
+ * <p>The cluster is {@link HealthStatus#UP} when at least one endpoint answers and reports a
+ * leader, {@link HealthStatus#DOWN} otherwise. The details give, for each endpoint, its latency,
+ * database size, raft index and how far its raft index lags behind the most advanced endpoint, so
+ * a degraded member shows before the whole cluster is down.</p>
+ *
+ * <p>jetcd opens a new connection to query the status of an endpoint, so a result is reused for
+ * {@link EtcdFactoryConfig#getHealthCacheTtlMs()}, and concurrent probes share the check in
+ * progress. It can be disabled with {@code endpoints.health.etcd.enabled: false}.</p>
+ *
+ * <p>A configuration connecting to a local server, which does not serve the Maintenance API, is
+ * reported {@link HealthStatus#UP} without querying it.</p>
+ */
+@EachBean(EtcdFactoryConfig.class)
+@Requires(classes = HealthIndicator.class)
+@Requires(beans = HealthEndpoint.class)
+@Requires(property = HealthEndpoint.PREFIX + ".etcd.enabled", notEquals = StringUtils.FALSE)
+public class EtcdHealthIndicator implements HealthIndicator, AutoCloseable {
+
+  /**
+   * The name of the health result of the default configuration.
+   */
+  public static final String NAME = "etcd";
+
+  private final Maintenance maintenanceClient;
+  private final List<URI> endpoints;
+  private final String name;
+  private final long cacheTtlMs;
+  private final long timeoutMs;
+  private final ScheduledExecutorService scheduler;
+
+  private CompletableFuture<HealthResult> result;
+  private long resultTime;
+
+  /**
+   * Constructor.
+   * @param config configuration to connect to the etcd server.
+   * @param clientFactory The factory holding the shared etcd clients
+   */
+  @Inject
+  public EtcdHealthIndicator(EtcdFactoryConfig config, ClientFactory clientFactory) {
+    this(config.isLocalServer() ? null : clientFactory.etcdClient(config).getMaintenanceClient(),
+        endpoints(clientFactory.getEndpoints(config)),
+        "default".equals(config.getName()) ? NAME : NAME + "-" + config.getName(),
+        config.getHealthCacheTtlMs(), config.getHealthTimeoutMs());
+  }
+
+  /**
+   * Constructor.
+   * @param maintenanceClient The maintenance client used to query the endpoints, or {@code null}
+   *                          for a local server, which is not queried
+   * @param endpoints The endpoints to query
+   * @param name The name of the health result
+   * @param cacheTtlMs The time in milliseconds a result is reused
+   * @param timeoutMs The time in milliseconds to wait for the status of an endpoint
+   */
+  EtcdHealthIndicator(Maintenance maintenanceClient, List<URI> endpoints, String name, long cacheTtlMs,
+                      long timeoutMs) {
+    this.maintenanceClient = maintenanceClient;
+    this.endpoints = endpoints;
+    this.name = name;
+    this.cacheTtlMs = cacheTtlMs;
+    this.timeoutMs = timeoutMs;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "etcd-health-timeout");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @Override
+  public Publisher<HealthResult> getResult() {
+    return Publishers.fromCompletableFuture(this::check);
+  }
+
+  /**
+   * Stops the timeout thread.
+   */
+  @PreDestroy
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+  }
+
+  /**
+   * @return the result of the last check if it is recent or still in progress, else a new check
+   */
+  synchronized CompletableFuture<HealthResult> check() {
+    if (maintenanceClient == null) {
+      Map<String, Object> details = new LinkedHashMap<>();
+      details.put("localServer", endpoints.get(0).toString());
+      details.put("note", "not queried, the local server does not serve the Maintenance API");
+      return CompletableFuture.completedFuture(HealthResult.builder(name, HealthStatus.UP).details(details).build());
+    }
+    long now = System.nanoTime();
+    if (result == null || (result.isDone() && now - resultTime >= TimeUnit.MILLISECONDS.toNanos(cacheTtlMs))) {
+      List<CompletableFuture<EndpointStatus>> statuses = new ArrayList<>(endpoints.size());
+      for (URI endpoint : endpoints) {
+        statuses.add(status(endpoint));
+      }
+      result = CompletableFuture.allOf(statuses.toArray(new CompletableFuture<?>[0]))
+          .thenApply(done -> toResult(statuses));
+      resultTime = now;
+    }
+    return result;
+  }
+
+  private CompletableFuture<EndpointStatus> status(URI endpoint) {
+    long start = System.nanoTime();
+    CompletableFuture<EndpointStatus> status = new CompletableFuture<>();
+    try {
+      maintenanceClient.statusMember(endpoint).whenComplete((response, throwable) ->
+          status.complete(new EndpointStatus(endpoint, response, throwable, System.nanoTime() - start)));
+    } catch (RuntimeException e) {
+      status.complete(new EndpointStatus(endpoint, null, e, System.nanoTime() - start));
+    }
+    ScheduledFuture<?> timeout = scheduler.schedule(() -> status.complete(new EndpointStatus(endpoint, null,
+        new TimeoutException("No status within " + timeoutMs + "ms"), System.nanoTime() - start)),
+        timeoutMs, TimeUnit.MILLISECONDS);
+    status.whenComplete((response, throwable) -> timeout.cancel(false));
+    return status;
+  }
+
+  private HealthResult toResult(List<CompletableFuture<EndpointStatus>> futures) {
+    List<EndpointStatus> statuses = new ArrayList<>(futures.size());
+    long maxRaftIndex = 0;
+    boolean leader = false;
+    for (CompletableFuture<EndpointStatus> future : futures) {
+      EndpointStatus status = future.join();
+      statuses.add(status);
+      if (status.response != null) {
+        maxRaftIndex = Math.max(maxRaftIndex, status.response.getRaftIndex());
+        leader |= status.response.getLeader() != 0;
+      }
+    }
+    Map<String, Object> endpointDetails = new LinkedHashMap<>();
+    for (EndpointStatus status : statuses) {
+      Map<String, Object> details = new LinkedHashMap<>();
+      details.put("latencyMs", TimeUnit.NANOSECONDS.toMillis(status.latencyNanos));
+      if (status.response != null) {
+        details.put("status", HealthStatus.UP.getName());
+        details.put("version", status.response.getVersion());
+        details.put("dbSize", status.response.getDbSize());
+        details.put("leader", status.response.getLeader());
+        details.put("raftTerm", status.response.getRaftTerm());
+        details.put("raftIndex", status.response.getRaftIndex());
+        details.put("raftIndexLag", maxRaftIndex - status.response.getRaftIndex());
+      } else {
+        details.put("status", HealthStatus.DOWN.getName());
+        details.put("error", String.valueOf(status.error));
+      }
+      endpointDetails.put(status.endpoint.toString(), details);
+    }
+    Map<String, Object> details = new LinkedHashMap<>();
+    details.put("leader", leader);
+    details.put("endpoints", endpointDetails);
+    return HealthResult.builder(name, leader ? HealthStatus.UP : HealthStatus.DOWN)
+        .details(details)
+        .build();
+  }
+
+  private static List<URI> endpoints(String[] configured) {
+    List<URI> endpoints = new ArrayList<>();
+    for (String endpoint : configured) {
+      endpoints.add(URI.create(endpoint.trim()));
+    }
+    return endpoints;
+  }
+
+  /**
+   * The status of an endpoint, or the reason it could not be read.
+   */
+  private static final class EndpointStatus {
+    private final URI endpoint;
+    private final StatusResponse response;
+    private final Throwable error;
+    private final long latencyNanos;
+
+    private EndpointStatus(URI endpoint, StatusResponse response, Throwable error, long latencyNanos) {
+      this.endpoint = endpoint;
+      this.response = response;
+      this.error = error;
+      this.latencyNanos = latencyNanos;
+    }
+  }
+}
@@ -0,0 +1,901 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import com.google.protobuf.UnsafeByteOperations;
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.Client;
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.KeyValue;
+import io.etcd.jetcd.kv.DeleteResponse;
+import io.etcd.jetcd.kv.GetResponse;
+import io.etcd.jetcd.kv.PutResponse;
+import io.etcd.jetcd.op.Cmp;
+import io.etcd.jetcd.options.DeleteOption;
+import io.etcd.jetcd.options.GetOption;
+import io.etcd.jetcd.options.PutOption;
+import io.grpc.Context;
+import io.micronaut.context.annotation.EachBean;
+import io.micronaut.etcd.client.ClientFactory;
+import io.micronaut.etcd.codec.EtcdValueCodec;
+import io.micronaut.etcd.codec.ValueCodecs;
+import io.micronaut.etcd.config.EtcdFactoryConfig;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongConsumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+/**
+ * Non-blocking service to work with the key/value api of etcd. Every operation returns a
+ * {@link CompletableFuture} that is completed by the jetcd client, so no caller thread is parked
+ * while waiting for the etcd server.
+ *
+ * <p>One instance is created for each {@link EtcdFactoryConfig} bean, sharing the client built by
+ * {@link ClientFactory}.</p>
+ *
+ * <p>When {@link EtcdFactoryConfig#getBatchWindowMs()} is set, puts and gets are not sent one by
+ * one but batched into etcd transactions. When {@link EtcdFactoryConfig#getCachePrefix()} is set,
+ * single key gets under that prefix are answered from a local {@link KVCache}. When
+ * {@link EtcdFactoryConfig#isCoalesceGets()} is set, concurrent gets of the same key share one
+ * request, see {@link KVCoalescer}. When {@link EtcdFactoryConfig#getConcurrencyLimit()} is set,
+ * the requests in flight are bounded by an adaptive {@link KVLimiter}, and the requests beyond it
+ * fail with a {@link KVSaturatedException}. When {@link EtcdFactoryConfig#isSerializableReads()} is
+ * set, single key gets are serializable and sent to the fastest member, see {@link KVReadRouter}.</p>
+ *
+ * <p>Requests are sent in the gRPC {@link io.grpc.Context} of the caller, so a deadline set on it
+ * becomes the deadline of the requests, and cancelling it cancels them. When
+ * {@link EtcdFactoryConfig#getRequestTimeoutMs()} is set, it is the deadline of the requests
+ * without a shorter one.</p>
+ *
+ * <p>Keys and values passed as byte arrays or {@link ByteBuffer}s are wrapped, not copied, so they
+ * must not be modified until the returned future completes. Strings are encoded as UTF-8, on each
+ * call unless {@link EtcdFactoryConfig#getKeyCacheSize()} is set. A key used repeatedly can rather
+ * be encoded once into an {@link EtcdKey} or a {@link ByteSequence} and passed as such.</p>
+ *
+ * <p>Values of other types are encoded and decoded by the {@link EtcdValueCodec} beans, see
+ * {@link ValueCodecs}.</p>
+ */
+@EachBean(EtcdFactoryConfig.class)
+public class AsyncKVService implements AutoCloseable {
+
+  /**
+   * The number of times {@link #update(ByteSequence, UnaryOperator)} tries to write a value
+   * before giving up.
+   */
+  public static final int MAX_UPDATE_ATTEMPTS = 10;
+
+  /**
+   * The name of the etcd configuration of the service.
+   */
+  private final String name;
+
+  /**
+   * The KV Client from jetcd.
+   */
+  private final KV kvClient;
+
+  /**
+   * The batcher of puts, gets and deletes, {@code null} if batching is disabled.
+   */
+  private final KVBatcher batcher;
+
+  /**
+   * The local cache of values, {@code null} if the cache is disabled.
+   */
+  private final KVCache cache;
+
+  /**
+   * The coalescer of concurrent gets, {@code null} if coalescing is disabled.
+   */
+  private final KVCoalescer coalescer;
+
+  /**
+   * The limiter of the requests in flight, {@code null} if they are not limited.
+   */
+  private final KVLimiter limiter;
+
+  /**
+   * The router of serializable gets, {@code null} if gets are linearizable.
+   */
+  private final KVReadRouter router;
+
+  /**
+   * The cache of encoded string keys, {@code null} if keys are encoded on each call.
+   */
+  private final KVKeyCache keyCache;
+
+  /**
+   * The deadline of each request in milliseconds, {@code null} if requests have no deadline.
+   */
+  private final Long requestTimeoutMs;
+
+  /**
+   * The maximum number of operations, size in bytes and transactions in flight of the bulk puts
+   * and deletes.
+   */
+  private final int bulkMaxOperations;
+  private final int bulkMaxBytes;
+  private final int bulkParallelism;
+
+  /**
+   * The codecs of the typed values.
+   */
+  private final ValueCodecs codecs;
+
+  /**
+   * The factory created by this service for its own etcd client, closed with the service, or null
+   * if the client is shared.
+   */
+  private final ClientFactory ownedClientFactory;
+
+  /**
+   * Constructor. The service gets its own etcd client, which is not managed by the application
+   * context and is closed with the service; inject the service instead to share the client of the
+   * configuration.
+   * @param config configuration to connect to the etcd server.
+   */
+  public AsyncKVService(EtcdFactoryConfig config) {
+    this(config, new ClientFactory(), ValueCodecs.defaultCodecs(), true);
+  }
+
+  /**
+   * Constructor.
+   * @param config configuration to connect to the etcd server.
+   * @param clientFactory The factory holding the shared etcd clients
+   */
+  public AsyncKVService(EtcdFactoryConfig config, ClientFactory clientFactory) {
+    this(config, clientFactory, ValueCodecs.defaultCodecs());
+  }
+
+  /**
+   * Constructor.
+   * @param config configuration to connect to the etcd server.
+   * @param clientFactory The factory holding the shared etcd clients
+   * @param codecs The codecs of the typed values
+   */
+  @Inject
+  public AsyncKVService(EtcdFactoryConfig config, ClientFactory clientFactory, List<EtcdValueCodec> codecs) {
+    this(config, clientFactory, codecs, false);
+  }
+
+  /**
+   * Constructor.
+   * @param config configuration to connect to the etcd server.
+   * @param clientFactory The factory holding the etcd clients
+   * @param codecs The codecs of the typed values
+   * @param ownsClientFactory Whether the factory was created for this service alone
+   */
+  private AsyncKVService(EtcdFactoryConfig config, ClientFactory clientFactory, List<EtcdValueCodec> codecs,
+      boolean ownsClientFactory) {
+    this.name = config.getName();
+    Client client = clientFactory.etcdClient(config);
+    if (config.getConcurrencyLimit() != null) {
+      this.limiter = new KVLimiter(config.getConcurrencyLimit(), config.getMaxConcurrencyLimit(),
+          config.getReadConcurrencyShare());
+      this.kvClient = new LimitedKV(client.getKVClient(), limiter);
+    } else {
+      this.limiter = null;
+      this.kvClient = client.getKVClient();
+    }
+    if (config.getBatchWindowMs() != null) {
+      this.batcher = new KVBatcher(kvClient, config.getBatchWindowMs(), config.getBatchMaxOperations());
+    } else {
+      this.batcher = null;
+    }
+    if (config.getCachePrefix() != null) {
+      this.cache = new KVCache(kvClient, client.getWatchClient(),
+          ByteSequence.from(config.getCachePrefix(), StandardCharsets.UTF_8), config.getCacheMaxSize());
+    } else {
+      this.cache = null;
+    }
+    this.coalescer = config.isCoalesceGets() ? new KVCoalescer(config.getCoalesceTtlMs()) : null;
+    if (config.isSerializableReads()) {
+      Map<String, KV> endpointClients = new LinkedHashMap<>();
+      String[] endpoints = clientFactory.getEndpoints(config);
+      if (config.isDiscovery() || config.isLocalServer() || endpoints.length == 1) {
+        endpointClients.put(String.join(",", endpoints), kvClient);
+      } else {
+        for (String endpoint : endpoints) {
+          KV endpointClient = clientFactory.etcdClient(config, endpoint).getKVClient();
+          endpointClients.put(endpoint, limiter != null ? new LimitedKV(endpointClient, limiter) : endpointClient);
+        }
+      }
+      this.router = new KVReadRouter(endpointClients, kvClient, config.getHedgeReadsPercentile());
+    } else {
+      this.router = null;
+    }
+    this.keyCache = config.getKeyCacheSize() > 0 ? new KVKeyCache(config.getKeyCacheSize()) : null;
+    this.requestTimeoutMs = config.getRequestTimeoutMs();
+    this.bulkMaxOperations = config.getBatchMaxOperations();
+    this.bulkMaxBytes = config.getMaxInboundMessageSize() != null
+        ? Math.min(config.getBulkMaxRequestBytes(), config.getMaxInboundMessageSize()) : config.getBulkMaxRequestBytes();
+    this.bulkParallelism = config.getBulkParallelism();
+    this.codecs = new ValueCodecs(codecs, config.getCompressionThreshold());
+    this.ownedClientFactory = ownsClientFactory ? clientFactory : null;
+  }
+
+  /**
+   * Constructor.
+   * @param kvClient The jetcd KV client to use
+   */
+  public AsyncKVService(KV kvClient) {
+    this.name = EtcdFactoryConfig.DEFAULT_NAME;
+    this.kvClient = kvClient;
+    this.batcher = null;
+    this.cache = null;
+    this.coalescer = null;
+    this.limiter = null;
+    this.router = null;
+    this.keyCache = null;
+    this.requestTimeoutMs = null;
+    this.bulkMaxOperations = EtcdFactoryConfig.DEFAULT_MAX_TXN_OPERATIONS;
+    this.bulkMaxBytes = EtcdFactoryConfig.DEFAULT_BULK_MAX_REQUEST_BYTES;
+    this.bulkParallelism = EtcdFactoryConfig.DEFAULT_BULK_PARALLELISM;
+    this.codecs = new ValueCodecs(ValueCodecs.defaultCodecs(), null);
+    this.ownedClientFactory = null;
+  }
+
+  /**
+   * @return the name of the etcd configuration of the service
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the local cache of values, with its hit and miss counts, or {@code null} if the cache
+   * is disabled.
+   */
+  public KVCache getCache() {
+    return cache;
+  }
+
+  /**
+   * @return the coalescer of concurrent gets, with its counts of gets sent and coalesced, or
+   * {@code null} if coalescing is disabled.
+   */
+  public KVCoalescer getCoalescer() {
+    return coalescer;
+  }
+
+  /**
+   * @return the limiter of the requests in flight, with its rejection counts, or {@code null} if
+   * they are not limited.
+   */
+  public KVLimiter getLimiter() {
+    return limiter;
+  }
+
+  /**
+   * @return the router of serializable gets, with the latency of each endpoint, or {@code null} if
+   * gets are linearizable.
+   */
+  public KVReadRouter getRouter() {
+    return router;
+  }
+
+  /**
+   * @return the deadline of each request in milliseconds, or {@code null} if requests have no
+   * deadline
+   */
+  Long getRequestTimeoutMs() {
+    return requestTimeoutMs;
+  }
+
+  /**
+   * @return the codecs of the typed values
+   */
+  public ValueCodecs getCodecs() {
+    return codecs;
+  }
+
+  /**
+   * Get a value from a key.
+   * @param key Key to search for
+   * @param getOption {@link GetOption} for the GET request
+   * @return A future completed with the value as byte array, or {@code null} if the key does not exist
+   */
+  public CompletableFuture<byte[]> get(byte[] key, GetOption getOption) {
+    return get(wrap(key), getOption).thenApply(AsyncKVService::toBytes);
+  }
+
+  /**
+   * Get a value from a key.
+   * @param key Key to search for
+   * @return A future completed with the value as byte array, or {@code null} if the key does not exist
+   */
+  public CompletableFuture<byte[]> get(byte[] key) {
+    return get(key, GetOption.DEFAULT);
+  }
+
+  /**
+   * Get a value from a key.
+   * @param key Key to search for
+   * @param getOption {@link GetOption} for the GET request
+   * @return A future completed with the value as byte array, or {@code null} if the key does not exist
+   */
+  public CompletableFuture<byte[]> get(String key, GetOption getOption) {
+    return get(key(key), getOption).thenApply(AsyncKVService::toBytes);
+  }
+
+  /**
+   * Get a value from a key.
+   * @param key Key to search for
+   * @return A future completed with the value as byte array, or {@code null} if the key does not exist
+   */
+  public CompletableFuture<byte[]> get(String key) {
+    return get(key, GetOption.DEFAULT);
+  }
+
+  /**
+   * Get a value from a key, without copying it.
+   * @param key Key to search for
+   * @return A future completed with the value, or {@code null} if the key does not exist
+   */
+  public CompletableFuture<ByteSequence> get(ByteSequence key) {
+    return get(key, GetOption.DEFAULT);
+  }
+
+  /**
+   * Get a value from a key. The value is copied once into the returned buffer, which is the only
+   * copy made, as jetcd does not expose the bytes it received.
+   * @param key Key to search for
+   * @return A future completed with the value in a read-only buffer, or {@code null} if the key
+   * does not exist
+   */
+  public CompletableFuture<ByteBuffer> get(ByteBuffer key) {
+    return get(wrap(key), GetOption.DEFAULT).thenApply(value -> value == null
+        ? null : ByteBuffer.wrap(value.getBytes()).asReadOnlyBuffer());
+  }
+
+  /**
+   * Gets information from etcd based on the key provided.
+   * @param key The key used to get a value
+   * @param getOption Options for GET action
+   * @return A future completed with the {@link ByteSequence} value, or {@code null} if the key does not exist
+   */
+  public CompletableFuture<ByteSequence> get(ByteSequence key, GetOption getOption) {
+    if (cache != null && cache.covers(key, getOption)) {
+      return cache.get(key, () -> sendGet(key, getOption));
+    }
+    return sendGet(key, getOption).thenApply(AsyncKVService::firstValue);
+  }
+
+  /**
+   * Gets a value, decoded by the codec of its type.
+   * @param key The key used to get a value
+   * @param type The type of the value
+   * @param <T> The type of the value
+   * @return A future completed with the value, or {@code null} if the key does not exist
+   */
+  public <T> CompletableFuture<T> get(String key, Class<T> type) {
+    return get(key(key), type);
+  }
+
+  /**
+   * Gets a value, decoded by the codec of its type.
+   * @param key The key used to get a value
+   * @param type The type of the value
+   * @param <T> The type of the value
+   * @return A future completed with the value, or {@code null} if the key does not exist
+   */
+  public <T> CompletableFuture<T> get(ByteSequence key, Class<T> type) {
+    return get(key).thenApply(value -> codecs.decode(value, type));
+  }
+
+  /**
+   * Get a value from a key encoded beforehand, without copying it.
+   * @param key Key to search for
+   * @return A future completed with the value, or {@code null} if the key does not exist
+   */
+  public CompletableFuture<ByteSequence> get(EtcdKey key) {
+    return get(key.getBytes(), GetOption.DEFAULT);
+  }
+
+  /**
+   * Gets a value from a key encoded beforehand, decoded by the codec of its type.
+   * @param key The key used to get a value
+   * @param type The type of the value
+   * @param <T> The type of the value
+   * @return A future completed with the value, or {@code null} if the key does not exist
+   */
+  public <T> CompletableFuture<T> get(EtcdKey key, Class<T> type) {
+    return get(key.getBytes(), type);
+  }
+
+  /**
+   * Inserts key-value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @return A future completed with the previous key-pair value as byte array
+   */
+  public CompletableFuture<byte[]> put(byte[] key, byte[] value) {
+    return put(key, value, PutOption.DEFAULT);
+  }
+
+  /**
+   * Inserts key-value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @param putOption {@link PutOption} The options used to put the key/value
+   * @return A future completed with the previous key-pair value as byte array
+   */
+  public CompletableFuture<byte[]> put(byte[] key, byte[] value, PutOption putOption) {
+    return put(wrap(key), wrap(value), putOption);
+  }
+
+  /**
+   * Inserts key-value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @return A future completed with the previous key-pair value as byte array
+   */
+  public CompletableFuture<byte[]> put(String key, byte[] value) {
+    return put(key(key), wrap(value), PutOption.DEFAULT);
+  }
+
+  /**
+   * Inserts key-value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @param putOption {@link PutOption} The options used to put the key/value
+   * @return A future completed with the previous key-pair value as byte array
+   */
+  public CompletableFuture<byte[]> put(String key, byte[] value, PutOption putOption) {
+    return put(key(key), wrap(value), putOption);
+  }
+
+  /**
+   * Inserts key-value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @return A future completed with the previous key-pair value as byte array
+   */
+  public CompletableFuture<byte[]> put(String key, String value) {
+    return put(key(key), encode(value), PutOption.DEFAULT);
+  }
+
+  /**
+   * Inserts key-value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @param putOption {@link PutOption} The options used to put the key/value
+   * @return A future completed with the previous key-pair value as byte array
+   */
+  public CompletableFuture<byte[]> put(String key, String value, PutOption putOption) {
+    return put(key(key), encode(value), putOption);
+  }
+
+  /**
+   * Inserts key-value, without copying the key nor the value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @return A future completed with the previous key-pair value as byte array
+   */
+  public CompletableFuture<byte[]> put(ByteSequence key, ByteSequence value) {
+    return put(key, value, PutOption.DEFAULT);
+  }
+
+  /**
+   * Inserts key-value, without copying the key nor the value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @return A future completed with the previous key-pair value as byte array
+   */
+  public CompletableFuture<byte[]> put(ByteBuffer key, ByteBuffer value) {
+    return put(wrap(key), wrap(value), PutOption.DEFAULT);
+  }
+
+  /**
+   * Inserts key-value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @param putOption {@link PutOption} The options used to put the key/value
+   * @return A future completed with the previous key-pair value as byte array, which is only
+   * returned, and copied, if requested with {@link PutOption.Builder#withPrevKV()}
+   */
+  public CompletableFuture<byte[]> put(ByteSequence key, ByteSequence value, PutOption putOption) {
+    CompletableFuture<PutResponse> response = batcher != null
+        ? batcher.put(key, value, putOption) : kvClient.put(key, value, putOption);
+    if (cache != null) {
+      response = response.thenApply(putResponse -> {
+        cache.written(key, value, putResponse.getHeader().getRevision());
+        return putResponse;
+      });
+    }
+    return response
+        .thenApply(AsyncKVService::previousValue)
+        .thenApply(AsyncKVService::toBytes);
+  }
+
+  /**
+   * Puts a value, encoded by the codec of its type.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @param <T> The type of the value
+   * @return A future completed once the value is stored
+   */
+  public <T> CompletableFuture<Void> put(String key, T value) {
+    return put(key(key), value);
+  }
+
+  /**
+   * Puts a value, encoded by the codec of its type.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @param <T> The type of the value
+   * @return A future completed once the value is stored
+   */
+  public <T> CompletableFuture<Void> put(ByteSequence key, T value) {
+    return put(key, codecs.encode(value), PutOption.DEFAULT).thenApply(previous -> null);
+  }
+
+  /**
+   * Inserts key-value, with a key encoded beforehand, without copying the key nor the value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @return A future completed with the previous key-pair value as byte array
+   */
+  public CompletableFuture<byte[]> put(EtcdKey key, ByteSequence value) {
+    return put(key.getBytes(), value, PutOption.DEFAULT);
+  }
+
+  /**
+   * Puts a value, encoded by the codec of its type, with a key encoded beforehand.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @param <T> The type of the value
+   * @return A future completed once the value is stored
+   */
+  public <T> CompletableFuture<Void> put(EtcdKey key, T value) {
+    return put(key.getBytes(), value);
+  }
+
+  /**
+   * Deletes a key-value.
+   * @param key The key to be deleted on etcd cluster
+   * @return A future completed with the number of key-value elements deleted
+   */
+  public CompletableFuture<Long> delete(String key) {
+    return delete(key, DeleteOption.DEFAULT);
+  }
+
+  /**
+   * Deletes a key-value with the possibility to provide deletion options.
+   * @param key The key to be deleted on etcd cluster
+   * @param deleteOption {@link DeleteOption} Deletion options
+   * @return A future completed with the number of key-value elements deleted
+   */
+  public CompletableFuture<Long> delete(String key, DeleteOption deleteOption) {
+    return delete(key(key), deleteOption);
+  }
+
+  /**
+   * Deletes a key-value.
+   * @param key The key to be deleted on etcd cluster
+   * @return A future completed with the number of key-value elements deleted
+   */
+  public CompletableFuture<Long> delete(ByteSequence key) {
+    return delete(key, DeleteOption.DEFAULT);
+  }
+
+  /**
+   * Deletes a key-value with the possibility to provide deletion options.
+   * @param key The key to be deleted on etcd cluster
+   * @param deleteOption {@link DeleteOption} Deletion options
+   * @return A future completed with the number of key-value elements deleted
+   */
+  public CompletableFuture<Long> delete(ByteSequence key, DeleteOption deleteOption) {
+    CompletableFuture<DeleteResponse> response = batcher != null
+        ? batcher.delete(key, deleteOption) : kvClient.delete(key, deleteOption);
+    return response.thenApply(deleteResponse -> {
+      if (cache != null && deleteOption == DeleteOption.DEFAULT) {
+        cache.written(key, null, deleteResponse.getHeader().getRevision());
+      }
+      return deleteResponse.getDeleted();
+    });
+  }
+
+  /**
+   * Deletes a key-value, with a key encoded beforehand.
+   * @param key The key to be deleted on etcd cluster
+   * @return A future completed with the number of key-value elements deleted
+   */
+  public CompletableFuture<Long> delete(EtcdKey key) {
+    return delete(key.getBytes(), DeleteOption.DEFAULT);
+  }
+
+  /**
+   * Counts the keys under a prefix, without reading them.
+   * @param prefix The prefix of the keys to count
+   * @return A future completed with the number of keys
+   */
+  public CompletableFuture<Long> count(String prefix) {
+    return count(key(prefix));
+  }
+
+  /**
+   * Counts the keys under a prefix, without reading them.
+   * @param prefix The prefix of the keys to count
+   * @return A future completed with the number of keys
+   */
+  public CompletableFuture<Long> count(ByteSequence prefix) {
+    GetOption getOption = GetOption.newBuilder().withPrefix(prefix).withCountOnly(true).build();
+    return kvClient.get(prefix, getOption).thenApply(GetResponse::getCount);
+  }
+
+  /**
+   * Iterates over the keys under a prefix, reading them one page at a time at the revision of the
+   * first page. Each call to {@link Iterator#hasNext()} that needs a new page blocks until it is
+   * received; the page after it is requested in the meantime.
+   * @param prefix The prefix of the keys to iterate over
+   * @param pageSize The maximum number of keys read at once
+   * @param keysOnly Whether to read only the keys, without the values
+   * @return An iterator of the key-values, in key order
+   */
+  public KVScanner scan(ByteSequence prefix, int pageSize, boolean keysOnly) {
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("pageSize must be positive");
+    }
+    return new KVScanner(kvClient, prefix, pageSize, keysOnly);
+  }
+
+  /**
+   * Starts a transaction. Puts and deletes of single keys committed through it update the local
+   * cache, if any; they are not batched.
+   * @return A builder of the transaction
+   */
+  public KVTransaction transaction() {
+    return new KVTransaction(kvClient, cache);
+  }
+
+  /**
+   * Updates the value of a key optimistically: the new value computed from the current one is
+   * written only if the key was not modified in between, else the function is applied again to the
+   * value read back by the same transaction, after a random delay growing with the number of
+   * conflicts. Without conflict, the update costs a get, answered by the local cache if it covers
+   * the key, and one transaction. Every attempt is sent in the gRPC context of the caller, and so
+   * bounded by its deadline.
+   * @param key The key to update
+   * @param function Computes the new value from the current one, {@code null} meaning the key is
+   *                 absent, respectively to be deleted. It may be applied several times.
+   * @return A future completed with the value written, or failed with a
+   *     {@link ConcurrentModificationException} if the key kept being modified concurrently
+   */
+  public CompletableFuture<ByteSequence> update(ByteSequence key, UnaryOperator<ByteSequence> function) {
+    Context caller = Context.current();
+    return get(key).thenCompose(current -> update(key, function, current, 0, caller));
+  }
+
+  /**
+   * Puts many keys, in transactions sent in parallel.
+   * @param values The keys and values to put
+   * @return A future completed with the number of keys put and the chunks that failed
+   * @see #putAll(Stream, LongConsumer)
+   */
+  public CompletableFuture<KVBulkResult> putAll(Map<ByteSequence, ByteSequence> values) {
+    return putAll(values.entrySet().stream(), null);
+  }
+
+  /**
+   * Puts many keys, in transactions of at most {@link EtcdFactoryConfig#getBatchMaxOperations()}
+   * keys and {@link EtcdFactoryConfig#getBulkMaxRequestBytes()} bytes, keeping
+   * {@link EtcdFactoryConfig#getBulkParallelism()} of them in flight. The entries are read as the
+   * transactions are sent, so the stream may be larger than memory. The transactions that fail do
+   * not stop the others, and are reported in the result.
+   * @param entries The keys and values to put
+   * @param progress Called with the number of keys done so far each time a transaction completes,
+   *                 or {@code null}
+   * @return A future completed with the number of keys put and the chunks that failed, or failed
+   * if the stream failed
+   */
+  public CompletableFuture<KVBulkResult> putAll(Stream<? extends Map.Entry<ByteSequence, ByteSequence>> entries,
+                                                LongConsumer progress) {
+    return new KVBulkWriter(kvClient, cache, entries.iterator(), bulkMaxOperations, bulkMaxBytes, bulkParallelism,
+        progress).start();
+  }
+
+  /**
+   * Deletes many keys, in transactions sent in parallel.
+   * @param keys The keys to delete
+   * @return A future completed with the number of keys deleted and the chunks that failed
+   * @see #deleteAll(Stream, LongConsumer)
+   */
+  public CompletableFuture<KVBulkResult> deleteAll(Collection<ByteSequence> keys) {
+    return deleteAll(keys.stream(), null);
+  }
+
+  /**
+   * Deletes many keys, in transactions sent in parallel as for {@link #putAll(Stream, LongConsumer)}.
+   * @param keys The keys to delete
+   * @param progress Called with the number of keys done so far each time a transaction completes,
+   *                 or {@code null}
+   * @return A future completed with the number of keys deleted and the chunks that failed, or
+   * failed if the stream failed
+   */
+  public CompletableFuture<KVBulkResult> deleteAll(Stream<ByteSequence> keys, LongConsumer progress) {
+    Stream<Map.Entry<ByteSequence, ByteSequence>> entries =
+        keys.map(key -> new AbstractMap.SimpleImmutableEntry<>(key, null));
+    return new KVBulkWriter(kvClient, cache, entries.iterator(), bulkMaxOperations, bulkMaxBytes, bulkParallelism,
+        progress).start();
+  }
+
+  /**
+   * Sends any batched operation still pending and stops the local cache. The etcd client itself
+   * is not closed, as it may be shared with other services, unless the service was built from a
+   * configuration alone.
+   */
+  @PreDestroy
+  @Override
+  public void close() {
+    if (batcher != null) {
+      batcher.close();
+    }
+    if (cache != null) {
+      cache.close();
+    }
+    if (coalescer != null) {
+      coalescer.close();
+    }
+    if (ownedClientFactory != null) {
+      ownedClientFactory.close();
+    }
+  }
+
+  /**
+   * @param key The key to update
+   * @param function Computes the new value from the current one
+   * @param current The value the key is expected to have
+   * @param attempt The number of attempts that failed so far
+   * @param caller The context of the caller, attached again as attempts continue on other threads
+   * @return A future completed with the value written
+   */
+  private CompletableFuture<ByteSequence> update(ByteSequence key, UnaryOperator<ByteSequence> function,
+                                                 ByteSequence current, int attempt, Context caller) {
+    ByteSequence updated = function.apply(current);
+    KVTransaction transaction = transaction();
+    if (current == null) {
+      transaction.ifAbsent(key);
+    } else {
+      transaction.ifValue(key, Cmp.Op.EQUAL, current);
+    }
+    if (updated == null) {
+      transaction.thenDelete(key);
+    } else {
+      transaction.thenPut(key, updated);
+    }
+    CompletableFuture<KVTransactionResult> committed;
+    Context previous = caller.attach();
+    try {
+      committed = transaction.elseGet(key).commit();
+    } finally {
+      caller.detach(previous);
+    }
+    return committed.thenCompose(result -> {
+      if (result.isSucceeded()) {
+        return CompletableFuture.completedFuture(updated);
+      }
+      if (attempt + 1 >= MAX_UPDATE_ATTEMPTS) {
+        CompletableFuture<ByteSequence> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new ConcurrentModificationException(
+            "Key " + key + " modified concurrently " + MAX_UPDATE_ATTEMPTS + " times in a row"));
+        return failed;
+      }
+      ByteSequence latest = result.getValue(0);
+      return Backoff.delay(attempt).thenCompose(ignored -> update(key, function, latest, attempt + 1, caller));
+    });
+  }
+
+  /**
+   * @param key The key used to get a value
+   * @param getOption Options for GET action
+   * @return The GET response, shared with the identical gets in flight if coalescing is enabled
+   */
+  private CompletableFuture<GetResponse> sendGet(ByteSequence key, GetOption getOption) {
+    if (coalescer != null) {
+      return coalescer.get(key, getOption, () -> sendGetNow(key, getOption));
+    }
+    return sendGetNow(key, getOption);
+  }
+
+  /**
+   * @param key The key used to get a value
+   * @param getOption Options for GET action
+   * @return The GET response, sent on its own, within a batch or to the fastest member
+   */
+  private CompletableFuture<GetResponse> sendGetNow(ByteSequence key, GetOption getOption) {
+    if (router != null) {
+      return router.get(key, getOption);
+    }
+    return batcher != null ? batcher.get(key, getOption) : kvClient.get(key, getOption);
+  }
+
+  /**
+   * @param response The GET response
+   * @return {@link ByteSequence} of the first key-value returned, or {@code null}
+   */
+  private static ByteSequence firstValue(GetResponse response) {
+    if (response.getKvs().isEmpty()) {
+      return null;
+    }
+    return response.getKvs().get(0).getValue();
+  }
+
+  /**
+   * @param response The PUT response
+   * @return {@link ByteSequence} Of the previous key-pair value, or {@code null}
+   */
+  private static ByteSequence previousValue(PutResponse response) {
+    if (!response.hasPrevKv()) {
+      return null;
+    }
+    return response.getPrevKv().getValue();
+  }
+
+  /**
+   * @param bytes The key or value given by the caller
+   * @return {@link ByteSequence} sharing the array
+   */
+  private static ByteSequence wrap(byte[] bytes) {
+    return ByteSequence.from(UnsafeByteOperations.unsafeWrap(bytes));
+  }
+
+  /**
+   * @param buffer The key or value given by the caller
+   * @return {@link ByteSequence} sharing the remaining bytes of the buffer
+   */
+  private static ByteSequence wrap(ByteBuffer buffer) {
+    return ByteSequence.from(UnsafeByteOperations.unsafeWrap(buffer));
+  }
+
+  /**
+   * @param key The key given by the caller
+   * @return {@link ByteSequence} of the UTF-8 encoded key, from the key cache if enabled
+   */
+  private ByteSequence key(String key) {
+    return keyCache != null ? keyCache.encode(key) : encode(key);
+  }
+
+  /**
+   * @param string The value given by the caller
+   * @return {@link ByteSequence} of the UTF-8 encoded string
+   */
+  private static ByteSequence encode(String string) {
+    return ByteSequence.from(string, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @param byteSequence The value returned by etcd
+   * @return The value as byte array, or {@code null}
+   */
+  private static byte[] toBytes(ByteSequence byteSequence) {
+    if (byteSequence == null) {
+      return null;
+    }
+    return byteSequence.getBytes();
+  }
+}
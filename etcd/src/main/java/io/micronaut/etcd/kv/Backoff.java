@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exponential backoff with full jitter between the attempts of an optimistic update: the delay is
+ * drawn at random up to a bound that doubles with each attempt, so that conflicting writers spread
+ * their retries instead of colliding again.
+ */
+final class Backoff {
+
+  private static final long BASE_DELAY_MS = 5;
+  private static final long MAX_DELAY_MS = 1000;
+
+  private Backoff() {
+  }
+
+  /**
+   * @param attempt The number of the attempt that failed, from 0
+   * @return A future completed after the delay before the next attempt
+   */
+  static CompletableFuture<Void> delay(int attempt) {
+    long bound = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(attempt, 20));
+    long delay = ThreadLocalRandom.current().nextLong(bound + 1);
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    KVScheduler.INSTANCE.schedule(() -> future.complete(null), delay, TimeUnit.MILLISECONDS);
+    return future;
+  }
+}
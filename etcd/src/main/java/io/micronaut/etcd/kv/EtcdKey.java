@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import com.google.protobuf.UnsafeByteOperations;
+import io.etcd.jetcd.ByteSequence;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Key made of path segments, joined by {@value #SEPARATOR} and encoded as UTF-8 once, when it is
+ * created. Passing it to {@link AsyncKVService} or {@link KVService} then neither encodes nor
+ * copies anything, so the keys of a hot path are best built once and kept in constants or fields:
+ *
+ * <pre>
+ * EtcdKey services = EtcdKey.of("app", "services");
+ * EtcdKey orders = services.child("orders");   // app/services/orders
+ * </pre>
+ *
+ * <p>The namespace of the configuration, see
+ * {@link io.micronaut.etcd.config.EtcdFactoryConfig#getNamespace()}, is prepended by the etcd client
+ * and must not be part of the key. An application that prefixes the keys itself can start them
+ * from its prefix with {@link #of(ByteSequence, String...)}.</p>
+ */
+public final class EtcdKey {
+
+  /**
+   * The separator of the path segments.
+   */
+  public static final char SEPARATOR = '/';
+
+  private static final ByteSequence SEPARATOR_BYTES = ByteSequence.from(String.valueOf(SEPARATOR),
+      StandardCharsets.UTF_8);
+
+  private final String path;
+  private final ByteSequence bytes;
+
+  /**
+   * Constructor.
+   * @param path The key as a string
+   * @param bytes The encoded key
+   */
+  private EtcdKey(String path, ByteSequence bytes) {
+    this.path = path;
+    this.bytes = bytes;
+  }
+
+  /**
+   * @param segments The path segments
+   * @return the key of the segments joined by {@value #SEPARATOR}
+   */
+  public static EtcdKey of(String... segments) {
+    String path = join(segments);
+    return new EtcdKey(path, ByteSequence.from(path, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @param prefix The bytes the key starts with, used as they are
+   * @param segments The path segments following the prefix
+   * @return the key of the prefix followed by the segments joined by {@value #SEPARATOR}
+   */
+  public static EtcdKey of(ByteSequence prefix, String... segments) {
+    return new EtcdKey(prefix.toString(StandardCharsets.UTF_8), prefix).append(join(segments));
+  }
+
+  /**
+   * @param segments The path segments to add
+   * @return the key of this key followed by {@value #SEPARATOR} and the segments joined by it
+   */
+  public EtcdKey child(String... segments) {
+    return append(SEPARATOR + join(segments));
+  }
+
+  /**
+   * @return the encoded key, which is never copied
+   */
+  public ByteSequence getBytes() {
+    return bytes;
+  }
+
+  /**
+   * @param key A key returned by etcd
+   * @return whether the key is this key or below it, that is followed by {@value #SEPARATOR}:
+   *     {@code app/services} contains {@code app/services/orders} but not {@code app/services2}
+   */
+  public boolean contains(ByteSequence key) {
+    if (!key.startsWith(bytes)) {
+      return false;
+    }
+    int size = bytes.size();
+    return key.size() == size || path.isEmpty() || path.charAt(path.length() - 1) == SEPARATOR
+        || key.substring(size).startsWith(SEPARATOR_BYTES);
+  }
+
+  /**
+   * @param suffix The string to append
+   * @return the key of this key followed by the suffix
+   */
+  private EtcdKey append(String suffix) {
+    if (suffix.isEmpty()) {
+      return this;
+    }
+    byte[] encodedSuffix = suffix.getBytes(StandardCharsets.UTF_8);
+    byte[] encoded = Arrays.copyOf(bytes.getBytes(), bytes.size() + encodedSuffix.length);
+    System.arraycopy(encodedSuffix, 0, encoded, bytes.size(), encodedSuffix.length);
+    return new EtcdKey(path + suffix, ByteSequence.from(UnsafeByteOperations.unsafeWrap(encoded)));
+  }
+
+  /**
+   * @param segments The path segments
+   * @return the segments joined by {@value #SEPARATOR}
+   */
+  private static String join(String... segments) {
+    return String.join(String.valueOf(SEPARATOR), segments);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return this == o || o instanceof EtcdKey && bytes.equals(((EtcdKey) o).bytes);
+  }
+
+  @Override
+  public int hashCode() {
+    return bytes.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return path;
+  }
+}
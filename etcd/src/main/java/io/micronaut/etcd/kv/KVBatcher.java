@@ -0,0 +1,309 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.kv.DeleteResponse;
+import io.etcd.jetcd.kv.GetResponse;
+import io.etcd.jetcd.kv.PutResponse;
+import io.etcd.jetcd.kv.TxnResponse;
+import io.etcd.jetcd.op.Op;
+import io.etcd.jetcd.options.DeleteOption;
+import io.etcd.jetcd.options.GetOption;
+import io.etcd.jetcd.options.PutOption;
+import io.grpc.Context;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Combines the puts, gets and deletes issued within a time window into a single etcd transaction.
+ * Each caller gets its own future, completed from its slice of the {@link TxnResponse}.
+ *
+ * <p>etcd rejects a transaction that writes the same key twice, so a write on a key already pending
+ * sends the current batch first. A delete of a range conflicts with any pending write, and any write
+ * after it. Deletes go through the batch too, so that they cannot overtake a pending put of the same
+ * key.</p>
+ *
+ * <p>A single invalid operation, such as a put with an expired lease, fails the whole transaction.
+ * The operations of a batch rejected by etcd are then sent one by one, so that only the invalid one
+ * fails.</p>
+ *
+ * <p>A batch is sent without the deadline nor the cancellation of any of its callers, so that no
+ * caller giving up fails the others; each caller's future fails once its own deadline expires.</p>
+ */
+final class KVBatcher implements AutoCloseable {
+
+  private final KV kvClient;
+  private final long windowMs;
+  private final int maxOperations;
+  private final ScheduledExecutorService scheduler;
+
+  private List<PendingOperation<?>> pending = new ArrayList<>();
+  private Set<ByteSequence> pendingWriteKeys = new HashSet<>();
+  private boolean pendingRangeDelete;
+  private ScheduledFuture<?> scheduledFlush;
+
+  /**
+   * Constructor.
+   * @param kvClient The KV client used to send the batches
+   * @param windowMs The time window in milliseconds in which operations are batched
+   * @param maxOperations The maximum number of operations of a batch
+   */
+  KVBatcher(KV kvClient, long windowMs, int maxOperations) {
+    this.kvClient = kvClient;
+    this.windowMs = windowMs;
+    this.maxOperations = maxOperations;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "etcd-kv-batcher");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Queues a GET request.
+   * @param key The key used to get a value
+   * @param getOption Options for GET action
+   * @return A future completed with the response of this GET
+   */
+  CompletableFuture<GetResponse> get(ByteSequence key, GetOption getOption) {
+    PendingOperation<GetResponse> operation = new PendingOperation<>(
+        Type.GET, Op.get(key, getOption), null, () -> kvClient.get(key, getOption));
+    enqueue(operation);
+    return KVContexts.forCaller(operation.future, Context.current());
+  }
+
+  /**
+   * Queues a PUT request.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @param putOption The options used to put the key/value
+   * @return A future completed with the response of this PUT
+   */
+  CompletableFuture<PutResponse> put(ByteSequence key, ByteSequence value, PutOption putOption) {
+    PendingOperation<PutResponse> operation = new PendingOperation<>(
+        Type.PUT, Op.put(key, value, putOption), key, () -> kvClient.put(key, value, putOption));
+    enqueue(operation);
+    return KVContexts.forCaller(operation.future, Context.current());
+  }
+
+  /**
+   * Queues a DELETE request.
+   * @param key The key to delete, or the start of the range to delete
+   * @param deleteOption Options for DELETE action
+   * @return A future completed with the response of this DELETE
+   */
+  CompletableFuture<DeleteResponse> delete(ByteSequence key, DeleteOption deleteOption) {
+    PendingOperation<DeleteResponse> operation = new PendingOperation<>(
+        Type.DELETE, Op.delete(key, deleteOption), deleteOption.getEndKey().isPresent() ? null : key,
+        () -> kvClient.delete(key, deleteOption));
+    enqueue(operation);
+    return KVContexts.forCaller(operation.future, Context.current());
+  }
+
+  /**
+   * Sends any pending operation right away.
+   */
+  void flush() {
+    List<PendingOperation<?>> batch;
+    synchronized (this) {
+      batch = drain();
+    }
+    send(batch);
+  }
+
+  /**
+   * Sends the pending operations and stops the batching thread.
+   */
+  @Override
+  public void close() {
+    flush();
+    scheduler.shutdown();
+  }
+
+  private void enqueue(PendingOperation<?> operation) {
+    List<PendingOperation<?>> full = null;
+    List<PendingOperation<?>> conflicting = null;
+    synchronized (this) {
+      if (operation.type != Type.GET && conflicts(operation)) {
+        conflicting = drain();
+      }
+      if (operation.writeKey != null) {
+        pendingWriteKeys.add(operation.writeKey);
+      } else if (operation.type == Type.DELETE) {
+        pendingRangeDelete = true;
+      }
+      pending.add(operation);
+      if (pending.size() >= maxOperations) {
+        full = drain();
+      } else if (scheduledFlush == null) {
+        scheduledFlush = scheduler.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+      }
+    }
+    send(conflicting);
+    send(full);
+  }
+
+  /**
+   * Whether a write conflicts with the pending writes. Must be called holding the lock.
+   * @param operation The write to queue
+   * @return {@code true} if the write must go in the next batch
+   */
+  private boolean conflicts(PendingOperation<?> operation) {
+    if (pendingRangeDelete) {
+      return true;
+    }
+    if (operation.writeKey == null) {
+      return !pendingWriteKeys.isEmpty();
+    }
+    return pendingWriteKeys.contains(operation.writeKey);
+  }
+
+  /**
+   * Takes the pending operations out. Must be called holding the lock.
+   * @return The operations to send
+   */
+  private List<PendingOperation<?>> drain() {
+    List<PendingOperation<?>> batch = pending;
+    pending = new ArrayList<>();
+    pendingWriteKeys = new HashSet<>();
+    pendingRangeDelete = false;
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(false);
+      scheduledFlush = null;
+    }
+    return batch;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void send(List<PendingOperation<?>> batch) {
+    if (batch == null || batch.isEmpty()) {
+      return;
+    }
+    Op[] operations = new Op[batch.size()];
+    for (int i = 0; i < operations.length; i++) {
+      operations[i] = batch.get(i).operation;
+    }
+    Context shared = Context.current().fork();
+    CompletableFuture<TxnResponse> committed;
+    Context previous = shared.attach();
+    try {
+      committed = kvClient.txn().Then(operations).commit();
+    } finally {
+      shared.detach(previous);
+    }
+    committed.whenComplete((response, throwable) -> {
+      if (throwable != null) {
+        if (batch.size() > 1 && isRejected(throwable)) {
+          shared.run(() -> batch.forEach(PendingOperation::sendAlone));
+        } else {
+          batch.forEach(operation -> operation.future.completeExceptionally(throwable));
+        }
+        return;
+      }
+      int gets = 0;
+      int puts = 0;
+      int deletes = 0;
+      for (PendingOperation<?> operation : batch) {
+        switch (operation.type) {
+          case GET:
+            ((CompletableFuture<GetResponse>) operation.future).complete(response.getGetResponses().get(gets++));
+            break;
+          case PUT:
+            ((CompletableFuture<PutResponse>) operation.future).complete(response.getPutResponses().get(puts++));
+            break;
+          default:
+            ((CompletableFuture<DeleteResponse>) operation.future)
+                .complete(response.getDeleteResponses().get(deletes++));
+        }
+      }
+    });
+  }
+
+  /**
+   * Whether etcd rejected the transaction itself, as opposed to failing to serve it.
+   * @param throwable The failure of the transaction
+   * @return {@code true} if one of the operations is invalid
+   */
+  private static boolean isRejected(Throwable throwable) {
+    switch (Status.fromThrowable(throwable).getCode()) {
+      case INVALID_ARGUMENT:
+      case FAILED_PRECONDITION:
+      case NOT_FOUND:
+      case OUT_OF_RANGE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * The type of a batched operation.
+   */
+  private enum Type {
+    GET, PUT, DELETE
+  }
+
+  /**
+   * An operation waiting to be sent.
+   * @param <T> The type of response of the operation
+   */
+  private static final class PendingOperation<T> {
+    private final Type type;
+    private final Op operation;
+    private final ByteSequence writeKey;
+    private final Supplier<CompletableFuture<T>> alone;
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+
+    /**
+     * Constructor.
+     * @param type The type of the operation
+     * @param operation The operation to add to the transaction
+     * @param writeKey The single key written by the operation, {@code null} for a get or a delete
+     *                 of a range
+     * @param alone Sends the operation outside of a transaction
+     */
+    private PendingOperation(Type type, Op operation, ByteSequence writeKey, Supplier<CompletableFuture<T>> alone) {
+      this.type = type;
+      this.operation = operation;
+      this.writeKey = writeKey;
+      this.alone = alone;
+    }
+
+    /**
+     * Sends the operation on its own, after the batch it was part of was rejected.
+     */
+    private void sendAlone() {
+      alone.get().whenComplete((response, throwable) -> {
+        if (throwable != null) {
+          future.completeExceptionally(throwable);
+        } else {
+          future.complete(response);
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import io.etcd.jetcd.ByteSequence;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of a bulk put or delete: the number of keys written, and the chunks that failed.
+ * The chunks are sent as separate transactions, so the ones that did not fail are applied.
+ */
+public final class KVBulkResult {
+
+  private final long succeeded;
+  private final long deleted;
+  private final List<Failure> failures;
+
+  /**
+   * @param succeeded The number of keys put or deleted without error
+   * @param deleted The number of keys that existed and were deleted
+   * @param failures The chunks that failed
+   */
+  KVBulkResult(long succeeded, long deleted, List<Failure> failures) {
+    this.succeeded = succeeded;
+    this.deleted = deleted;
+    this.failures = Collections.unmodifiableList(failures);
+  }
+
+  /**
+   * @return the number of keys put, or deleted, without error
+   */
+  public long getSucceeded() {
+    return succeeded;
+  }
+
+  /**
+   * @return the number of keys that existed and were deleted
+   */
+  public long getDeleted() {
+    return deleted;
+  }
+
+  /**
+   * @return the number of keys of the chunks that failed
+   */
+  public long getFailed() {
+    return failures.stream().mapToLong(failure -> failure.getKeys().size()).sum();
+  }
+
+  /**
+   * @return the chunks that failed, with their keys and error
+   */
+  public List<Failure> getFailures() {
+    return failures;
+  }
+
+  /**
+   * @return whether every key was put, or deleted
+   */
+  public boolean isComplete() {
+    return failures.isEmpty();
+  }
+
+  /**
+   * A chunk of keys that could not be put or deleted.
+   */
+  public static final class Failure {
+
+    private final List<ByteSequence> keys;
+    private final Throwable cause;
+
+    /**
+     * @param keys The keys of the chunk
+     * @param cause The error of the chunk
+     */
+    Failure(List<ByteSequence> keys, Throwable cause) {
+      this.keys = Collections.unmodifiableList(keys);
+      this.cause = cause;
+    }
+
+    /**
+     * @return the keys of the chunk, none of which was put or deleted
+     */
+    public List<ByteSequence> getKeys() {
+      return keys;
+    }
+
+    /**
+     * @return the error of the chunk
+     */
+    public Throwable getCause() {
+      return cause;
+    }
+  }
+}
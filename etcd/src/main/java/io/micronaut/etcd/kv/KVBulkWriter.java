@@ -0,0 +1,224 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.kv.DeleteResponse;
+import io.etcd.jetcd.kv.TxnResponse;
+import io.etcd.jetcd.op.Op;
+import io.etcd.jetcd.options.DeleteOption;
+import io.etcd.jetcd.options.PutOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Puts or deletes a large number of keys, in transactions of at most a number of operations and
+ * bytes, keeping a bounded number of them in flight.
+ *
+ * <p>Entries are read from the source as chunks are sent, so the source may be a lazy stream
+ * larger than memory. A transaction cannot write the same key twice, so a key repeated within a
+ * chunk starts the next one; which of its values ends up written is then undefined.</p>
+ *
+ * <p>Chunks are sent from a drain loop entered by the caller and by each completed chunk: only
+ * one thread runs it at a time, and a chunk completing while it runs makes it loop again rather
+ * than recurse.</p>
+ */
+final class KVBulkWriter {
+
+  /**
+   * Estimate of the bytes an operation takes in a transaction besides its key and value.
+   */
+  private static final int OPERATION_OVERHEAD = 16;
+
+  private final KV kvClient;
+  private final KVCache cache;
+  private final Iterator<? extends Map.Entry<ByteSequence, ByteSequence>> source;
+  private final int maxOperations;
+  private final long maxBytes;
+  private final int parallelism;
+  private final LongConsumer progress;
+
+  private final CompletableFuture<KVBulkResult> result = new CompletableFuture<>();
+  private final AtomicInteger drains = new AtomicInteger();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicLong done = new AtomicLong();
+  private final AtomicLong succeeded = new AtomicLong();
+  private final AtomicLong deleted = new AtomicLong();
+  private final Queue<KVBulkResult.Failure> failures = new ConcurrentLinkedQueue<>();
+
+  // Read and written by the drain loop only.
+  private Map.Entry<ByteSequence, ByteSequence> carried;
+  private boolean exhausted;
+
+  /**
+   * Constructor.
+   * @param kvClient The KV client sending the transactions
+   * @param cache The local cache to update with the writes, or {@code null}
+   * @param source The keys and values to put, a {@code null} value deleting the key
+   * @param maxOperations The maximum number of operations of a transaction
+   * @param maxBytes The maximum size of the keys and values of a transaction
+   * @param parallelism The maximum number of transactions in flight
+   * @param progress Called with the number of keys done so far, each time a transaction completes
+   */
+  KVBulkWriter(KV kvClient, KVCache cache, Iterator<? extends Map.Entry<ByteSequence, ByteSequence>> source,
+               int maxOperations, long maxBytes, int parallelism, LongConsumer progress) {
+    this.kvClient = kvClient;
+    this.cache = cache;
+    this.source = source;
+    this.maxOperations = maxOperations;
+    this.maxBytes = maxBytes;
+    this.parallelism = parallelism;
+    this.progress = progress;
+  }
+
+  /**
+   * Starts sending the chunks.
+   * @return A future completed once every chunk completed, or failed if the source failed
+   */
+  CompletableFuture<KVBulkResult> start() {
+    drain();
+    return result;
+  }
+
+  private void drain() {
+    if (drains.getAndIncrement() != 0) {
+      return;
+    }
+    do {
+      while (!exhausted && inFlight.get() < parallelism) {
+        Chunk chunk;
+        try {
+          chunk = nextChunk();
+        } catch (RuntimeException e) {
+          exhausted = true;
+          result.completeExceptionally(e);
+          break;
+        }
+        if (chunk == null) {
+          exhausted = true;
+          break;
+        }
+        inFlight.incrementAndGet();
+        send(chunk);
+      }
+      if (exhausted && inFlight.get() == 0) {
+        result.complete(new KVBulkResult(succeeded.get(), deleted.get(), new ArrayList<>(failures)));
+      }
+    } while (drains.decrementAndGet() != 0);
+  }
+
+  /**
+   * @return The next chunk read from the source, {@code null} if it is exhausted
+   */
+  private Chunk nextChunk() {
+    Chunk chunk = new Chunk();
+    long bytes = 0;
+    while (chunk.keys.size() < maxOperations) {
+      Map.Entry<ByteSequence, ByteSequence> entry = carried;
+      carried = null;
+      if (entry == null) {
+        if (!source.hasNext()) {
+          break;
+        }
+        entry = source.next();
+      }
+      ByteSequence value = entry.getValue();
+      long size = entry.getKey().size() + (value == null ? 0 : value.size()) + OPERATION_OVERHEAD;
+      boolean repeated = chunk.distinctKeys.contains(entry.getKey());
+      if (!chunk.keys.isEmpty() && (repeated || bytes + size > maxBytes)) {
+        carried = entry;
+        break;
+      }
+      chunk.add(entry.getKey(), value);
+      bytes += size;
+    }
+    return chunk.keys.isEmpty() ? null : chunk;
+  }
+
+  /**
+   * @param chunk The chunk to send in a transaction
+   */
+  private void send(Chunk chunk) {
+    CompletableFuture<TxnResponse> response;
+    try {
+      response = kvClient.txn().Then(chunk.operations.toArray(new Op[0])).commit();
+    } catch (RuntimeException e) {
+      response = new CompletableFuture<>();
+      response.completeExceptionally(e);
+    }
+    response.whenComplete((received, throwable) -> {
+      try {
+        completed(chunk, received, throwable);
+      } finally {
+        inFlight.decrementAndGet();
+        drain();
+      }
+    });
+  }
+
+  /**
+   * Records the outcome of a chunk.
+   * @param chunk The chunk sent
+   * @param received The response of its transaction, if it succeeded
+   * @param throwable The error of its transaction, if it failed
+   */
+  private void completed(Chunk chunk, TxnResponse received, Throwable throwable) {
+    if (throwable != null) {
+      failures.add(new KVBulkResult.Failure(chunk.keys, throwable));
+    } else {
+      succeeded.addAndGet(chunk.keys.size());
+      deleted.addAndGet(received.getDeleteResponses().stream().mapToLong(DeleteResponse::getDeleted).sum());
+      if (cache != null) {
+        long revision = received.getHeader().getRevision();
+        for (int i = 0; i < chunk.keys.size(); i++) {
+          cache.written(chunk.keys.get(i), chunk.values.get(i), revision);
+        }
+      }
+    }
+    long total = done.addAndGet(chunk.keys.size());
+    if (progress != null) {
+      progress.accept(total);
+    }
+  }
+
+  /**
+   * The operations of a transaction, and their keys and values.
+   */
+  private static final class Chunk {
+    private final List<Op> operations = new ArrayList<>();
+    private final List<ByteSequence> keys = new ArrayList<>();
+    private final List<ByteSequence> values = new ArrayList<>();
+    private final Set<ByteSequence> distinctKeys = new HashSet<>();
+
+    private void add(ByteSequence key, ByteSequence value) {
+      operations.add(value == null ? Op.delete(key, DeleteOption.DEFAULT) : Op.put(key, value, PutOption.DEFAULT));
+      keys.add(key);
+      values.add(value);
+      distinctKeys.add(key);
+    }
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.KeyValue;
+import io.etcd.jetcd.Watch;
+import io.etcd.jetcd.kv.GetResponse;
+import io.etcd.jetcd.options.GetOption;
+import io.etcd.jetcd.options.WatchOption;
+import io.etcd.jetcd.watch.WatchEvent;
+import io.etcd.jetcd.watch.WatchResponse;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Local read-through cache of the keys under a prefix, kept coherent by an etcd watch.
+ *
+ * <p>Every entry remembers the revision it was read at, and only watch events of a later revision
+ * are applied to it, so an event is never lost nor applied twice. The watch is opened from the
+ * revision the cache starts from; a value read before the watch has caught up with it is returned
+ * but not cached. Entries are evicted in least recently used order once the cache is full. If the
+ * watch fails, for instance because the revision was compacted or the connection was lost, the
+ * cache is cleared and the watch opened again; if etcd cannot be reached, that is retried on the
+ * next get.</p>
+ */
+public class KVCache implements AutoCloseable {
+
+  private final KV kvClient;
+  private final Watch watchClient;
+  private final ByteSequence prefix;
+  private final Map<ByteSequence, Entry> entries;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * The revision up to which the watch events have been applied. Values read at an older
+   * revision are not cached. {@link Long#MAX_VALUE} while the watch is not open.
+   */
+  private long watchRevision = Long.MAX_VALUE;
+
+  /**
+   * Incremented each time the watch is reopened, to ignore the callbacks of previous watches.
+   */
+  private int generation;
+  private boolean starting;
+  private Watch.Watcher watcher;
+  private boolean closed;
+
+  /**
+   * Constructor.
+   * @param kvClient The KV client used to read the starting revision
+   * @param watchClient The watch client used to keep the cache coherent
+   * @param prefix The prefix of the cached keys
+   * @param maxSize The maximum number of cached keys
+   */
+  KVCache(KV kvClient, Watch watchClient, ByteSequence prefix, int maxSize) {
+    this.kvClient = kvClient;
+    this.watchClient = watchClient;
+    this.prefix = prefix;
+    this.entries = new LinkedHashMap<ByteSequence, Entry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<ByteSequence, Entry> eldest) {
+        return size() > maxSize;
+      }
+    };
+    start();
+  }
+
+  /**
+   * @return the number of gets answered from the cache
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of gets sent to etcd
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * @return the number of cached keys
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * @param key The key to get
+   * @param getOption Options for GET action
+   * @return whether the GET can be answered from this cache
+   */
+  boolean covers(ByteSequence key, GetOption getOption) {
+    return getOption == GetOption.DEFAULT && key.startsWith(prefix);
+  }
+
+  /**
+   * Gets the value of a key, from the cache or else from etcd.
+   * @param key The key to get
+   * @param loader The GET request to send to etcd on a miss
+   * @return A future completed with the value, or {@code null} if the key does not exist
+   */
+  CompletableFuture<ByteSequence> get(ByteSequence key, Supplier<CompletableFuture<GetResponse>> loader) {
+    boolean watching;
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        hits.incrementAndGet();
+        return CompletableFuture.completedFuture(entry.value);
+      }
+      watching = watcher != null;
+    }
+    if (!watching) {
+      start();
+    }
+    misses.incrementAndGet();
+    return loader.get().thenApply(response -> {
+      ByteSequence value = response.getKvs().isEmpty() ? null : response.getKvs().get(0).getValue();
+      update(key, value, response.getHeader().getRevision(), true);
+      return value;
+    });
+  }
+
+  /**
+   * Records a value written through this client, so it can be read back right away. The value is
+   * copied, as it may share the array of the caller.
+   * @param key The key written
+   * @param value The new value, {@code null} if the key was deleted
+   * @param revision The revision of the write
+   */
+  void written(ByteSequence key, ByteSequence value, long revision) {
+    if (key.startsWith(prefix)) {
+      update(key, value == null ? null : ByteSequence.from(value.getBytes()), revision, true);
+    }
+  }
+
+  /**
+   * Stops watching and clears the cache.
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    stop();
+  }
+
+  private synchronized void update(ByteSequence key, ByteSequence value, long revision, boolean insert) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      if (insert && revision >= watchRevision) {
+        // the key may share the array of the caller, which is free to reuse it afterwards
+        entries.put(ByteSequence.from(key.getBytes()), new Entry(value, revision));
+      }
+    } else if (revision > entry.revision) {
+      entries.put(key, new Entry(value, revision));
+    }
+  }
+
+  private void start() {
+    int startGeneration;
+    synchronized (this) {
+      if (closed || starting) {
+        return;
+      }
+      starting = true;
+      startGeneration = ++generation;
+    }
+    kvClient.get(prefix, GetOption.newBuilder().withPrefix(prefix).withCountOnly(true).build())
+        .whenComplete((response, throwable) -> {
+          synchronized (this) {
+            starting = false;
+            if (throwable == null) {
+              watch(response.getHeader().getRevision(), startGeneration);
+            }
+          }
+        });
+  }
+
+  private synchronized void watch(long revision, int watchGeneration) {
+    if (closed || watchGeneration != generation) {
+      return;
+    }
+    WatchOption watchOption = WatchOption.newBuilder()
+        .withPrefix(prefix)
+        .withRevision(revision + 1)
+        .build();
+    watchRevision = revision;
+    watcher = watchClient.watch(prefix, watchOption, Watch.listener(
+        response -> onWatch(response, watchGeneration),
+        throwable -> restart(watchGeneration),
+        () -> restart(watchGeneration)));
+  }
+
+  private synchronized void onWatch(WatchResponse response, int watchGeneration) {
+    if (watchGeneration != generation) {
+      return;
+    }
+    for (WatchEvent event : response.getEvents()) {
+      KeyValue keyValue = event.getKeyValue();
+      ByteSequence value = event.getEventType() == WatchEvent.EventType.PUT ? keyValue.getValue() : null;
+      update(keyValue.getKey(), value, keyValue.getModRevision(), false);
+    }
+    watchRevision = Math.max(watchRevision, response.getHeader().getRevision());
+  }
+
+  private void restart(int watchGeneration) {
+    synchronized (this) {
+      if (closed || watchGeneration != generation) {
+        return;
+      }
+      stop();
+    }
+    start();
+  }
+
+  /**
+   * Stops caching until the watch is open again. Must be called holding the lock.
+   */
+  private void stop() {
+    generation++;
+    watchRevision = Long.MAX_VALUE;
+    entries.clear();
+    if (watcher != null) {
+      watcher.close();
+      watcher = null;
+    }
+  }
+
+  /**
+   * A cached value and the revision it was read at.
+   */
+  private static final class Entry {
+    private final ByteSequence value;
+    private final long revision;
+
+    private Entry(ByteSequence value, long revision) {
+      this.value = value;
+      this.revision = revision;
+    }
+  }
+}
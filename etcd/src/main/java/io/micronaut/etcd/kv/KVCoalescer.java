@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.kv.GetResponse;
+import io.etcd.jetcd.options.GetOption;
+import io.grpc.Context;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent gets of the same key: while a get is in flight, the other gets of the key
+ * with the same {@link GetOption} instance, typically {@link GetOption#DEFAULT}, share its
+ * response instead of sending their own request. With a TTL, the response keeps being shared for
+ * that long once received, so the gets answered by it may miss a write made in the meantime.
+ *
+ * <p>The shared get is sent without the deadline nor the cancellation of the caller that sent it,
+ * so that no caller giving up fails the others; each caller gets a future of its own, failed once
+ * its own deadline expires.</p>
+ *
+ * <p>The in-flight gets are held in a {@link ConcurrentHashMap}, read without locking; only the
+ * first get of a key writes to it. The counters are {@link LongAdder}s, which do not contend
+ * either.</p>
+ */
+public class KVCoalescer implements AutoCloseable {
+
+  private final ConcurrentMap<FlightKey, CompletableFuture<GetResponse>> flights = new ConcurrentHashMap<>();
+  private final long ttlMs;
+  private final ScheduledExecutorService scheduler;
+  private final LongAdder sent = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+
+  /**
+   * Constructor.
+   * @param ttlMs The time in milliseconds a response is shared once received, 0 to share it only
+   *              while in flight
+   */
+  KVCoalescer(long ttlMs) {
+    this.ttlMs = ttlMs;
+    this.scheduler = ttlMs <= 0 ? null : Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "etcd-kv-coalescer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Gets a key, sharing the response of a get of the same key in flight, if any.
+   * @param key The key
+   * @param getOption The options of the get, compared by identity
+   * @param sender Sends the get if none is in flight
+   * @return The response
+   */
+  CompletableFuture<GetResponse> get(ByteSequence key, GetOption getOption,
+                                     Supplier<CompletableFuture<GetResponse>> sender) {
+    Context caller = Context.current();
+    FlightKey flightKey = new FlightKey(key, getOption);
+    CompletableFuture<GetResponse> flight = flights.get(flightKey);
+    if (flight != null) {
+      coalesced.increment();
+      return KVContexts.forCaller(flight, caller);
+    }
+    CompletableFuture<GetResponse> newFlight = new CompletableFuture<>();
+    flight = flights.putIfAbsent(flightKey, newFlight);
+    if (flight != null) {
+      coalesced.increment();
+      return KVContexts.forCaller(flight, caller);
+    }
+    sent.increment();
+    CompletableFuture<GetResponse> response;
+    try {
+      response = KVContexts.sendShared(sender);
+    } catch (RuntimeException e) {
+      flights.remove(flightKey, newFlight);
+      newFlight.completeExceptionally(e);
+      return newFlight;
+    }
+    response.whenComplete((received, throwable) -> {
+      if (throwable != null || scheduler == null) {
+        flights.remove(flightKey, newFlight);
+      } else {
+        scheduler.schedule(() -> flights.remove(flightKey, newFlight), ttlMs, TimeUnit.MILLISECONDS);
+      }
+      if (throwable != null) {
+        newFlight.completeExceptionally(throwable);
+      } else {
+        newFlight.complete(received);
+      }
+    });
+    return KVContexts.forCaller(newFlight, caller);
+  }
+
+  /**
+   * @return the number of gets sent to etcd
+   */
+  public long getSentCount() {
+    return sent.sum();
+  }
+
+  /**
+   * @return the number of gets answered by the response of another get
+   */
+  public long getCoalescedCount() {
+    return coalesced.sum();
+  }
+
+  /**
+   * Stops sharing the received responses.
+   */
+  @Override
+  public void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+    flights.clear();
+  }
+
+  /**
+   * The key of an in-flight get.
+   */
+  private static final class FlightKey {
+    private final ByteSequence key;
+    private final GetOption getOption;
+
+    private FlightKey(ByteSequence key, GetOption getOption) {
+      this.key = key;
+      this.getOption = getOption;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof FlightKey)) {
+        return false;
+      }
+      FlightKey other = (FlightKey) o;
+      return getOption == other.getOption && key.equals(other.key);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * key.hashCode() + System.identityHashCode(getOption);
+    }
+  }
+}
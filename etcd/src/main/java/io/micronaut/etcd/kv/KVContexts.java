@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Status;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Helpers for the gRPC {@link Context} of the KV requests, which carries the deadline and the
+ * cancellation of the caller to the requests it sends.
+ *
+ * <p>A request shared by several callers, such as a coalesced get or a batch, must not be
+ * cancelled by the first of them to give up: it is sent in a context forked from the caller's, so
+ * it is bounded by {@link io.micronaut.etcd.config.EtcdFactoryConfig#getRequestTimeoutMs()} only,
+ * and each caller gets a future of its own, failed once its context is cancelled.</p>
+ */
+final class KVContexts {
+
+  private KVContexts() {
+  }
+
+  /**
+   * Sends a request shared by several callers, without the deadline nor the cancellation of the
+   * current one.
+   * @param request Sends the request
+   * @param <T> The type of the response
+   * @return The response
+   */
+  static <T> CompletableFuture<T> sendShared(Supplier<CompletableFuture<T>> request) {
+    Context forked = Context.current().fork();
+    Context previous = forked.attach();
+    try {
+      return request.get();
+    } finally {
+      forked.detach(previous);
+    }
+  }
+
+  /**
+   * @param shared The response of a request shared by several callers
+   * @param caller The context of one of the callers
+   * @param <T> The type of the response
+   * @return The response for this caller, failed with the status of its context once cancelled,
+   *     such as {@link Status.Code#DEADLINE_EXCEEDED} when its deadline expires
+   */
+  static <T> CompletableFuture<T> forCaller(CompletableFuture<T> shared, Context caller) {
+    if (caller == Context.ROOT) {
+      return shared;
+    }
+    CompletableFuture<T> response = new CompletableFuture<>();
+    Context.CancellationListener listener = context ->
+        response.completeExceptionally(Contexts.statusFromCancelled(context).asRuntimeException());
+    caller.addListener(listener, Runnable::run);
+    shared.whenComplete((received, throwable) -> {
+      caller.removeListener(listener);
+      if (throwable != null) {
+        response.completeExceptionally(throwable);
+      } else {
+        response.complete(received);
+      }
+    });
+    return response;
+  }
+
+  /**
+   * Whether a request failed because its caller gave up on it, rather than because of etcd: such
+   * a failure says nothing about the latency nor the health of the endpoint.
+   * @param throwable The failure of the request
+   * @param caller The context the request was sent in
+   * @return {@code true} if the request was cancelled, or its caller's deadline expired
+   */
+  static boolean cancelledByCaller(Throwable throwable, Context caller) {
+    Status.Code code = Status.fromThrowable(throwable).getCode();
+    return code == Status.Code.CANCELLED || code == Status.Code.DEADLINE_EXCEEDED && caller.isCancelled();
+  }
+}
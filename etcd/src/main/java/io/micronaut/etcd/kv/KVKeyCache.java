@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import io.etcd.jetcd.ByteSequence;
+import io.micronaut.core.util.clhm.ConcurrentLinkedHashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Bounded cache of the UTF-8 encoding of string keys, so that a small set of keys used over and
+ * over is encoded once. Lookups do not lock, and the least recently used keys are evicted once the
+ * cache is full; a key encoded concurrently by two callers is simply encoded twice.
+ */
+class KVKeyCache {
+
+  private final Map<String, ByteSequence> keys;
+
+  /**
+   * Constructor.
+   * @param maxSize The maximum number of encoded keys kept
+   */
+  KVKeyCache(int maxSize) {
+    this.keys = new ConcurrentLinkedHashMap.Builder<String, ByteSequence>()
+        .maximumWeightedCapacity(maxSize)
+        .build();
+  }
+
+  /**
+   * @param key The key given by the caller
+   * @return the encoded key, from the cache or else encoded and cached
+   */
+  ByteSequence encode(String key) {
+    ByteSequence bytes = keys.get(key);
+    if (bytes == null) {
+      bytes = ByteSequence.from(key, StandardCharsets.UTF_8);
+      keys.put(key, bytes);
+    }
+    return bytes;
+  }
+
+  /**
+   * @return the number of encoded keys kept
+   */
+  int size() {
+    return keys.size();
+  }
+}
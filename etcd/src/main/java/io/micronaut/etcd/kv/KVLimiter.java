@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive limit of the KV requests in flight, so that a slow etcd cluster makes the application
+ * reject requests early instead of queueing them without bound.
+ *
+ * <p>The limit follows the latency of the responses, in the manner of TCP Vegas: the lowest
+ * latency observed estimates the latency of an idle cluster, and the ratio between it and the
+ * latency of each response estimates how many requests are queued in etcd. The limit grows while
+ * that queue is short, and shrinks once it gets long or when requests fail. The lowest latency is
+ * measured again from time to time, in case the cluster got slower for good.</p>
+ *
+ * <p>Requests are admitted in lanes of {@link KVPriority}: reads can use only a share of the
+ * limit and writes the whole of it, so as the limit shrinks the reads are rejected first.
+ * Admission is a compare-and-set on the number of requests in flight, and only the update of the
+ * limit, once per response, is synchronized.</p>
+ */
+public class KVLimiter {
+
+  /**
+   * The lowest latency is measured again after this many times the limit responses.
+   */
+  private static final int PROBE_MULTIPLIER = 30;
+
+  private final int maxLimit;
+  private final double readShare;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final LongAdder[] rejected = new LongAdder[KVPriority.values().length];
+  private volatile double limit;
+  private long rttNoLoad;
+  private long samples;
+
+  /**
+   * Constructor.
+   * @param initialLimit The initial number of requests in flight
+   * @param maxLimit The maximum the limit can grow to
+   * @param readShare The share of the limit reads can use
+   */
+  KVLimiter(int initialLimit, int maxLimit, double readShare) {
+    this.maxLimit = maxLimit;
+    this.readShare = readShare;
+    this.limit = Math.max(1, Math.min(initialLimit, maxLimit));
+    for (int i = 0; i < rejected.length; i++) {
+      rejected[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * @return the current limit of requests in flight
+   */
+  public int getLimit() {
+    return (int) limit;
+  }
+
+  /**
+   * @param priority The priority of the requests
+   * @return the current limit of requests in flight of that priority
+   */
+  public int getLimit(KVPriority priority) {
+    double allowed = priority == KVPriority.READ ? limit * readShare : limit;
+    return Math.max(1, (int) allowed);
+  }
+
+  /**
+   * @return the number of requests in flight
+   */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * @param priority The priority of the requests
+   * @return the number of requests of that priority rejected so far
+   */
+  public long getRejectedCount(KVPriority priority) {
+    return rejected[priority.ordinal()].sum();
+  }
+
+  /**
+   * Admits a request if the number of requests in flight is below the limit of its priority.
+   * Each request admitted must be {@link #release(long, boolean) released} once completed.
+   * @param priority The priority of the request
+   * @return whether the request is admitted
+   */
+  boolean tryAcquire(KVPriority priority) {
+    int allowed = getLimit(priority);
+    while (true) {
+      int current = inFlight.get();
+      if (current >= allowed) {
+        rejected[priority.ordinal()].increment();
+        return false;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Releases an admitted request and updates the limit from its latency.
+   * @param startNanos The {@link System#nanoTime()} when the request was sent
+   * @param dropped Whether the request failed
+   */
+  void release(long startNanos, boolean dropped) {
+    int current = inFlight.getAndDecrement();
+    update(System.nanoTime() - startNanos, current, dropped);
+  }
+
+  /**
+   * Releases an admitted request cancelled by its caller, without updating the limit: it ended
+   * before its response, so its latency says nothing about the load.
+   */
+  void releaseCancelled() {
+    inFlight.decrementAndGet();
+  }
+
+  /**
+   * @param rtt The latency of a response, in nanoseconds
+   * @param inFlight The number of requests in flight when it was received
+   * @param dropped Whether the request failed
+   */
+  synchronized void update(long rtt, int inFlight, boolean dropped) {
+    double current = limit;
+    double log = Math.max(1, Math.log10(current));
+    if (dropped) {
+      // The latency of a failure says nothing about the latency without load.
+      limit = Math.max(1, Math.min(maxLimit, current - log));
+      return;
+    }
+    if (rtt <= 0) {
+      return;
+    }
+    if (rttNoLoad == 0 || rtt < rttNoLoad) {
+      rttNoLoad = rtt;
+      return;
+    }
+    if (++samples >= PROBE_MULTIPLIER * limit) {
+      samples = 0;
+      rttNoLoad = rtt;
+      return;
+    }
+    if (inFlight * 2 < current) {
+      // The limit is not what holds the requests back, so their latency says nothing about it.
+      return;
+    }
+    double updated;
+    double queue = Math.ceil(current * (1 - (double) rttNoLoad / rtt));
+    if (queue <= log) {
+      updated = current + 6 * log;
+    } else if (queue < 3 * log) {
+      updated = current + log;
+    } else if (queue > 6 * log) {
+      updated = current - log;
+    } else {
+      return;
+    }
+    limit = Math.max(1, Math.min(maxLimit, updated));
+  }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+/**
+ * The priority of a KV request, from the lane of the {@link KVLimiter} it is admitted in.
+ */
+public enum KVPriority {
+
+  /**
+   * Gets, counts and scans. They may use only a share of the limit, so they are rejected first.
+   */
+  READ,
+
+  /**
+   * Puts, deletes, compactions and transactions. They may use the whole limit.
+   */
+  WRITE
+}
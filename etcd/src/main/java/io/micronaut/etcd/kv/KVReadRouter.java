@@ -0,0 +1,378 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.kv.GetResponse;
+import io.etcd.jetcd.options.GetOption;
+import io.grpc.Context;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Router of serializable gets to the member of the cluster with the lowest recent latency.
+ *
+ * <p>Each endpoint has its own client, and an exponentially weighted moving average of the
+ * latency of the gets it answered. A get goes to the endpoint with the lowest average, except one
+ * in {@value #EXPLORE_ONE_IN} that goes to a random endpoint, so that the average of the others
+ * follows their recovery. An endpoint that fails is penalized, and the get is sent again through
+ * the client of the whole cluster, unless it was rejected by the {@link KVLimiter}, or cancelled
+ * by its caller or past its caller's deadline, which says nothing about the endpoint.</p>
+ *
+ * <p>When hedging is enabled, a get that is not answered within a percentile of the latencies of
+ * the last {@value #SAMPLE_COUNT} gets is sent again to the next fastest endpoint. The first
+ * response wins, and the other request is cancelled through its gRPC {@link Context}; the time
+ * the cancelled endpoint took so far counts in its average, so that a slow endpoint stops being
+ * chosen first. Gets are not hedged until {@value #SAMPLE_COUNT} latencies were observed.</p>
+ *
+ * <p>Serializable gets are answered by the member itself, without a round trip to the leader, so
+ * they may miss the latest writes. The averages are updated without locking: a concurrent update
+ * may be lost, which only delays the average by one sample.</p>
+ */
+public class KVReadRouter {
+
+  /**
+   * The weight of a new latency sample in the average.
+   */
+  private static final double EWMA_WEIGHT = 0.2;
+
+  /**
+   * The average latency an endpoint is penalized with at least when it fails, in nanoseconds.
+   */
+  private static final double FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /**
+   * One get in this many goes to a random endpoint.
+   */
+  private static final int EXPLORE_ONE_IN = 32;
+
+  /**
+   * The number of latencies the hedging delay is computed from, and how often it is computed.
+   */
+  private static final int SAMPLE_COUNT = 256;
+  private static final int SAMPLES_PER_UPDATE = 32;
+
+  private static final GetOption SERIALIZABLE = GetOption.newBuilder().withSerializable(true).build();
+
+  private final Endpoint[] endpoints;
+  private final KV fallback;
+  private final Double hedgePercentile;
+  private final AtomicLongArray samples = new AtomicLongArray(SAMPLE_COUNT);
+  private final AtomicLong sampleCount = new AtomicLong();
+  private final AtomicLong hedgedCount = new AtomicLong();
+
+  /**
+   * The delay after which a get is hedged, in nanoseconds, 0 while it is not known.
+   */
+  private volatile long hedgeDelayNanos;
+
+  /**
+   * Constructor.
+   * @param endpointClients The client of each endpoint, by endpoint
+   * @param fallback The client of the whole cluster, used when an endpoint fails
+   */
+  KVReadRouter(Map<String, KV> endpointClients, KV fallback) {
+    this(endpointClients, fallback, null);
+  }
+
+  /**
+   * Constructor.
+   * @param endpointClients The client of each endpoint, by endpoint
+   * @param fallback The client of the whole cluster, used when an endpoint fails
+   * @param hedgePercentile The percentile of the latency after which a get is sent to another
+   *                        endpoint, or {@code null} not to hedge gets
+   */
+  KVReadRouter(Map<String, KV> endpointClients, KV fallback, Double hedgePercentile) {
+    this.endpoints = endpointClients.entrySet().stream()
+        .map(entry -> new Endpoint(entry.getKey(), entry.getValue()))
+        .toArray(Endpoint[]::new);
+    this.fallback = fallback;
+    this.hedgePercentile = endpoints.length > 1 ? hedgePercentile : null;
+  }
+
+  /**
+   * @return the endpoints the gets are routed to
+   */
+  public List<String> getEndpoints() {
+    List<String> names = new ArrayList<>(endpoints.length);
+    for (Endpoint endpoint : endpoints) {
+      names.add(endpoint.name);
+    }
+    return Collections.unmodifiableList(names);
+  }
+
+  /**
+   * @param endpoint One of the {@link #getEndpoints() endpoints}
+   * @return the average latency of the gets answered by the endpoint, in nanoseconds, or 0 if
+   * none was sent to it yet
+   */
+  public double getLatencyNanos(String endpoint) {
+    for (Endpoint candidate : endpoints) {
+      if (candidate.name.equals(endpoint)) {
+        return candidate.ewmaNanos;
+      }
+    }
+    throw new IllegalArgumentException("Unknown endpoint " + endpoint);
+  }
+
+  /**
+   * @return the delay after which a get is sent to another endpoint, in nanoseconds, or 0 if gets
+   * are not hedged, or not yet
+   */
+  public long getHedgeDelayNanos() {
+    return hedgeDelayNanos;
+  }
+
+  /**
+   * @return the number of gets sent to a second endpoint
+   */
+  public long getHedgedCount() {
+    return hedgedCount.get();
+  }
+
+  /**
+   * Sends a serializable get to the fastest endpoint, and to the next fastest one as well if it
+   * is hedged and the first is slow to answer.
+   * @param key The key
+   * @param getOption The options of the get, made serializable
+   * @return The response
+   */
+  CompletableFuture<GetResponse> get(ByteSequence key, GetOption getOption) {
+    Endpoint endpoint = choose();
+    long delayNanos = hedgeDelayNanos;
+    Context caller = Context.current();
+    AtomicBoolean fellBack = new AtomicBoolean();
+    if (delayNanos == 0) {
+      return send(endpoint, key, getOption, caller, null, fellBack);
+    }
+    CompletableFuture<GetResponse> result = new CompletableFuture<>();
+    AtomicInteger pending = new AtomicInteger(1);
+    complete(result, pending, send(endpoint, key, getOption, caller, cancellable(caller, result), fellBack));
+    KVScheduler.INSTANCE.schedule(() -> {
+      if (!result.isDone()) {
+        pending.incrementAndGet();
+        hedgedCount.incrementAndGet();
+        complete(result, pending,
+            send(next(endpoint), key, getOption, caller, cancellable(caller, result), fellBack));
+      }
+    }, delayNanos, TimeUnit.NANOSECONDS);
+    return result;
+  }
+
+  /**
+   * Sends a serializable get to an endpoint.
+   * @param endpoint The endpoint
+   * @param key The key
+   * @param getOption The options of the get, made serializable
+   * @param caller The context of the caller
+   * @param context The context the request is sent in, cancelled if another endpoint answers
+   *                first, or {@code null} if the get is not hedged
+   * @param fellBack Whether the get was already sent to the cluster, which happens once at most
+   *                 when both requests of a hedged get fail
+   * @return The response
+   */
+  private CompletableFuture<GetResponse> send(Endpoint endpoint, ByteSequence key, GetOption getOption,
+      Context caller, Context.CancellableContext context, AtomicBoolean fellBack) {
+    long startNanos = System.nanoTime();
+    CompletableFuture<GetResponse> request;
+    Context previous = context != null ? context.attach() : null;
+    try {
+      request = endpoint.kvClient.get(key, serializable(getOption));
+    } finally {
+      if (context != null) {
+        context.detach(previous);
+      }
+    }
+    return request.handle((response, throwable) -> {
+      long latencyNanos = System.nanoTime() - startNanos;
+      if (throwable != null) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+            ? throwable.getCause() : throwable;
+        boolean lostHedge = context != null && context.isCancelled() && !caller.isCancelled();
+        if (lostHedge) {
+          // another endpoint answered first, this one would have taken longer
+          endpoint.sample(latencyNanos);
+        }
+        boolean penalized = !lostHedge && !(cause instanceof KVSaturatedException)
+            && !KVContexts.cancelledByCaller(cause, caller);
+        if (penalized) {
+          endpoint.ewmaNanos = Math.max(endpoint.ewmaNanos * 2, FAILURE_PENALTY_NANOS);
+        }
+        if (!penalized || !fellBack.compareAndSet(false, true)) {
+          CompletableFuture<GetResponse> rejected = new CompletableFuture<>();
+          rejected.completeExceptionally(cause);
+          return rejected;
+        }
+        // sent with the deadline of the caller, not the cancellation of the hedged request
+        Context current = caller.attach();
+        try {
+          return fallback.get(key, getOption);
+        } finally {
+          caller.detach(current);
+        }
+      }
+      endpoint.sample(latencyNanos);
+      record(latencyNanos);
+      return CompletableFuture.completedFuture(response);
+    }).thenCompose(response -> response);
+  }
+
+  /**
+   * @param result The result of a hedged get
+   * @param pending The number of requests of the get not completed yet
+   * @param request One of the requests of the get
+   */
+  private static void complete(CompletableFuture<GetResponse> result, AtomicInteger pending,
+      CompletableFuture<GetResponse> request) {
+    request.whenComplete((response, throwable) -> {
+      int remaining = pending.decrementAndGet();
+      if (throwable == null) {
+        result.complete(response);
+      } else if (remaining == 0) {
+        result.completeExceptionally(throwable);
+      }
+    });
+  }
+
+  /**
+   * @param caller The context of the caller
+   * @param result The result of a hedged get
+   * @return A context of a request of the get, cancelled once the get completes
+   */
+  private static Context.CancellableContext cancellable(Context caller, CompletableFuture<GetResponse> result) {
+    Context.CancellableContext context = caller.withCancellation();
+    result.whenComplete((response, throwable) -> context.cancel(null));
+    return context;
+  }
+
+  /**
+   * Adds the latency of a get to the samples, and updates the hedging delay from time to time.
+   * @param latencyNanos The latency of a get
+   */
+  private void record(long latencyNanos) {
+    if (hedgePercentile == null) {
+      return;
+    }
+    long count = sampleCount.incrementAndGet();
+    samples.set((int) (count % SAMPLE_COUNT), latencyNanos);
+    if (count >= SAMPLE_COUNT && count % SAMPLES_PER_UPDATE == 0) {
+      long[] sorted = new long[SAMPLE_COUNT];
+      for (int i = 0; i < SAMPLE_COUNT; i++) {
+        sorted[i] = samples.get(i);
+      }
+      Arrays.sort(sorted);
+      int index = (int) Math.min(SAMPLE_COUNT - 1, Math.max(0, Math.ceil(hedgePercentile * SAMPLE_COUNT) - 1));
+      hedgeDelayNanos = Math.max(1, sorted[index]);
+    }
+  }
+
+  /**
+   * @return the endpoint with the lowest average latency, or sometimes a random one
+   */
+  private Endpoint choose() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    if (endpoints.length > 1 && random.nextInt(EXPLORE_ONE_IN) == 0) {
+      return endpoints[random.nextInt(endpoints.length)];
+    }
+    Endpoint fastest = endpoints[0];
+    for (int i = 1; i < endpoints.length; i++) {
+      if (endpoints[i].ewmaNanos < fastest.ewmaNanos) {
+        fastest = endpoints[i];
+      }
+    }
+    return fastest;
+  }
+
+  /**
+   * @param excluded The endpoint a get was sent to first
+   * @return the other endpoint with the lowest average latency
+   */
+  private Endpoint next(Endpoint excluded) {
+    Endpoint fastest = null;
+    for (Endpoint endpoint : endpoints) {
+      if (endpoint != excluded && (fastest == null || endpoint.ewmaNanos < fastest.ewmaNanos)) {
+        fastest = endpoint;
+      }
+    }
+    return fastest;
+  }
+
+  /**
+   * @param getOption The options of a get
+   * @return The same options, serializable
+   */
+  private static GetOption serializable(GetOption getOption) {
+    if (getOption == GetOption.DEFAULT) {
+      return SERIALIZABLE;
+    }
+    if (getOption.isSerializable()) {
+      return getOption;
+    }
+    GetOption.Builder builder = GetOption.newBuilder()
+        .withLimit(getOption.getLimit())
+        .withRevision(getOption.getRevision())
+        .withSortOrder(getOption.getSortOrder())
+        .withSortField(getOption.getSortField())
+        .withSerializable(true)
+        .withKeysOnly(getOption.isKeysOnly())
+        .withCountOnly(getOption.isCountOnly())
+        .withMinCreateRevision(getOption.getMinCreateRevision())
+        .withMaxCreateRevision(getOption.getMaxCreateRevision())
+        .withMinModRevision(getOption.getMinModRevision())
+        .withMaxModRevision(getOption.getMaxModRevision());
+    getOption.getEndKey().ifPresent(builder::withRange);
+    return builder.build();
+  }
+
+  /**
+   * An endpoint, its client and its average latency.
+   */
+  private static final class Endpoint {
+
+    private final String name;
+    private final KV kvClient;
+    private volatile double ewmaNanos;
+
+    /**
+     * @param name The endpoint
+     * @param kvClient The client connected to it only
+     */
+    private Endpoint(String name, KV kvClient) {
+      this.name = name;
+      this.kvClient = kvClient;
+    }
+
+    /**
+     * @param latencyNanos The latency of a get answered by the endpoint
+     */
+    private void sample(double latencyNanos) {
+      double ewma = ewmaNanos;
+      ewmaNanos = ewma == 0 ? latencyNanos : ewma + EWMA_WEIGHT * (latencyNanos - ewma);
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+/**
+ * Thrown when a KV request is rejected because the number of requests in flight reached the
+ * limit of its {@link KVPriority}. The request was not sent to etcd, so it can safely be retried
+ * later or degraded by the caller.
+ */
+public class KVSaturatedException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final KVPriority priority;
+  private final int limit;
+
+  /**
+   * Constructor.
+   * @param priority The priority of the rejected request
+   * @param limit The limit of requests in flight of that priority
+   */
+  public KVSaturatedException(KVPriority priority, int limit) {
+    super("Too many etcd " + priority + " requests in flight, the limit is " + limit);
+    this.priority = priority;
+    this.limit = limit;
+  }
+
+  /**
+   * @return the priority of the rejected request
+   */
+  public KVPriority getPriority() {
+    return priority;
+  }
+
+  /**
+   * @return the limit of requests in flight of that priority when the request was rejected
+   */
+  public int getLimit() {
+    return limit;
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.KeyValue;
+import io.etcd.jetcd.kv.GetResponse;
+import io.etcd.jetcd.options.GetOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Iterates over the keys under a prefix, reading them from etcd one page at a time. Instances are
+ * obtained from {@link AsyncKVService#scan(ByteSequence, int, boolean)}.
+ *
+ * <p>Every page is read at the revision of the first one, so the iteration is a consistent
+ * snapshot of the prefix. The next page is requested as soon as the current one is received, and
+ * no more than those two pages are held in memory. If the revision is compacted during the
+ * iteration, it fails with a {@link io.etcd.jetcd.common.exception.CompactedException}.</p>
+ */
+public final class KVScanner implements Iterator<KeyValue> {
+
+  private static final ByteSequence ZERO = ByteSequence.from(new byte[] {0});
+
+  private final KV kvClient;
+  private final ByteSequence prefix;
+  private final int pageSize;
+  private final boolean keysOnly;
+
+  private Iterator<KeyValue> page;
+  private CompletableFuture<GetResponse> nextPage;
+  private long revision;
+
+  /**
+   * Constructor.
+   * @param kvClient The KV client to read the pages with
+   * @param prefix The prefix of the keys to iterate over
+   * @param pageSize The maximum number of keys read at once
+   * @param keysOnly Whether to read only the keys, without the values
+   */
+  KVScanner(KV kvClient, ByteSequence prefix, int pageSize, boolean keysOnly) {
+    this.kvClient = kvClient;
+    this.prefix = prefix;
+    this.pageSize = pageSize;
+    this.keysOnly = keysOnly;
+    this.nextPage = read(prefix, 0);
+  }
+
+  /**
+   * @return the revision the keys are read at, known once {@link #hasNext()} has been called, so
+   * that the changes made after the iterated snapshot can be watched from the next revision
+   */
+  public long getRevision() {
+    return revision;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (page == null || !page.hasNext()) {
+      if (nextPage == null) {
+        return false;
+      }
+      GetResponse response = nextPage.join();
+      revision = response.getHeader().getRevision();
+      if (response.isMore() && !response.getKvs().isEmpty()) {
+        KeyValue last = response.getKvs().get(response.getKvs().size() - 1);
+        nextPage = read(last.getKey().concat(ZERO), response.getHeader().getRevision());
+      } else {
+        nextPage = null;
+      }
+      page = response.getKvs().iterator();
+    }
+    return true;
+  }
+
+  @Override
+  public KeyValue next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return page.next();
+  }
+
+  private CompletableFuture<GetResponse> read(ByteSequence fromKey, long revision) {
+    GetOption getOption = GetOption.newBuilder()
+        .withPrefix(prefix)
+        .withLimit(pageSize)
+        .withRevision(revision)
+        .withKeysOnly(keysOnly)
+        .build();
+    return kvClient.get(fromKey, getOption);
+  }
+}
@@ -15,36 +15,111 @@
  */
 package io.micronaut.etcd.kv;
 
-import com.google.protobuf.ByteString;
 import io.etcd.jetcd.ByteSequence;
 import io.etcd.jetcd.KV;
-import io.etcd.jetcd.kv.DeleteResponse;
-import io.etcd.jetcd.kv.GetResponse;
-import io.etcd.jetcd.kv.PutResponse;
+import io.etcd.jetcd.KeyValue;
 import io.etcd.jetcd.options.DeleteOption;
 import io.etcd.jetcd.options.GetOption;
 import io.etcd.jetcd.options.PutOption;
-import io.micronaut.etcd.client.ClientFactory;
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.Status;
+import io.micronaut.context.annotation.EachBean;
+import io.micronaut.context.annotation.Parameter;
 import io.micronaut.etcd.config.EtcdFactoryConfig;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
 
 /**
- * Service to work with the key/value api of etcd.
+ * Service to work with the key/value api of etcd. This is the blocking counterpart of
+ * {@link AsyncKVService}: every method waits for the etcd response on the calling thread.
+ *
+ * <p>One instance is created for each {@link EtcdFactoryConfig} bean, on top of the
+ * {@link AsyncKVService} of the same configuration.</p>
+ *
+ * <p>A call waits at most until the deadline of the gRPC {@link Context} of the caller, or else
+ * {@link EtcdFactoryConfig#getRequestTimeoutMs()}, and its request is cancelled once the deadline
+ * expires; the deadline covers an {@code update} as a whole, its retries included. The bulk calls
+ * are not bounded: they wait until all their transactions complete, however long it takes.</p>
+ *
+ * <p>Keys and values passed as byte arrays or {@link ByteBuffer}s are wrapped, not copied. Strings
+ * are encoded as UTF-8. A key used repeatedly can be encoded once into an {@link EtcdKey} or a
+ * {@link ByteSequence} and passed as such.</p>
  */
-public class KVService {
+@EachBean(EtcdFactoryConfig.class)
+public class KVService implements AutoCloseable {
 
   /**
-   * The KV Client from jetcd.
+   * The number of keys read at once by the scans that do not set it.
    */
-  private final KV kvClient;
+  public static final int DEFAULT_SCAN_PAGE_SIZE = 1000;
 
   /**
-   * Constructor.
+   * The non-blocking service every call is delegated to.
+   */
+  private final AsyncKVService asyncKVService;
+
+  /**
+   * Whether the non-blocking service was created by this service, and is closed with it.
+   */
+  private final boolean ownsAsyncKVService;
+
+  /**
+   * Constructor. The service gets its own etcd client, which is not managed by the application
+   * context and is closed with the service; inject the service instead to share the client of the
+   * configuration.
    * @param config configuration to connect to the etcd server.
    */
   public KVService(EtcdFactoryConfig config) {
-    this.kvClient = new ClientFactory().etcdKVClient(config);
+    this(new AsyncKVService(config), true);
+  }
+
+  /**
+   * Constructor.
+   * @param kvClient The jetcd KV client to use
+   */
+  public KVService(KV kvClient) {
+    this(new AsyncKVService(kvClient), true);
+  }
+
+  /**
+   * Constructor.
+   * @param asyncKVService The non-blocking service to wait on
+   */
+  @Inject
+  public KVService(@Parameter AsyncKVService asyncKVService) {
+    this(asyncKVService, false);
+  }
+
+  /**
+   * Constructor.
+   * @param asyncKVService The non-blocking service to wait on
+   * @param ownsAsyncKVService Whether the non-blocking service was created for this service alone
+   */
+  private KVService(AsyncKVService asyncKVService, boolean ownsAsyncKVService) {
+    this.asyncKVService = asyncKVService;
+    this.ownsAsyncKVService = ownsAsyncKVService;
   }
 
   /**
@@ -57,11 +132,7 @@ public class KVService {
    */
   public byte[] get (byte[] key, GetOption getOption)
       throws ExecutionException, InterruptedException {
-    ByteSequence ret = get(ByteSequence.from(ByteString.copyFrom(key)), getOption);
-    if (ret == null) {
-      return null;
-    }
-    return ret.getBytes();
+    return await(() -> asyncKVService.get(key, getOption));
   }
 
   /**
@@ -86,7 +157,7 @@ public class KVService {
    */
   public byte[] get (String key, GetOption getOption)
       throws ExecutionException, InterruptedException {
-    return get(key.getBytes(), getOption);
+    return await(() -> asyncKVService.get(key, getOption));
   }
 
   /**
@@ -98,7 +169,29 @@ public class KVService {
    */
   public byte[] get (String key)
       throws ExecutionException, InterruptedException {
-    return get(key.getBytes(), GetOption.DEFAULT);
+    return get(key, GetOption.DEFAULT);
+  }
+
+  /**
+   * Get a value from a key, without copying it.
+   * @param key Key to search for
+   * @return {@link ByteSequence}
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public ByteSequence get (ByteSequence key) throws ExecutionException, InterruptedException {
+    return get(key, GetOption.DEFAULT);
+  }
+
+  /**
+   * Get a value from a key. The value is copied once into the returned buffer.
+   * @param key Key to search for
+   * @return The value in a read-only buffer
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public ByteBuffer get (ByteBuffer key) throws ExecutionException, InterruptedException {
+    return await(() -> asyncKVService.get(key));
   }
 
   /**
@@ -109,14 +202,59 @@ public class KVService {
    * @throws ExecutionException
    * @throws InterruptedException
    */
-  protected ByteSequence get (ByteSequence key, GetOption getOption) throws ExecutionException,
+  public ByteSequence get (ByteSequence key, GetOption getOption) throws ExecutionException,
       InterruptedException {
-    CompletableFuture<GetResponse> getResponseCompletableFuture = kvClient.get(key, getOption);
-    GetResponse response = getResponseCompletableFuture.get();
-    if (response.getKvs().isEmpty()) {
-      return null;
-    }
-    return response.getKvs().get(0).getValue();
+    return await(() -> asyncKVService.get(key, getOption));
+  }
+
+  /**
+   * Gets a value, decoded by the codec of its type.
+   * @param key The key used to get a value
+   * @param type The type of the value
+   * @param <T> The type of the value
+   * @return The value, or {@code null} if the key does not exist
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public <T> T get (String key, Class<T> type) throws ExecutionException, InterruptedException {
+    return await(() -> asyncKVService.get(key, type));
+  }
+
+  /**
+   * Gets a value, decoded by the codec of its type.
+   * @param key The key used to get a value
+   * @param type The type of the value
+   * @param <T> The type of the value
+   * @return The value, or {@code null} if the key does not exist
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public <T> T get (ByteSequence key, Class<T> type) throws ExecutionException, InterruptedException {
+    return await(() -> asyncKVService.get(key, type));
+  }
+
+  /**
+   * Get a value from a key encoded beforehand, without copying it.
+   * @param key Key to search for
+   * @return {@link ByteSequence}
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public ByteSequence get (EtcdKey key) throws ExecutionException, InterruptedException {
+    return await(() -> asyncKVService.get(key));
+  }
+
+  /**
+   * Gets a value from a key encoded beforehand, decoded by the codec of its type.
+   * @param key The key used to get a value
+   * @param type The type of the value
+   * @param <T> The type of the value
+   * @return The value, or {@code null} if the key does not exist
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public <T> T get (EtcdKey key, Class<T> type) throws ExecutionException, InterruptedException {
+    return await(() -> asyncKVService.get(key, type));
   }
 
   /**
@@ -129,8 +267,7 @@ public class KVService {
    */
   public byte[] put (byte[] key, byte[] value)
       throws ExecutionException, InterruptedException {
-    return put(ByteSequence.from(ByteString.copyFrom(key)),
-        ByteSequence.from(ByteString.copyFrom(value)), PutOption.DEFAULT);
+    return await(() -> asyncKVService.put(key, value));
   }
 
   /**
@@ -144,8 +281,7 @@ public class KVService {
    */
   public byte[] put (byte[] key, byte[] value, PutOption putOption)
       throws ExecutionException, InterruptedException {
-    return put(ByteSequence.from(ByteString.copyFrom(key)),
-        ByteSequence.from(ByteString.copyFrom(value)), putOption);
+    return await(() -> asyncKVService.put(key, value, putOption));
   }
 
   /**
@@ -158,8 +294,7 @@ public class KVService {
    */
   public byte[] put (String key, byte[] value)
       throws ExecutionException, InterruptedException {
-    return put(ByteSequence.from(ByteString.copyFrom(key.getBytes())),
-        ByteSequence.from(ByteString.copyFrom(value)), PutOption.DEFAULT);
+    return await(() -> asyncKVService.put(key, value));
   }
 
   /**
@@ -173,8 +308,7 @@ public class KVService {
    */
   public byte[] put (String key, byte[] value, PutOption putOption)
       throws ExecutionException, InterruptedException {
-    return put(ByteSequence.from(ByteString.copyFrom(key.getBytes())),
-        ByteSequence.from(ByteString.copyFrom(value)), putOption);
+    return await(() -> asyncKVService.put(key, value, putOption));
   }
 
   /**
@@ -187,8 +321,7 @@ public class KVService {
    */
   public byte[] put (String key, String value)
       throws ExecutionException, InterruptedException {
-    return put(ByteSequence.from(ByteString.copyFrom(key.getBytes())),
-        ByteSequence.from(ByteString.copyFrom(value.getBytes())), PutOption.DEFAULT);
+    return await(() -> asyncKVService.put(key, value));
   }
 
   /**
@@ -202,8 +335,33 @@ public class KVService {
    */
   public byte[] put (String key, String value, PutOption putOption)
       throws ExecutionException, InterruptedException {
-    return put(ByteSequence.from(ByteString.copyFrom(key.getBytes())),
-        ByteSequence.from(ByteString.copyFrom(value.getBytes())), putOption);
+    return await(() -> asyncKVService.put(key, value, putOption));
+  }
+
+  /**
+   * Inserts key-value, without copying the key nor the value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @return The previous key-pair value as byte array
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public byte[] put (ByteSequence key, ByteSequence value)
+      throws ExecutionException, InterruptedException {
+    return await(() -> asyncKVService.put(key, value));
+  }
+
+  /**
+   * Inserts key-value, without copying the key nor the value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @return The previous key-pair value as byte array
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public byte[] put (ByteBuffer key, ByteBuffer value)
+      throws ExecutionException, InterruptedException {
+    return await(() -> asyncKVService.put(key, value));
   }
 
   /**
@@ -215,14 +373,57 @@ public class KVService {
    * @throws ExecutionException
    * @throws InterruptedException
    */
-  protected byte[] put (ByteSequence key, ByteSequence value, PutOption putOption)
+  public byte[] put (ByteSequence key, ByteSequence value, PutOption putOption)
       throws ExecutionException, InterruptedException {
-    CompletableFuture<PutResponse> completableFuture = kvClient.put(key, value, putOption);
-    ByteSequence byteSequence = getValueFromCompletableFuturePutResponse(completableFuture);
-    if (byteSequence == null) {
-      return null;
-    }
-    return byteSequence.getBytes();
+    return await(() -> asyncKVService.put(key, value, putOption));
+  }
+
+  /**
+   * Puts a value, encoded by the codec of its type.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @param <T> The type of the value
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public <T> void put (String key, T value) throws ExecutionException, InterruptedException {
+    await(() -> asyncKVService.put(key, value));
+  }
+
+  /**
+   * Puts a value, encoded by the codec of its type.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @param <T> The type of the value
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public <T> void put (ByteSequence key, T value) throws ExecutionException, InterruptedException {
+    await(() -> asyncKVService.put(key, value));
+  }
+
+  /**
+   * Inserts key-value, with a key encoded beforehand, without copying the key nor the value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @return The previous key-pair value as byte array
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public byte[] put (EtcdKey key, ByteSequence value) throws ExecutionException, InterruptedException {
+    return await(() -> asyncKVService.put(key, value));
+  }
+
+  /**
+   * Puts a value, encoded by the codec of its type, with a key encoded beforehand.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @param <T> The type of the value
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public <T> void put (EtcdKey key, T value) throws ExecutionException, InterruptedException {
+    await(() -> asyncKVService.put(key, value));
   }
 
   /**
@@ -233,7 +434,7 @@ public class KVService {
    * @throws InterruptedException
    */
   public long delete (String key) throws ExecutionException, InterruptedException {
-    return delete(ByteSequence.from(ByteString.copyFrom(key.getBytes())), DeleteOption.DEFAULT);
+    return await(() -> asyncKVService.delete(key));
   }
 
   /**
@@ -245,7 +446,18 @@ public class KVService {
    * @throws InterruptedException
    */
   public long delete (String key, DeleteOption deleteOption) throws ExecutionException, InterruptedException {
-    return delete(ByteSequence.from(ByteString.copyFrom(key.getBytes())), deleteOption);
+    return await(() -> asyncKVService.delete(key, deleteOption));
+  }
+
+  /**
+   * Deletes a key-value.
+   * @param key The key to be deleted on etcd cluster
+   * @return Number of key-value elements deleted
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public long delete (ByteSequence key) throws ExecutionException, InterruptedException {
+    return delete(key, DeleteOption.DEFAULT);
   }
 
   /**
@@ -256,27 +468,330 @@ public class KVService {
    * @throws ExecutionException
    * @throws InterruptedException
    */
-  protected long delete (ByteSequence key, DeleteOption deleteOption)
+  public long delete (ByteSequence key, DeleteOption deleteOption)
       throws ExecutionException, InterruptedException {
-    CompletableFuture<DeleteResponse> completableFuture = kvClient.delete(key, deleteOption);
-    DeleteResponse deleteResponse = completableFuture.get();
-    return deleteResponse.getDeleted();
+    return await(() -> asyncKVService.delete(key, deleteOption));
   }
 
   /**
-   *
-   * @param completableFuture The object handle the PUT response
-   * @return {@link ByteSequence} Of the previous key-pair value
+   * Deletes a key-value, with a key encoded beforehand.
+   * @param key The key to be deleted on etcd cluster
+   * @return Number of key-value elements deleted
    * @throws ExecutionException
    * @throws InterruptedException
    */
-  private ByteSequence getValueFromCompletableFuturePutResponse (CompletableFuture<PutResponse> completableFuture)
+  public long delete (EtcdKey key) throws ExecutionException, InterruptedException {
+    return await(() -> asyncKVService.delete(key));
+  }
+
+  /**
+   * Streams the key-values under a prefix, in key order. They are read lazily from etcd in pages of
+   * {@value #DEFAULT_SCAN_PAGE_SIZE} keys, all at the revision of the first page, so the memory
+   * used does not depend on the number of keys. A failure while reading a page is thrown as a
+   * {@link java.util.concurrent.CompletionException} by the stream.
+   * @param prefix The prefix of the keys to read
+   * @return Lazy stream of the key-values
+   */
+  public Stream<KeyValue> scan (String prefix) {
+    return scan(ByteSequence.from(prefix, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Streams the key-values under a prefix, in key order.
+   * @param prefix The prefix of the keys to read
+   * @return Lazy stream of the key-values
+   * @see #scan(String)
+   */
+  public Stream<KeyValue> scan (ByteSequence prefix) {
+    return scan(prefix, DEFAULT_SCAN_PAGE_SIZE);
+  }
+
+  /**
+   * Streams the key-values under a prefix, in key order.
+   * @param prefix The prefix of the keys to read
+   * @param pageSize The maximum number of keys read at once
+   * @return Lazy stream of the key-values
+   * @see #scan(String)
+   */
+  public Stream<KeyValue> scan (ByteSequence prefix, int pageSize) {
+    return stream(asyncKVService.scan(prefix, pageSize, false));
+  }
+
+  /**
+   * Streams the keys under a prefix, in key order, without reading their values.
+   * @param prefix The prefix of the keys to read
+   * @return Lazy stream of the keys
+   * @see #scan(String)
+   */
+  public Stream<ByteSequence> scanKeys (String prefix) {
+    return scanKeys(ByteSequence.from(prefix, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Streams the keys under a prefix, in key order, without reading their values.
+   * @param prefix The prefix of the keys to read
+   * @return Lazy stream of the keys
+   * @see #scan(String)
+   */
+  public Stream<ByteSequence> scanKeys (ByteSequence prefix) {
+    return scanKeys(prefix, DEFAULT_SCAN_PAGE_SIZE);
+  }
+
+  /**
+   * Streams the keys under a prefix, in key order, without reading their values.
+   * @param prefix The prefix of the keys to read
+   * @param pageSize The maximum number of keys read at once
+   * @return Lazy stream of the keys
+   * @see #scan(String)
+   */
+  public Stream<ByteSequence> scanKeys (ByteSequence prefix, int pageSize) {
+    return stream(asyncKVService.scan(prefix, pageSize, true)).map(KeyValue::getKey);
+  }
+
+  /**
+   * Counts the keys under a prefix, without reading them.
+   * @param prefix The prefix of the keys to count
+   * @return Number of keys
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public long count (String prefix) throws ExecutionException, InterruptedException {
+    return await(() -> asyncKVService.count(prefix));
+  }
+
+  /**
+   * Counts the keys under a prefix, without reading them.
+   * @param prefix The prefix of the keys to count
+   * @return Number of keys
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public long count (ByteSequence prefix) throws ExecutionException, InterruptedException {
+    return await(() -> asyncKVService.count(prefix));
+  }
+
+  /**
+   * Starts a transaction, committed asynchronously.
+   * @return A builder of the transaction
+   */
+  public KVTransaction transaction () {
+    return asyncKVService.transaction();
+  }
+
+  /**
+   * Updates the value of a key optimistically, retrying when it is modified concurrently.
+   * @param key The key to update
+   * @param function Computes the new value from the current one, {@code null} meaning the key is
+   *                 absent, respectively to be deleted. It may be applied several times.
+   * @return The value written
+   * @throws ExecutionException if the update failed, with a
+   *     {@link java.util.ConcurrentModificationException} as cause if the key kept being modified
+   * @throws InterruptedException
+   * @see AsyncKVService#update(ByteSequence, UnaryOperator)
+   */
+  public ByteSequence update (ByteSequence key, UnaryOperator<ByteSequence> function)
+      throws ExecutionException, InterruptedException {
+    return await(() -> asyncKVService.update(key, function));
+  }
+
+  /**
+   * Puts many keys, in transactions sent in parallel, waiting until all of them complete, without
+   * deadline.
+   * @param values The keys and values to put
+   * @return The number of keys put and the chunks that failed
+   * @throws ExecutionException
+   * @throws InterruptedException
+   * @see AsyncKVService#putAll(Stream, LongConsumer)
+   */
+  public KVBulkResult putAll (Map<ByteSequence, ByteSequence> values)
+      throws ExecutionException, InterruptedException {
+    return asyncKVService.putAll(values).get();
+  }
+
+  /**
+   * Puts many keys read from a stream, in transactions sent in parallel, waiting until all of them
+   * complete, without deadline.
+   * @param entries The keys and values to put
+   * @param progress Called with the number of keys done so far, or {@code null}
+   * @return The number of keys put and the chunks that failed
+   * @throws ExecutionException if the stream failed
+   * @throws InterruptedException
+   * @see AsyncKVService#putAll(Stream, LongConsumer)
+   */
+  public KVBulkResult putAll (Stream<? extends Map.Entry<ByteSequence, ByteSequence>> entries, LongConsumer progress)
+      throws ExecutionException, InterruptedException {
+    return asyncKVService.putAll(entries, progress).get();
+  }
+
+  /**
+   * Deletes many keys, in transactions sent in parallel, waiting until all of them complete,
+   * without deadline.
+   * @param keys The keys to delete
+   * @return The number of keys deleted and the chunks that failed
+   * @throws ExecutionException
+   * @throws InterruptedException
+   * @see AsyncKVService#deleteAll(Stream, LongConsumer)
+   */
+  public KVBulkResult deleteAll (Collection<ByteSequence> keys)
       throws ExecutionException, InterruptedException {
-    PutResponse response = completableFuture.get();
-    if (!response.hasPrevKv()) {
-      return null;
+    return asyncKVService.deleteAll(keys).get();
+  }
+
+  /**
+   * Deletes many keys read from a stream, in transactions sent in parallel, waiting until all of them
+   * complete, without deadline.
+   * @param keys The keys to delete
+   * @param progress Called with the number of keys done so far, or {@code null}
+   * @return The number of keys deleted and the chunks that failed
+   * @throws ExecutionException if the stream failed
+   * @throws InterruptedException
+   * @see AsyncKVService#deleteAll(Stream, LongConsumer)
+   */
+  public KVBulkResult deleteAll (Stream<ByteSequence> keys, LongConsumer progress)
+      throws ExecutionException, InterruptedException {
+    return asyncKVService.deleteAll(keys, progress).get();
+  }
+
+  /**
+   * Exports the key/values under a prefix to a snapshot file.
+   * @param prefix The prefix of the keys
+   * @param file The file to write, replaced if it exists
+   * @param compress Whether to compress the key/values
+   * @return The number of key/values exported
+   * @throws IOException if the file could not be written
+   * @see #exportSnapshot(ByteSequence, Path, boolean)
+   */
+  public long exportSnapshot (String prefix, Path file, boolean compress) throws IOException {
+    return exportSnapshot(ByteSequence.from(prefix, StandardCharsets.UTF_8), file, compress);
+  }
+
+  /**
+   * Exports the key/values under a prefix to a snapshot file. They are read page by page at the
+   * revision of the first page, as for {@link #scan(ByteSequence)}, and written as they are read,
+   * so the prefix may hold more than fits in memory. The file is a header holding the prefix and
+   * the revision, followed by the length-prefixed keys, relative to the prefix, and values,
+   * compressed with deflate if asked. If the export fails, the file is deleted.
+   * @param prefix The prefix of the keys
+   * @param file The file to write, replaced if it exists
+   * @param compress Whether to compress the key/values
+   * @return The number of key/values exported
+   * @throws IOException if the file could not be written
+   */
+  public long exportSnapshot (ByteSequence prefix, Path file, boolean compress) throws IOException {
+    KVScanner scanner = asyncKVService.scan(prefix, DEFAULT_SCAN_PAGE_SIZE, false);
+    // reads the first page, so that the revision is known
+    scanner.hasNext();
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE);
+    try {
+      try (KVSnapshotWriter writer = new KVSnapshotWriter(channel, prefix, scanner.getRevision(), compress)) {
+        while (scanner.hasNext()) {
+          writer.write(scanner.next());
+        }
+        return writer.getCount();
+      }
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      Files.deleteIfExists(file);
+      throw e;
+    }
+  }
+
+  /**
+   * Imports the key/values of a snapshot file under the prefix they were exported from.
+   * @param file The snapshot file
+   * @param progress Called with the number of keys done so far, or {@code null}
+   * @return The number of keys put and the chunks that failed
+   * @throws IOException if the file could not be opened, or is not a snapshot
+   * @throws ExecutionException if the file could not be read to the end
+   * @throws InterruptedException
+   * @see #importSnapshot(Path, ByteSequence, LongConsumer)
+   */
+  public KVBulkResult importSnapshot (Path file, LongConsumer progress)
+      throws IOException, ExecutionException, InterruptedException {
+    return importSnapshot(file, null, progress);
+  }
+
+  /**
+   * Imports the key/values of a snapshot file written by
+   * {@link #exportSnapshot(ByteSequence, Path, boolean)}. They are read as they are put, in
+   * transactions sent in parallel as for {@link #putAll(Stream, LongConsumer)}, so the file may
+   * hold more than fits in memory. The keys under the prefix that are not in the snapshot are left
+   * as they are.
+   * @param file The snapshot file
+   * @param prefix The prefix to put the keys under instead of the one they were exported from, or
+   *               {@code null}
+   * @param progress Called with the number of keys done so far, or {@code null}
+   * @return The number of keys put and the chunks that failed
+   * @throws IOException if the file could not be opened, or is not a snapshot
+   * @throws ExecutionException if the file could not be read to the end, with an
+   * {@link java.io.UncheckedIOException} as cause
+   * @throws InterruptedException
+   */
+  public KVBulkResult importSnapshot (Path file, ByteSequence prefix, LongConsumer progress)
+      throws IOException, ExecutionException, InterruptedException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+         KVSnapshotReader reader = new KVSnapshotReader(channel, prefix)) {
+      return putAll(StreamSupport.stream(Spliterators.spliteratorUnknownSize(reader,
+          Spliterator.ORDERED | Spliterator.NONNULL), false), progress);
     }
-    return response.getPrevKv().getValue();
   }
 
+  private static Stream<KeyValue> stream(Iterator<KeyValue> iterator) {
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+        Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+  /**
+   * Sends a request and waits for its response, at most until its deadline: the one of the gRPC
+   * context of the caller, or else {@link EtcdFactoryConfig#getRequestTimeoutMs()} from now. The
+   * request is sent in a context with that deadline, so that it is cancelled once it expires.
+   * @param request Sends the request
+   * @param <T> The type of the response
+   * @return The response
+   * @throws ExecutionException if the request failed, with a
+   *     {@link io.grpc.StatusRuntimeException} of code {@link Status.Code#DEADLINE_EXCEEDED} as
+   *     cause if its deadline expired, as gRPC fails the requests themselves
+   * @throws InterruptedException
+   */
+  private <T> T await(Supplier<CompletableFuture<T>> request) throws ExecutionException, InterruptedException {
+    Deadline deadline = Context.current().getDeadline();
+    Long timeoutMs = asyncKVService.getRequestTimeoutMs();
+    if (timeoutMs != null) {
+      Deadline requestDeadline = Deadline.after(timeoutMs, TimeUnit.MILLISECONDS);
+      deadline = deadline != null ? deadline.minimum(requestDeadline) : requestDeadline;
+    }
+    if (deadline == null) {
+      return request.get().get();
+    }
+    Context.CancellableContext context = Context.current().withDeadline(deadline, KVScheduler.INSTANCE);
+    CompletableFuture<T> response = null;
+    try {
+      Context previous = context.attach();
+      try {
+        response = request.get();
+      } finally {
+        context.detach(previous);
+      }
+      return response.get(deadline.timeRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      response.cancel(false);
+      throw new ExecutionException(Status.DEADLINE_EXCEEDED
+          .withDescription("No response from etcd before the deadline").asRuntimeException());
+    } finally {
+      context.cancel(null);
+    }
+  }
+
+  /**
+   * Closes the non-blocking service if it was created by this service, along with its own etcd
+   * client. A service injected with a shared non-blocking service leaves it open.
+   */
+  @PreDestroy
+  @Override
+  public void close() {
+    if (ownsAsyncKVService) {
+      asyncKVService.close();
+    }
+  }
 }
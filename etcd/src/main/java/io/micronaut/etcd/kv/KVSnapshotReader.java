@@ -0,0 +1,230 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import io.etcd.jetcd.ByteSequence;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the key/values of a snapshot file written by {@link KVSnapshotWriter}, one at a time
+ * through a fixed buffer. Each key is rebased from the prefix of the snapshot to the given one.
+ *
+ * <p>The iteration fails with an {@link UncheckedIOException} if the file cannot be read, is not
+ * a snapshot, or is truncated.</p>
+ */
+final class KVSnapshotReader implements Iterator<Map.Entry<ByteSequence, ByteSequence>>, Closeable {
+
+  private final ReadableByteChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(KVSnapshotWriter.BUFFER_SIZE);
+  private final long revision;
+  private final ByteSequence snapshotPrefix;
+  private final byte[] prefix;
+  private Inflater inflater;
+  private byte[] compressed;
+  private Map.Entry<ByteSequence, ByteSequence> next;
+  private long count;
+  private boolean ended;
+
+  /**
+   * Constructor. Reads the header.
+   * @param channel The channel to read from, closed with the reader
+   * @param prefix The prefix to put the keys under, or {@code null} for the prefix of the snapshot
+   * @throws IOException if the header could not be read, or is not the one of a snapshot
+   */
+  KVSnapshotReader(ReadableByteChannel channel, ByteSequence prefix) throws IOException {
+    this.channel = channel;
+    buffer.flip();
+    byte[] magic = readFully(new byte[KVSnapshotWriter.MAGIC.length]);
+    if (!Arrays.equals(magic, KVSnapshotWriter.MAGIC)) {
+      throw new IOException("Not an etcd snapshot");
+    }
+    byte version = readByte();
+    if (version != KVSnapshotWriter.VERSION) {
+      throw new IOException("Unsupported etcd snapshot version " + version);
+    }
+    byte flags = readByte();
+    this.revision = ByteBuffer.wrap(readFully(new byte[Long.BYTES])).getLong();
+    this.snapshotPrefix = ByteSequence.from(readFully(new byte[(int) readVarint()]));
+    this.prefix = (prefix == null ? snapshotPrefix : prefix).getBytes();
+    if ((flags & KVSnapshotWriter.FLAG_DEFLATE) != 0) {
+      // the bytes already read after the header are the first compressed ones
+      inflater = new Inflater(true);
+      compressed = new byte[KVSnapshotWriter.BUFFER_SIZE];
+      int read = buffer.remaining();
+      buffer.get(compressed, 0, read);
+      inflater.setInput(compressed, 0, read);
+    }
+  }
+
+  /**
+   * @return the revision the keys of the snapshot were read at
+   */
+  long getRevision() {
+    return revision;
+  }
+
+  /**
+   * @return the prefix of the keys of the snapshot
+   */
+  ByteSequence getPrefix() {
+    return snapshotPrefix;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next == null && !ended) {
+      try {
+        next = readRecord();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return next != null;
+  }
+
+  @Override
+  public Map.Entry<ByteSequence, ByteSequence> next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Map.Entry<ByteSequence, ByteSequence> entry = next;
+    next = null;
+    return entry;
+  }
+
+  /**
+   * Closes the channel.
+   * @throws IOException if it could not be closed
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      channel.close();
+    } finally {
+      if (inflater != null) {
+        inflater.end();
+      }
+    }
+  }
+
+  private Map.Entry<ByteSequence, ByteSequence> readRecord() throws IOException {
+    long keyLength = readVarint();
+    if (keyLength == 0) {
+      ended = true;
+      long written = readVarint();
+      if (written != count) {
+        throw new IOException("Corrupted etcd snapshot: " + count + " keys read, " + written + " written");
+      }
+      return null;
+    }
+    byte[] key = new byte[Math.addExact(prefix.length, checkedLength(keyLength - 1))];
+    System.arraycopy(prefix, 0, key, 0, prefix.length);
+    readFully(key, prefix.length);
+    byte[] value = readFully(new byte[checkedLength(readVarint())]);
+    count++;
+    return new AbstractMap.SimpleImmutableEntry<>(ByteSequence.from(key), ByteSequence.from(value));
+  }
+
+  private static int checkedLength(long length) throws IOException {
+    if (length > Integer.MAX_VALUE - KVSnapshotWriter.BUFFER_SIZE) {
+      throw new IOException("Corrupted etcd snapshot: record of " + length + " bytes");
+    }
+    return (int) length;
+  }
+
+  private long readVarint() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < Long.SIZE; shift += 7) {
+      byte b = readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IOException("Corrupted etcd snapshot: malformed length");
+  }
+
+  private byte readByte() throws IOException {
+    if (!buffer.hasRemaining() && !fill()) {
+      throw new EOFException("Truncated etcd snapshot");
+    }
+    return buffer.get();
+  }
+
+  private byte[] readFully(byte[] bytes) throws IOException {
+    readFully(bytes, 0);
+    return bytes;
+  }
+
+  private void readFully(byte[] bytes, int offset) throws IOException {
+    while (offset < bytes.length) {
+      if (!buffer.hasRemaining() && !fill()) {
+        throw new EOFException("Truncated etcd snapshot");
+      }
+      int chunk = Math.min(bytes.length - offset, buffer.remaining());
+      buffer.get(bytes, offset, chunk);
+      offset += chunk;
+    }
+  }
+
+  /**
+   * Reads the next bytes into the buffer, once it has been consumed.
+   * @return {@code false} at the end of the file
+   */
+  private boolean fill() throws IOException {
+    buffer.clear();
+    try {
+      if (inflater == null) {
+        int read;
+        do {
+          read = channel.read(buffer);
+        } while (read == 0);
+        return read > 0;
+      }
+      while (true) {
+        int inflated = inflater.inflate(buffer.array(), buffer.arrayOffset(), buffer.capacity());
+        if (inflated > 0) {
+          buffer.position(inflated);
+          return true;
+        }
+        if (inflater.finished() || inflater.needsDictionary()) {
+          return false;
+        }
+        int read = channel.read(ByteBuffer.wrap(compressed));
+        if (read < 0) {
+          return false;
+        }
+        inflater.setInput(compressed, 0, read);
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupted etcd snapshot", e);
+    } finally {
+      buffer.flip();
+    }
+  }
+}
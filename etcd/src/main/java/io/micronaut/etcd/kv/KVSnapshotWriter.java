@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.KeyValue;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the key/values under a prefix to a snapshot file, one at a time through a fixed buffer.
+ *
+ * <p>The file starts with a header, never compressed: the {@link #MAGIC} bytes, the format
+ * {@link #VERSION}, the flags, the revision the keys were read at as 8 bytes, and the prefix,
+ * length-prefixed. Each key/value follows as the length of the key after the prefix plus one,
+ * that key suffix, the length of the value and the value, all lengths being unsigned varints. A
+ * length of 0 ends the records, followed by their number, so that a truncated file is detected.
+ * With {@link #FLAG_DEFLATE}, everything after the header is compressed with raw deflate.</p>
+ */
+final class KVSnapshotWriter implements Closeable {
+
+  /**
+   * The first bytes of a snapshot file.
+   */
+  static final byte[] MAGIC = {'E', 'T', 'C', 'D', 'S', 'N', 'A', 'P'};
+
+  /**
+   * The version of the format.
+   */
+  static final byte VERSION = 1;
+
+  /**
+   * The flag of a file whose records are compressed.
+   */
+  static final byte FLAG_DEFLATE = 1;
+
+  /**
+   * The size of the buffers.
+   */
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  private final WritableByteChannel channel;
+  private final int prefixSize;
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  private Deflater deflater;
+  private byte[] deflated;
+  private long count;
+
+  /**
+   * Constructor. Writes the header.
+   * @param channel The channel to write to, closed with the writer
+   * @param prefix The prefix of the keys written
+   * @param revision The revision the keys were read at
+   * @param compress Whether to compress the records
+   * @throws IOException if the header could not be written
+   */
+  KVSnapshotWriter(WritableByteChannel channel, ByteSequence prefix, long revision, boolean compress)
+      throws IOException {
+    this.channel = channel;
+    this.prefixSize = prefix.size();
+    buffer.put(MAGIC).put(VERSION).put(compress ? FLAG_DEFLATE : 0).putLong(revision);
+    putVarint(prefix.size());
+    put(prefix.getBytes());
+    flush();
+    // set once the header is written, as it is never compressed
+    this.deflater = compress ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : null;
+    this.deflated = compress ? new byte[BUFFER_SIZE] : null;
+  }
+
+  /**
+   * Writes a key/value.
+   * @param keyValue The key/value, whose key starts with the prefix
+   * @throws IOException if it could not be written
+   */
+  void write(KeyValue keyValue) throws IOException {
+    byte[] key = keyValue.getKey().getBytes();
+    byte[] value = keyValue.getValue().getBytes();
+    putVarint(key.length - prefixSize + 1);
+    put(key, prefixSize, key.length - prefixSize);
+    putVarint(value.length);
+    put(value, 0, value.length);
+    count++;
+  }
+
+  /**
+   * @return the number of key/values written
+   */
+  long getCount() {
+    return count;
+  }
+
+  /**
+   * Ends the records, and closes the channel.
+   * @throws IOException if the end of the file could not be written
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      putVarint(0);
+      putVarint(count);
+      flush();
+      if (deflater != null) {
+        deflater.finish();
+        while (!deflater.finished()) {
+          writeFully(ByteBuffer.wrap(deflated, 0, deflater.deflate(deflated)));
+        }
+      }
+    } finally {
+      try {
+        channel.close();
+      } finally {
+        if (deflater != null) {
+          deflater.end();
+        }
+      }
+    }
+  }
+
+  private void putVarint(long value) throws IOException {
+    if (buffer.remaining() < 10) {
+      flush();
+    }
+    while ((value & ~0x7FL) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private void put(byte[] bytes) throws IOException {
+    put(bytes, 0, bytes.length);
+  }
+
+  private void put(byte[] bytes, int offset, int length) throws IOException {
+    while (length > 0) {
+      if (!buffer.hasRemaining()) {
+        flush();
+      }
+      int chunk = Math.min(length, buffer.remaining());
+      buffer.put(bytes, offset, chunk);
+      offset += chunk;
+      length -= chunk;
+    }
+  }
+
+  private void flush() throws IOException {
+    buffer.flip();
+    if (deflater == null) {
+      writeFully(buffer);
+    } else {
+      deflater.setInput(buffer.array(), buffer.arrayOffset(), buffer.limit());
+      while (!deflater.needsInput()) {
+        writeFully(ByteBuffer.wrap(deflated, 0, deflater.deflate(deflated)));
+      }
+    }
+    buffer.clear();
+  }
+
+  private void writeFully(ByteBuffer bytes) throws IOException {
+    while (bytes.hasRemaining()) {
+      channel.write(bytes);
+    }
+  }
+}
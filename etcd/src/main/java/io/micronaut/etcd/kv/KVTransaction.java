@@ -0,0 +1,289 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.op.Cmp;
+import io.etcd.jetcd.op.CmpTarget;
+import io.etcd.jetcd.op.Op;
+import io.etcd.jetcd.options.DeleteOption;
+import io.etcd.jetcd.options.GetOption;
+import io.etcd.jetcd.options.PutOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Builder of an etcd transaction: if every comparison holds, the {@code then} operations are
+ * applied, else the {@code else} operations, atomically and in a single round trip.
+ *
+ * <pre>{@code
+ * asyncKVService.transaction()
+ *     .ifModRevision(key, Cmp.Op.EQUAL, modRevision)
+ *     .thenPut(key, value)
+ *     .thenDelete(lockKey)
+ *     .elseGet(key)
+ *     .commit();
+ * }</pre>
+ *
+ * <p>A builder is not thread-safe, and is meant to be committed once. Keys and values are not
+ * copied, so they must not be modified until the transaction completes.</p>
+ */
+public class KVTransaction {
+
+  private final KV kvClient;
+  private final KVCache cache;
+  private final List<Cmp> comparisons = new ArrayList<>();
+  private final Branch success = new Branch();
+  private final Branch failure = new Branch();
+
+  /**
+   * Constructor.
+   * @param kvClient The KV client to commit with
+   * @param cache The local cache to update with the writes, or {@code null}
+   */
+  KVTransaction(KV kvClient, KVCache cache) {
+    this.kvClient = kvClient;
+    this.cache = cache;
+  }
+
+  /**
+   * Compares the value of a key.
+   * @param key The key
+   * @param op The comparison
+   * @param value The value to compare to
+   * @return this builder
+   */
+  public KVTransaction ifValue(ByteSequence key, Cmp.Op op, ByteSequence value) {
+    comparisons.add(new Cmp(key, op, CmpTarget.value(value)));
+    return this;
+  }
+
+  /**
+   * Compares the version of a key, the number of times it was put since it was created.
+   * @param key The key
+   * @param op The comparison
+   * @param version The version to compare to
+   * @return this builder
+   */
+  public KVTransaction ifVersion(ByteSequence key, Cmp.Op op, long version) {
+    comparisons.add(new Cmp(key, op, CmpTarget.version(version)));
+    return this;
+  }
+
+  /**
+   * Compares the revision a key was last modified at.
+   * @param key The key
+   * @param op The comparison
+   * @param modRevision The revision to compare to
+   * @return this builder
+   */
+  public KVTransaction ifModRevision(ByteSequence key, Cmp.Op op, long modRevision) {
+    comparisons.add(new Cmp(key, op, CmpTarget.modRevision(modRevision)));
+    return this;
+  }
+
+  /**
+   * Checks that a key does not exist.
+   * @param key The key
+   * @return this builder
+   */
+  public KVTransaction ifAbsent(ByteSequence key) {
+    return ifVersion(key, Cmp.Op.EQUAL, 0);
+  }
+
+  /**
+   * Puts a value if the comparisons hold.
+   * @param key The key
+   * @param value The value
+   * @return this builder
+   */
+  public KVTransaction thenPut(ByteSequence key, ByteSequence value) {
+    success.put(key, value, PutOption.DEFAULT);
+    return this;
+  }
+
+  /**
+   * Puts a value if the comparisons hold.
+   * @param key The key
+   * @param value The value
+   * @param putOption The options of the put
+   * @return this builder
+   */
+  public KVTransaction thenPut(ByteSequence key, ByteSequence value, PutOption putOption) {
+    success.put(key, value, putOption);
+    return this;
+  }
+
+  /**
+   * Gets a key if the comparisons hold.
+   * @param key The key
+   * @return this builder
+   */
+  public KVTransaction thenGet(ByteSequence key) {
+    success.operations.add(Op.get(key, GetOption.DEFAULT));
+    return this;
+  }
+
+  /**
+   * Gets keys if the comparisons hold.
+   * @param key The key
+   * @param getOption The options of the get
+   * @return this builder
+   */
+  public KVTransaction thenGet(ByteSequence key, GetOption getOption) {
+    success.operations.add(Op.get(key, getOption));
+    return this;
+  }
+
+  /**
+   * Deletes a key if the comparisons hold.
+   * @param key The key
+   * @return this builder
+   */
+  public KVTransaction thenDelete(ByteSequence key) {
+    success.delete(key, DeleteOption.DEFAULT);
+    return this;
+  }
+
+  /**
+   * Deletes keys if the comparisons hold.
+   * @param key The key
+   * @param deleteOption The options of the delete
+   * @return this builder
+   */
+  public KVTransaction thenDelete(ByteSequence key, DeleteOption deleteOption) {
+    success.delete(key, deleteOption);
+    return this;
+  }
+
+  /**
+   * Puts a value if a comparison fails.
+   * @param key The key
+   * @param value The value
+   * @return this builder
+   */
+  public KVTransaction elsePut(ByteSequence key, ByteSequence value) {
+    failure.put(key, value, PutOption.DEFAULT);
+    return this;
+  }
+
+  /**
+   * Puts a value if a comparison fails.
+   * @param key The key
+   * @param value The value
+   * @param putOption The options of the put
+   * @return this builder
+   */
+  public KVTransaction elsePut(ByteSequence key, ByteSequence value, PutOption putOption) {
+    failure.put(key, value, putOption);
+    return this;
+  }
+
+  /**
+   * Gets a key if a comparison fails, typically to read its current value.
+   * @param key The key
+   * @return this builder
+   */
+  public KVTransaction elseGet(ByteSequence key) {
+    failure.operations.add(Op.get(key, GetOption.DEFAULT));
+    return this;
+  }
+
+  /**
+   * Gets keys if a comparison fails.
+   * @param key The key
+   * @param getOption The options of the get
+   * @return this builder
+   */
+  public KVTransaction elseGet(ByteSequence key, GetOption getOption) {
+    failure.operations.add(Op.get(key, getOption));
+    return this;
+  }
+
+  /**
+   * Deletes a key if a comparison fails.
+   * @param key The key
+   * @return this builder
+   */
+  public KVTransaction elseDelete(ByteSequence key) {
+    failure.delete(key, DeleteOption.DEFAULT);
+    return this;
+  }
+
+  /**
+   * Deletes keys if a comparison fails.
+   * @param key The key
+   * @param deleteOption The options of the delete
+   * @return this builder
+   */
+  public KVTransaction elseDelete(ByteSequence key, DeleteOption deleteOption) {
+    failure.delete(key, deleteOption);
+    return this;
+  }
+
+  /**
+   * Sends the transaction.
+   * @return A future completed with the result of the transaction
+   */
+  public CompletableFuture<KVTransactionResult> commit() {
+    return kvClient.txn()
+        .If(comparisons.toArray(new Cmp[0]))
+        .Then(success.operations.toArray(new Op[0]))
+        .Else(failure.operations.toArray(new Op[0]))
+        .commit()
+        .thenApply(response -> {
+          if (cache != null) {
+            (response.isSucceeded() ? success : failure).written(cache, response.getHeader().getRevision());
+          }
+          return new KVTransactionResult(response);
+        });
+  }
+
+  /**
+   * The operations of a branch of the transaction.
+   */
+  private static final class Branch {
+    private final List<Op> operations = new ArrayList<>();
+
+    /**
+     * The single key writes, applied to the local cache once committed: pairs of key and value,
+     * {@code null} for a delete.
+     */
+    private final List<ByteSequence> writes = new ArrayList<>();
+
+    private void put(ByteSequence key, ByteSequence value, PutOption putOption) {
+      operations.add(Op.put(key, value, putOption));
+      writes.add(key);
+      writes.add(value);
+    }
+
+    private void delete(ByteSequence key, DeleteOption deleteOption) {
+      operations.add(Op.delete(key, deleteOption));
+      if (deleteOption == DeleteOption.DEFAULT) {
+        writes.add(key);
+        writes.add(null);
+      }
+    }
+
+    private void written(KVCache cache, long revision) {
+      for (int i = 0; i < writes.size(); i += 2) {
+        cache.written(writes.get(i), writes.get(i + 1), revision);
+      }
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.KeyValue;
+import io.etcd.jetcd.kv.GetResponse;
+import io.etcd.jetcd.kv.TxnResponse;
+import java.util.List;
+
+/**
+ * The result of a {@link KVTransaction}. The responses are those of the branch that was applied,
+ * indexed by type in the order the operations were added: the first get of the branch is get 0,
+ * whatever puts or deletes come before it. Keys and values share the buffers of the response,
+ * they are not copied.
+ */
+public final class KVTransactionResult {
+
+  private final TxnResponse response;
+
+  /**
+   * Constructor.
+   * @param response The response of etcd
+   */
+  KVTransactionResult(TxnResponse response) {
+    this.response = response;
+  }
+
+  /**
+   * @return whether every comparison held, and so the {@code then} operations were applied
+   */
+  public boolean isSucceeded() {
+    return response.isSucceeded();
+  }
+
+  /**
+   * @return the revision of the store after the transaction
+   */
+  public long getRevision() {
+    return response.getHeader().getRevision();
+  }
+
+  /**
+   * @param index The index of the get among the gets of the applied branch
+   * @return the key-values read by that get
+   */
+  public List<KeyValue> getKeyValues(int index) {
+    return response.getGetResponses().get(index).getKvs();
+  }
+
+  /**
+   * @param index The index of the get among the gets of the applied branch
+   * @return the value read by that get, or {@code null} if the key does not exist
+   */
+  public ByteSequence getValue(int index) {
+    GetResponse getResponse = response.getGetResponses().get(index);
+    return getResponse.getKvs().isEmpty() ? null : getResponse.getKvs().get(0).getValue();
+  }
+
+  /**
+   * @param index The index of the delete among the deletes of the applied branch
+   * @return the number of keys deleted by that delete
+   */
+  public long getDeleted(int index) {
+    return response.getDeleteResponses().get(index).getDeleted();
+  }
+
+  /**
+   * @return the response of etcd, for the details not exposed here
+   */
+  public TxnResponse getResponse() {
+    return response;
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.Txn;
+import io.etcd.jetcd.kv.CompactResponse;
+import io.etcd.jetcd.kv.DeleteResponse;
+import io.etcd.jetcd.kv.GetResponse;
+import io.etcd.jetcd.kv.PutResponse;
+import io.etcd.jetcd.kv.TxnResponse;
+import io.etcd.jetcd.op.Cmp;
+import io.etcd.jetcd.op.Op;
+import io.etcd.jetcd.options.CompactOption;
+import io.etcd.jetcd.options.DeleteOption;
+import io.etcd.jetcd.options.GetOption;
+import io.etcd.jetcd.options.PutOption;
+import io.grpc.Context;
+import io.grpc.Status;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * {@link KV} client admitting every request through a {@link KVLimiter}: gets and transactions
+ * that only get keys in the {@link KVPriority#READ} lane, and puts, deletes, compactions and the
+ * other transactions in the {@link KVPriority#WRITE} one. A rejected request is not sent, and its future fails with a
+ * {@link KVSaturatedException}. Only the failures showing etcd or the network is overloaded, that
+ * is {@code UNAVAILABLE}, {@code DEADLINE_EXCEEDED} and {@code RESOURCE_EXHAUSTED}, count as drops;
+ * the others, such as a rejected request, are samples like a response. A request cancelled by its
+ * caller, or failed past its caller's deadline, is released without updating the limit.
+ */
+final class LimitedKV implements KV {
+
+  private final KV kvClient;
+  private final KVLimiter limiter;
+
+  /**
+   * Constructor.
+   * @param kvClient The client sending the admitted requests
+   * @param limiter The limiter of the requests in flight
+   */
+  LimitedKV(KV kvClient, KVLimiter limiter) {
+    this.kvClient = kvClient;
+    this.limiter = limiter;
+  }
+
+  @Override
+  public CompletableFuture<PutResponse> put(ByteSequence key, ByteSequence value) {
+    return limit(KVPriority.WRITE, () -> kvClient.put(key, value));
+  }
+
+  @Override
+  public CompletableFuture<PutResponse> put(ByteSequence key, ByteSequence value, PutOption option) {
+    return limit(KVPriority.WRITE, () -> kvClient.put(key, value, option));
+  }
+
+  @Override
+  public CompletableFuture<GetResponse> get(ByteSequence key) {
+    return limit(KVPriority.READ, () -> kvClient.get(key));
+  }
+
+  @Override
+  public CompletableFuture<GetResponse> get(ByteSequence key, GetOption option) {
+    return limit(KVPriority.READ, () -> kvClient.get(key, option));
+  }
+
+  @Override
+  public CompletableFuture<DeleteResponse> delete(ByteSequence key) {
+    return limit(KVPriority.WRITE, () -> kvClient.delete(key));
+  }
+
+  @Override
+  public CompletableFuture<DeleteResponse> delete(ByteSequence key, DeleteOption option) {
+    return limit(KVPriority.WRITE, () -> kvClient.delete(key, option));
+  }
+
+  @Override
+  public CompletableFuture<CompactResponse> compact(long rev) {
+    return limit(KVPriority.WRITE, () -> kvClient.compact(rev));
+  }
+
+  @Override
+  public CompletableFuture<CompactResponse> compact(long rev, CompactOption option) {
+    return limit(KVPriority.WRITE, () -> kvClient.compact(rev, option));
+  }
+
+  @Override
+  public Txn txn() {
+    return new LimitedTxn(kvClient.txn());
+  }
+
+  @Override
+  public void close() {
+    kvClient.close();
+  }
+
+  /**
+   * @param priority The priority of the request
+   * @param request Sends the request once admitted
+   * @param <T> The type of the response
+   * @return The response, or a future failed with a {@link KVSaturatedException}
+   */
+  private <T> CompletableFuture<T> limit(KVPriority priority, Supplier<CompletableFuture<T>> request) {
+    if (!limiter.tryAcquire(priority)) {
+      CompletableFuture<T> rejected = new CompletableFuture<>();
+      rejected.completeExceptionally(new KVSaturatedException(priority, limiter.getLimit(priority)));
+      return rejected;
+    }
+    Context caller = Context.current();
+    long startNanos = System.nanoTime();
+    CompletableFuture<T> response;
+    try {
+      response = request.get();
+    } catch (RuntimeException e) {
+      limiter.release(startNanos, isDropped(e));
+      throw e;
+    }
+    // completes once released, so that a caller that sends another request on completion gets the slot back
+    return response.whenComplete((received, throwable) -> {
+      if (throwable != null && KVContexts.cancelledByCaller(throwable, caller)) {
+        limiter.releaseCancelled();
+      } else {
+        limiter.release(startNanos, throwable != null && isDropped(throwable));
+      }
+    });
+  }
+
+  /**
+   * @param throwable The failure of a request
+   * @return whether the failure shows that etcd or the network is overloaded
+   */
+  private static boolean isDropped(Throwable throwable) {
+    switch (Status.fromThrowable(throwable).getCode()) {
+      case UNAVAILABLE:
+      case DEADLINE_EXCEEDED:
+      case RESOURCE_EXHAUSTED:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Transaction admitted when committed, as a {@link KVPriority#READ} request if all its operations
+   * are gets, else as a {@link KVPriority#WRITE} one.
+   */
+  private final class LimitedTxn implements Txn {
+
+    private final Txn txn;
+    private boolean readOnly = true;
+
+    /**
+     * @param txn The transaction to commit once admitted
+     */
+    private LimitedTxn(Txn txn) {
+      this.txn = txn;
+    }
+
+    @Override
+    public Txn If(Cmp... cmps) {
+      txn.If(cmps);
+      return this;
+    }
+
+    @Override
+    public Txn Then(Op... ops) {
+      txn.Then(ops);
+      readOnly &= areGets(ops);
+      return this;
+    }
+
+    @Override
+    public Txn Else(Op... ops) {
+      txn.Else(ops);
+      readOnly &= areGets(ops);
+      return this;
+    }
+
+    @Override
+    public CompletableFuture<TxnResponse> commit() {
+      return limit(readOnly ? KVPriority.READ : KVPriority.WRITE, txn::commit);
+    }
+
+    /**
+     * @param ops The operations of a branch of the transaction
+     * @return whether they all get keys
+     */
+    private boolean areGets(Op[] ops) {
+      for (Op op : ops) {
+        if (!(op instanceof Op.GetOp)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.kv;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.options.DeleteOption;
+import io.etcd.jetcd.options.GetOption;
+import io.etcd.jetcd.options.PutOption;
+import io.micronaut.context.annotation.EachBean;
+import io.micronaut.context.annotation.Parameter;
+import io.micronaut.core.async.publisher.Publishers;
+import io.micronaut.etcd.config.EtcdFactoryConfig;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import org.reactivestreams.Publisher;
+
+/**
+ * Reactive service to work with the key/value api of etcd. Each {@link Publisher} is cold: the
+ * request is sent to etcd when it is subscribed to. A publisher for a missing key, or for a put
+ * without previous value, completes without emitting any item.
+ *
+ * <p>One instance is created for each {@link EtcdFactoryConfig} bean, on top of the
+ * {@link AsyncKVService} of the same configuration.</p>
+ */
+@EachBean(EtcdFactoryConfig.class)
+public class ReactiveKVService implements AutoCloseable {
+
+  /**
+   * The non-blocking service every call is delegated to.
+   */
+  private final AsyncKVService asyncKVService;
+
+  /**
+   * Whether the non-blocking service was created by this service, and is closed with it.
+   */
+  private final boolean ownsAsyncKVService;
+
+  /**
+   * Constructor. The service gets its own etcd client, which is not managed by the application
+   * context and is closed with the service; inject the service instead to share the client of the
+   * configuration.
+   * @param config configuration to connect to the etcd server.
+   */
+  public ReactiveKVService(EtcdFactoryConfig config) {
+    this(new AsyncKVService(config), true);
+  }
+
+  /**
+   * Constructor.
+   * @param kvClient The jetcd KV client to use
+   */
+  public ReactiveKVService(KV kvClient) {
+    this(new AsyncKVService(kvClient), true);
+  }
+
+  /**
+   * Constructor.
+   * @param asyncKVService The non-blocking service to delegate to
+   */
+  @Inject
+  public ReactiveKVService(@Parameter AsyncKVService asyncKVService) {
+    this(asyncKVService, false);
+  }
+
+  /**
+   * Constructor.
+   * @param asyncKVService The non-blocking service to delegate to
+   * @param ownsAsyncKVService Whether the non-blocking service was created for this service alone
+   */
+  private ReactiveKVService(AsyncKVService asyncKVService, boolean ownsAsyncKVService) {
+    this.asyncKVService = asyncKVService;
+    this.ownsAsyncKVService = ownsAsyncKVService;
+  }
+
+  /**
+   * Get a value from a key.
+   * @param key Key to search for
+   * @param getOption {@link GetOption} for the GET request
+   * @return A {@link Publisher} of the value as byte array
+   */
+  public Publisher<byte[]> get(byte[] key, GetOption getOption) {
+    return Publishers.fromCompletableFuture(() -> asyncKVService.get(key, getOption));
+  }
+
+  /**
+   * Get a value from a key.
+   * @param key Key to search for
+   * @return A {@link Publisher} of the value as byte array
+   */
+  public Publisher<byte[]> get(byte[] key) {
+    return get(key, GetOption.DEFAULT);
+  }
+
+  /**
+   * Get a value from a key.
+   * @param key Key to search for
+   * @param getOption {@link GetOption} for the GET request
+   * @return A {@link Publisher} of the value as byte array
+   */
+  public Publisher<byte[]> get(String key, GetOption getOption) {
+    return Publishers.fromCompletableFuture(() -> asyncKVService.get(key, getOption));
+  }
+
+  /**
+   * Get a value from a key.
+   * @param key Key to search for
+   * @return A {@link Publisher} of the value as byte array
+   */
+  public Publisher<byte[]> get(String key) {
+    return get(key, GetOption.DEFAULT);
+  }
+
+  /**
+   * Get a value from a key, without copying it.
+   * @param key Key to search for
+   * @return A {@link Publisher} of the value
+   */
+  public Publisher<ByteSequence> get(ByteSequence key) {
+    return Publishers.fromCompletableFuture(() -> asyncKVService.get(key));
+  }
+
+  /**
+   * Get a value from a key encoded beforehand, without copying it.
+   * @param key Key to search for
+   * @return A {@link Publisher} of the value
+   */
+  public Publisher<ByteSequence> get(EtcdKey key) {
+    return Publishers.fromCompletableFuture(() -> asyncKVService.get(key));
+  }
+
+  /**
+   * Inserts key-value, without copying the key nor the value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @return A {@link Publisher} of the previous key-pair value as byte array
+   */
+  public Publisher<byte[]> put(ByteSequence key, ByteSequence value) {
+    return Publishers.fromCompletableFuture(() -> asyncKVService.put(key, value));
+  }
+
+  /**
+   * Inserts key-value, with a key encoded beforehand, without copying the key nor the value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @return A {@link Publisher} of the previous key-pair value as byte array
+   */
+  public Publisher<byte[]> put(EtcdKey key, ByteSequence value) {
+    return Publishers.fromCompletableFuture(() -> asyncKVService.put(key, value));
+  }
+
+  /**
+   * Inserts key-value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @return A {@link Publisher} of the previous key-pair value as byte array
+   */
+  public Publisher<byte[]> put(byte[] key, byte[] value) {
+    return put(key, value, PutOption.DEFAULT);
+  }
+
+  /**
+   * Inserts key-value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @param putOption {@link PutOption} The options used to put the key/value
+   * @return A {@link Publisher} of the previous key-pair value as byte array
+   */
+  public Publisher<byte[]> put(byte[] key, byte[] value, PutOption putOption) {
+    return Publishers.fromCompletableFuture(() -> asyncKVService.put(key, value, putOption));
+  }
+
+  /**
+   * Inserts key-value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @return A {@link Publisher} of the previous key-pair value as byte array
+   */
+  public Publisher<byte[]> put(String key, byte[] value) {
+    return put(key, value, PutOption.DEFAULT);
+  }
+
+  /**
+   * Inserts key-value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @param putOption {@link PutOption} The options used to put the key/value
+   * @return A {@link Publisher} of the previous key-pair value as byte array
+   */
+  public Publisher<byte[]> put(String key, byte[] value, PutOption putOption) {
+    return Publishers.fromCompletableFuture(() -> asyncKVService.put(key, value, putOption));
+  }
+
+  /**
+   * Inserts key-value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @return A {@link Publisher} of the previous key-pair value as byte array
+   */
+  public Publisher<byte[]> put(String key, String value) {
+    return put(key, value, PutOption.DEFAULT);
+  }
+
+  /**
+   * Inserts key-value.
+   * @param key The key used to store the value
+   * @param value The value to store
+   * @param putOption {@link PutOption} The options used to put the key/value
+   * @return A {@link Publisher} of the previous key-pair value as byte array
+   */
+  public Publisher<byte[]> put(String key, String value, PutOption putOption) {
+    return Publishers.fromCompletableFuture(() -> asyncKVService.put(key, value, putOption));
+  }
+
+  /**
+   * Deletes a key-value.
+   * @param key The key to be deleted on etcd cluster
+   * @return A {@link Publisher} of the number of key-value elements deleted
+   */
+  public Publisher<Long> delete(String key) {
+    return delete(key, DeleteOption.DEFAULT);
+  }
+
+  /**
+   * Deletes a key-value with the possibility to provide deletion options.
+   * @param key The key to be deleted on etcd cluster
+   * @param deleteOption {@link DeleteOption} Deletion options
+   * @return A {@link Publisher} of the number of key-value elements deleted
+   */
+  public Publisher<Long> delete(String key, DeleteOption deleteOption) {
+    return Publishers.fromCompletableFuture(() -> asyncKVService.delete(key, deleteOption));
+  }
+
+  /**
+   * Closes the non-blocking service if it was created by this service, along with its own etcd
+   * client. A service injected with a shared non-blocking service leaves it open.
+   */
+  @PreDestroy
+  @Override
+  public void close() {
+    if (ownsAsyncKVService) {
+      asyncKVService.close();
+    }
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.lease;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.Client;
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.Lease;
+import io.micronaut.context.annotation.EachBean;
+import io.micronaut.etcd.client.ClientFactory;
+import io.micronaut.etcd.config.EtcdFactoryConfig;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+/**
+ * Service to register ephemeral keys, which are deleted by etcd when the application stops
+ * keeping them alive.
+ *
+ * <p>Instead of a lease per key, every key of the same TTL is attached to the same lease, so the
+ * number of leases, grants and keep-alives does not grow with the number of keys. The keep-alives
+ * of all the leases of a client are sent by jetcd on a single stream. When a lease expires, for
+ * instance after the connection to etcd was lost for longer than its TTL, a new lease is granted
+ * and its keys are put again.</p>
+ *
+ * <p>One instance is created for each {@link EtcdFactoryConfig} bean, sharing the client built by
+ * {@link ClientFactory}. The leases are revoked, and so their keys deleted, when it is closed.</p>
+ */
+@EachBean(EtcdFactoryConfig.class)
+public class LeaseService implements AutoCloseable {
+
+  /**
+   * The delay in milliseconds before a failed lease grant is retried.
+   */
+  public static final long DEFAULT_RETRY_DELAY_MS = 1000;
+
+  /**
+   * The time in milliseconds a service closing its own etcd client waits for its leases to be
+   * revoked first.
+   */
+  private static final long REVOKE_TIMEOUT_MS = 5000;
+
+  private final Lease leaseClient;
+  private final KV kvClient;
+  private final long retryDelayMs;
+  private final ScheduledExecutorService scheduler;
+  private final Map<Long, SharedLease> leases = new ConcurrentHashMap<>();
+  private final Map<ByteSequence, SharedLease> keyLeases = new ConcurrentHashMap<>();
+
+  /**
+   * The factory created by this service for its own etcd client, closed with the service, or null
+   * if the client is shared.
+   */
+  private final ClientFactory ownedClientFactory;
+
+  /**
+   * Constructor. The service gets its own etcd client, which is not managed by the application
+   * context and is closed with the service; inject the service instead to share the client of the
+   * configuration.
+   * @param config configuration to connect to the etcd server.
+   */
+  public LeaseService(EtcdFactoryConfig config) {
+    this(new ClientFactory(), config);
+  }
+
+  /**
+   * Constructor.
+   * @param config configuration to connect to the etcd server.
+   * @param clientFactory The factory holding the shared etcd clients
+   */
+  @Inject
+  public LeaseService(EtcdFactoryConfig config, ClientFactory clientFactory) {
+    this(clientFactory.etcdClient(config));
+  }
+
+  /**
+   * Constructor.
+   * @param client The jetcd client to use
+   */
+  public LeaseService(Client client) {
+    this(client.getLeaseClient(), client.getKVClient(), DEFAULT_RETRY_DELAY_MS);
+  }
+
+  /**
+   * Constructor of a service owning its etcd client.
+   * @param ownedClientFactory The factory created for this service alone
+   * @param config configuration to connect to the etcd server.
+   */
+  private LeaseService(ClientFactory ownedClientFactory, EtcdFactoryConfig config) {
+    this(ownedClientFactory.etcdClient(config).getLeaseClient(), ownedClientFactory.etcdClient(config).getKVClient(),
+        DEFAULT_RETRY_DELAY_MS, ownedClientFactory);
+  }
+
+  /**
+   * Constructor.
+   * @param leaseClient The jetcd Lease client to use
+   * @param kvClient The jetcd KV client to use
+   * @param retryDelayMs The delay in milliseconds before a failed lease grant is retried
+   */
+  LeaseService(Lease leaseClient, KV kvClient, long retryDelayMs) {
+    this(leaseClient, kvClient, retryDelayMs, null);
+  }
+
+  /**
+   * Constructor.
+   * @param leaseClient The jetcd Lease client to use
+   * @param kvClient The jetcd KV client to use
+   * @param retryDelayMs The delay in milliseconds before a failed lease grant is retried
+   * @param ownedClientFactory The factory created for this service alone, or null
+   */
+  private LeaseService(Lease leaseClient, KV kvClient, long retryDelayMs, ClientFactory ownedClientFactory) {
+    this.leaseClient = leaseClient;
+    this.ownedClientFactory = ownedClientFactory;
+    this.kvClient = kvClient;
+    this.retryDelayMs = retryDelayMs;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "etcd-lease-retry");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Puts an ephemeral key.
+   * @param key The key
+   * @param value The value
+   * @param ttlSeconds The time in seconds the key outlives the application, or its connection
+   * @return A future completed once the key is put
+   */
+  public CompletableFuture<Void> putEphemeral(String key, String value, long ttlSeconds) {
+    return putEphemeral(ByteSequence.from(key, StandardCharsets.UTF_8),
+        ByteSequence.from(value, StandardCharsets.UTF_8), ttlSeconds);
+  }
+
+  /**
+   * Puts an ephemeral key. The key is moved to the lease of the given TTL if it was attached to
+   * another one.
+   * @param key The key
+   * @param value The value
+   * @param ttlSeconds The time in seconds the key outlives the application, or its connection
+   * @return A future completed once the key is put
+   */
+  public CompletableFuture<Void> putEphemeral(ByteSequence key, ByteSequence value, long ttlSeconds) {
+    SharedLease lease = leases.computeIfAbsent(ttlSeconds,
+        ttl -> new SharedLease(leaseClient, kvClient, ttl, scheduler, retryDelayMs));
+    SharedLease previous = keyLeases.put(key, lease);
+    if (previous != null && previous != lease) {
+      previous.remove(key);
+    }
+    return lease.put(key, value);
+  }
+
+  /**
+   * Deletes an ephemeral key and stops putting it again on lease expiry.
+   * @param key The key
+   * @return A future completed with whether the key existed
+   */
+  public CompletableFuture<Boolean> deleteEphemeral(String key) {
+    return deleteEphemeral(ByteSequence.from(key, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Deletes an ephemeral key and stops putting it again on lease expiry.
+   * @param key The key
+   * @return A future completed with whether the key existed
+   */
+  public CompletableFuture<Boolean> deleteEphemeral(ByteSequence key) {
+    SharedLease lease = keyLeases.remove(key);
+    if (lease != null) {
+      lease.remove(key);
+    }
+    return kvClient.delete(key).thenApply(response -> response.getDeleted() > 0);
+  }
+
+  /**
+   * Gets the id of the lease of a TTL, granting it if needed, for keys put by other means.
+   * Such keys are not put again when the lease expires.
+   * @param ttlSeconds The TTL in seconds
+   * @return A future completed with the id of the lease
+   */
+  public CompletableFuture<Long> getLeaseId(long ttlSeconds) {
+    return leases.computeIfAbsent(ttlSeconds,
+        ttl -> new SharedLease(leaseClient, kvClient, ttl, scheduler, retryDelayMs)).getLeaseId();
+  }
+
+  /**
+   * @return the number of leases held, one per TTL in use
+   */
+  public int getLeaseCount() {
+    return leases.size();
+  }
+
+  /**
+   * @return the number of ephemeral keys
+   */
+  public int getKeyCount() {
+    return keyLeases.size();
+  }
+
+  /**
+   * Revokes every lease, which deletes the ephemeral keys. A service owning its etcd client waits
+   * for the revocations, up to a few seconds, before closing the client.
+   */
+  @PreDestroy
+  @Override
+  public void close() {
+    CompletableFuture<?>[] revoked = leases.values().stream()
+        .map(SharedLease::revoke)
+        .toArray(CompletableFuture[]::new);
+    leases.clear();
+    keyLeases.clear();
+    scheduler.shutdownNow();
+    if (ownedClientFactory != null) {
+      try {
+        CompletableFuture.allOf(revoked).get(REVOKE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException | TimeoutException e) {
+        // the leases left expire after their TTL
+      }
+      ownedClientFactory.close();
+    }
+  }
+}
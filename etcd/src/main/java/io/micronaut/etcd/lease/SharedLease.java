@@ -0,0 +1,217 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.lease;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.Lease;
+import io.etcd.jetcd.lease.LeaseGrantResponse;
+import io.etcd.jetcd.lease.LeaseKeepAliveResponse;
+import io.etcd.jetcd.options.PutOption;
+import io.etcd.jetcd.support.CloseableClient;
+import io.grpc.stub.StreamObserver;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A lease shared by every ephemeral key of the same TTL, kept alive as long as it is open.
+ *
+ * <p>The lease remembers the keys attached to it and their values. When its keep-alive fails,
+ * which happens when the lease expired, for instance after a long disconnection, a new lease is
+ * granted and every key is put again under it. A failed grant is retried after a delay.</p>
+ */
+final class SharedLease implements AutoCloseable {
+
+  private final Lease leaseClient;
+  private final KV kvClient;
+  private final long ttlSeconds;
+  private final ScheduledExecutorService scheduler;
+  private final long retryDelayMs;
+  private final Map<ByteSequence, ByteSequence> keys = new LinkedHashMap<>();
+
+  /**
+   * The current lease id, completed once it is granted.
+   */
+  private CompletableFuture<Long> leaseId;
+
+  /**
+   * Incremented each time a new lease is granted, to ignore the callbacks of previous ones.
+   */
+  private int generation;
+  private CloseableClient keepAlive;
+  private boolean closed;
+
+  /**
+   * Constructor. The lease is granted right away.
+   * @param leaseClient The lease client used to grant and keep alive the lease
+   * @param kvClient The KV client used to put the keys
+   * @param ttlSeconds The TTL of the lease in seconds
+   * @param scheduler The scheduler used to retry a failed grant
+   * @param retryDelayMs The delay in milliseconds before a failed grant is retried
+   */
+  SharedLease(Lease leaseClient, KV kvClient, long ttlSeconds, ScheduledExecutorService scheduler,
+              long retryDelayMs) {
+    this.leaseClient = leaseClient;
+    this.kvClient = kvClient;
+    this.ttlSeconds = ttlSeconds;
+    this.scheduler = scheduler;
+    this.retryDelayMs = retryDelayMs;
+    synchronized (this) {
+      grant();
+    }
+  }
+
+  /**
+   * @return A future completed with the id of the current lease
+   */
+  synchronized CompletableFuture<Long> getLeaseId() {
+    return leaseId;
+  }
+
+  /**
+   * Attaches a key to this lease and puts it.
+   * @param key The key
+   * @param value The value
+   * @return A future completed once the key is put
+   */
+  CompletableFuture<Void> put(ByteSequence key, ByteSequence value) {
+    CompletableFuture<Long> id;
+    synchronized (this) {
+      // the key and value may share the arrays of the caller, and are put again on a new lease
+      keys.put(ByteSequence.from(key.getBytes()), ByteSequence.from(value.getBytes()));
+      id = leaseId;
+    }
+    return id.thenCompose(lease -> put(key, value, lease));
+  }
+
+  /**
+   * Detaches a key from this lease, without deleting it.
+   * @param key The key
+   * @return whether the key was attached to this lease
+   */
+  synchronized boolean remove(ByteSequence key) {
+    return keys.remove(key) != null;
+  }
+
+  /**
+   * Stops keeping the lease alive and revokes it, which deletes its keys.
+   */
+  @Override
+  public void close() {
+    revoke();
+  }
+
+  /**
+   * Stops keeping the lease alive and revokes it, which deletes its keys.
+   * @return A future completed once the lease is revoked, or right away if it was already closed
+   */
+  CompletableFuture<?> revoke() {
+    CompletableFuture<Long> id;
+    synchronized (this) {
+      if (closed) {
+        return CompletableFuture.completedFuture(null);
+      }
+      closed = true;
+      generation++;
+      closeKeepAlive();
+      id = leaseId;
+    }
+    return id.thenCompose(leaseClient::revoke);
+  }
+
+  /**
+   * Grants a new lease and starts keeping it alive. Must be called holding the lock.
+   */
+  private void grant() {
+    int grantGeneration = ++generation;
+    CompletableFuture<Long> grant = leaseClient.grant(ttlSeconds).thenApply(LeaseGrantResponse::getID);
+    leaseId = grant;
+    grant.whenComplete((id, throwable) -> {
+      synchronized (this) {
+        if (grantGeneration != generation) {
+          return;
+        }
+        if (throwable != null) {
+          scheduler.schedule(() -> expired(grantGeneration), retryDelayMs, TimeUnit.MILLISECONDS);
+        } else {
+          keepAlive = leaseClient.keepAlive(id, new KeepAliveObserver(grantGeneration));
+        }
+      }
+    });
+  }
+
+  /**
+   * Replaces an expired lease, or a failed grant, by a new lease and puts every key again.
+   * @param expiredGeneration The generation of the lease that expired
+   */
+  private void expired(int expiredGeneration) {
+    CompletableFuture<Long> id;
+    Map<ByteSequence, ByteSequence> attached;
+    synchronized (this) {
+      if (closed || expiredGeneration != generation) {
+        return;
+      }
+      closeKeepAlive();
+      grant();
+      id = leaseId;
+      attached = new LinkedHashMap<>(keys);
+    }
+    id.thenAccept(lease -> attached.forEach((key, value) -> put(key, value, lease)));
+  }
+
+  private CompletableFuture<Void> put(ByteSequence key, ByteSequence value, long lease) {
+    return kvClient.put(key, value, PutOption.newBuilder().withLeaseId(lease).build())
+        .thenApply(response -> null);
+  }
+
+  private void closeKeepAlive() {
+    if (keepAlive != null) {
+      keepAlive.close();
+      keepAlive = null;
+    }
+  }
+
+  /**
+   * Observes the keep-alive of one lease.
+   */
+  private final class KeepAliveObserver implements StreamObserver<LeaseKeepAliveResponse> {
+    private final int observedGeneration;
+
+    private KeepAliveObserver(int observedGeneration) {
+      this.observedGeneration = observedGeneration;
+    }
+
+    @Override
+    public void onNext(LeaseKeepAliveResponse response) {
+      if (response.getTTL() <= 0) {
+        expired(observedGeneration);
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      expired(observedGeneration);
+    }
+
+    @Override
+    public void onCompleted() {
+      expired(observedGeneration);
+    }
+  }
+}
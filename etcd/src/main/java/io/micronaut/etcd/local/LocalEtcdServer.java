@@ -0,0 +1,232 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.local;
+
+import io.grpc.ForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A stand-in for an etcd server, running in the application: the KV, Watch and Lease APIs served
+ * from memory on an ephemeral port of the loopback interface. It keeps the revisions of etcd, so
+ * scans at a revision, transactions comparing versions, watches from a past revision, compaction
+ * and expiring leases behave as with a real server, but nothing is persisted nor replicated. Only
+ * the last {@value #DEFAULT_RETAINED_REVISIONS} revisions are kept by default.
+ * It lets tests and benchmarks run without an etcd server, in milliseconds.
+ *
+ * <p>{@link #setLatencyMs(long)} delays every response, and {@link #setFailureRate(double)} fails
+ * that share of the calls with {@link Status#UNAVAILABLE}, as an unreachable member would, to test
+ * how the application copes with a slow or flaky cluster.</p>
+ *
+ * <p>The Cluster, Maintenance, Auth, Lock and Election APIs are not served.</p>
+ *
+ * @see io.micronaut.etcd.config.EtcdFactoryConfig#setLocalServer(boolean)
+ */
+public final class LocalEtcdServer implements AutoCloseable {
+
+  /**
+   * The default number of past revisions kept before being compacted.
+   */
+  public static final long DEFAULT_RETAINED_REVISIONS = 10000;
+
+  private static final long LEASE_EXPIRY_PERIOD_MS = 100;
+
+  private final LocalStore store = new LocalStore();
+  private final ScheduledExecutorService scheduler;
+  private final Server server;
+  private final LongAdder injectedFailures = new LongAdder();
+  private volatile long latencyMs;
+  private volatile double failureRate;
+
+  /**
+   * Starts a server on an ephemeral port of the loopback interface.
+   * @throws IOException if the server could not be bound
+   */
+  public LocalEtcdServer() throws IOException {
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "etcd-local-server");
+      thread.setDaemon(true);
+      return thread;
+    });
+    FaultInjector faultInjector = new FaultInjector();
+    server = NettyServerBuilder.forAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+        .addService(ServerInterceptors.intercept(new LocalKVService(store), faultInjector))
+        .addService(ServerInterceptors.intercept(new LocalWatchService(store), faultInjector))
+        .addService(ServerInterceptors.intercept(new LocalLeaseService(store), faultInjector))
+        .maxInboundMessageSize(Integer.MAX_VALUE)
+        .build()
+        .start();
+    scheduler.scheduleWithFixedDelay(store::expireLeases, LEASE_EXPIRY_PERIOD_MS, LEASE_EXPIRY_PERIOD_MS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return the endpoint to connect to, such as {@code http://127.0.0.1:41234}
+   */
+  public String getEndpoint() {
+    return "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getPort();
+  }
+
+  /**
+   * @return the revision of the last write
+   */
+  public long getRevision() {
+    return store.getRevision();
+  }
+
+  /**
+   * Sets the number of past revisions kept: older ones are compacted as the store is written to,
+   * as with the revision auto-compaction of etcd.
+   * @param retainedRevisions the number of past revisions kept, at least 1
+   */
+  public void setRetainedRevisions(long retainedRevisions) {
+    store.setRetainedRevisions(Math.max(1, retainedRevisions));
+  }
+
+  /**
+   * @return the time in milliseconds every response is delayed by
+   */
+  public long getLatencyMs() {
+    return latencyMs;
+  }
+
+  /**
+   * Delays the responses of the calls started from now on.
+   * @param latencyMs the time in milliseconds to delay every response by, 0 not to delay them
+   */
+  public void setLatencyMs(long latencyMs) {
+    this.latencyMs = latencyMs;
+  }
+
+  /**
+   * @return the share of the calls failed
+   */
+  public double getFailureRate() {
+    return failureRate;
+  }
+
+  /**
+   * Fails a share of the calls started from now on with {@link Status#UNAVAILABLE}, before they
+   * are applied. jetcd retries such calls after its retry delay.
+   * @param failureRate the share of the calls to fail, between 0 and 1
+   */
+  public void setFailureRate(double failureRate) {
+    this.failureRate = failureRate;
+  }
+
+  /**
+   * @return the number of calls failed by {@link #setFailureRate(double)}
+   */
+  public long getInjectedFailureCount() {
+    return injectedFailures.sum();
+  }
+
+  /**
+   * Stops the server, closing the calls in progress.
+   */
+  @Override
+  public void close() {
+    server.shutdownNow();
+    scheduler.shutdownNow();
+    try {
+      server.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Sends the response of a unary call, or its failure.
+   * @param responseObserver The observer of the call
+   * @param response Applies the request, or throws a {@link StatusRuntimeException}
+   * @param <T> The type of the response
+   */
+  static <T> void respond(StreamObserver<T> responseObserver, Supplier<T> response) {
+    T applied;
+    try {
+      applied = response.get();
+    } catch (StatusRuntimeException e) {
+      responseObserver.onError(e);
+      return;
+    }
+    responseObserver.onNext(applied);
+    responseObserver.onCompleted();
+  }
+
+  /**
+   * Fails or delays the calls, as set on the server.
+   */
+  private final class FaultInjector implements ServerInterceptor {
+    @Override
+    public <T, R> ServerCall.Listener<T> interceptCall(ServerCall<T, R> call, Metadata headers,
+                                                       ServerCallHandler<T, R> next) {
+      double rate = failureRate;
+      if (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate) {
+        injectedFailures.increment();
+        call.close(Status.UNAVAILABLE.withDescription("Failure injected by the local etcd server"), new Metadata());
+        return new ServerCall.Listener<T>() { };
+      }
+      long delayMs = latencyMs;
+      return next.startCall(delayMs > 0 ? new DelayedCall<>(call, delayMs) : call, headers);
+    }
+  }
+
+  /**
+   * Delays everything sent to the client. The single thread of the scheduler keeps it in order.
+   * @param <T> The type of the requests
+   * @param <R> The type of the responses
+   */
+  private final class DelayedCall<T, R> extends ForwardingServerCall.SimpleForwardingServerCall<T, R> {
+    private final long delayMs;
+
+    private DelayedCall(ServerCall<T, R> call, long delayMs) {
+      super(call);
+      this.delayMs = delayMs;
+    }
+
+    @Override
+    public void sendHeaders(Metadata headers) {
+      scheduler.schedule(() -> super.sendHeaders(headers), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void sendMessage(R message) {
+      scheduler.schedule(() -> super.sendMessage(message), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close(Status status, Metadata trailers) {
+      scheduler.schedule(() -> super.close(status, trailers), delayMs, TimeUnit.MILLISECONDS);
+    }
+  }
+}
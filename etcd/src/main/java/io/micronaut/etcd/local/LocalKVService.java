@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.local;
+
+import io.etcd.jetcd.api.CompactionRequest;
+import io.etcd.jetcd.api.CompactionResponse;
+import io.etcd.jetcd.api.DeleteRangeRequest;
+import io.etcd.jetcd.api.DeleteRangeResponse;
+import io.etcd.jetcd.api.KVGrpc;
+import io.etcd.jetcd.api.PutRequest;
+import io.etcd.jetcd.api.PutResponse;
+import io.etcd.jetcd.api.RangeRequest;
+import io.etcd.jetcd.api.RangeResponse;
+import io.etcd.jetcd.api.TxnRequest;
+import io.etcd.jetcd.api.TxnResponse;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * The KV API of a {@link LocalEtcdServer}, served from its {@link LocalStore}.
+ */
+final class LocalKVService extends KVGrpc.KVImplBase {
+
+  private final LocalStore store;
+
+  /**
+   * Constructor.
+   * @param store The store to serve
+   */
+  LocalKVService(LocalStore store) {
+    this.store = store;
+  }
+
+  @Override
+  public void range(RangeRequest request, StreamObserver<RangeResponse> responseObserver) {
+    LocalEtcdServer.respond(responseObserver, () -> store.range(request));
+  }
+
+  @Override
+  public void put(PutRequest request, StreamObserver<PutResponse> responseObserver) {
+    LocalEtcdServer.respond(responseObserver, () -> store.put(request));
+  }
+
+  @Override
+  public void deleteRange(DeleteRangeRequest request, StreamObserver<DeleteRangeResponse> responseObserver) {
+    LocalEtcdServer.respond(responseObserver, () -> store.deleteRange(request));
+  }
+
+  @Override
+  public void txn(TxnRequest request, StreamObserver<TxnResponse> responseObserver) {
+    LocalEtcdServer.respond(responseObserver, () -> store.txn(request));
+  }
+
+  @Override
+  public void compact(CompactionRequest request, StreamObserver<CompactionResponse> responseObserver) {
+    LocalEtcdServer.respond(responseObserver, () -> store.compact(request));
+  }
+}
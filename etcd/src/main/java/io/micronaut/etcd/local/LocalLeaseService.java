@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.local;
+
+import io.etcd.jetcd.api.LeaseGrantRequest;
+import io.etcd.jetcd.api.LeaseGrantResponse;
+import io.etcd.jetcd.api.LeaseGrpc;
+import io.etcd.jetcd.api.LeaseKeepAliveRequest;
+import io.etcd.jetcd.api.LeaseKeepAliveResponse;
+import io.etcd.jetcd.api.LeaseRevokeRequest;
+import io.etcd.jetcd.api.LeaseRevokeResponse;
+import io.etcd.jetcd.api.LeaseTimeToLiveRequest;
+import io.etcd.jetcd.api.LeaseTimeToLiveResponse;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * The Lease API of a {@link LocalEtcdServer}. The leases are held by its {@link LocalStore}, which
+ * deletes their keys when they are revoked or expire.
+ */
+final class LocalLeaseService extends LeaseGrpc.LeaseImplBase {
+
+  private final LocalStore store;
+
+  /**
+   * Constructor.
+   * @param store The store holding the leases
+   */
+  LocalLeaseService(LocalStore store) {
+    this.store = store;
+  }
+
+  @Override
+  public void leaseGrant(LeaseGrantRequest request, StreamObserver<LeaseGrantResponse> responseObserver) {
+    LocalEtcdServer.respond(responseObserver, () -> store.grant(request));
+  }
+
+  @Override
+  public void leaseRevoke(LeaseRevokeRequest request, StreamObserver<LeaseRevokeResponse> responseObserver) {
+    LocalEtcdServer.respond(responseObserver, () -> store.revoke(request.getID()));
+  }
+
+  @Override
+  public StreamObserver<LeaseKeepAliveRequest> leaseKeepAlive(
+      StreamObserver<LeaseKeepAliveResponse> responseObserver) {
+    return new StreamObserver<LeaseKeepAliveRequest>() {
+      @Override
+      public void onNext(LeaseKeepAliveRequest request) {
+        responseObserver.onNext(store.keepAlive(request.getID()));
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        // the client reopens the stream
+      }
+
+      @Override
+      public void onCompleted() {
+        responseObserver.onCompleted();
+      }
+    };
+  }
+
+  @Override
+  public void leaseTimeToLive(LeaseTimeToLiveRequest request,
+                              StreamObserver<LeaseTimeToLiveResponse> responseObserver) {
+    LocalEtcdServer.respond(responseObserver, () -> store.timeToLive(request));
+  }
+}
@@ -0,0 +1,666 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.local;
+
+import com.google.protobuf.ByteString;
+import io.etcd.jetcd.api.Compare;
+import io.etcd.jetcd.api.CompactionRequest;
+import io.etcd.jetcd.api.CompactionResponse;
+import io.etcd.jetcd.api.DeleteRangeRequest;
+import io.etcd.jetcd.api.DeleteRangeResponse;
+import io.etcd.jetcd.api.Event;
+import io.etcd.jetcd.api.KeyValue;
+import io.etcd.jetcd.api.LeaseGrantRequest;
+import io.etcd.jetcd.api.LeaseGrantResponse;
+import io.etcd.jetcd.api.LeaseKeepAliveResponse;
+import io.etcd.jetcd.api.LeaseRevokeResponse;
+import io.etcd.jetcd.api.LeaseTimeToLiveRequest;
+import io.etcd.jetcd.api.LeaseTimeToLiveResponse;
+import io.etcd.jetcd.api.PutRequest;
+import io.etcd.jetcd.api.PutResponse;
+import io.etcd.jetcd.api.RangeRequest;
+import io.etcd.jetcd.api.RangeResponse;
+import io.etcd.jetcd.api.RequestOp;
+import io.etcd.jetcd.api.ResponseHeader;
+import io.etcd.jetcd.api.ResponseOp;
+import io.etcd.jetcd.api.TxnRequest;
+import io.etcd.jetcd.api.TxnResponse;
+import io.grpc.Status;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The multi-version key/value store of a {@link LocalEtcdServer}.
+ *
+ * <p>As in etcd, every write increments the revision of the store, and a transaction writes all
+ * its keys at the same revision. Each key keeps its versions, a deletion being a version without
+ * value, so that ranges can be read and watches replayed at a past revision until it is
+ * compacted. The methods are synchronized: the requests are applied one at a time, in the order
+ * the raft log of etcd would give them, and the watchers are notified of each write before the
+ * next one is applied.</p>
+ *
+ * <p>Only the last {@link #setRetainedRevisions(long) retained revisions} are kept, as with the
+ * revision auto-compaction of etcd, so that the memory held stays bounded however long the store
+ * is written to. The writes are queued in revision order, so that compacting only visits the
+ * keys written since the previous compaction.</p>
+ */
+final class LocalStore {
+
+  static final String COMPACTED = "etcdserver: mvcc: required revision has been compacted";
+  static final String FUTURE_REVISION = "etcdserver: mvcc: required revision is a future revision";
+  static final String LEASE_NOT_FOUND = "etcdserver: requested lease not found";
+  static final String KEY_NOT_FOUND = "etcdserver: key not found";
+  static final String DUPLICATE_KEY = "etcdserver: duplicate key given in txn request";
+
+  private static final ByteString ALL_KEYS = ByteString.copyFrom(new byte[] {0});
+  private static final Comparator<ByteString> KEY_ORDER = ByteString.unsignedLexicographicalComparator();
+
+  private final NavigableMap<ByteString, List<KeyValue>> history = new TreeMap<>(KEY_ORDER);
+  private final Map<Long, Lease> leases = new HashMap<>();
+  private final Set<LocalWatcher> watchers = new LinkedHashSet<>();
+  private final Deque<Written> written = new ArrayDeque<>();
+  private long retainedRevisions = LocalEtcdServer.DEFAULT_RETAINED_REVISIONS;
+  private long revision = 1;
+  private long compactRevision;
+  private long nextLeaseId = 1;
+
+  /**
+   * @return the revision of the last write
+   */
+  synchronized long getRevision() {
+    return revision;
+  }
+
+  /**
+   * @param retainedRevisions The number of past revisions kept before being compacted
+   */
+  synchronized void setRetainedRevisions(long retainedRevisions) {
+    this.retainedRevisions = retainedRevisions;
+  }
+
+  /**
+   * @return the header of the responses, at the current revision
+   */
+  synchronized ResponseHeader header() {
+    return ResponseHeader.newBuilder()
+        .setClusterId(1)
+        .setMemberId(1)
+        .setRaftTerm(1)
+        .setRevision(revision)
+        .build();
+  }
+
+  /**
+   * @param request The range request
+   * @return The key/values of the range
+   */
+  synchronized RangeResponse range(RangeRequest request) {
+    return range(request, revision).setHeader(header()).build();
+  }
+
+  /**
+   * @param request The put request
+   * @return The response
+   */
+  synchronized PutResponse put(PutRequest request) {
+    validatePut(request, new HashSet<>());
+    Batch batch = new Batch();
+    PutResponse.Builder response = put(request, batch);
+    commit(batch);
+    return response.setHeader(header()).build();
+  }
+
+  /**
+   * @param request The delete request
+   * @return The response
+   */
+  synchronized DeleteRangeResponse deleteRange(DeleteRangeRequest request) {
+    Batch batch = new Batch();
+    DeleteRangeResponse.Builder response = deleteRange(request, batch);
+    commit(batch);
+    return response.setHeader(header()).build();
+  }
+
+  /**
+   * @param request The transaction
+   * @return The response
+   */
+  synchronized TxnResponse txn(TxnRequest request) {
+    validate(request.getSuccessList(), new HashSet<>());
+    validate(request.getFailureList(), new HashSet<>());
+    Batch batch = new Batch();
+    TxnResponse.Builder response = txn(request, batch);
+    commit(batch);
+    return response.setHeader(header()).build();
+  }
+
+  /**
+   * Drops the versions older than a revision, except the last one of each key.
+   * @param request The compaction request
+   * @return The response
+   */
+  synchronized CompactionResponse compact(CompactionRequest request) {
+    checkRevision(request.getRevision());
+    if (request.getRevision() == compactRevision) {
+      throw Status.OUT_OF_RANGE.withDescription(COMPACTED).asRuntimeException();
+    }
+    compactTo(request.getRevision());
+    return CompactionResponse.newBuilder().setHeader(header()).build();
+  }
+
+  /**
+   * Starts notifying a watcher of the writes, after those made since its start revision.
+   * @param watcher The watcher
+   * @param startRevision The revision of the first write to notify, or 0 for the next one
+   * @return {@code false} if the start revision has been compacted, in which case the watcher is
+   * canceled
+   */
+  synchronized boolean watch(LocalWatcher watcher, long startRevision) {
+    watcher.created(header());
+    if (startRevision > 0 && startRevision < compactRevision) {
+      watcher.compacted(header(), compactRevision);
+      return false;
+    }
+    if (startRevision > 0 && startRevision <= revision) {
+      TreeMap<Long, List<Event>> replayed = new TreeMap<>();
+      for (List<KeyValue> versions : select(watcher.getKey(), watcher.getRangeEnd()).values()) {
+        for (int i = 0; i < versions.size(); i++) {
+          KeyValue version = versions.get(i);
+          if (version.getModRevision() >= startRevision) {
+            KeyValue previous = i > 0 && versions.get(i - 1).getVersion() > 0 ? versions.get(i - 1) : null;
+            replayed.computeIfAbsent(version.getModRevision(), modRevision -> new ArrayList<>())
+                .add(event(version, previous));
+          }
+        }
+      }
+      ResponseHeader header = header();
+      for (List<Event> events : replayed.values()) {
+        watcher.notify(header, events);
+      }
+    }
+    watchers.add(watcher);
+    return true;
+  }
+
+  /**
+   * Stops notifying a watcher.
+   * @param watcher The watcher
+   */
+  synchronized void unwatch(LocalWatcher watcher) {
+    watchers.remove(watcher);
+  }
+
+  /**
+   * @param request The lease to grant
+   * @return The granted lease
+   */
+  synchronized LeaseGrantResponse grant(LeaseGrantRequest request) {
+    long id = request.getID();
+    if (id == 0) {
+      while (leases.containsKey(nextLeaseId)) {
+        nextLeaseId++;
+      }
+      id = nextLeaseId++;
+    } else if (leases.containsKey(id)) {
+      throw Status.FAILED_PRECONDITION.withDescription("etcdserver: lease already exists").asRuntimeException();
+    }
+    Lease lease = new Lease(id, Math.max(1, request.getTTL()));
+    leases.put(id, lease);
+    return LeaseGrantResponse.newBuilder().setHeader(header()).setID(id).setTTL(lease.ttl).build();
+  }
+
+  /**
+   * Revokes a lease, deleting its keys.
+   * @param id The id of the lease
+   * @return The response
+   */
+  synchronized LeaseRevokeResponse revoke(long id) {
+    if (!revokeLease(id)) {
+      throw Status.NOT_FOUND.withDescription(LEASE_NOT_FOUND).asRuntimeException();
+    }
+    return LeaseRevokeResponse.newBuilder().setHeader(header()).build();
+  }
+
+  /**
+   * Keeps a lease alive for its TTL.
+   * @param id The id of the lease
+   * @return The TTL of the lease, 0 if it does not exist
+   */
+  synchronized LeaseKeepAliveResponse keepAlive(long id) {
+    Lease lease = leases.get(id);
+    LeaseKeepAliveResponse.Builder response = LeaseKeepAliveResponse.newBuilder().setHeader(header()).setID(id);
+    if (lease != null) {
+      lease.refresh();
+      response.setTTL(lease.ttl);
+    }
+    return response.build();
+  }
+
+  /**
+   * @param request The lease and whether to list its keys
+   * @return The remaining TTL of the lease, -1 if it does not exist
+   */
+  synchronized LeaseTimeToLiveResponse timeToLive(LeaseTimeToLiveRequest request) {
+    Lease lease = leases.get(request.getID());
+    LeaseTimeToLiveResponse.Builder response = LeaseTimeToLiveResponse.newBuilder()
+        .setHeader(header())
+        .setID(request.getID());
+    if (lease == null) {
+      return response.setTTL(-1).build();
+    }
+    long remainingNanos = Math.max(0, lease.deadlineNanos - System.nanoTime());
+    response.setTTL((remainingNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1))
+        .setGrantedTTL(lease.ttl);
+    if (request.getKeys()) {
+      lease.keys.forEach(response::addKeys);
+    }
+    return response.build();
+  }
+
+  /**
+   * Revokes the leases that were not kept alive for their TTL.
+   */
+  synchronized void expireLeases() {
+    long now = System.nanoTime();
+    List<Long> expired = new ArrayList<>();
+    for (Lease lease : leases.values()) {
+      if (now - lease.deadlineNanos >= 0) {
+        expired.add(lease.id);
+      }
+    }
+    expired.forEach(this::revokeLease);
+  }
+
+  private boolean revokeLease(long id) {
+    Lease lease = leases.get(id);
+    if (lease == null) {
+      return false;
+    }
+    Batch batch = new Batch();
+    for (ByteString key : new ArrayList<>(lease.keys)) {
+      deleteRange(DeleteRangeRequest.newBuilder().setKey(key).build(), batch);
+    }
+    leases.remove(id);
+    commit(batch);
+    return true;
+  }
+
+  private void compactTo(long compacted) {
+    while (!written.isEmpty() && written.peekFirst().revision <= compacted) {
+      ByteString key = written.pollFirst().key;
+      List<KeyValue> versions = history.get(key);
+      if (versions == null) {
+        continue;
+      }
+      int kept = versions.size() - 1;
+      while (kept > 0 && versions.get(kept).getModRevision() > compacted) {
+        kept--;
+      }
+      KeyValue last = versions.get(kept);
+      if (last.getModRevision() <= compacted && last.getVersion() == 0) {
+        kept++;
+      }
+      versions.subList(0, kept).clear();
+      if (versions.isEmpty()) {
+        history.remove(key);
+      }
+    }
+    compactRevision = compacted;
+  }
+
+  private RangeResponse.Builder range(RangeRequest request, long current) {
+    long at = request.getRevision() > 0 ? request.getRevision() : current;
+    if (at > current) {
+      throw Status.OUT_OF_RANGE.withDescription(FUTURE_REVISION).asRuntimeException();
+    }
+    if (at < compactRevision) {
+      throw Status.OUT_OF_RANGE.withDescription(COMPACTED).asRuntimeException();
+    }
+    List<KeyValue> found = new ArrayList<>();
+    for (List<KeyValue> versions : select(request.getKey(), request.getRangeEnd()).values()) {
+      KeyValue keyValue = valueAt(versions, at);
+      if (keyValue != null && matches(request, keyValue)) {
+        found.add(keyValue);
+      }
+    }
+    if (request.getSortOrder() != RangeRequest.SortOrder.NONE || request.getSortTarget() != RangeRequest.SortTarget.KEY) {
+      found.sort(order(request));
+    }
+    RangeResponse.Builder response = RangeResponse.newBuilder().setCount(found.size());
+    if (request.getCountOnly()) {
+      return response;
+    }
+    int limit = request.getLimit() > 0 ? (int) Math.min(request.getLimit(), found.size()) : found.size();
+    for (KeyValue keyValue : found.subList(0, limit)) {
+      response.addKvs(request.getKeysOnly() ? keyValue.toBuilder().clearValue().build() : keyValue);
+    }
+    return response.setMore(limit < found.size());
+  }
+
+  private PutResponse.Builder put(PutRequest request, Batch batch) {
+    List<KeyValue> versions = history.computeIfAbsent(request.getKey(), key -> new ArrayList<>());
+    KeyValue previous = valueAt(versions, Long.MAX_VALUE);
+    KeyValue keyValue = KeyValue.newBuilder()
+        .setKey(request.getKey())
+        .setValue(request.getIgnoreValue() ? previous.getValue() : request.getValue())
+        .setLease(request.getIgnoreLease() ? previous.getLease() : request.getLease())
+        .setCreateRevision(previous == null ? batch.revision : previous.getCreateRevision())
+        .setModRevision(batch.revision)
+        .setVersion(previous == null ? 1 : previous.getVersion() + 1)
+        .build();
+    versions.add(keyValue);
+    written.add(new Written(batch.revision, keyValue.getKey()));
+    if (previous != null && previous.getLease() != 0) {
+      leases.get(previous.getLease()).keys.remove(previous.getKey());
+    }
+    if (keyValue.getLease() != 0) {
+      leases.get(keyValue.getLease()).keys.add(keyValue.getKey());
+    }
+    batch.events.add(event(keyValue, previous));
+    PutResponse.Builder response = PutResponse.newBuilder();
+    if (request.getPrevKv() && previous != null) {
+      response.setPrevKv(previous);
+    }
+    return response;
+  }
+
+  private DeleteRangeResponse.Builder deleteRange(DeleteRangeRequest request, Batch batch) {
+    DeleteRangeResponse.Builder response = DeleteRangeResponse.newBuilder();
+    long deleted = 0;
+    for (Map.Entry<ByteString, List<KeyValue>> entry : select(request.getKey(), request.getRangeEnd()).entrySet()) {
+      KeyValue previous = valueAt(entry.getValue(), Long.MAX_VALUE);
+      if (previous == null) {
+        continue;
+      }
+      KeyValue tombstone = KeyValue.newBuilder().setKey(entry.getKey()).setModRevision(batch.revision).build();
+      entry.getValue().add(tombstone);
+      written.add(new Written(batch.revision, entry.getKey()));
+      if (previous.getLease() != 0) {
+        leases.get(previous.getLease()).keys.remove(previous.getKey());
+      }
+      batch.events.add(event(tombstone, previous));
+      if (request.getPrevKv()) {
+        response.addPrevKvs(previous);
+      }
+      deleted++;
+    }
+    return response.setDeleted(deleted);
+  }
+
+  private TxnResponse.Builder txn(TxnRequest request, Batch batch) {
+    boolean succeeded = true;
+    for (Compare compare : request.getCompareList()) {
+      succeeded &= compare(compare, batch.revision);
+    }
+    TxnResponse.Builder response = TxnResponse.newBuilder().setSucceeded(succeeded);
+    for (RequestOp operation : succeeded ? request.getSuccessList() : request.getFailureList()) {
+      switch (operation.getRequestCase()) {
+        case REQUEST_RANGE:
+          response.addResponses(ResponseOp.newBuilder()
+              .setResponseRange(range(operation.getRequestRange(), batch.revision)));
+          break;
+        case REQUEST_PUT:
+          response.addResponses(ResponseOp.newBuilder().setResponsePut(put(operation.getRequestPut(), batch)));
+          break;
+        case REQUEST_DELETE_RANGE:
+          response.addResponses(ResponseOp.newBuilder()
+              .setResponseDeleteRange(deleteRange(operation.getRequestDeleteRange(), batch)));
+          break;
+        case REQUEST_TXN:
+          response.addResponses(ResponseOp.newBuilder().setResponseTxn(txn(operation.getRequestTxn(), batch)));
+          break;
+        default:
+          throw new IllegalStateException("Operation validated before being applied");
+      }
+    }
+    return response;
+  }
+
+  /**
+   * Checks the operations of a transaction before any is applied, so that a transaction fails
+   * without writing anything.
+   */
+  private void validate(List<RequestOp> operations, Set<ByteString> putKeys) {
+    for (RequestOp operation : operations) {
+      switch (operation.getRequestCase()) {
+        case REQUEST_RANGE:
+          if (operation.getRequestRange().getRevision() > 0) {
+            checkRevision(operation.getRequestRange().getRevision());
+          }
+          break;
+        case REQUEST_PUT:
+          validatePut(operation.getRequestPut(), putKeys);
+          break;
+        case REQUEST_DELETE_RANGE:
+          break;
+        case REQUEST_TXN:
+          validate(operation.getRequestTxn().getSuccessList(), new HashSet<>(putKeys));
+          validate(operation.getRequestTxn().getFailureList(), new HashSet<>(putKeys));
+          break;
+        default:
+          throw Status.INVALID_ARGUMENT.withDescription("etcdserver: empty request").asRuntimeException();
+      }
+    }
+  }
+
+  private void validatePut(PutRequest request, Set<ByteString> putKeys) {
+    if (!putKeys.add(request.getKey())) {
+      throw Status.INVALID_ARGUMENT.withDescription(DUPLICATE_KEY).asRuntimeException();
+    }
+    if (!request.getIgnoreLease() && request.getLease() != 0 && !leases.containsKey(request.getLease())) {
+      throw Status.NOT_FOUND.withDescription(LEASE_NOT_FOUND).asRuntimeException();
+    }
+    if ((request.getIgnoreValue() || request.getIgnoreLease())
+        && (!history.containsKey(request.getKey()) || valueAt(history.get(request.getKey()), Long.MAX_VALUE) == null)) {
+      throw Status.NOT_FOUND.withDescription(KEY_NOT_FOUND).asRuntimeException();
+    }
+  }
+
+  private void checkRevision(long at) {
+    if (at > revision) {
+      throw Status.OUT_OF_RANGE.withDescription(FUTURE_REVISION).asRuntimeException();
+    }
+    if (at < compactRevision) {
+      throw Status.OUT_OF_RANGE.withDescription(COMPACTED).asRuntimeException();
+    }
+  }
+
+  private boolean compare(Compare compare, long at) {
+    List<KeyValue> compared = new ArrayList<>();
+    for (List<KeyValue> versions : select(compare.getKey(), compare.getRangeEnd()).values()) {
+      KeyValue keyValue = valueAt(versions, at);
+      if (keyValue != null) {
+        compared.add(keyValue);
+      }
+    }
+    if (compared.isEmpty()) {
+      // as in etcd, a missing key has version and revisions 0, but no value to compare
+      return compare.getTarget() != Compare.CompareTarget.VALUE && compare(compare, KeyValue.getDefaultInstance());
+    }
+    for (KeyValue keyValue : compared) {
+      if (!compare(compare, keyValue)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean compare(Compare compare, KeyValue keyValue) {
+    int result;
+    switch (compare.getTarget()) {
+      case VERSION:
+        result = Long.compare(keyValue.getVersion(), compare.getVersion());
+        break;
+      case CREATE:
+        result = Long.compare(keyValue.getCreateRevision(), compare.getCreateRevision());
+        break;
+      case MOD:
+        result = Long.compare(keyValue.getModRevision(), compare.getModRevision());
+        break;
+      case VALUE:
+        result = KEY_ORDER.compare(keyValue.getValue(), compare.getValue());
+        break;
+      default:
+        throw Status.INVALID_ARGUMENT.withDescription("Unsupported compare target " + compare.getTarget())
+            .asRuntimeException();
+    }
+    switch (compare.getResult()) {
+      case EQUAL:
+        return result == 0;
+      case GREATER:
+        return result > 0;
+      case LESS:
+        return result < 0;
+      case NOT_EQUAL:
+        return result != 0;
+      default:
+        throw Status.INVALID_ARGUMENT.withDescription("Unsupported compare result " + compare.getResult())
+            .asRuntimeException();
+    }
+  }
+
+  private void commit(Batch batch) {
+    if (batch.events.isEmpty()) {
+      return;
+    }
+    revision = batch.revision;
+    if (revision - retainedRevisions > compactRevision) {
+      compactTo(revision - retainedRevisions);
+    }
+    ResponseHeader header = header();
+    for (LocalWatcher watcher : watchers) {
+      watcher.notify(header, batch.events);
+    }
+  }
+
+  private NavigableMap<ByteString, List<KeyValue>> select(ByteString key, ByteString rangeEnd) {
+    if (rangeEnd.isEmpty()) {
+      return history.subMap(key, true, key, true);
+    }
+    if (rangeEnd.equals(ALL_KEYS)) {
+      return history.tailMap(key, true);
+    }
+    if (KEY_ORDER.compare(key, rangeEnd) >= 0) {
+      return Collections.emptyNavigableMap();
+    }
+    return history.subMap(key, true, rangeEnd, false);
+  }
+
+  private static boolean matches(RangeRequest request, KeyValue keyValue) {
+    return (request.getMinModRevision() == 0 || keyValue.getModRevision() >= request.getMinModRevision())
+        && (request.getMaxModRevision() == 0 || keyValue.getModRevision() <= request.getMaxModRevision())
+        && (request.getMinCreateRevision() == 0 || keyValue.getCreateRevision() >= request.getMinCreateRevision())
+        && (request.getMaxCreateRevision() == 0 || keyValue.getCreateRevision() <= request.getMaxCreateRevision());
+  }
+
+  private static Comparator<KeyValue> order(RangeRequest request) {
+    Comparator<KeyValue> order;
+    switch (request.getSortTarget()) {
+      case VERSION:
+        order = Comparator.comparingLong(KeyValue::getVersion);
+        break;
+      case CREATE:
+        order = Comparator.comparingLong(KeyValue::getCreateRevision);
+        break;
+      case MOD:
+        order = Comparator.comparingLong(KeyValue::getModRevision);
+        break;
+      case VALUE:
+        order = Comparator.comparing(KeyValue::getValue, KEY_ORDER);
+        break;
+      default:
+        order = Comparator.comparing(KeyValue::getKey, KEY_ORDER);
+        break;
+    }
+    return request.getSortOrder() == RangeRequest.SortOrder.DESCEND ? order.reversed() : order;
+  }
+
+  /**
+   * @return the version of a key at a revision, or {@code null} if it did not exist
+   */
+  private static KeyValue valueAt(List<KeyValue> versions, long at) {
+    for (int i = versions.size() - 1; i >= 0; i--) {
+      KeyValue version = versions.get(i);
+      if (version.getModRevision() <= at) {
+        return version.getVersion() == 0 ? null : version;
+      }
+    }
+    return null;
+  }
+
+  private static Event event(KeyValue keyValue, KeyValue previous) {
+    Event.Builder event = Event.newBuilder()
+        .setType(keyValue.getVersion() == 0 ? Event.EventType.DELETE : Event.EventType.PUT)
+        .setKv(keyValue);
+    if (previous != null) {
+      event.setPrevKv(previous);
+    }
+    return event.build();
+  }
+
+  /**
+   * The writes of a request, all made at the revision following the current one.
+   */
+  private final class Batch {
+    private final long revision = LocalStore.this.revision + 1;
+    private final List<Event> events = new ArrayList<>();
+  }
+
+  /**
+   * A version written, to be compacted.
+   */
+  private static final class Written {
+    private final long revision;
+    private final ByteString key;
+
+    private Written(long revision, ByteString key) {
+      this.revision = revision;
+      this.key = key;
+    }
+  }
+
+  /**
+   * A lease and the keys attached to it.
+   */
+  private static final class Lease {
+    private final long id;
+    private final long ttl;
+    private final Set<ByteString> keys = new LinkedHashSet<>();
+    private long deadlineNanos;
+
+    private Lease(long id, long ttl) {
+      this.id = id;
+      this.ttl = ttl;
+      refresh();
+    }
+
+    private void refresh() {
+      deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(ttl);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.local;
+
+import io.etcd.jetcd.api.WatchGrpc;
+import io.etcd.jetcd.api.WatchRequest;
+import io.etcd.jetcd.api.WatchResponse;
+import io.grpc.stub.StreamObserver;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Watch API of a {@link LocalEtcdServer}: each stream holds any number of watches, notified by
+ * its {@link LocalStore}.
+ */
+final class LocalWatchService extends WatchGrpc.WatchImplBase {
+
+  private final LocalStore store;
+
+  /**
+   * Constructor.
+   * @param store The store to watch
+   */
+  LocalWatchService(LocalStore store) {
+    this.store = store;
+  }
+
+  @Override
+  public StreamObserver<WatchRequest> watch(StreamObserver<WatchResponse> responseObserver) {
+    return new WatchStream(responseObserver);
+  }
+
+  /**
+   * The watches of a stream.
+   */
+  private final class WatchStream implements StreamObserver<WatchRequest> {
+
+    private final StreamObserver<WatchResponse> responseObserver;
+    private final Map<Long, LocalWatcher> watchers = new ConcurrentHashMap<>();
+    private final AtomicLong nextWatchId = new AtomicLong();
+
+    private WatchStream(StreamObserver<WatchResponse> responseObserver) {
+      this.responseObserver = responseObserver;
+    }
+
+    @Override
+    public void onNext(WatchRequest request) {
+      switch (request.getRequestUnionCase()) {
+        case CREATE_REQUEST:
+          long watchId = nextWatchId.getAndIncrement();
+          LocalWatcher watcher = new LocalWatcher(watchId, request.getCreateRequest(), responseObserver);
+          if (store.watch(watcher, request.getCreateRequest().getStartRevision())) {
+            watchers.put(watchId, watcher);
+          }
+          break;
+        case CANCEL_REQUEST:
+          LocalWatcher canceled = watchers.remove(request.getCancelRequest().getWatchId());
+          if (canceled != null) {
+            store.unwatch(canceled);
+            canceled.canceled(store.header());
+          }
+          break;
+        default:
+          break;
+      }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      close();
+    }
+
+    @Override
+    public void onCompleted() {
+      close();
+      synchronized (responseObserver) {
+        responseObserver.onCompleted();
+      }
+    }
+
+    private void close() {
+      watchers.values().forEach(store::unwatch);
+      watchers.clear();
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.local;
+
+import com.google.protobuf.ByteString;
+import io.etcd.jetcd.api.Event;
+import io.etcd.jetcd.api.ResponseHeader;
+import io.etcd.jetcd.api.WatchCreateRequest;
+import io.etcd.jetcd.api.WatchResponse;
+import io.grpc.stub.StreamObserver;
+import java.util.List;
+
+/**
+ * A watch created on a watch stream of a {@link LocalEtcdServer}, notified by the
+ * {@link LocalStore} of the writes of its keys. The responses of all the watches of a stream are
+ * sent on the stream, one at a time.
+ */
+final class LocalWatcher {
+
+  private final long watchId;
+  private final WatchCreateRequest request;
+  private final StreamObserver<WatchResponse> responseObserver;
+  private final boolean noPut;
+  private final boolean noDelete;
+
+  /**
+   * Constructor.
+   * @param watchId The id of the watch within its stream
+   * @param request The request that created the watch
+   * @param responseObserver The stream to send the responses on
+   */
+  LocalWatcher(long watchId, WatchCreateRequest request, StreamObserver<WatchResponse> responseObserver) {
+    this.watchId = watchId;
+    this.request = request;
+    this.responseObserver = responseObserver;
+    this.noPut = request.getFiltersList().contains(WatchCreateRequest.FilterType.NOPUT);
+    this.noDelete = request.getFiltersList().contains(WatchCreateRequest.FilterType.NODELETE);
+  }
+
+  /**
+   * @return the first key watched
+   */
+  ByteString getKey() {
+    return request.getKey();
+  }
+
+  /**
+   * @return the end of the range of keys watched, as in a range request
+   */
+  ByteString getRangeEnd() {
+    return request.getRangeEnd();
+  }
+
+  /**
+   * Sends the response to the creation of the watch.
+   * @param header The header of the response
+   */
+  void created(ResponseHeader header) {
+    send(WatchResponse.newBuilder().setHeader(header).setWatchId(watchId).setCreated(true).build());
+  }
+
+  /**
+   * Cancels the watch because its start revision has been compacted.
+   * @param header The header of the response
+   * @param compactRevision The revision the store is compacted at
+   */
+  void compacted(ResponseHeader header, long compactRevision) {
+    send(WatchResponse.newBuilder()
+        .setHeader(header)
+        .setWatchId(watchId)
+        .setCanceled(true)
+        .setCompactRevision(compactRevision)
+        .setCancelReason(LocalStore.COMPACTED)
+        .build());
+  }
+
+  /**
+   * Sends the response to the cancellation of the watch.
+   * @param header The header of the response
+   */
+  void canceled(ResponseHeader header) {
+    send(WatchResponse.newBuilder().setHeader(header).setWatchId(watchId).setCanceled(true).build());
+  }
+
+  /**
+   * Sends the events of a revision, those of the watched keys that are not filtered out.
+   * @param header The header of the response
+   * @param events The events of the revision
+   */
+  void notify(ResponseHeader header, List<Event> events) {
+    WatchResponse.Builder response = WatchResponse.newBuilder().setHeader(header).setWatchId(watchId);
+    for (Event event : events) {
+      if (watches(event.getKv().getKey())
+          && !(noPut && event.getType() == Event.EventType.PUT)
+          && !(noDelete && event.getType() == Event.EventType.DELETE)) {
+        response.addEvents(request.getPrevKv() ? event : event.toBuilder().clearPrevKv().build());
+      }
+    }
+    if (response.getEventsCount() > 0) {
+      send(response.build());
+    }
+  }
+
+  private boolean watches(ByteString key) {
+    ByteString rangeEnd = request.getRangeEnd();
+    if (rangeEnd.isEmpty()) {
+      return key.equals(request.getKey());
+    }
+    return ByteString.unsignedLexicographicalComparator().compare(key, request.getKey()) >= 0
+        && (rangeEnd.equals(ByteString.copyFrom(new byte[] {0}))
+        || ByteString.unsignedLexicographicalComparator().compare(key, rangeEnd) < 0);
+  }
+
+  private void send(WatchResponse response) {
+    synchronized (responseObserver) {
+      try {
+        responseObserver.onNext(response);
+      } catch (RuntimeException e) {
+        // the stream was canceled by the client, its watches are removed when it completes
+      }
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.metrics;
+
+import static io.micronaut.configuration.metrics.micrometer.MeterRegistryFactory.MICRONAUT_METRICS_BINDERS;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.event.BeanCreatedEvent;
+import io.micronaut.context.event.BeanCreatedEventListener;
+import io.micronaut.core.util.StringUtils;
+import io.micronaut.etcd.kv.AsyncKVService;
+import io.micronaut.etcd.kv.KVCache;
+import io.micronaut.etcd.kv.KVCoalescer;
+import io.micronaut.etcd.kv.KVLimiter;
+import io.micronaut.etcd.kv.KVPriority;
+import io.micronaut.etcd.kv.KVReadRouter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+/**
+ * Binds the metrics of the client-side optimizations of every {@link AsyncKVService}, when they
+ * are enabled, tagged with the name of its configuration:
+ *
+ * <ul>
+ *   <li>{@code etcd.kv.gets}: the gets sent to etcd, {@code coalesced=false}, and the ones
+ *   answered by the response of another get, {@code coalesced=true}</li>
+ *   <li>{@code etcd.kv.cache.gets}: the gets answered by the local cache, {@code result=hit}, or
+ *   not, {@code result=miss}</li>
+ *   <li>{@code etcd.kv.cache.size}: the number of keys cached</li>
+ *   <li>{@code etcd.kv.limit} and {@code etcd.kv.inflight}: the adaptive limit of requests in
+ *   flight, and their number</li>
+ *   <li>{@code etcd.kv.rejected}: the requests rejected by the limit, tagged with their
+ *   {@code priority}</li>
+ *   <li>{@code etcd.kv.endpoint.latency}: the average latency of the serializable gets sent to
+ *   each {@code endpoint}</li>
+ * </ul>
+ *
+ * <p>The meters are bound as each service is created rather than by a {@code MeterBinder}, as the
+ * services depend on the etcd client, which itself depends on the registry.</p>
+ */
+@Singleton
+@Requires(classes = MeterRegistry.class)
+@Requires(beans = MeterRegistry.class)
+@Requires(property = MICRONAUT_METRICS_BINDERS + ".etcd.enabled", notEquals = StringUtils.FALSE)
+public class EtcdKVMetricsBinder implements BeanCreatedEventListener<AsyncKVService> {
+
+  private final Provider<MeterRegistry> meterRegistryProvider;
+
+  /**
+   * Constructor.
+   * @param meterRegistryProvider Provides the registry to bind the metrics to
+   */
+  public EtcdKVMetricsBinder(Provider<MeterRegistry> meterRegistryProvider) {
+    this.meterRegistryProvider = meterRegistryProvider;
+  }
+
+  @Override
+  public AsyncKVService onCreated(BeanCreatedEvent<AsyncKVService> event) {
+    AsyncKVService asyncKVService = event.getBean();
+    bindTo(meterRegistryProvider.get(), asyncKVService);
+    return asyncKVService;
+  }
+
+  /**
+   * @param registry The registry to bind the metrics to
+   * @param asyncKVService The service whose metrics to bind
+   */
+  private void bindTo(MeterRegistry registry, AsyncKVService asyncKVService) {
+    String configName = asyncKVService.getName();
+    KVCoalescer coalescer = asyncKVService.getCoalescer();
+    if (coalescer != null) {
+      FunctionCounter.builder("etcd.kv.gets", coalescer, KVCoalescer::getSentCount)
+          .description("The gets sent to etcd, or answered by the response of another get")
+          .tags("config", configName, "coalesced", "false")
+          .register(registry);
+      FunctionCounter.builder("etcd.kv.gets", coalescer, KVCoalescer::getCoalescedCount)
+          .description("The gets sent to etcd, or answered by the response of another get")
+          .tags("config", configName, "coalesced", "true")
+          .register(registry);
+    }
+    KVCache cache = asyncKVService.getCache();
+    if (cache != null) {
+      FunctionCounter.builder("etcd.kv.cache.gets", cache, KVCache::getHitCount)
+          .description("The gets answered by the local cache, or not")
+          .tags("config", configName, "result", "hit")
+          .register(registry);
+      FunctionCounter.builder("etcd.kv.cache.gets", cache, KVCache::getMissCount)
+          .description("The gets answered by the local cache, or not")
+          .tags("config", configName, "result", "miss")
+          .register(registry);
+      Gauge.builder("etcd.kv.cache.size", cache, KVCache::size)
+          .description("The number of keys cached")
+          .tags("config", configName)
+          .register(registry);
+    }
+    KVLimiter limiter = asyncKVService.getLimiter();
+    if (limiter != null) {
+      Gauge.builder("etcd.kv.limit", limiter, KVLimiter::getLimit)
+          .description("The adaptive limit of requests in flight")
+          .tags("config", configName)
+          .register(registry);
+      Gauge.builder("etcd.kv.inflight", limiter, KVLimiter::getInFlight)
+          .description("The number of requests in flight")
+          .tags("config", configName)
+          .register(registry);
+      for (KVPriority priority : KVPriority.values()) {
+        FunctionCounter.builder("etcd.kv.rejected", limiter, counted -> counted.getRejectedCount(priority))
+            .description("The requests rejected by the limit of requests in flight")
+            .tags("config", configName, "priority", priority.name().toLowerCase(Locale.ENGLISH))
+            .register(registry);
+      }
+    }
+    KVReadRouter router = asyncKVService.getRouter();
+    if (router != null) {
+      for (String endpoint : router.getEndpoints()) {
+        TimeGauge.builder("etcd.kv.endpoint.latency", router, TimeUnit.NANOSECONDS,
+            routed -> routed.getLatencyNanos(endpoint))
+            .description("The average latency of the serializable gets sent to the endpoint")
+            .tags("config", configName, "endpoint", endpoint)
+            .register(registry);
+      }
+    }
+  }
+}
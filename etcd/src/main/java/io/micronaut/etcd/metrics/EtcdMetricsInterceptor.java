@@ -0,0 +1,226 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.metrics;
+
+import com.google.protobuf.MessageLite;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * gRPC interceptor recording the metrics of the unary calls of an etcd client: KV, lease grants,
+ * maintenance and so on. Watches and lease keep-alives are long-lived streams and are not timed.
+ *
+ * <p>Every meter is tagged with the name of the etcd configuration, and all but the in-flight gauge
+ * with the gRPC service and method, such as {@code KV} and {@code Range}:</p>
+ * <ul>
+ *   <li>{@value #REQUESTS}: timer of the calls, with a percentile histogram, also tagged with the
+ *   gRPC status code. Its count is the throughput.</li>
+ *   <li>{@value #ERRORS}: counter of the calls that did not end with {@code OK}, tagged with the
+ *   status code.</li>
+ *   <li>{@value #REQUEST_SIZE} and {@value #RESPONSE_SIZE}: distributions of the serialized size
+ *   of the messages, in bytes.</li>
+ *   <li>{@value #IN_FLIGHT}: gauge of the calls started and not yet completed.</li>
+ * </ul>
+ */
+public class EtcdMetricsInterceptor implements ClientInterceptor {
+
+  /**
+   * Timer of the calls.
+   */
+  public static final String REQUESTS = "etcd.client.requests";
+
+  /**
+   * Counter of the failed calls.
+   */
+  public static final String ERRORS = "etcd.client.errors";
+
+  /**
+   * Distribution of the size of the requests.
+   */
+  public static final String REQUEST_SIZE = "etcd.client.request.size";
+
+  /**
+   * Distribution of the size of the responses.
+   */
+  public static final String RESPONSE_SIZE = "etcd.client.response.size";
+
+  /**
+   * Gauge of the calls in flight.
+   */
+  public static final String IN_FLIGHT = "etcd.client.requests.inflight";
+
+  private final MeterRegistry meterRegistry;
+  private final Tags tags;
+  private final AtomicInteger inFlight;
+  private final Map<String, MethodMeters> methodMeters = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor.
+   * @param meterRegistry The registry to record the metrics in
+   * @param name The name of the etcd configuration the client is built from
+   */
+  public EtcdMetricsInterceptor(MeterRegistry meterRegistry, String name) {
+    this(meterRegistry, name, inFlightGauge(meterRegistry, name));
+  }
+
+  /**
+   * Constructor, for the interceptors of the several clients of a configuration, such as one per
+   * endpoint, which must all count their calls in the same gauge.
+   * @param meterRegistry The registry to record the metrics in
+   * @param name The name of the etcd configuration the client is built from
+   * @param inFlight The number of calls in flight of the configuration, from
+   *                 {@link #inFlightGauge(MeterRegistry, String)}
+   */
+  public EtcdMetricsInterceptor(MeterRegistry meterRegistry, String name, AtomicInteger inFlight) {
+    this.meterRegistry = meterRegistry;
+    this.tags = Tags.of("config", name);
+    this.inFlight = inFlight;
+  }
+
+  /**
+   * Registers the gauge of the calls in flight of a configuration. The registry keeps the first
+   * number registered for the gauge, so the interceptors of a configuration must share it.
+   * @param meterRegistry The registry to record the metrics in
+   * @param name The name of the etcd configuration
+   * @return the number of calls in flight, backing the gauge
+   */
+  public static AtomicInteger inFlightGauge(MeterRegistry meterRegistry, String name) {
+    return meterRegistry.gauge(IN_FLIGHT, Tags.of("config", name), new AtomicInteger());
+  }
+
+  @Override
+  public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                             CallOptions callOptions, Channel next) {
+    ClientCall<ReqT, RespT> call = next.newCall(method, callOptions);
+    if (method.getType() != MethodDescriptor.MethodType.UNARY) {
+      return call;
+    }
+    MethodMeters meters = methodMeters.computeIfAbsent(method.getFullMethodName(),
+        fullMethodName -> new MethodMeters(method));
+    return new MeteredCall<>(call, meters);
+  }
+
+  /**
+   * @param message A request or response
+   * @return its serialized size in bytes, or -1 if it is not a protobuf message
+   */
+  private static int sizeOf(Object message) {
+    return message instanceof MessageLite ? ((MessageLite) message).getSerializedSize() : -1;
+  }
+
+  /**
+   * The meters of a gRPC method, registered once.
+   */
+  private final class MethodMeters {
+    private final Tags methodTags;
+    private final DistributionSummary requestSize;
+    private final DistributionSummary responseSize;
+    private final Map<Status.Code, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<Status.Code, Counter> errors = new ConcurrentHashMap<>();
+
+    private MethodMeters(MethodDescriptor<?, ?> method) {
+      String service = MethodDescriptor.extractFullServiceName(method.getFullMethodName());
+      this.methodTags = tags.and(
+          "service", service.substring(service.lastIndexOf('.') + 1),
+          "method", method.getFullMethodName().substring(service.length() + 1));
+      this.requestSize = DistributionSummary.builder(REQUEST_SIZE)
+          .baseUnit("bytes")
+          .tags(methodTags)
+          .register(meterRegistry);
+      this.responseSize = DistributionSummary.builder(RESPONSE_SIZE)
+          .baseUnit("bytes")
+          .tags(methodTags)
+          .register(meterRegistry);
+    }
+
+    private void completed(Timer.Sample sample, Status status) {
+      Status.Code code = status.getCode();
+      sample.stop(timers.computeIfAbsent(code, c -> Timer.builder(REQUESTS)
+          .tags(methodTags)
+          .tag("status", c.name())
+          .publishPercentileHistogram()
+          .register(meterRegistry)));
+      if (!status.isOk()) {
+        errors.computeIfAbsent(code, c -> Counter.builder(ERRORS)
+            .tags(methodTags)
+            .tag("status", c.name())
+            .register(meterRegistry)).increment();
+      }
+    }
+  }
+
+  /**
+   * A call recording its metrics.
+   * @param <ReqT> The type of request
+   * @param <RespT> The type of response
+   */
+  private final class MeteredCall<ReqT, RespT>
+      extends ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT> {
+    private final MethodMeters meters;
+
+    private MeteredCall(ClientCall<ReqT, RespT> call, MethodMeters meters) {
+      super(call);
+      this.meters = meters;
+    }
+
+    @Override
+    public void start(Listener<RespT> responseListener, Metadata headers) {
+      Timer.Sample sample = Timer.start(meterRegistry);
+      inFlight.incrementAndGet();
+      super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(responseListener) {
+        @Override
+        public void onMessage(RespT message) {
+          int size = sizeOf(message);
+          if (size >= 0) {
+            meters.responseSize.record(size);
+          }
+          super.onMessage(message);
+        }
+
+        @Override
+        public void onClose(Status status, Metadata trailers) {
+          inFlight.decrementAndGet();
+          meters.completed(sample, status);
+          super.onClose(status, trailers);
+        }
+      }, headers);
+    }
+
+    @Override
+    public void sendMessage(ReqT message) {
+      int size = sizeOf(message);
+      if (size >= 0) {
+        meters.requestSize.record(size);
+      }
+      super.sendMessage(message);
+    }
+  }
+}
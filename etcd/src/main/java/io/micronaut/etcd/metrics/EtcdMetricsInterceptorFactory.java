@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.metrics;
+
+import static io.micronaut.configuration.metrics.micrometer.MeterRegistryFactory.MICRONAUT_METRICS_BINDERS;
+
+import io.grpc.ClientInterceptor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.core.util.StringUtils;
+import io.micronaut.etcd.client.EtcdClientInterceptorFactory;
+import io.micronaut.etcd.config.EtcdFactoryConfig;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.inject.Singleton;
+
+/**
+ * Adds an {@link EtcdMetricsInterceptor} to every etcd client when micrometer is enabled. Can be
+ * disabled with {@code micronaut.metrics.binders.etcd.enabled: false}. The clients of a
+ * configuration, one per endpoint when reads are routed, share its gauge of calls in flight.
+ */
+@Singleton
+@Requires(classes = MeterRegistry.class)
+@Requires(beans = MeterRegistry.class)
+@Requires(property = MICRONAUT_METRICS_BINDERS + ".etcd.enabled", notEquals = StringUtils.FALSE)
+public class EtcdMetricsInterceptorFactory implements EtcdClientInterceptorFactory {
+
+  private final MeterRegistry meterRegistry;
+  private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor.
+   * @param meterRegistry The registry to record the metrics in
+   */
+  public EtcdMetricsInterceptorFactory(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @Override
+  public ClientInterceptor create(EtcdFactoryConfig config) {
+    return new EtcdMetricsInterceptor(meterRegistry, config.getName(), inFlight.computeIfAbsent(config.getName(),
+        name -> EtcdMetricsInterceptor.inFlightGauge(meterRegistry, name)));
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.watch;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.Watch;
+import io.etcd.jetcd.common.exception.CompactedException;
+import io.etcd.jetcd.options.WatchOption;
+import io.etcd.jetcd.watch.WatchEvent;
+import io.etcd.jetcd.watch.WatchResponse;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * One etcd watch of a key or prefix, whose events are fanned out to every subscription to it.
+ *
+ * <p>The watch remembers the last revision it has seen. When it fails or is closed by the server,
+ * it is opened again after a delay from the revision following that one, so no event is lost nor
+ * delivered twice. If that revision has been compacted the events in between are lost, and the
+ * subscriptions fail with the {@link CompactedException}. The watch is closed once it has no
+ * subscription left.</p>
+ */
+final class SharedWatch {
+
+  private final Watch watchClient;
+  private final ByteSequence key;
+  private final boolean prefix;
+  private final ScheduledExecutorService scheduler;
+  private final long reconnectDelayMs;
+  private final Consumer<SharedWatch> onClose;
+  private final List<WatchSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+  /**
+   * The last revision seen, 0 before the first response.
+   */
+  private long revision;
+
+  /**
+   * Incremented each time the watch is reopened, to ignore the callbacks of previous watches.
+   */
+  private int generation;
+  private Watch.Watcher watcher;
+  private boolean closed;
+
+  /**
+   * Constructor.
+   * @param watchClient The watch client used to open the watch
+   * @param key The key, or prefix, to watch
+   * @param prefix Whether to watch every key starting with {@code key}
+   * @param scheduler The scheduler used to reopen the watch
+   * @param reconnectDelayMs The delay in milliseconds before the watch is reopened
+   * @param startRevision The revision of the first event to receive, 0 to start with the next one
+   * @param onClose Called once the watch is closed
+   */
+  SharedWatch(Watch watchClient, ByteSequence key, boolean prefix, ScheduledExecutorService scheduler,
+              long reconnectDelayMs, long startRevision, Consumer<SharedWatch> onClose) {
+    this.watchClient = watchClient;
+    this.key = key;
+    this.prefix = prefix;
+    this.scheduler = scheduler;
+    this.reconnectDelayMs = reconnectDelayMs;
+    this.revision = Math.max(0, startRevision - 1);
+    this.onClose = onClose;
+  }
+
+  /**
+   * Adds a subscription, opening the watch if it is the first one.
+   * @param subscription The subscription to add
+   * @return {@code false} if this watch is already closed, and a new one must be used
+   */
+  synchronized boolean add(WatchSubscription subscription) {
+    if (closed) {
+      return false;
+    }
+    subscriptions.add(subscription);
+    if (watcher == null) {
+      open();
+    }
+    return true;
+  }
+
+  /**
+   * Removes a subscription, closing the watch if it was the last one.
+   * @param subscription The subscription to remove
+   */
+  synchronized void remove(WatchSubscription subscription) {
+    subscriptions.remove(subscription);
+    if (subscriptions.isEmpty()) {
+      close();
+    }
+  }
+
+  /**
+   * Closes the watch. The remaining subscriptions receive no more events.
+   */
+  synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    onClose.accept(this);
+    generation++;
+    if (watcher != null) {
+      watcher.close();
+      watcher = null;
+    }
+  }
+
+  private void open() {
+    int watchGeneration = ++generation;
+    WatchOption.Builder watchOption = WatchOption.newBuilder().withRevision(revision == 0 ? 0 : revision + 1);
+    if (prefix) {
+      watchOption.withPrefix(key);
+    }
+    watcher = watchClient.watch(key, watchOption.build(), Watch.listener(
+        response -> onWatch(response, watchGeneration),
+        throwable -> onError(throwable, watchGeneration),
+        () -> onError(null, watchGeneration)));
+  }
+
+  private void onWatch(WatchResponse response, int watchGeneration) {
+    synchronized (this) {
+      if (watchGeneration != generation) {
+        return;
+      }
+      for (WatchEvent event : response.getEvents()) {
+        revision = Math.max(revision, event.getKeyValue().getModRevision());
+      }
+      revision = Math.max(revision, response.getHeader().getRevision());
+    }
+    for (WatchEvent event : response.getEvents()) {
+      for (WatchSubscription subscription : subscriptions) {
+        subscription.offer(event);
+      }
+    }
+  }
+
+  private void onError(Throwable throwable, int watchGeneration) {
+    synchronized (this) {
+      if (watchGeneration != generation) {
+        return;
+      }
+      if (!(throwable instanceof CompactedException)) {
+        if (watcher != null) {
+          watcher.close();
+          watcher = null;
+        }
+        int reopenGeneration = ++generation;
+        scheduler.schedule(() -> reopen(reopenGeneration), reconnectDelayMs, TimeUnit.MILLISECONDS);
+        return;
+      }
+      close();
+    }
+    for (WatchSubscription subscription : subscriptions) {
+      subscription.fail(throwable);
+    }
+  }
+
+  private synchronized void reopen(int reopenGeneration) {
+    if (reopenGeneration == generation && !closed) {
+      open();
+    }
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.watch;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.Watch;
+import io.etcd.jetcd.watch.WatchEvent;
+import io.micronaut.context.annotation.EachBean;
+import io.micronaut.etcd.client.ClientFactory;
+import io.micronaut.etcd.config.EtcdFactoryConfig;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+
+/**
+ * Service to watch keys and prefixes of etcd as {@link Publisher}s of {@link WatchEvent}s.
+ *
+ * <p>Publishers are hot: a subscriber receives the events that happen after it subscribed. All
+ * the subscribers to the same key, or the same prefix, share a single etcd watch, opened with the
+ * first subscription and closed with the last one. A subscriber receives events as it requests
+ * them; until then only the latest event of each key is kept, so a slow subscriber sees the last
+ * value of a key but may miss the values in between. A watch that fails is reopened from the last
+ * revision it has seen; if that revision has been compacted, the subscribers receive the
+ * {@link io.etcd.jetcd.common.exception.CompactedException} as error.</p>
+ *
+ * <p>One instance is created for each {@link EtcdFactoryConfig} bean, sharing the client built by
+ * {@link ClientFactory}.</p>
+ */
+@EachBean(EtcdFactoryConfig.class)
+public class WatchService implements AutoCloseable {
+
+  /**
+   * The delay in milliseconds before a failed watch is reopened.
+   */
+  public static final long DEFAULT_RECONNECT_DELAY_MS = 1000;
+
+  /**
+   * The Watch Client from jetcd.
+   */
+  private final Watch watchClient;
+  private final long reconnectDelayMs;
+  private final ScheduledExecutorService scheduler;
+  private final Map<ByteSequence, SharedWatch> keyWatches = new ConcurrentHashMap<>();
+  private final Map<ByteSequence, SharedWatch> prefixWatches = new ConcurrentHashMap<>();
+  private final Set<SharedWatch> revisionWatches = ConcurrentHashMap.newKeySet();
+
+  /**
+   * The factory created by this service for its own etcd client, closed with the service, or null
+   * if the client is shared.
+   */
+  private final ClientFactory ownedClientFactory;
+
+  /**
+   * Constructor. The service gets its own etcd client, which is not managed by the application
+   * context and is closed with the service; inject the service instead to share the client of the
+   * configuration.
+   * @param config configuration to connect to the etcd server.
+   */
+  public WatchService(EtcdFactoryConfig config) {
+    this(new ClientFactory(), config);
+  }
+
+  /**
+   * Constructor.
+   * @param config configuration to connect to the etcd server.
+   * @param clientFactory The factory holding the shared etcd clients
+   */
+  @Inject
+  public WatchService(EtcdFactoryConfig config, ClientFactory clientFactory) {
+    this(clientFactory.etcdClient(config).getWatchClient());
+  }
+
+  /**
+   * Constructor.
+   * @param watchClient The jetcd Watch client to use
+   */
+  public WatchService(Watch watchClient) {
+    this(watchClient, DEFAULT_RECONNECT_DELAY_MS);
+  }
+
+  /**
+   * Constructor of a service owning its etcd client.
+   * @param ownedClientFactory The factory created for this service alone
+   * @param config configuration to connect to the etcd server.
+   */
+  private WatchService(ClientFactory ownedClientFactory, EtcdFactoryConfig config) {
+    this(ownedClientFactory.etcdClient(config).getWatchClient(), DEFAULT_RECONNECT_DELAY_MS, ownedClientFactory);
+  }
+
+  /**
+   * Constructor.
+   * @param watchClient The jetcd Watch client to use
+   * @param reconnectDelayMs The delay in milliseconds before a failed watch is reopened
+   */
+  WatchService(Watch watchClient, long reconnectDelayMs) {
+    this(watchClient, reconnectDelayMs, null);
+  }
+
+  /**
+   * Constructor.
+   * @param watchClient The jetcd Watch client to use
+   * @param reconnectDelayMs The delay in milliseconds before a failed watch is reopened
+   * @param ownedClientFactory The factory created for this service alone, or null
+   */
+  private WatchService(Watch watchClient, long reconnectDelayMs, ClientFactory ownedClientFactory) {
+    this.watchClient = watchClient;
+    this.ownedClientFactory = ownedClientFactory;
+    this.reconnectDelayMs = reconnectDelayMs;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "etcd-watch-reconnect");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Watches a key.
+   * @param key The key to watch
+   * @return A {@link Publisher} of the events of the key
+   */
+  public Publisher<WatchEvent> watch(String key) {
+    return watch(ByteSequence.from(key, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Watches a key.
+   * @param key The key to watch
+   * @return A {@link Publisher} of the events of the key
+   */
+  public Publisher<WatchEvent> watch(ByteSequence key) {
+    return subscriber -> subscribe(keyWatches, key, false, subscriber);
+  }
+
+  /**
+   * Watches every key starting with a prefix.
+   * @param prefix The prefix of the keys to watch
+   * @return A {@link Publisher} of the events of the keys
+   */
+  public Publisher<WatchEvent> watchPrefix(String prefix) {
+    return watchPrefix(ByteSequence.from(prefix, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Watches every key starting with a prefix.
+   * @param prefix The prefix of the keys to watch
+   * @return A {@link Publisher} of the events of the keys
+   */
+  public Publisher<WatchEvent> watchPrefix(ByteSequence prefix) {
+    return subscriber -> subscribe(prefixWatches, prefix, true, subscriber);
+  }
+
+  /**
+   * Watches every key starting with a prefix, from a past revision: typically the one following
+   * a read of the prefix, so that the changes made since the read are not missed. Each subscriber
+   * gets its own etcd watch.
+   * @param prefix The prefix of the keys to watch
+   * @param startRevision The revision of the first event to receive
+   * @return A {@link Publisher} of the events of the keys
+   */
+  public Publisher<WatchEvent> watchPrefix(ByteSequence prefix, long startRevision) {
+    return subscriber -> {
+      WatchSubscription subscription = subscribe(subscriber);
+      SharedWatch watch = new SharedWatch(watchClient, prefix, true, scheduler, reconnectDelayMs, startRevision,
+          revisionWatches::remove);
+      revisionWatches.add(watch);
+      subscription.attach(watch);
+      if (subscription.isDone()) {
+        // cancelled before being attached
+        watch.close();
+      }
+    };
+  }
+
+  /**
+   * @return the number of etcd watches open, shared by all the subscribers
+   */
+  public int getWatchCount() {
+    return keyWatches.size() + prefixWatches.size() + revisionWatches.size();
+  }
+
+  /**
+   * Closes every watch. The subscribers receive no more events. A service owning its etcd client
+   * closes it as well.
+   */
+  @PreDestroy
+  @Override
+  public void close() {
+    keyWatches.values().forEach(SharedWatch::close);
+    prefixWatches.values().forEach(SharedWatch::close);
+    revisionWatches.forEach(SharedWatch::close);
+    keyWatches.clear();
+    prefixWatches.clear();
+    scheduler.shutdownNow();
+    if (ownedClientFactory != null) {
+      ownedClientFactory.close();
+    }
+  }
+
+  private void subscribe(Map<ByteSequence, SharedWatch> watches, ByteSequence key, boolean prefix,
+                         Subscriber<? super WatchEvent> subscriber) {
+    WatchSubscription subscription = subscribe(subscriber);
+    SharedWatch watch;
+    do {
+      // a watch closed by its last subscriber leaving right before this one is added is replaced
+      watch = watches.computeIfAbsent(key, k -> newWatch(watches, k, prefix));
+    } while (!subscription.attach(watch));
+  }
+
+  private static WatchSubscription subscribe(Subscriber<? super WatchEvent> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("Rule 1.9: the subscriber must not be null");
+    }
+    WatchSubscription subscription = new WatchSubscription(subscriber);
+    subscriber.onSubscribe(subscription);
+    return subscription;
+  }
+
+  private SharedWatch newWatch(Map<ByteSequence, SharedWatch> watches, ByteSequence key, boolean prefix) {
+    return new SharedWatch(watchClient, key, prefix, scheduler, reconnectDelayMs, 0,
+        watch -> watches.remove(key, watch));
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017-2020 original authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.micronaut.etcd.watch;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.watch.WatchEvent;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * The subscription of one subscriber to a {@link SharedWatch}.
+ *
+ * <p>Events are delivered as the subscriber requests them. Until then they are kept in a buffer
+ * holding only the latest event of each key, so a slow subscriber skips the intermediate values of
+ * a key instead of making the buffer grow. Signals to the subscriber are serialized by a
+ * work-in-progress counter, whichever thread produces them.</p>
+ */
+final class WatchSubscription implements Subscription {
+
+  private final Subscriber<? super WatchEvent> subscriber;
+  private final Map<ByteSequence, WatchEvent> pending = new LinkedHashMap<>();
+  private final AtomicInteger workInProgress = new AtomicInteger();
+
+  private SharedWatch watch;
+  private long requested;
+  private Throwable error;
+  private boolean done;
+
+  /**
+   * Constructor.
+   * @param subscriber The subscriber to signal
+   */
+  WatchSubscription(Subscriber<? super WatchEvent> subscriber) {
+    this.subscriber = subscriber;
+  }
+
+  /**
+   * Starts receiving the events of a watch.
+   * @param sharedWatch The watch the events come from
+   * @return {@code false} if the watch is already closed, and another one must be used
+   */
+  boolean attach(SharedWatch sharedWatch) {
+    synchronized (this) {
+      if (done) {
+        return true;
+      }
+      watch = sharedWatch;
+    }
+    if (!sharedWatch.add(this)) {
+      return false;
+    }
+    if (isDone()) {
+      // cancelled while being added
+      sharedWatch.remove(this);
+    }
+    return true;
+  }
+
+  /**
+   * @return whether the subscription was cancelled or terminated
+   */
+  synchronized boolean isDone() {
+    return done;
+  }
+
+  /**
+   * Queues an event for the subscriber, replacing any undelivered event of the same key.
+   * @param event The watch event
+   */
+  void offer(WatchEvent event) {
+    synchronized (this) {
+      if (done) {
+        return;
+      }
+      ByteSequence key = event.getKeyValue().getKey();
+      pending.remove(key);
+      pending.put(key, event);
+    }
+    drain();
+  }
+
+  /**
+   * Terminates the subscription with an error, dropping the undelivered events.
+   * @param throwable The error to signal
+   */
+  void fail(Throwable throwable) {
+    synchronized (this) {
+      if (done || error != null) {
+        return;
+      }
+      error = throwable;
+    }
+    drain();
+  }
+
+  @Override
+  public void request(long n) {
+    if (n <= 0) {
+      detach();
+      fail(new IllegalArgumentException("Rule 3.9: the number of requested events must be positive"));
+      return;
+    }
+    synchronized (this) {
+      requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+    }
+    drain();
+  }
+
+  @Override
+  public void cancel() {
+    synchronized (this) {
+      if (done) {
+        return;
+      }
+      done = true;
+      pending.clear();
+    }
+    detach();
+  }
+
+  private void detach() {
+    SharedWatch sharedWatch;
+    synchronized (this) {
+      sharedWatch = watch;
+    }
+    if (sharedWatch != null) {
+      sharedWatch.remove(this);
+    }
+  }
+
+  private void drain() {
+    if (workInProgress.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      while (true) {
+        WatchEvent event;
+        Throwable failure = null;
+        synchronized (this) {
+          if (done) {
+            break;
+          }
+          if (error != null) {
+            done = true;
+            pending.clear();
+            failure = error;
+            event = null;
+          } else if (requested == 0 || pending.isEmpty()) {
+            break;
+          } else {
+            Iterator<WatchEvent> events = pending.values().iterator();
+            event = events.next();
+            events.remove();
+            if (requested != Long.MAX_VALUE) {
+              requested--;
+            }
+          }
+        }
+        if (failure != null) {
+          subscriber.onError(failure);
+        } else {
+          subscriber.onNext(event);
+        }
+      }
+      missed = workInProgress.addAndGet(-missed);
+    } while (missed != 0);
+  }
+}
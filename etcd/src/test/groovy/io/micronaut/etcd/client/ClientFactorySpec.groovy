@@ -0,0 +1,51 @@
+package io.micronaut.etcd.client
+
+import io.etcd.jetcd.Client
+import io.etcd.jetcd.KV
+import io.micronaut.context.ApplicationContext
+import io.micronaut.etcd.config.EtcdFactoryConfig
+import io.micronaut.etcd.kv.AsyncKVService
+import io.micronaut.etcd.kv.KVService
+import io.micronaut.etcd.kv.ReactiveKVService
+import io.micronaut.inject.qualifiers.Qualifiers
+import spock.lang.Specification
+
+class ClientFactorySpec extends Specification {
+
+    def "test one client is shared by every service of a configuration" () {
+        given:
+        ApplicationContext context = ApplicationContext.run(
+                ["spec.name"   : getClass().simpleName
+                 ,"etcd.endpoints": ["http://localhost:2379"]
+                ]
+        )
+
+        when:
+        Client client = context.getBean(Client, Qualifiers.byName("etcd"))
+        ClientFactory clientFactory = context.getBean(ClientFactory)
+
+        then:
+        context.getBean(KV, Qualifiers.byName("etcd")).is(client.getKVClient())
+        clientFactory.etcdClient(context.getBean(EtcdFactoryConfig)).is(client)
+        context.getBean(KVService, Qualifiers.byName("etcd"))
+        context.getBean(ReactiveKVService, Qualifiers.byName("etcd"))
+        context.getBean(AsyncKVService, Qualifiers.byName("etcd"))
+                .is(context.getBean(AsyncKVService, Qualifiers.byName("etcd")))
+
+        cleanup:
+        context.stop()
+    }
+
+    def "test clients built from endpoints are shared" () {
+        given:
+        ClientFactory clientFactory = new ClientFactory()
+
+        expect:
+        clientFactory.etcdKVClient("http://localhost:2379").is(clientFactory.etcdKVClient("http://localhost:2379"))
+        clientFactory.etcdKVClient(URI.create("http://localhost:2379")).is(clientFactory.etcdKVClient([URI.create("http://localhost:2379")]))
+        !clientFactory.etcdKVClient("http://localhost:2379").is(clientFactory.etcdKVClient("http://localhost:2380"))
+
+        cleanup:
+        clientFactory.close()
+    }
+}
@@ -0,0 +1,25 @@
+package io.micronaut.etcd.client
+
+import spock.lang.Specification
+
+import java.util.concurrent.ExecutorService
+
+class VirtualThreadsSpec extends Specification {
+
+    def "test virtual threads are used from JDK 21 on" () {
+        given:
+        boolean jdk21 = Integer.parseInt(System.getProperty("java.specification.version").replaceFirst(/^1\./, "")) >= 21
+
+        when:
+        Optional<ExecutorService> executor = VirtualThreads.newExecutor("etcd-test-")
+        Thread thread = executor.map { it.submit({ Thread.currentThread() } as java.util.concurrent.Callable).get() }.orElse(null)
+
+        then:
+        VirtualThreads.supported == jdk21
+        executor.isPresent() == jdk21
+        !jdk21 || (thread.name == "etcd-test-0" && thread.virtual)
+
+        cleanup:
+        executor.ifPresent { it.shutdown() }
+    }
+}
@@ -0,0 +1,68 @@
+package io.micronaut.etcd.codec
+
+import com.google.protobuf.ByteString
+import io.etcd.jetcd.ByteSequence
+import io.etcd.jetcd.api.KeyValue
+import io.micronaut.etcd.util.DummyObject
+import spock.lang.Specification
+
+import static com.google.common.base.Charsets.UTF_8
+
+class ValueCodecsSpec extends Specification {
+
+    ValueCodecs codecs = new ValueCodecs(ValueCodecs.defaultCodecs(), null)
+
+    def "test basic types are encoded in their compact binary form" () {
+        expect:
+        codecs.encode("bar") == ByteSequence.from("bar", UTF_8)
+        codecs.encode(42L).size() == 8
+        codecs.decode(codecs.encode(value), value.getClass()) == value
+
+        where:
+        value << ["bar", 42, 42L, 1.5d, true, (short) 7, UUID.randomUUID()]
+    }
+
+    def "test objects are encoded as JSON and messages as protobuf" () {
+        given:
+        KeyValue message = KeyValue.newBuilder().setKey(ByteString.copyFromUtf8("foo")).setVersion(3).build()
+
+        when:
+        ByteSequence json = codecs.encode(new DummyObject("bar", 69))
+        DummyObject object = codecs.decode(json, DummyObject)
+
+        then:
+        json.toString(UTF_8) == '{"field1":"bar","field2":69}'
+        object.field1 == "bar"
+        object.field2 == 69
+        codecs.decode(codecs.encode(message), KeyValue) == message
+    }
+
+    def "test values from the threshold are compressed" () {
+        given:
+        ValueCodecs compressing = new ValueCodecs(ValueCodecs.defaultCodecs(), 64)
+        String large = "value " * 100
+        byte[] gzipLike = [0x1f, 0x8b, 1, 2] as byte[]
+
+        expect:
+        compressing.encode("small") == ByteSequence.from("small", UTF_8)
+        compressing.encode(large).size() < large.length()
+        compressing.decode(compressing.encode(large), String) == large
+        compressing.decode(compressing.encode(gzipLike), byte[]) == gzipLike
+        codecs.encode(large).size() == large.length()
+    }
+
+    def "test the codec with the highest precedence is used" () {
+        given:
+        EtcdValueCodec custom = Mock(EtcdValueCodec) {
+            getOrder() >> 0
+            supports(DummyObject) >> true
+            encode(_, _) >> { value, OutputStream out -> out.write("custom".getBytes(UTF_8)) }
+        }
+        ValueCodecs withCustom = new ValueCodecs([custom] + ValueCodecs.defaultCodecs(), null)
+
+        expect:
+        withCustom.codecFor(DummyObject) == custom
+        withCustom.encode(new DummyObject("bar", 69)).toString(UTF_8) == "custom"
+        withCustom.codecFor(String) instanceof BinaryValueCodec
+    }
+}
@@ -0,0 +1,154 @@
+package io.micronaut.etcd.configuration
+
+import com.google.protobuf.ByteString
+import io.etcd.jetcd.ByteSequence
+import io.etcd.jetcd.KV
+import io.etcd.jetcd.Watch
+import io.etcd.jetcd.api.Event
+import io.etcd.jetcd.api.KeyValue
+import io.etcd.jetcd.api.RangeResponse
+import io.etcd.jetcd.api.ResponseHeader
+import io.etcd.jetcd.common.exception.EtcdExceptionFactory
+import io.etcd.jetcd.kv.GetResponse
+import io.etcd.jetcd.watch.WatchResponse
+import io.micronaut.context.BeanContext
+import io.micronaut.context.env.Environment
+import io.micronaut.context.env.PropertySource
+import io.micronaut.context.event.ApplicationEventPublisher
+import io.micronaut.context.event.StartupEvent
+import io.micronaut.etcd.kv.AsyncKVService
+import io.micronaut.etcd.watch.WatchService
+import io.micronaut.runtime.context.scope.refresh.RefreshEvent
+import io.reactivex.Flowable
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.CompletableFuture
+
+import static io.micronaut.etcd.util.TestBytes.bytes
+
+class EtcdConfigurationSpec extends Specification {
+
+    def "test the keys under the prefix are read once into properties" () {
+        given:
+        KV kv = Mock(KV)
+        EtcdConfigurationClient client = new EtcdConfigurationClient(new AsyncKVService(kv), new EtcdConfigClientConfiguration())
+
+        when:
+        EtcdPropertySource source = Flowable.fromPublisher(client.getPropertySources(Mock(Environment))).blockingFirst()
+        PropertySource again = Flowable.fromPublisher(client.getPropertySources(Mock(Environment))).blockingFirst()
+
+        then:
+        1 * kv.get(bytes("config/"), _) >> CompletableFuture.completedFuture(new GetResponse(RangeResponse.newBuilder()
+                .setHeader(ResponseHeader.newBuilder().setRevision(12))
+                .addKvs(keyValue("config/datasources/default/url", "jdbc:h2:mem"))
+                .addKvs(keyValue("config/greeting", "hello"))
+                .addKvs(keyValue("config/folder/", ""))
+                .build(), ByteSequence.EMPTY))
+        source.asMap() == ["datasources.default.url": "jdbc:h2:mem", "greeting": "hello"]
+        source.revision == 12
+        again.is(source)
+    }
+
+    def "test only the changed properties are refreshed" () {
+        given:
+        Watch watch = Mock(Watch)
+        Watch.Listener listener = null
+        long watchedRevision = 0
+        watch.watch(_, _, _) >> { key, option, Watch.Listener watchListener ->
+            watchedRevision = option.revision
+            listener = watchListener
+            return Mock(Watch.Watcher)
+        }
+        EtcdPropertySource source = new EtcdPropertySource(bytes("config/"), 12)
+        source.put(new io.etcd.jetcd.KeyValue(keyValue("config/greeting", "hello"), ByteSequence.EMPTY))
+        source.put(new io.etcd.jetcd.KeyValue(keyValue("config/timeout", "10s"), ByteSequence.EMPTY))
+        int refreshes = 0
+        Environment environment = Mock(Environment) {
+            getPropertySources() >> [source]
+            refreshAndDiff() >> {
+                refreshes++
+                return ["greeting": "hello", "timeout": "10s"]
+            }
+        }
+        List<RefreshEvent> events = [].asSynchronized()
+        ApplicationEventPublisher publisher = { events << it } as ApplicationEventPublisher
+        EtcdConfigurationWatcher watcher = new EtcdConfigurationWatcher(environment, publisher, new WatchService(watch),
+                new AsyncKVService(Mock(KV)), new EtcdConfigClientConfiguration())
+
+        when:
+        watcher.onApplicationEvent(new StartupEvent(Mock(BeanContext)))
+        listener.onNext(watchResponse(13, Event.EventType.PUT, "config/greeting", "hello"))
+
+        then:
+        watchedRevision == 13
+        refreshes == 0
+
+        when:
+        listener.onNext(watchResponse(14, Event.EventType.PUT, "config/greeting", "hi"))
+        listener.onNext(watchResponse(15, Event.EventType.DELETE, "config/timeout", ""))
+
+        then:
+        new PollingConditions(timeout: 5).eventually {
+            assert events*.source.collectMany { it.keySet() } as Set == ["greeting", "timeout"] as Set
+        }
+        source.asMap() == ["greeting": "hi"]
+
+        cleanup:
+        watcher.close()
+    }
+
+    def "test the prefix is read again once its changes are compacted" () {
+        given:
+        Watch watch = Mock(Watch)
+        Watch.Listener listener = null
+        List<Long> watchedRevisions = [].asSynchronized()
+        watch.watch(_, _, _) >> { key, option, Watch.Listener watchListener ->
+            watchedRevisions << option.revision
+            listener = watchListener
+            return Mock(Watch.Watcher)
+        }
+        KV kv = Mock(KV)
+        kv.get(bytes("config/"), _) >> CompletableFuture.completedFuture(new GetResponse(RangeResponse.newBuilder()
+                .setHeader(ResponseHeader.newBuilder().setRevision(30))
+                .addKvs(keyValue("config/greeting", "hi"))
+                .build(), ByteSequence.EMPTY))
+        EtcdPropertySource source = new EtcdPropertySource(bytes("config/"), 12)
+        source.put(new io.etcd.jetcd.KeyValue(keyValue("config/greeting", "hello"), ByteSequence.EMPTY))
+        source.put(new io.etcd.jetcd.KeyValue(keyValue("config/timeout", "10s"), ByteSequence.EMPTY))
+        Environment environment = Mock(Environment) {
+            getPropertySources() >> [source]
+            refreshAndDiff() >> ["greeting": "hello", "timeout": "10s"]
+        }
+        List<RefreshEvent> events = [].asSynchronized()
+        ApplicationEventPublisher publisher = { events << it } as ApplicationEventPublisher
+        EtcdConfigurationWatcher watcher = new EtcdConfigurationWatcher(environment, publisher, new WatchService(watch),
+                new AsyncKVService(kv), new EtcdConfigClientConfiguration())
+
+        when:
+        watcher.onApplicationEvent(new StartupEvent(Mock(BeanContext)))
+        listener.onError(EtcdExceptionFactory.newCompactedException(20))
+
+        then:
+        new PollingConditions(timeout: 5).eventually {
+            assert watchedRevisions == [13L, 31L]
+            assert events.size() == 1
+        }
+        source.asMap() == ["greeting": "hi"]
+        source.revision == 30
+
+        cleanup:
+        watcher.close()
+    }
+
+    private static KeyValue keyValue(String key, String value) {
+        return KeyValue.newBuilder().setKey(ByteString.copyFromUtf8(key)).setValue(ByteString.copyFromUtf8(value)).build()
+    }
+
+    private static WatchResponse watchResponse(long revision, Event.EventType type, String key, String value) {
+        return new WatchResponse(io.etcd.jetcd.api.WatchResponse.newBuilder()
+                .setHeader(ResponseHeader.newBuilder().setRevision(revision))
+                .addEvents(Event.newBuilder().setType(type).setKv(keyValue(key, value).toBuilder().setModRevision(revision)))
+                .build())
+    }
+}
@@ -0,0 +1,134 @@
+package io.micronaut.etcd.coordination
+
+import com.google.protobuf.ByteString
+import io.etcd.jetcd.ByteSequence
+import io.etcd.jetcd.Election
+import io.etcd.jetcd.KV
+import io.etcd.jetcd.Lease
+import io.etcd.jetcd.Lock
+import io.etcd.jetcd.api.CampaignResponse
+import io.etcd.jetcd.api.LeaseGrantResponse
+import io.etcd.jetcd.api.lock.LockResponse
+import io.etcd.jetcd.api.lock.UnlockResponse
+import io.etcd.jetcd.election.LeaderKey
+import io.etcd.jetcd.support.CloseableClient
+import io.micronaut.etcd.lease.LeaseService
+import spock.lang.Specification
+import spock.util.concurrent.BlockingVariable
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
+import static io.micronaut.etcd.util.TestBytes.bytes
+
+class LockServiceSpec extends Specification {
+
+    Lease lease = Mock(Lease)
+    LeaseService leaseService = new LeaseService(lease, Mock(KV), 10)
+
+    def setup() {
+        lease.grant(60) >> CompletableFuture.completedFuture(new io.etcd.jetcd.lease.LeaseGrantResponse(
+                LeaseGrantResponse.newBuilder().setID(7).setTTL(60).build()))
+        lease.keepAlive(_, _) >> Mock(CloseableClient)
+    }
+
+    def cleanup() {
+        leaseService.close()
+    }
+
+    def "test two callers of the same instance do not hold the same lock at once" () {
+        given:
+        Lock lock = Mock(Lock)
+        LockService lockService = new LockService(lock, leaseService, 60)
+        CompletableFuture<ByteSequence> first
+        CompletableFuture<ByteSequence> second
+
+        when:
+        first = lockService.lock("jobs/cleanup")
+        second = lockService.lock("jobs/cleanup")
+
+        then:
+        1 * lock.lock(bytes("jobs/cleanup"), 7) >> lockResponse("jobs/cleanup/7")
+        first.get() == bytes("jobs/cleanup/7")
+        !second.isDone()
+
+        when:
+        lockService.unlock(first.get()).get()
+
+        then:
+        1 * lock.unlock(bytes("jobs/cleanup/7")) >> CompletableFuture.completedFuture(
+                new io.etcd.jetcd.lock.UnlockResponse(UnlockResponse.getDefaultInstance()))
+        1 * lock.lock(bytes("jobs/cleanup"), 7) >> lockResponse("jobs/cleanup/7")
+        second.get() == bytes("jobs/cleanup/7")
+        leaseService.leaseCount == 1
+    }
+
+    def "test the action does not run when the lock cannot be acquired" () {
+        given:
+        Lock lock = Mock(Lock)
+        LockService lockService = new LockService(lock, leaseService, 60)
+        CompletableFuture failed = new CompletableFuture()
+        failed.completeExceptionally(new IllegalStateException("unavailable"))
+        lock.lock(_, _) >> failed
+        boolean ran = false
+
+        when:
+        lockService.withLock("jobs/cleanup", { ran = true })
+
+        then:
+        LockException e = thrown()
+        e.cause instanceof IllegalStateException
+        !ran
+    }
+
+    def "test a lock granted after its waiter was interrupted is released" () {
+        given:
+        Lock lock = Mock(Lock)
+        LockService lockService = new LockService(lock, leaseService, 60)
+        lock.lock(bytes("jobs/cleanup"), 7) >> { lockResponse("jobs/cleanup/7") }
+        lock.unlock(bytes("jobs/cleanup/7")) >> CompletableFuture.completedFuture(
+                new io.etcd.jetcd.lock.UnlockResponse(UnlockResponse.getDefaultInstance()))
+        ByteSequence first = lockService.lock("jobs/cleanup").get()
+        BlockingVariable<Throwable> failure = new BlockingVariable<>(5)
+        Thread waiter = new Thread({
+            try {
+                lockService.withLock("jobs/cleanup", { null })
+            } catch (LockException e) {
+                failure.set(e)
+            }
+        })
+
+        when:
+        waiter.start()
+        waiter.interrupt()
+
+        then:
+        failure.get().message == "Interrupted while waiting for lock jobs/cleanup"
+
+        when:
+        lockService.unlock(first).get()
+
+        then:
+        lockService.lock("jobs/cleanup").get(5, TimeUnit.SECONDS) == bytes("jobs/cleanup/7")
+    }
+
+    def "test candidates campaign under the shared lease" () {
+        given:
+        Election election = Mock(Election)
+        ElectionService electionService = new ElectionService(election, leaseService, 60)
+
+        when:
+        LeaderKey leaderKey = electionService.campaign("scheduler", "10.0.0.1").get()
+
+        then:
+        1 * election.campaign(bytes("scheduler"), 7, bytes("10.0.0.1")) >> CompletableFuture.completedFuture(
+                new io.etcd.jetcd.election.CampaignResponse(CampaignResponse.newBuilder()
+                        .setLeader(io.etcd.jetcd.api.LeaderKey.newBuilder().setLease(7)).build()))
+        leaderKey.lease == 7
+    }
+
+    private static CompletableFuture<io.etcd.jetcd.lock.LockResponse> lockResponse(String key) {
+        return CompletableFuture.completedFuture(new io.etcd.jetcd.lock.LockResponse(
+                LockResponse.newBuilder().setKey(ByteString.copyFromUtf8(key)).build(), ByteSequence.EMPTY))
+    }
+}
@@ -0,0 +1,104 @@
+package io.micronaut.etcd.health
+
+import io.etcd.jetcd.Maintenance
+import io.etcd.jetcd.api.StatusResponse
+import io.micronaut.etcd.client.ClientFactory
+import io.micronaut.etcd.config.EtcdFactoryConfig
+import io.micronaut.etcd.config.SingleEtcdFactoryConfig
+import io.micronaut.health.HealthStatus
+import io.micronaut.management.health.indicator.HealthResult
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+
+class EtcdHealthIndicatorSpec extends Specification {
+
+    static final URI FIRST = URI.create("http://etcd-0:2379")
+    static final URI SECOND = URI.create("http://etcd-1:2379")
+
+    Maintenance maintenance = Mock(Maintenance)
+
+    def "test the status of every endpoint is reported" () {
+        given:
+        EtcdHealthIndicator indicator = new EtcdHealthIndicator(maintenance, [FIRST, SECOND], "etcd", 60_000, 1000)
+
+        when:
+        HealthResult result = indicator.check().get()
+
+        then:
+        1 * maintenance.statusMember(FIRST) >> status(1, 100)
+        1 * maintenance.statusMember(SECOND) >> status(1, 90)
+        result.status == HealthStatus.UP
+        result.details.leader == true
+        result.details.endpoints[FIRST.toString()].raftIndexLag == 0
+        result.details.endpoints[SECOND.toString()].raftIndexLag == 10
+        result.details.endpoints[SECOND.toString()].dbSize == 4096
+
+        cleanup:
+        indicator.close()
+    }
+
+    def "test results are reused until they expire" () {
+        given:
+        EtcdHealthIndicator indicator = new EtcdHealthIndicator(maintenance, [FIRST], "etcd", 60_000, 1000)
+
+        when:
+        indicator.check().get()
+        indicator.check().get()
+
+        then:
+        1 * maintenance.statusMember(FIRST) >> status(1, 100)
+
+        cleanup:
+        indicator.close()
+    }
+
+    def "test the cluster is down without a leader or a reachable endpoint" () {
+        given:
+        EtcdHealthIndicator indicator = new EtcdHealthIndicator(maintenance, [FIRST, SECOND], "etcd", 0, 50)
+
+        when:
+        HealthResult result = indicator.check().get()
+
+        then:
+        1 * maintenance.statusMember(FIRST) >> new CompletableFuture()
+        1 * maintenance.statusMember(SECOND) >> { throw new IllegalStateException("unreachable") }
+        result.status == HealthStatus.DOWN
+        result.details.endpoints[FIRST.toString()].error.contains("TimeoutException")
+
+        when:
+        result = indicator.check().get()
+
+        then:
+        1 * maintenance.statusMember(FIRST) >> status(0, 100)
+        1 * maintenance.statusMember(SECOND) >> status(0, 100)
+        result.status == HealthStatus.DOWN
+
+        cleanup:
+        indicator.close()
+    }
+
+    def "test a local server is reported up without being queried" () {
+        given:
+        EtcdFactoryConfig config = new SingleEtcdFactoryConfig()
+        config.setLocalServer(true)
+        ClientFactory clientFactory = new ClientFactory()
+        EtcdHealthIndicator indicator = new EtcdHealthIndicator(config, clientFactory)
+
+        when:
+        HealthResult result = indicator.check().get()
+
+        then:
+        result.status == HealthStatus.UP
+        result.details.localServer == clientFactory.getLocalServer(config).endpoint
+
+        cleanup:
+        indicator.close()
+        clientFactory.close()
+    }
+
+    private static CompletableFuture<io.etcd.jetcd.maintenance.StatusResponse> status(long leader, long raftIndex) {
+        return CompletableFuture.completedFuture(new io.etcd.jetcd.maintenance.StatusResponse(StatusResponse.newBuilder()
+                .setLeader(leader).setRaftIndex(raftIndex).setDbSize(4096).build()))
+    }
+}
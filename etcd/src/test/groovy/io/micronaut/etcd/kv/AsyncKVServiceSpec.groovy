@@ -0,0 +1,115 @@
+package io.micronaut.etcd.kv
+
+import io.micronaut.etcd.client.ClientFactory
+import io.micronaut.etcd.config.EtcdFactoryConfig
+import io.micronaut.etcd.config.SingleEtcdFactoryConfig
+import org.reactivestreams.Publisher
+import org.reactivestreams.Subscriber
+import org.reactivestreams.Subscription
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+
+import static com.google.common.base.Charsets.UTF_8
+
+class AsyncKVServiceSpec extends Specification {
+
+    ClientFactory clientFactory = new ClientFactory()
+
+    def cleanup() {
+        clientFactory.close()
+    }
+
+    def "test async Put and Get single string" () {
+        given:
+        String key = "foo"
+        String value = "bar"
+
+        and:
+        EtcdFactoryConfig config = new SingleEtcdFactoryConfig()
+        config.setLocalServer(true)
+        AsyncKVService asyncKVService = new AsyncKVService(config, clientFactory)
+
+        when:
+        byte[] ret = asyncKVService.put(key, value)
+                .thenCompose({ previous -> asyncKVService.get(key) })
+                .get()
+
+        then:
+        new String(ret, UTF_8) == value
+    }
+
+    def "test async Get and Delete with many concurrent callers" () {
+        given:
+        String key = "foo"
+        String value = "bar"
+        int numCalls = 100
+
+        and:
+        EtcdFactoryConfig config = new SingleEtcdFactoryConfig()
+        config.setLocalServer(true)
+        AsyncKVService asyncKVService = new AsyncKVService(config, clientFactory)
+
+        when:
+        List<CompletableFuture<byte[]>> puts = (0..<numCalls).collect { i ->
+            asyncKVService.put("${key}-${i}".toString(), "${value}-${i}".toString())
+        }
+        CompletableFuture.allOf(puts as CompletableFuture[]).get()
+        List<CompletableFuture<Long>> deletes = (0..<numCalls).collect { i ->
+            asyncKVService.delete("${key}-${i}".toString())
+        }
+
+        then:
+        deletes*.get().sum() == numCalls
+        asyncKVService.get("${key}-0".toString()).get() == null
+    }
+
+    def "test reactive Put and Get single string" () {
+        given:
+        String key = "foo"
+        String value = "bar"
+
+        and:
+        EtcdFactoryConfig config = new SingleEtcdFactoryConfig()
+        config.setLocalServer(true)
+        ReactiveKVService reactiveKVService = new ReactiveKVService(new AsyncKVService(config, clientFactory))
+
+        when:
+        Publisher<byte[]> get = reactiveKVService.get(key)
+
+        then: "nothing is emitted for a missing key"
+        first(get) == null
+
+        when:
+        first(reactiveKVService.put(key, value))
+
+        then: "the publisher is cold, so subscribing again reads the new value"
+        new String(first(get), UTF_8) == value
+    }
+
+    private static <T> T first(Publisher<T> publisher) {
+        CompletableFuture<T> future = new CompletableFuture<>()
+        publisher.subscribe(new Subscriber<T>() {
+            @Override
+            void onSubscribe(Subscription s) {
+                s.request(1)
+            }
+
+            @Override
+            void onNext(T t) {
+                future.complete(t)
+            }
+
+            @Override
+            void onError(Throwable t) {
+                future.completeExceptionally(t)
+            }
+
+            @Override
+            void onComplete() {
+                future.complete(null)
+            }
+        })
+        return future.get()
+    }
+}
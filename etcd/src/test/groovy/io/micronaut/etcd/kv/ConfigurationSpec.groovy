@@ -1,6 +1,9 @@
 package io.micronaut.etcd.kv
 
+import io.etcd.jetcd.Client
 import io.micronaut.context.ApplicationContext
+import io.micronaut.etcd.config.ClusterEtcdFactoryConfig
+import io.micronaut.etcd.config.EtcdFactoryConfig
 import io.micronaut.etcd.config.SingleEtcdFactoryConfig
 import io.micronaut.inject.qualifiers.Qualifiers
 import spock.lang.Specification
@@ -18,6 +21,8 @@ class ConfigurationSpec extends Specification {
                  ,"etcd.password": dummyValue
                  ,"etcd.retryMaxDuration": dummyValue
                  ,"etcd.authority": dummyValue
+                 ,"etcd.batchWindowMs": 5
+                 ,"etcd.batchMaxOperations": 64
                 ]
         )
 
@@ -28,6 +33,50 @@ class ConfigurationSpec extends Specification {
                 Qualifiers.byName("etcd")).user.contains(dummyValue)
         context.getBean(SingleEtcdFactoryConfig,
                 Qualifiers.byName("etcd")).password.contains(dummyValue)
+        context.getBean(SingleEtcdFactoryConfig,
+                Qualifiers.byName("etcd")).batchWindowMs == 5
+        context.getBean(SingleEtcdFactoryConfig,
+                Qualifiers.byName("etcd")).batchMaxOperations == 64
+
+        cleanup:
+        context.stop()
+    }
+
+    def "test configuration of named clusters" () {
+        given:
+        ApplicationContext context = ApplicationContext.run(
+                ["spec.name"   : getClass().simpleName
+                 ,"etcd.endpoints": ["http://localhost:2379"]
+                 ,"etcd.clusters.fast.endpoints": ["http://fast:2379"]
+                 ,"etcd.clusters.fast.keepaliveTimeMs": 5000
+                 ,"etcd.clusters.fast.executorThreads": 2
+                 ,"etcd.clusters.bulk.endpoints": ["http://bulk:2379"]
+                 ,"etcd.clusters.bulk.maxInboundMessageSize": 16777216
+                ]
+        )
+
+        when:
+        ClusterEtcdFactoryConfig fast = context.getBean(ClusterEtcdFactoryConfig, Qualifiers.byName("fast"))
+        ClusterEtcdFactoryConfig bulk = context.getBean(ClusterEtcdFactoryConfig, Qualifiers.byName("bulk"))
+
+        then:
+        context.getBeansOfType(EtcdFactoryConfig).size() == 3
+        fast.name == "fast"
+        fast.endpoints == ["http://fast:2379"] as String[]
+        fast.keepaliveTimeMs == 5000
+        fast.executorThreads == 2
+        bulk.maxInboundMessageSize == 16777216
+        bulk.keepaliveTimeMs == 30000
+
+        when:
+        Set<KVService> kvServices = [context.getBean(KVService),
+                                     context.getBean(KVService, Qualifiers.byName("fast")),
+                                     context.getBean(KVService, Qualifiers.byName("bulk"))].toSet()
+
+        then:
+        kvServices.size() == 3
+        context.getBean(KVService, Qualifiers.byName("etcd")).is(context.getBean(KVService))
+        !context.getBean(Client, Qualifiers.byName("fast")).is(context.getBean(Client, Qualifiers.byName("bulk")))
 
         cleanup:
         context.stop()
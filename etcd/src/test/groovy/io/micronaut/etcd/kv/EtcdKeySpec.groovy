@@ -0,0 +1,92 @@
+package io.micronaut.etcd.kv
+
+import io.etcd.jetcd.ByteSequence
+import io.etcd.jetcd.Client
+import io.micronaut.etcd.client.ClientFactory
+import io.micronaut.etcd.config.EtcdFactoryConfig
+import io.micronaut.etcd.config.SingleEtcdFactoryConfig
+import spock.lang.Specification
+
+import static com.google.common.base.Charsets.UTF_8
+import static io.micronaut.etcd.util.TestBytes.bytes
+
+class EtcdKeySpec extends Specification {
+
+    def "keys join their segments once"() {
+        given:
+        EtcdKey services = EtcdKey.of("app", "services")
+
+        when:
+        EtcdKey orders = services.child("orders", "été")
+
+        then:
+        orders.toString() == "app/services/orders/été"
+        orders.bytes == bytes("app/services/orders/été")
+        orders.bytes.is(orders.bytes)
+        orders == EtcdKey.of("app/services/orders/été")
+        orders.hashCode() == EtcdKey.of("app/services/orders/été").hashCode()
+        services.contains(orders.bytes)
+        services.contains(services.bytes)
+        !orders.contains(services.bytes)
+        !EtcdKey.of("app", "services").contains(bytes("app/services2/x"))
+        EtcdKey.of(bytes("tenant-1/")).contains(bytes("tenant-1/config"))
+    }
+
+    def "keys can start from a prefix of bytes"() {
+        expect:
+        EtcdKey.of(bytes("tenant-1/"), "config", "db").bytes == bytes("tenant-1/config/db")
+        EtcdKey.of(bytes("tenant-1/")).bytes == bytes("tenant-1/")
+    }
+
+    def "the key cache encodes a key once and stays bounded"() {
+        given:
+        KVKeyCache cache = new KVKeyCache(2)
+
+        when:
+        ByteSequence first = cache.encode("a")
+
+        then:
+        first == bytes("a")
+        cache.encode("a").is(first)
+
+        when:
+        (1..10).each { cache.encode("key/" + it) }
+
+        then:
+        cache.size() == 2
+    }
+
+    def "keys are written and read under the namespace"() {
+        given:
+        EtcdFactoryConfig config = new SingleEtcdFactoryConfig()
+        config.setLocalServer(true)
+        config.setNamespace(bytes("ns/"))
+        config.setKeyCacheSize(100)
+        ClientFactory clientFactory = new ClientFactory()
+        KVService kvService = new KVService(new AsyncKVService(config, clientFactory))
+        Client rawClient = Client.builder().endpoints(clientFactory.getEndpoints(config)).build()
+        EtcdKey key = EtcdKey.of("app", "counter")
+
+        when:
+        kvService.put(key, bytes("1"))
+        kvService.put(key.child("limit"), 10)
+
+        then:
+        kvService.get(key) == bytes("1")
+        kvService.get("app/counter") == "1".getBytes(UTF_8)
+        kvService.get(key.child("limit"), Integer) == 10
+        kvService.count("app/") == 2
+        new KVService(rawClient.getKVClient()).count("ns/app/") == 2
+
+        when:
+        long deleted = kvService.delete(key)
+
+        then:
+        deleted == 1
+        kvService.get(key) == null
+
+        cleanup:
+        rawClient.close()
+        clientFactory.close()
+    }
+}
@@ -0,0 +1,209 @@
+package io.micronaut.etcd.kv
+
+import com.google.protobuf.ByteString
+import io.etcd.jetcd.ByteSequence
+import io.etcd.jetcd.KV
+import io.etcd.jetcd.Txn
+import io.etcd.jetcd.api.DeleteRangeResponse
+import io.etcd.jetcd.api.KeyValue
+import io.etcd.jetcd.api.PutResponse
+import io.etcd.jetcd.api.RangeResponse
+import io.etcd.jetcd.api.ResponseOp
+import io.etcd.jetcd.api.TxnResponse
+import io.etcd.jetcd.options.DeleteOption
+import io.etcd.jetcd.options.GetOption
+import io.etcd.jetcd.options.PutOption
+import io.grpc.Status
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+
+import static com.google.common.base.Charsets.UTF_8
+import static io.micronaut.etcd.util.TestBytes.bytes
+
+class KVBatcherSpec extends Specification {
+
+    def "test puts and gets within the window are sent in one transaction" () {
+        given:
+        KV kv = Mock(KV)
+        Txn txn = Mock(Txn)
+        KVBatcher batcher = new KVBatcher(kv, 60_000, 128)
+
+        when:
+        CompletableFuture<io.etcd.jetcd.kv.PutResponse> put = batcher.put(bytes("foo"), bytes("bar"), PutOption.DEFAULT)
+        CompletableFuture<io.etcd.jetcd.kv.GetResponse> get = batcher.get(bytes("foo"), GetOption.DEFAULT)
+        batcher.flush()
+
+        then:
+        1 * kv.txn() >> txn
+        1 * txn.Then({ it.length == 2 }) >> txn
+        1 * txn.commit() >> CompletableFuture.completedFuture(new io.etcd.jetcd.kv.TxnResponse(TxnResponse.newBuilder()
+                .addResponses(ResponseOp.newBuilder().setResponsePut(PutResponse.newBuilder()))
+                .addResponses(ResponseOp.newBuilder().setResponseRange(RangeResponse.newBuilder()
+                        .addKvs(KeyValue.newBuilder().setKey(ByteString.copyFromUtf8("foo"))
+                                .setValue(ByteString.copyFromUtf8("bar")))))
+                .build(), ByteSequence.EMPTY))
+        put.isDone()
+        get.get().kvs[0].value.toString(UTF_8) == "bar"
+
+        cleanup:
+        batcher.close()
+    }
+
+    def "test a full batch is sent without waiting for the window" () {
+        given:
+        KV kv = Mock(KV)
+        Txn txn = Mock(Txn)
+        KVBatcher batcher = new KVBatcher(kv, 60_000, 2)
+
+        when:
+        batcher.get(bytes("foo"), GetOption.DEFAULT)
+        batcher.get(bytes("bar"), GetOption.DEFAULT)
+
+        then:
+        1 * kv.txn() >> txn
+        1 * txn.Then(_) >> txn
+        1 * txn.commit() >> new CompletableFuture()
+
+        cleanup:
+        batcher.close()
+    }
+
+    def "test a second put of the same key goes into a new transaction" () {
+        given:
+        KV kv = Mock(KV)
+        Txn txn = Mock(Txn)
+        KVBatcher batcher = new KVBatcher(kv, 60_000, 128)
+
+        when:
+        batcher.put(bytes("foo"), bytes("bar"), PutOption.DEFAULT)
+        batcher.put(bytes("foo"), bytes("baz"), PutOption.DEFAULT)
+        batcher.flush()
+
+        then:
+        2 * kv.txn() >> txn
+        2 * txn.Then({ it.length == 1 }) >> txn
+        2 * txn.commit() >> new CompletableFuture()
+
+        cleanup:
+        batcher.close()
+    }
+
+    def "test a failed transaction fails every caller" () {
+        given:
+        KV kv = Mock(KV)
+        Txn txn = Mock(Txn)
+        KVBatcher batcher = new KVBatcher(kv, 60_000, 128)
+        kv.txn() >> txn
+        txn.Then(_) >> txn
+        CompletableFuture failed = new CompletableFuture()
+        failed.completeExceptionally(new IllegalStateException("boom"))
+        txn.commit() >> failed
+
+        when:
+        CompletableFuture first = batcher.get(bytes("foo"), GetOption.DEFAULT)
+        CompletableFuture second = batcher.put(bytes("bar"), bytes("baz"), PutOption.DEFAULT)
+        batcher.flush()
+
+        then:
+        first.isCompletedExceptionally()
+        second.isCompletedExceptionally()
+
+        cleanup:
+        batcher.close()
+    }
+
+    def "test a rejected transaction sends its operations one by one" () {
+        given:
+        KV kv = Mock(KV)
+        Txn txn = Mock(Txn)
+        KVBatcher batcher = new KVBatcher(kv, 60_000, 128)
+        kv.txn() >> txn
+        txn.Then(_) >> txn
+        CompletableFuture rejected = new CompletableFuture()
+        rejected.completeExceptionally(Status.NOT_FOUND.withDescription("etcdserver: requested lease not found").asRuntimeException())
+        txn.commit() >> rejected
+
+        when:
+        CompletableFuture first = batcher.get(bytes("foo"), GetOption.DEFAULT)
+        CompletableFuture second = batcher.put(bytes("bar"), bytes("baz"), PutOption.DEFAULT)
+        batcher.flush()
+
+        then:
+        1 * kv.get(bytes("foo"), GetOption.DEFAULT) >> CompletableFuture.completedFuture(
+                new io.etcd.jetcd.kv.GetResponse(RangeResponse.getDefaultInstance(), ByteSequence.EMPTY))
+        1 * kv.put(bytes("bar"), bytes("baz"), PutOption.DEFAULT) >> rejected
+        !first.isCompletedExceptionally()
+        second.isCompletedExceptionally()
+
+        cleanup:
+        batcher.close()
+    }
+
+    def "test a delete joins the batch and completes from its response" () {
+        given:
+        KV kv = Mock(KV)
+        Txn txn = Mock(Txn)
+        KVBatcher batcher = new KVBatcher(kv, 60_000, 128)
+
+        when:
+        CompletableFuture<io.etcd.jetcd.kv.PutResponse> put = batcher.put(bytes("foo"), bytes("bar"), PutOption.DEFAULT)
+        CompletableFuture<io.etcd.jetcd.kv.DeleteResponse> delete = batcher.delete(bytes("baz"), DeleteOption.DEFAULT)
+        batcher.flush()
+
+        then:
+        0 * kv.delete(*_)
+        1 * kv.txn() >> txn
+        1 * txn.Then({ it.length == 2 }) >> txn
+        1 * txn.commit() >> CompletableFuture.completedFuture(new io.etcd.jetcd.kv.TxnResponse(TxnResponse.newBuilder()
+                .addResponses(ResponseOp.newBuilder().setResponsePut(PutResponse.newBuilder()))
+                .addResponses(ResponseOp.newBuilder().setResponseDeleteRange(DeleteRangeResponse.newBuilder().setDeleted(1)))
+                .build(), ByteSequence.EMPTY))
+        put.isDone()
+        delete.get().deleted == 1
+
+        cleanup:
+        batcher.close()
+    }
+
+    def "test a delete of a pending put goes into a new transaction" () {
+        given:
+        KV kv = Mock(KV)
+        Txn txn = Mock(Txn)
+        KVBatcher batcher = new KVBatcher(kv, 60_000, 128)
+
+        when:
+        batcher.put(bytes("foo"), bytes("bar"), PutOption.DEFAULT)
+        batcher.delete(bytes("foo"), DeleteOption.DEFAULT)
+        batcher.flush()
+
+        then:
+        2 * kv.txn() >> txn
+        2 * txn.Then({ it.length == 1 }) >> txn
+        2 * txn.commit() >> new CompletableFuture()
+
+        cleanup:
+        batcher.close()
+    }
+
+    def "test a delete of a range goes into a new transaction" () {
+        given:
+        KV kv = Mock(KV)
+        Txn txn = Mock(Txn)
+        KVBatcher batcher = new KVBatcher(kv, 60_000, 128)
+
+        when:
+        batcher.put(bytes("foo/1"), bytes("bar"), PutOption.DEFAULT)
+        batcher.delete(bytes("foo/"), DeleteOption.newBuilder().withPrefix(bytes("foo/")).build())
+        batcher.put(bytes("foo/2"), bytes("bar"), PutOption.DEFAULT)
+        batcher.flush()
+
+        then:
+        3 * kv.txn() >> txn
+        3 * txn.Then({ it.length == 1 }) >> txn
+        3 * txn.commit() >> new CompletableFuture()
+
+        cleanup:
+        batcher.close()
+    }
+}
@@ -0,0 +1,140 @@
+package io.micronaut.etcd.kv
+
+import io.etcd.jetcd.ByteSequence
+import io.etcd.jetcd.KV
+import io.etcd.jetcd.Txn
+import io.etcd.jetcd.api.DeleteRangeResponse
+import io.etcd.jetcd.api.PutResponse
+import io.etcd.jetcd.api.ResponseOp
+import io.etcd.jetcd.api.TxnResponse
+import io.etcd.jetcd.op.Op
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+
+import static io.micronaut.etcd.util.TestBytes.bytes
+
+class KVBulkWriterSpec extends Specification {
+
+    List<Op[]> chunks = []
+    List<CompletableFuture<io.etcd.jetcd.kv.TxnResponse>> commits = []
+    KV kv = Mock(KV) {
+        txn() >> {
+            Txn txn = Mock(Txn)
+            Op[] operations = null
+            txn.Then(_) >> { args -> operations = args[0]; chunks << operations; txn }
+            txn.commit() >> {
+                CompletableFuture<io.etcd.jetcd.kv.TxnResponse> commit = new CompletableFuture<>()
+                commits << commit
+                return commit
+            }
+            return txn
+        }
+    }
+
+    def "test puts are split in transactions of at most the maximum number of operations" () {
+        given:
+        Map<ByteSequence, ByteSequence> values = (1..1000).collectEntries { [(bytes("key/" + it)): bytes("value")] }
+        List<Long> progress = []
+
+        when:
+        CompletableFuture<KVBulkResult> result = new KVBulkWriter(kv, null, values.entrySet().iterator(), 128,
+                1024 * 1024, 100, { progress << it }).start()
+        commits.each { it.complete(response(0)) }
+
+        then:
+        chunks.size() == 8
+        chunks.every { it.length <= 128 }
+        chunks.sum { it.length } == 1000
+        result.get().succeeded == 1000
+        result.get().complete
+        progress.last() == 1000
+    }
+
+    def "test transactions hold at most the maximum number of bytes" () {
+        given:
+        byte[] value = new byte[400]
+        Map<ByteSequence, ByteSequence> values = (1..10).collectEntries { [(bytes("key/" + it)): ByteSequence.from(value)] }
+
+        when:
+        new KVBulkWriter(kv, null, values.entrySet().iterator(), 128, 1024, 100, null).start()
+
+        then:
+        chunks.size() == 5
+        chunks.every { it.length == 2 }
+    }
+
+    def "test at most the given number of transactions are in flight" () {
+        given:
+        Map<ByteSequence, ByteSequence> values = (1..100).collectEntries { [(bytes("key/" + it)): bytes("value")] }
+
+        when:
+        CompletableFuture<KVBulkResult> result = new KVBulkWriter(kv, null, values.entrySet().iterator(), 10,
+                1024 * 1024, 3, null).start()
+
+        then:
+        commits.size() == 3
+
+        when:
+        commits[0].complete(response(0))
+
+        then:
+        commits.size() == 4
+        !result.isDone()
+
+        when:
+        while (commits.any { !it.isDone() }) {
+            commits.find { !it.isDone() }.complete(response(0))
+        }
+
+        then:
+        commits.size() == 10
+        result.get().succeeded == 100
+    }
+
+    def "test failed transactions are reported with their keys" () {
+        given:
+        List<ByteSequence> keys = (1..30).collect { bytes("key/" + it) }
+
+        when:
+        CompletableFuture<KVBulkResult> result = new KVBulkWriter(kv, null,
+                keys.collect { new AbstractMap.SimpleImmutableEntry<>(it, null) }.iterator(), 10, 1024 * 1024, 3, null).start()
+        commits[0].complete(response(10))
+        commits[1].completeExceptionally(new IllegalStateException("unavailable"))
+        commits[2].complete(response(4))
+
+        then:
+        result.get().succeeded == 20
+        result.get().deleted == 14
+        result.get().failed == 10
+        !result.get().complete
+        result.get().failures[0].keys == keys[10..19]
+        result.get().failures[0].cause instanceof IllegalStateException
+    }
+
+    def "test a key repeated within a chunk starts the next one" () {
+        given:
+        List<Map.Entry<ByteSequence, ByteSequence>> entries = [
+                new AbstractMap.SimpleImmutableEntry<>(bytes("foo"), bytes("1")),
+                new AbstractMap.SimpleImmutableEntry<>(bytes("bar"), bytes("1")),
+                new AbstractMap.SimpleImmutableEntry<>(bytes("foo"), bytes("2"))]
+
+        when:
+        new KVBulkWriter(kv, null, entries.iterator(), 128, 1024 * 1024, 10, null).start()
+
+        then:
+        chunks*.length == [2, 1]
+    }
+
+    private static io.etcd.jetcd.kv.TxnResponse response(int deleted) {
+        TxnResponse.Builder response = TxnResponse.newBuilder().setSucceeded(true)
+        if (deleted > 0) {
+            deleted.times {
+                response.addResponses(ResponseOp.newBuilder().setResponseDeleteRange(DeleteRangeResponse.newBuilder().setDeleted(1)))
+            }
+        } else {
+            response.addResponses(ResponseOp.newBuilder().setResponsePut(PutResponse.newBuilder()))
+        }
+        return new io.etcd.jetcd.kv.TxnResponse(response.build(), ByteSequence.EMPTY)
+    }
+}
@@ -0,0 +1,138 @@
+package io.micronaut.etcd.kv
+
+import com.google.protobuf.ByteString
+import io.etcd.jetcd.ByteSequence
+import io.etcd.jetcd.KV
+import io.etcd.jetcd.Watch
+import io.etcd.jetcd.api.Event
+import io.etcd.jetcd.api.KeyValue
+import io.etcd.jetcd.api.RangeResponse
+import io.etcd.jetcd.api.ResponseHeader
+import io.etcd.jetcd.common.exception.EtcdExceptionFactory
+import io.etcd.jetcd.kv.GetResponse
+import io.etcd.jetcd.watch.WatchResponse
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+
+import static com.google.common.base.Charsets.UTF_8
+import static io.micronaut.etcd.util.TestBytes.bytes
+
+class KVCacheSpec extends Specification {
+
+    KV kv = Mock(KV)
+    Watch watch = Mock(Watch)
+    Watch.Listener listener
+
+    def "test values are read once and then served from the cache" () {
+        given:
+        KVCache cache = startedCache(10)
+
+        when:
+        ByteSequence first = cache.get(bytes("config/foo"), { getResponse(11, "config/foo", "bar") }).get()
+        ByteSequence second = cache.get(bytes("config/foo"), { throw new AssertionError("not cached") }).get()
+
+        then:
+        first.toString(UTF_8) == "bar"
+        second.toString(UTF_8) == "bar"
+        cache.hitCount == 1
+        cache.missCount == 1
+    }
+
+    def "test watch events update cached values" () {
+        given:
+        KVCache cache = startedCache(10)
+        cache.get(bytes("config/foo"), { getResponse(11, "config/foo", "bar") }).get()
+        cache.get(bytes("config/missing"), { getResponse(11, null, null) }).get()
+
+        when:
+        listener.onNext(watchResponse(12, Event.EventType.PUT, "config/foo", "baz"))
+        listener.onNext(watchResponse(13, Event.EventType.PUT, "config/missing", "found"))
+
+        then:
+        cache.get(bytes("config/foo"), { throw new AssertionError("not cached") }).get().toString(UTF_8) == "baz"
+        cache.get(bytes("config/missing"), { throw new AssertionError("not cached") }).get().toString(UTF_8) == "found"
+
+        when: "an event older than the cached value is received"
+        listener.onNext(watchResponse(12, Event.EventType.DELETE, "config/foo", null))
+
+        then:
+        cache.get(bytes("config/foo"), { throw new AssertionError("not cached") }).get().toString(UTF_8) == "baz"
+    }
+
+    def "test values read before the watch caught up are not cached" () {
+        given:
+        KVCache cache = startedCache(10)
+
+        when:
+        cache.get(bytes("config/foo"), { getResponse(9, "config/foo", "bar") }).get()
+
+        then:
+        cache.size() == 0
+    }
+
+    def "test the least recently used keys are evicted" () {
+        given:
+        KVCache cache = startedCache(2)
+
+        when:
+        cache.get(bytes("config/a"), { getResponse(11, "config/a", "1") }).get()
+        cache.get(bytes("config/b"), { getResponse(11, "config/b", "2") }).get()
+        cache.get(bytes("config/a"), { throw new AssertionError("not cached") }).get()
+        cache.get(bytes("config/c"), { getResponse(11, "config/c", "3") }).get()
+
+        then:
+        cache.size() == 2
+        cache.get(bytes("config/b"), { getResponse(11, "config/b", "2") }).get()
+        cache.missCount == 4
+    }
+
+    def "test the cache is cleared and the watch reopened after compaction" () {
+        given:
+        KVCache cache = startedCache(10)
+        cache.get(bytes("config/foo"), { getResponse(11, "config/foo", "bar") }).get()
+
+        when:
+        listener.onError(EtcdExceptionFactory.newCompactedException(10))
+
+        then:
+        1 * kv.get(_, _) >> countResponse(20)
+        1 * watch.watch(_, { it.revision == 21 }, _) >> Mock(Watch.Watcher)
+        cache.size() == 0
+    }
+
+    private KVCache startedCache(int maxSize) {
+        kv.get(_, _) >> countResponse(10)
+        watch.watch(_, _, _) >> { key, option, Watch.Listener watchListener ->
+            listener = watchListener
+            return Mock(Watch.Watcher)
+        }
+        return new KVCache(kv, watch, bytes("config/"), maxSize)
+    }
+
+    private static CompletableFuture<GetResponse> countResponse(long revision) {
+        return CompletableFuture.completedFuture(new GetResponse(RangeResponse.newBuilder()
+                .setHeader(ResponseHeader.newBuilder().setRevision(revision)).build(), ByteSequence.EMPTY))
+    }
+
+    private static CompletableFuture<GetResponse> getResponse(long revision, String key, String value) {
+        RangeResponse.Builder builder = RangeResponse.newBuilder()
+                .setHeader(ResponseHeader.newBuilder().setRevision(revision))
+        if (key != null) {
+            builder.addKvs(KeyValue.newBuilder().setKey(ByteString.copyFromUtf8(key))
+                    .setValue(ByteString.copyFromUtf8(value)).setModRevision(revision - 1))
+        }
+        return CompletableFuture.completedFuture(new GetResponse(builder.build(), ByteSequence.EMPTY))
+    }
+
+    private static WatchResponse watchResponse(long revision, Event.EventType type, String key, String value) {
+        KeyValue.Builder keyValue = KeyValue.newBuilder().setKey(ByteString.copyFromUtf8(key)).setModRevision(revision)
+        if (value != null) {
+            keyValue.setValue(ByteString.copyFromUtf8(value))
+        }
+        return new WatchResponse(io.etcd.jetcd.api.WatchResponse.newBuilder()
+                .setHeader(ResponseHeader.newBuilder().setRevision(revision))
+                .addEvents(Event.newBuilder().setType(type).setKv(keyValue))
+                .build())
+    }
+}
@@ -0,0 +1,98 @@
+package io.micronaut.etcd.kv
+
+import io.etcd.jetcd.ByteSequence
+import io.etcd.jetcd.api.RangeResponse
+import io.etcd.jetcd.kv.GetResponse
+import io.etcd.jetcd.options.GetOption
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.CompletableFuture
+
+import static io.micronaut.etcd.util.TestBytes.bytes
+
+class KVCoalescerSpec extends Specification {
+
+    def "test concurrent gets of the same key and options share one request" () {
+        given:
+        KVCoalescer coalescer = new KVCoalescer(0)
+        List<CompletableFuture<GetResponse>> sent = []
+        Closure<CompletableFuture<GetResponse>> sender = {
+            CompletableFuture<GetResponse> future = new CompletableFuture<>()
+            sent << future
+            return future
+        }
+
+        when:
+        CompletableFuture<GetResponse> first = coalescer.get(bytes("foo"), GetOption.DEFAULT, sender)
+        CompletableFuture<GetResponse> second = coalescer.get(bytes("foo"), GetOption.DEFAULT, sender)
+        coalescer.get(bytes("bar"), GetOption.DEFAULT, sender)
+        coalescer.get(bytes("foo"), GetOption.newBuilder().withKeysOnly(true).build(), sender)
+
+        then:
+        sent.size() == 3
+        coalescer.sentCount == 3
+        coalescer.coalescedCount == 1
+
+        when:
+        GetResponse response = new GetResponse(RangeResponse.getDefaultInstance(), ByteSequence.EMPTY)
+        sent[0].complete(response)
+        coalescer.get(bytes("foo"), GetOption.DEFAULT, sender)
+
+        then:
+        first.get().is(response)
+        second.get().is(response)
+        sent.size() == 4
+
+        cleanup:
+        coalescer.close()
+    }
+
+    def "test a response is shared for the TTL once received" () {
+        given:
+        KVCoalescer coalescer = new KVCoalescer(100)
+        int sent = 0
+        Closure<CompletableFuture<GetResponse>> sender = {
+            sent++
+            return CompletableFuture.completedFuture(new GetResponse(RangeResponse.getDefaultInstance(), ByteSequence.EMPTY))
+        }
+
+        when:
+        coalescer.get(bytes("foo"), GetOption.DEFAULT, sender)
+        coalescer.get(bytes("foo"), GetOption.DEFAULT, sender)
+
+        then:
+        sent == 1
+
+        and:
+        new PollingConditions(timeout: 5).eventually {
+            coalescer.get(bytes("foo"), GetOption.DEFAULT, sender)
+            assert sent == 2
+        }
+
+        cleanup:
+        coalescer.close()
+    }
+
+    def "test a failed get is not shared once completed" () {
+        given:
+        KVCoalescer coalescer = new KVCoalescer(60_000)
+        int sent = 0
+        Closure<CompletableFuture<GetResponse>> sender = {
+            sent++
+            CompletableFuture<GetResponse> failed = new CompletableFuture<>()
+            failed.completeExceptionally(new IllegalStateException("unavailable"))
+            return failed
+        }
+
+        when:
+        coalescer.get(bytes("foo"), GetOption.DEFAULT, sender)
+        coalescer.get(bytes("foo"), GetOption.DEFAULT, sender)
+
+        then:
+        sent == 2
+
+        cleanup:
+        coalescer.close()
+    }
+}
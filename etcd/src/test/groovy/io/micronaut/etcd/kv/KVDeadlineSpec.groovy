@@ -0,0 +1,137 @@
+package io.micronaut.etcd.kv
+
+import io.grpc.Context
+import io.grpc.Status
+import io.micronaut.etcd.client.ClientFactory
+import io.micronaut.etcd.config.EtcdFactoryConfig
+import io.micronaut.etcd.config.SingleEtcdFactoryConfig
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+class KVDeadlineSpec extends Specification {
+
+    ClientFactory clientFactory = new ClientFactory()
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor()
+
+    def cleanup() {
+        clientFactory.close()
+        scheduler.shutdownNow()
+    }
+
+    def "the request timeout bounds blocking and non-blocking calls"() {
+        given:
+        EtcdFactoryConfig config = slowServer()
+        config.setRequestTimeoutMs(100)
+        AsyncKVService asyncKVService = new AsyncKVService(config, clientFactory)
+        KVService kvService = new KVService(asyncKVService)
+
+        when:
+        long start = System.nanoTime()
+        kvService.get("foo")
+
+        then:
+        ExecutionException e = thrown()
+        code(e) == Status.Code.DEADLINE_EXCEEDED
+        System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(400)
+
+        when:
+        asyncKVService.put("foo", "bar").get()
+
+        then:
+        e = thrown()
+        code(e) == Status.Code.DEADLINE_EXCEEDED
+    }
+
+    def "the deadline of the caller's context applies to its calls"() {
+        given:
+        KVService kvService = new KVService(new AsyncKVService(slowServer(), clientFactory))
+        Context.CancellableContext context = Context.current().withDeadlineAfter(100, TimeUnit.MILLISECONDS, scheduler)
+
+        when:
+        long start = System.nanoTime()
+        context.call { kvService.put("foo", "bar") }
+
+        then:
+        ExecutionException e = thrown()
+        code(e) == Status.Code.DEADLINE_EXCEEDED
+        System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(400)
+
+        when:
+        byte[] value = kvService.get("foo")
+
+        then:
+        value == null || value == "bar".bytes
+    }
+
+    def "cancelling the caller's context cancels its requests"() {
+        given:
+        AsyncKVService asyncKVService = new AsyncKVService(slowServer(), clientFactory)
+        Context.CancellableContext context = Context.current().withCancellation()
+
+        when:
+        CompletableFuture<byte[]> response = context.call { asyncKVService.get("foo") }
+        context.cancel(null)
+        response.get(400, TimeUnit.MILLISECONDS)
+
+        then:
+        ExecutionException e = thrown()
+        code(e) == Status.Code.CANCELLED
+    }
+
+    def "a caller giving up on a coalesced get does not fail the other callers"() {
+        given:
+        EtcdFactoryConfig config = slowServer()
+        config.setCoalesceGets(true)
+        AsyncKVService asyncKVService = new AsyncKVService(config, clientFactory)
+        Context.CancellableContext context = Context.current().withDeadlineAfter(100, TimeUnit.MILLISECONDS, scheduler)
+
+        when:
+        CompletableFuture<byte[]> first = context.call { asyncKVService.get("foo") }
+        CompletableFuture<byte[]> second = asyncKVService.get("foo")
+        first.get()
+
+        then:
+        ExecutionException e = thrown()
+        code(e) == Status.Code.DEADLINE_EXCEEDED
+        second.get() == null
+        asyncKVService.coalescer.sentCount == 1
+    }
+
+    def "a caller giving up on a batch does not fail the other callers"() {
+        given:
+        EtcdFactoryConfig config = slowServer()
+        config.setBatchWindowMs(5)
+        AsyncKVService asyncKVService = new AsyncKVService(config, clientFactory)
+        Context.CancellableContext context = Context.current().withDeadlineAfter(100, TimeUnit.MILLISECONDS, scheduler)
+
+        when:
+        CompletableFuture<byte[]> first = context.call { asyncKVService.put("foo", "bar") }
+        CompletableFuture<byte[]> second = asyncKVService.put("baz", "qux")
+        first.get()
+
+        then:
+        ExecutionException e = thrown()
+        code(e) == Status.Code.DEADLINE_EXCEEDED
+        second.get() == null
+        asyncKVService.get("foo").get() == "bar".bytes
+
+        cleanup:
+        asyncKVService.close()
+    }
+
+    private EtcdFactoryConfig slowServer() {
+        EtcdFactoryConfig config = new SingleEtcdFactoryConfig()
+        config.setLocalServer(true)
+        config.setLocalServerLatencyMs(500)
+        return config
+    }
+
+    private static Status.Code code(ExecutionException e) {
+        return Status.fromThrowable(e).code
+    }
+}
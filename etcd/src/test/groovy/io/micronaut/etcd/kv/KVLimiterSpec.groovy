@@ -0,0 +1,188 @@
+package io.micronaut.etcd.kv
+
+import io.etcd.jetcd.KV
+import io.etcd.jetcd.Txn
+import io.etcd.jetcd.op.Op
+import io.etcd.jetcd.options.GetOption
+import io.etcd.jetcd.options.PutOption
+import io.grpc.Status
+import io.micronaut.etcd.util.SlowKV
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+import static com.google.common.base.Charsets.UTF_8
+import static io.micronaut.etcd.util.TestBytes.bytes
+
+class KVLimiterSpec extends Specification {
+
+    def "test reads are rejected before writes when the limit is reached" () {
+        given:
+        SlowKV slowKV = new SlowKV(500)
+        KVLimiter limiter = new KVLimiter(4, 100, 0.5)
+        AsyncKVService asyncKVService = new AsyncKVService(new LimitedKV(slowKV, limiter))
+
+        when:
+        List<CompletableFuture<?>> reads = (1..2).collect { asyncKVService.get(bytes("foo")) }
+        asyncKVService.get(bytes("foo")).get()
+
+        then:
+        ExecutionException e = thrown()
+        e.cause instanceof KVSaturatedException
+        ((KVSaturatedException) e.cause).priority == KVPriority.READ
+        limiter.getRejectedCount(KVPriority.READ) == 1
+
+        when:
+        List<CompletableFuture<?>> writes = (1..2).collect { asyncKVService.put(bytes("foo"), bytes("bar")) }
+        asyncKVService.put(bytes("foo"), bytes("bar")).get()
+
+        then:
+        e = thrown()
+        e.cause instanceof KVSaturatedException
+        ((KVSaturatedException) e.cause).priority == KVPriority.WRITE
+        limiter.inFlight == 4
+
+        when:
+        CompletableFuture.allOf((reads + writes) as CompletableFuture[]).get(5, TimeUnit.SECONDS)
+
+        then:
+        limiter.inFlight == 0
+        asyncKVService.get(bytes("foo")).get(5, TimeUnit.SECONDS).toString(UTF_8) == "bar"
+
+        cleanup:
+        slowKV.close()
+    }
+
+    def "test the limit grows while the latency stays low" () {
+        given:
+        KVLimiter limiter = new KVLimiter(20, 1000, 1)
+        limiter.update(ms(10), 20, false)
+
+        when:
+        10.times { limiter.update(ms(10), limiter.limit, false) }
+
+        then:
+        limiter.limit > 20
+        limiter.limit <= 1000
+    }
+
+    def "test the limit shrinks as requests queue or fail" () {
+        given:
+        KVLimiter limiter = new KVLimiter(100, 1000, 1)
+        limiter.update(ms(10), 100, false)
+
+        when:
+        10.times { limiter.update(ms(100), limiter.limit, false) }
+
+        then:
+        limiter.limit < 100
+
+        when:
+        int limit = limiter.limit
+        limiter.update(ms(10), 1, true)
+
+        then:
+        limiter.limit < limit
+    }
+
+    def "test a fast failure does not lower the latency without load" () {
+        given:
+        KVLimiter limiter = new KVLimiter(100, 1000, 1)
+        limiter.update(ms(10), 100, false)
+
+        when:
+        limiter.update(ms(1), 100, true)
+        int limit = limiter.limit
+        limiter.update(ms(10), limit, false)
+
+        then:
+        limit < 100
+        limiter.limit > limit
+    }
+
+    def "test a request cancelled by its caller does not shrink the limit" () {
+        given:
+        KV kv = Mock(KV)
+        KVLimiter limiter = new KVLimiter(100, 1000, 1)
+        LimitedKV limitedKV = new LimitedKV(kv, limiter)
+        CompletableFuture cancelled = new CompletableFuture()
+        cancelled.completeExceptionally(Status.CANCELLED.asRuntimeException())
+        kv.get(_, _) >> cancelled
+
+        when:
+        10.times { limitedKV.get(bytes("foo"), GetOption.DEFAULT) }
+
+        then:
+        limiter.limit == 100
+        limiter.inFlight == 0
+    }
+
+    def "test only the failures of an overloaded etcd shrink the limit" () {
+        given:
+        KV kv = Mock(KV)
+        KVLimiter limiter = new KVLimiter(100, 1000, 1)
+        LimitedKV limitedKV = new LimitedKV(kv, limiter)
+        CompletableFuture failed = new CompletableFuture()
+        failed.completeExceptionally(status.asRuntimeException())
+        kv.get(_, _) >> failed
+
+        when:
+        10.times { limitedKV.get(bytes("foo"), GetOption.DEFAULT) }
+
+        then:
+        (limiter.limit < 100) == dropped
+        limiter.inFlight == 0
+
+        where:
+        status                     | dropped
+        Status.UNAVAILABLE         | true
+        Status.RESOURCE_EXHAUSTED  | true
+        Status.INVALID_ARGUMENT    | false
+        Status.FAILED_PRECONDITION | false
+        Status.NOT_FOUND           | false
+    }
+
+    def "test transactions that only get keys are admitted as reads" () {
+        given:
+        KV kv = Mock(KV)
+        KVLimiter limiter = new KVLimiter(2, 100, 0.5)
+        LimitedKV limitedKV = new LimitedKV(kv, limiter)
+        kv.get(_, _) >> new CompletableFuture()
+        kv.txn() >> Mock(Txn) { commit() >> new CompletableFuture() }
+        limitedKV.get(bytes("foo"), GetOption.DEFAULT)
+
+        when:
+        limitedKV.txn().Then(Op.get(bytes("foo"), GetOption.DEFAULT)).commit().get()
+
+        then:
+        ExecutionException e = thrown()
+        ((KVSaturatedException) e.cause).priority == KVPriority.READ
+
+        when:
+        CompletableFuture<?> write = limitedKV.txn()
+                .Then(Op.get(bytes("foo"), GetOption.DEFAULT), Op.put(bytes("foo"), bytes("bar"), PutOption.DEFAULT))
+                .commit()
+
+        then:
+        !write.isDone()
+        limiter.inFlight == 2
+    }
+
+    def "test the limit does not change while requests are few" () {
+        given:
+        KVLimiter limiter = new KVLimiter(100, 1000, 1)
+        limiter.update(ms(10), 1, false)
+
+        when:
+        10.times { limiter.update(ms(100), 1, false) }
+
+        then:
+        limiter.limit == 100
+    }
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis)
+    }
+}
@@ -0,0 +1,179 @@
+package io.micronaut.etcd.kv
+
+import io.etcd.jetcd.ByteSequence
+import io.etcd.jetcd.KV
+import io.etcd.jetcd.api.RangeResponse
+import io.etcd.jetcd.kv.GetResponse
+import io.etcd.jetcd.options.GetOption
+import io.grpc.Context
+import io.grpc.Status
+import io.micronaut.etcd.util.SlowKV
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import static com.google.common.base.Charsets.UTF_8
+import static io.micronaut.etcd.util.TestBytes.bytes
+
+class KVReadRouterSpec extends Specification {
+
+    def "test gets are routed to the endpoint with the lowest latency" () {
+        given:
+        SlowKV slow = new SlowKV(100)
+        SlowKV fast = new SlowKV(1)
+        slow.put(bytes("foo"), bytes("slow")).get()
+        fast.put(bytes("foo"), bytes("fast")).get()
+        KVReadRouter router = new KVReadRouter([slow: slow, fast: fast] as LinkedHashMap, Mock(KV))
+
+        when:
+        List<String> values = (1..20).collect {
+            router.get(bytes("foo"), GetOption.DEFAULT).get().kvs[0].value.toString(UTF_8)
+        }
+
+        then:
+        router.endpoints == ["slow", "fast"]
+        values.count("fast") >= 15
+        router.getLatencyNanos("fast") < router.getLatencyNanos("slow")
+        router.getLatencyNanos("slow") >= TimeUnit.MILLISECONDS.toNanos(100)
+
+        cleanup:
+        slow.close()
+        fast.close()
+    }
+
+    def "test gets sent to an endpoint are serializable" () {
+        given:
+        KV endpoint = Mock(KV)
+        KVReadRouter router = new KVReadRouter([only: endpoint], Mock(KV))
+
+        when:
+        router.get(bytes("foo"), GetOption.newBuilder().withKeysOnly(true).build()).get()
+        router.get(bytes("foo"), GetOption.DEFAULT).get()
+
+        then:
+        1 * endpoint.get(_, { it.isSerializable() && it.isKeysOnly() }) >> CompletableFuture.completedFuture(response())
+        1 * endpoint.get(_, { it.isSerializable() && !it.isKeysOnly() }) >> CompletableFuture.completedFuture(response())
+    }
+
+    def "test a failing endpoint is penalized and the get sent to the cluster" () {
+        given:
+        KV endpoint = Mock(KV)
+        KV cluster = Mock(KV)
+        KVReadRouter router = new KVReadRouter([failing: endpoint], cluster)
+        CompletableFuture<GetResponse> failed = new CompletableFuture<>()
+        failed.completeExceptionally(new IllegalStateException("unavailable"))
+        GetResponse response = response()
+
+        when:
+        GetResponse received = router.get(bytes("foo"), GetOption.DEFAULT).get()
+
+        then:
+        1 * endpoint.get(_, _) >> failed
+        1 * cluster.get(_, GetOption.DEFAULT) >> CompletableFuture.completedFuture(response)
+        received.is(response)
+        router.getLatencyNanos("failing") >= TimeUnit.SECONDS.toNanos(1)
+    }
+
+    def "test a get cancelled by its caller is neither penalized nor sent to the cluster" () {
+        given:
+        KV endpoint = Mock(KV)
+        KV cluster = Mock(KV)
+        KVReadRouter router = new KVReadRouter([cancelled: endpoint], cluster)
+        CompletableFuture<GetResponse> cancelled = new CompletableFuture<>()
+        cancelled.completeExceptionally(Status.CANCELLED.asRuntimeException())
+
+        when:
+        router.get(bytes("foo"), GetOption.DEFAULT).get()
+
+        then:
+        1 * endpoint.get(_, _) >> cancelled
+        0 * cluster.get(_, _)
+        Exception e = thrown()
+        Status.fromThrowable(e).code == Status.Code.CANCELLED
+        router.getLatencyNanos("cancelled") == 0
+    }
+
+    def "test a slow get is hedged to the next fastest endpoint" () {
+        given:
+        SlowKV first = new SlowKV(5)
+        SlowKV second = new SlowKV(20)
+        first.put(bytes("foo"), bytes("first")).get()
+        second.put(bytes("foo"), bytes("second")).get()
+        KVReadRouter router = new KVReadRouter([first: first, second: second] as LinkedHashMap, Mock(KV), 0.9)
+
+        expect:
+        router.hedgeDelayNanos == 0
+
+        when:
+        300.times { router.get(bytes("foo"), GetOption.DEFAULT).get() }
+        long hedged = router.hedgedCount
+        first.setLatencyMs(2000)
+        long start = System.nanoTime()
+        List<String> values = (1..5).collect {
+            router.get(bytes("foo"), GetOption.DEFAULT).get().kvs[0].value.toString(UTF_8)
+        }
+
+        then:
+        router.hedgeDelayNanos > 0
+        router.hedgeDelayNanos < TimeUnit.MILLISECONDS.toNanos(100)
+        values.every { it == "second" }
+        System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000)
+        router.hedgedCount > hedged
+
+        cleanup:
+        first.close()
+        second.close()
+    }
+
+    def "test a hedged get whose requests both fail is sent to the cluster once, in its caller's context" () {
+        given:
+        KV first = Mock(KV)
+        KV second = Mock(KV)
+        KV cluster = Mock(KV)
+        KVReadRouter router = new KVReadRouter([first: first, second: second] as LinkedHashMap, cluster, 0.9)
+        first.get(_, _) >> CompletableFuture.completedFuture(response())
+        second.get(_, _) >> CompletableFuture.completedFuture(response())
+        300.times { router.get(bytes("foo"), GetOption.DEFAULT).get() }
+        List<CompletableFuture<GetResponse>> requests = new CopyOnWriteArrayList<>()
+        CountDownLatch sent = new CountDownLatch(2)
+        Context.Key<String> name = Context.key("name")
+        String fallbackName = null
+        GetResponse response = response()
+
+        expect:
+        router.hedgeDelayNanos > 0
+
+        when:
+        CompletableFuture<GetResponse> result = Context.current().withValue(name, "caller").call {
+            router.get(bytes("foo"), GetOption.DEFAULT)
+        }
+        sent.await(5, TimeUnit.SECONDS)
+        requests.each { it.completeExceptionally(new IllegalStateException("unavailable")) }
+
+        then:
+        _ * first.get(_, _) >> { request(requests, sent) }
+        _ * second.get(_, _) >> { request(requests, sent) }
+        1 * cluster.get(_, GetOption.DEFAULT) >> {
+            fallbackName = name.get()
+            CompletableFuture.completedFuture(response)
+        }
+        requests.size() == 2
+        result.get(5, TimeUnit.SECONDS).is(response)
+        fallbackName == "caller"
+    }
+
+    private static CompletableFuture<GetResponse> request(List<CompletableFuture<GetResponse>> requests,
+            CountDownLatch sent) {
+        CompletableFuture<GetResponse> request = new CompletableFuture<>()
+        requests.add(request)
+        sent.countDown()
+        return request
+    }
+
+    private static GetResponse response() {
+        return new GetResponse(RangeResponse.getDefaultInstance(), ByteSequence.EMPTY)
+    }
+}
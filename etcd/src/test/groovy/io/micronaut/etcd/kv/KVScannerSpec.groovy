@@ -0,0 +1,78 @@
+package io.micronaut.etcd.kv
+
+import com.google.protobuf.ByteString
+import io.etcd.jetcd.ByteSequence
+import io.etcd.jetcd.KV
+import io.etcd.jetcd.api.KeyValue
+import io.etcd.jetcd.api.RangeResponse
+import io.etcd.jetcd.api.ResponseHeader
+import io.etcd.jetcd.kv.GetResponse
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.stream.Collectors
+
+import static com.google.common.base.Charsets.UTF_8
+import static io.micronaut.etcd.util.TestBytes.bytes
+
+class KVScannerSpec extends Specification {
+
+    def "test a prefix is read in pages at the revision of the first page" () {
+        given:
+        KV kv = Mock(KV)
+        KVService kvService = new KVService(kv)
+
+        when:
+        List<String> keys = kvService.scan(bytes("config/"), 2)
+                .map({ it.key.toString(UTF_8) })
+                .collect(Collectors.toList())
+
+        then:
+        1 * kv.get(bytes("config/"), { it.limit == 2 && it.revision == 0 && it.endKey.get() == bytes("config0") }) >>
+                page(42, true, "config/a", "config/b")
+        1 * kv.get(bytes("config/b\u0000"), { it.limit == 2 && it.revision == 42 }) >>
+                page(42, true, "config/c", "config/d")
+        1 * kv.get(bytes("config/d\u0000"), { it.revision == 42 }) >> page(42, false, "config/e")
+        keys == ["config/a", "config/b", "config/c", "config/d", "config/e"]
+    }
+
+    def "test pages are read lazily" () {
+        given:
+        KV kv = Mock(KV)
+        KVService kvService = new KVService(kv)
+
+        when:
+        Optional<io.etcd.jetcd.KeyValue> first = kvService.scan(bytes("config/"), 2).findFirst()
+
+        then: "only the first page and the one after it are requested"
+        1 * kv.get(bytes("config/"), _) >> page(42, true, "config/a", "config/b")
+        1 * kv.get(bytes("config/b\u0000"), _) >> new CompletableFuture()
+        0 * kv.get(_, _)
+        first.get().key.toString(UTF_8) == "config/a"
+    }
+
+    def "test keys only scans and counts do not read the values" () {
+        given:
+        KV kv = Mock(KV)
+        KVService kvService = new KVService(kv)
+
+        when:
+        List<ByteSequence> keys = kvService.scanKeys("config/").collect(Collectors.toList())
+        long count = kvService.count("config/")
+
+        then:
+        1 * kv.get(_, { it.keysOnly && !it.countOnly }) >> page(42, false, "config/a")
+        1 * kv.get(_, { it.countOnly }) >> CompletableFuture.completedFuture(new GetResponse(RangeResponse.newBuilder()
+                .setCount(7).build(), ByteSequence.EMPTY))
+        keys == [bytes("config/a")]
+        count == 7
+    }
+
+    private static CompletableFuture<GetResponse> page(long revision, boolean more, String... keys) {
+        RangeResponse.Builder builder = RangeResponse.newBuilder()
+                .setHeader(ResponseHeader.newBuilder().setRevision(revision))
+                .setMore(more)
+        keys.each { builder.addKvs(KeyValue.newBuilder().setKey(ByteString.copyFromUtf8(it))) }
+        return CompletableFuture.completedFuture(new GetResponse(builder.build(), ByteSequence.EMPTY))
+    }
+}
@@ -1,38 +1,34 @@
 package io.micronaut.etcd.kv
 
 import io.etcd.jetcd.ByteSequence
+import io.micronaut.etcd.client.ClientFactory
 import io.micronaut.etcd.config.EtcdFactoryConfig
 import io.micronaut.etcd.config.SingleEtcdFactoryConfig
 import io.micronaut.etcd.util.DummyObject
-import org.testcontainers.containers.GenericContainer
-import org.testcontainers.containers.wait.strategy.LogMessageWaitStrategy
 import org.testcontainers.shaded.org.apache.commons.lang.SerializationUtils
-import spock.lang.Shared
 import spock.lang.Specification
 
+import java.nio.ByteBuffer
+
 import static com.google.common.base.Charsets.UTF_8
 
 
 class KVServiceSpec extends Specification {
 
-    int originalPort = 2379
+    ClientFactory clientFactory = new ClientFactory()
 
-    @Shared
-    GenericContainer etcdContainer =
-            new GenericContainer("quay.io/coreos/etcd:v3.4.9")
-                    .withExposedPorts(2379, 4001)
-                    .withCommand("/usr/local/bin/etcd -advertise-client-urls http://0.0.0.0:2379 -listen-client-urls http://0.0.0.0:2379")
-                    .waitingFor(new LogMessageWaitStrategy().withRegEx("(?s).*ready to serve client requests.*"))
+    def cleanup() {
+        clientFactory.close()
+    }
 
     def "test Get service works with empty storage"() {
         given:
-        etcdContainer.start()
         String key = "foo"
 
         and:
         EtcdFactoryConfig config = new SingleEtcdFactoryConfig()
-        config.setEndpoints("http://localhost:${etcdContainer.getMappedPort(originalPort)}")
-        KVService kvService = new KVService(config)
+        config.setLocalServer(true)
+        KVService kvService = new KVService(new AsyncKVService(config, clientFactory))
         byte[] expected = null
 
         when:
@@ -40,21 +36,17 @@ class KVServiceSpec extends Specification {
 
         then:
         expected ==  ret
-
-        cleanup:
-        etcdContainer.stop()
     }
 
     def "test Put single integer" () {
         given:
-        etcdContainer.start()
         String key = "foo"
         Integer value = new Integer(69)
 
         and:
         EtcdFactoryConfig config = new SingleEtcdFactoryConfig()
-        config.setEndpoints("http://localhost:${etcdContainer.getMappedPort(originalPort)}")
-        KVService kvService = new KVService(config)
+        config.setLocalServer(true)
+        KVService kvService = new KVService(new AsyncKVService(config, clientFactory))
         byte[] expectedFromPut = null
 
         when:
@@ -64,21 +56,17 @@ class KVServiceSpec extends Specification {
         then:
         expectedFromPut ==  retFromPut
         BigInteger.valueOf(value).toByteArray() == ret
-
-        cleanup:
-        etcdContainer.stop()
     }
 
     def "test Put byte array" () {
         given:
-        etcdContainer.start()
         String key = "foo"
         byte[] value = "bar".getBytes()
 
         and:
         EtcdFactoryConfig config = new SingleEtcdFactoryConfig()
-        config.setEndpoints("http://localhost:${etcdContainer.getMappedPort(originalPort)}")
-        KVService kvService = new KVService(config)
+        config.setLocalServer(true)
+        KVService kvService = new KVService(new AsyncKVService(config, clientFactory))
 
         when:
         kvService.put(key, value)
@@ -86,21 +74,43 @@ class KVServiceSpec extends Specification {
 
         then:
         value == ret
+    }
 
-        cleanup:
-        etcdContainer.stop()
+    def "test Put ByteSequence and ByteBuffer" () {
+        given:
+        ByteSequence key = ByteSequence.from("foo", UTF_8)
+        ByteBuffer value = ByteBuffer.wrap(new byte[1024])
+
+        and:
+        EtcdFactoryConfig config = new SingleEtcdFactoryConfig()
+        config.setLocalServer(true)
+        KVService kvService = new KVService(new AsyncKVService(config, clientFactory))
+
+        when:
+        kvService.put(key, ByteSequence.from("bar", UTF_8))
+        ByteSequence ret = kvService.get(key)
+
+        then:
+        ret.toString(UTF_8) == "bar"
+
+        when:
+        kvService.put(ByteBuffer.wrap("foo".getBytes(UTF_8)), value)
+        ByteBuffer retBuffer = kvService.get(ByteBuffer.wrap("foo".getBytes(UTF_8)))
+
+        then:
+        retBuffer == value
+        retBuffer.isReadOnly()
     }
 
     def "test Put single string" () {
         given:
-        etcdContainer.start()
         String key = "foo"
         String value = "bar"
 
         and:
         EtcdFactoryConfig config = new SingleEtcdFactoryConfig()
-        config.setEndpoints("http://localhost:${etcdContainer.getMappedPort(originalPort)}")
-        KVService kvService = new KVService(config)
+        config.setLocalServer(true)
+        KVService kvService = new KVService(new AsyncKVService(config, clientFactory))
 
         when:
         kvService.put(key, value)
@@ -110,14 +120,10 @@ class KVServiceSpec extends Specification {
         then:
         value.getBytes() == ret
         retString == value
-
-        cleanup:
-        etcdContainer.stop()
     }
 
     def "test Put several String values" () {
         given:
-        etcdContainer.start()
         String key = "foo"
         String value = "bar"
         int numPuts = 10
@@ -125,8 +131,8 @@ class KVServiceSpec extends Specification {
 
         and:
         EtcdFactoryConfig config = new SingleEtcdFactoryConfig()
-        config.setEndpoints("http://localhost:${etcdContainer.getMappedPort(originalPort)}")
-        KVService kvService = new KVService(config)
+        config.setLocalServer(true)
+        KVService kvService = new KVService(new AsyncKVService(config, clientFactory))
 
         when:
         for (int i = 0; i < numPuts; i++) {
@@ -139,22 +145,18 @@ class KVServiceSpec extends Specification {
         then:
         byte[] v = retFromGetList.get(0)
         "${value}-0".getBytes() == v
-
-        cleanup:
-        etcdContainer.stop()
     }
 
     def "test Put single Object" () {
         given:
-        etcdContainer.start()
         String key = "foo"
         DummyObject dummyObject = new DummyObject("bar", 69)
         byte[] value = SerializationUtils.serialize(dummyObject)
 
         and:
         EtcdFactoryConfig config = new SingleEtcdFactoryConfig()
-        config.setEndpoints("http://localhost:${etcdContainer.getMappedPort(originalPort)}")
-        KVService kvService = new KVService(config)
+        config.setLocalServer(true)
+        KVService kvService = new KVService(new AsyncKVService(config, clientFactory))
 
         when:
         kvService.put(key, value)
@@ -164,22 +166,37 @@ class KVServiceSpec extends Specification {
         then:
         retDummyObject.getField1() == dummyObject.getField1()
         retDummyObject.getField2() == dummyObject.getField2()
+    }
+
+    def "test Put and Get typed Object" () {
+        given:
+        String key = "foo"
+        DummyObject dummyObject = new DummyObject("bar", 69)
+
+        and:
+        EtcdFactoryConfig config = new SingleEtcdFactoryConfig()
+        config.setLocalServer(true)
+        KVService kvService = new KVService(new AsyncKVService(config, clientFactory))
+
+        when:
+        kvService.put(key, dummyObject)
+        DummyObject retDummyObject = kvService.get(key, DummyObject)
 
-        cleanup:
-        etcdContainer.stop()
+        then:
+        retDummyObject.getField1() == dummyObject.getField1()
+        retDummyObject.getField2() == dummyObject.getField2()
     }
 
     def "test delete element from etcd" () {
         given:
-        etcdContainer.start()
         String key = "foo"
         String value = "bar"
         long expectedDeletedElements = 1
 
         and:
         EtcdFactoryConfig config = new SingleEtcdFactoryConfig()
-        config.setEndpoints("http://localhost:${etcdContainer.getMappedPort(originalPort)}")
-        KVService kvService = new KVService(config)
+        config.setLocalServer(true)
+        KVService kvService = new KVService(new AsyncKVService(config, clientFactory))
 
         when:
         kvService.put(key, value)
@@ -200,8 +217,5 @@ class KVServiceSpec extends Specification {
 
         then:
         null == ret
-
-        cleanup:
-        etcdContainer.stop()
     }
 }
@@ -0,0 +1,133 @@
+package io.micronaut.etcd.kv
+
+import com.google.protobuf.ByteString
+import io.etcd.jetcd.ByteSequence
+import io.etcd.jetcd.KV
+import io.etcd.jetcd.Txn
+import io.etcd.jetcd.api.KeyValue
+import io.etcd.jetcd.api.RangeResponse
+import io.etcd.jetcd.api.ResponseHeader
+import io.etcd.jetcd.api.TxnResponse
+import io.etcd.jetcd.kv.GetResponse
+import io.etcd.jetcd.op.Op
+import spock.lang.Specification
+
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+
+import static com.google.common.base.Charsets.UTF_8
+import static io.micronaut.etcd.util.TestBytes.bytes
+
+class KVSnapshotSpec extends Specification {
+
+    Path directory = Files.createTempDirectory("etcd-snapshot")
+
+    def cleanup() {
+        directory.toFile().deleteDir()
+    }
+
+    def "test a prefix is exported at the revision of the first page and read back" () {
+        given:
+        KV kv = Mock(KV)
+        KVService kvService = new KVService(kv)
+        Path file = directory.resolve("config.snapshot")
+        byte[] large = new byte[200 * 1024]
+        new Random(42).nextBytes(large)
+
+        when:
+        long exported = kvService.exportSnapshot("config/", file, compress)
+        List<Map.Entry<ByteSequence, ByteSequence>> entries = read(file, null).collect()
+
+        then:
+        1 * kv.get(bytes("config/"), { it.revision == 0 }) >> page(42, true, ["config/": "root", "config/a": "1"])
+        1 * kv.get(bytes("config/a\u0000"), { it.revision == 42 }) >>
+                page(42, false, ["config/b": new String(large, "ISO-8859-1")])
+        exported == 3
+        entries*.key*.toString(UTF_8) == ["config/", "config/a", "config/b"]
+        entries[1].value.toString(UTF_8) == "1"
+        entries[2].value.bytes == new String(large, "ISO-8859-1").getBytes(UTF_8)
+        read(file, null).with { it.revision == 42 && it.prefix == bytes("config/") }
+
+        where:
+        compress << [false, true]
+    }
+
+    def "test a snapshot is imported in transactions, under another prefix if asked" () {
+        given:
+        KV kv = Mock(KV)
+        KVService kvService = new KVService(kv)
+        Path file = directory.resolve("config.snapshot")
+        Map<String, String> values = (1..1000).collectEntries { ["config/key" + it, "value" + it] }
+        List<Op[]> chunks = []
+        List<Long> progress = []
+
+        when:
+        kvService.exportSnapshot("config/", file, true)
+        KVBulkResult result = kvService.importSnapshot(file, bytes("restored/"), { progress << it })
+
+        then:
+        1 * kv.get(_, _) >> page(7, false, values)
+        kv.txn() >> {
+            Txn txn = Mock(Txn)
+            txn.Then(_) >> { args -> chunks << args[0]; txn }
+            txn.commit() >> CompletableFuture.completedFuture(new io.etcd.jetcd.kv.TxnResponse(
+                    TxnResponse.newBuilder().setSucceeded(true).build(), ByteSequence.EMPTY))
+            return txn
+        }
+        result.succeeded == 1000
+        result.complete
+        chunks.sum { it.length } == 1000
+        progress.last() == 1000
+        read(file, bytes("restored/")).collect()*.key*.toString(UTF_8).every { it.startsWith("restored/key") }
+    }
+
+    def "test a truncated snapshot fails the import" () {
+        given:
+        KV kv = Mock(KV)
+        KVService kvService = new KVService(kv)
+        Path file = directory.resolve("config.snapshot")
+        kv.get(_, _) >> page(7, false, (1..100).collectEntries { ["config/key" + it, "value" + it] })
+        kv.txn() >> Mock(Txn)
+        kvService.exportSnapshot("config/", file, false)
+        byte[] bytes = Files.readAllBytes(file)
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 20))
+
+        when:
+        kvService.importSnapshot(file, null)
+
+        then:
+        ExecutionException e = thrown()
+        e.cause instanceof UncheckedIOException
+    }
+
+    def "test a file that is not a snapshot is rejected" () {
+        given:
+        Path file = directory.resolve("config.txt")
+        Files.write(file, "datasources.default.url=jdbc:h2:mem:".getBytes(UTF_8))
+
+        when:
+        new KVService(Mock(KV)).importSnapshot(file, null)
+
+        then:
+        IOException e = thrown()
+        e.message == "Not an etcd snapshot"
+    }
+
+    private static KVSnapshotReader read(Path file, ByteSequence prefix) {
+        return new KVSnapshotReader(FileChannel.open(file, StandardOpenOption.READ), prefix)
+    }
+
+    private static CompletableFuture<GetResponse> page(long revision, boolean more, Map<String, String> values) {
+        RangeResponse.Builder builder = RangeResponse.newBuilder()
+                .setHeader(ResponseHeader.newBuilder().setRevision(revision))
+                .setMore(more)
+        values.each { key, value ->
+            builder.addKvs(KeyValue.newBuilder().setKey(ByteString.copyFromUtf8(key)).setValue(ByteString.copyFromUtf8(value)))
+        }
+        return CompletableFuture.completedFuture(new GetResponse(builder.build(), ByteSequence.EMPTY))
+    }
+}
@@ -0,0 +1,192 @@
+package io.micronaut.etcd.kv
+
+import com.google.protobuf.ByteString
+import io.etcd.jetcd.ByteSequence
+import io.etcd.jetcd.KV
+import io.etcd.jetcd.Txn
+import io.etcd.jetcd.api.KeyValue
+import io.etcd.jetcd.api.PutResponse
+import io.etcd.jetcd.api.RangeResponse
+import io.etcd.jetcd.api.ResponseHeader
+import io.etcd.jetcd.api.ResponseOp
+import io.etcd.jetcd.api.TxnResponse
+import io.etcd.jetcd.op.Cmp
+import io.etcd.jetcd.op.Op
+import io.etcd.jetcd.options.GetOption
+import io.grpc.Context
+import io.grpc.Status
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+import static com.google.common.base.Charsets.UTF_8
+import static io.micronaut.etcd.util.TestBytes.bytes
+
+class KVTransactionSpec extends Specification {
+
+    KV kv = Mock(KV)
+    Txn txn = Mock(Txn)
+    AsyncKVService service = new AsyncKVService(kv)
+
+    def setup() {
+        kv.txn() >> txn
+    }
+
+    def "test the result holds the responses of the branch applied" () {
+        when:
+        KVTransactionResult result = service.transaction()
+                .ifModRevision(bytes("foo"), Cmp.Op.EQUAL, 3)
+                .thenPut(bytes("foo"), bytes("bar"))
+                .elseGet(bytes("foo"))
+                .commit().get()
+
+        then:
+        1 * txn.If({ it.length == 1 }) >> txn
+        1 * txn.Then({ it.length == 1 && it[0].type == Op.Type.PUT }) >> txn
+        1 * txn.Else({ it.length == 1 && it[0].type == Op.Type.RANGE }) >> txn
+        1 * txn.commit() >> completed(failure(7, "baz"))
+        !result.succeeded
+        result.revision == 7
+        result.getValue(0).toString(UTF_8) == "baz"
+    }
+
+    def "test an update without conflict is written by one transaction" () {
+        when:
+        ByteSequence written = service.update(bytes("counter"), { increment(it) }).get()
+
+        then:
+        1 * kv.get(bytes("counter"), GetOption.DEFAULT) >> completed(get("1"))
+        1 * txn.If({ it.length == 1 }) >> txn
+        1 * txn.Then({ it.length == 1 }) >> txn
+        1 * txn.Else(_) >> txn
+        1 * txn.commit() >> completed(success(8))
+        written.toString(UTF_8) == "2"
+    }
+
+    def "test an update in conflict is retried with the value read by the transaction" () {
+        given:
+        List<String> applied = []
+
+        when:
+        ByteSequence written = service.update(bytes("counter"), {
+            applied << it?.toString(UTF_8)
+            return increment(it)
+        }).get()
+
+        then:
+        1 * kv.get(bytes("counter"), GetOption.DEFAULT) >> completed(get(null))
+        2 * txn.If(_) >> txn
+        2 * txn.Then(_) >> txn
+        2 * txn.Else(_) >> txn
+        2 * txn.commit() >>> [completed(failure(8, "5")), completed(success(9))]
+        0 * kv.get(_, _)
+        applied == [null, "5"]
+        written.toString(UTF_8) == "6"
+    }
+
+    def "test an update gives up when the key keeps being modified" () {
+        given:
+        kv.get(_, _) >> completed(get("1"))
+        txn.If(_) >> txn
+        txn.Then(_) >> txn
+        txn.Else(_) >> txn
+
+        when:
+        service.update(bytes("counter"), { increment(it) }).get()
+
+        then:
+        AsyncKVService.MAX_UPDATE_ATTEMPTS * txn.commit() >> completed(failure(8, "5"))
+        ExecutionException e = thrown()
+        e.cause instanceof ConcurrentModificationException
+    }
+
+    def "test every attempt of an update is committed in the caller's context" () {
+        given:
+        Context.Key<String> name = Context.key("name")
+        List<String> contexts = new CopyOnWriteArrayList<>()
+        kv.get(_, _) >> completed(get("1"))
+        txn.If(_) >> txn
+        txn.Then(_) >> txn
+        txn.Else(_) >> txn
+
+        when:
+        ByteSequence written = Context.current().withValue(name, "caller").call {
+            service.update(bytes("counter"), { increment(it) })
+        }.get()
+
+        then:
+        2 * txn.commit() >> {
+            contexts << name.get()
+            return completed(contexts.size() == 1 ? failure(8, "5") : success(9))
+        }
+        contexts == ["caller", "caller"]
+        written.toString(UTF_8) == "6"
+    }
+
+    @Timeout(5)
+    def "test a blocking update waits at most until the caller's deadline" () {
+        given:
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor()
+        KVService kvService = new KVService(service)
+        kv.get(_, _) >> completed(get("1"))
+        txn.If(_) >> txn
+        txn.Then(_) >> txn
+        txn.Else(_) >> txn
+        txn.commit() >> new CompletableFuture()
+
+        when:
+        Context.current().withDeadlineAfter(100, TimeUnit.MILLISECONDS, scheduler).call {
+            kvService.update(bytes("counter"), { increment(it) })
+        }
+
+        then:
+        ExecutionException e = thrown()
+        Status.fromThrowable(e).code == Status.Code.DEADLINE_EXCEEDED
+
+        cleanup:
+        scheduler.shutdownNow()
+    }
+
+    private static ByteSequence increment(ByteSequence value) {
+        return bytes(String.valueOf(value == null ? 1 : Integer.parseInt(value.toString(UTF_8)) + 1))
+    }
+
+    private static <T> CompletableFuture<T> completed(T value) {
+        return CompletableFuture.completedFuture(value)
+    }
+
+    private static io.etcd.jetcd.kv.GetResponse get(String value) {
+        return new io.etcd.jetcd.kv.GetResponse(range(value).build(), ByteSequence.EMPTY)
+    }
+
+    private static io.etcd.jetcd.kv.TxnResponse success(long revision) {
+        return new io.etcd.jetcd.kv.TxnResponse(TxnResponse.newBuilder()
+                .setHeader(ResponseHeader.newBuilder().setRevision(revision))
+                .setSucceeded(true)
+                .addResponses(ResponseOp.newBuilder().setResponsePut(PutResponse.newBuilder()))
+                .build(), ByteSequence.EMPTY)
+    }
+
+    private static io.etcd.jetcd.kv.TxnResponse failure(long revision, String value) {
+        return new io.etcd.jetcd.kv.TxnResponse(TxnResponse.newBuilder()
+                .setHeader(ResponseHeader.newBuilder().setRevision(revision))
+                .setSucceeded(false)
+                .addResponses(ResponseOp.newBuilder().setResponseRange(range(value)))
+                .build(), ByteSequence.EMPTY)
+    }
+
+    private static RangeResponse.Builder range(String value) {
+        RangeResponse.Builder builder = RangeResponse.newBuilder()
+        if (value != null) {
+            builder.addKvs(KeyValue.newBuilder().setKey(ByteString.copyFromUtf8("counter"))
+                    .setValue(ByteString.copyFromUtf8(value)))
+        }
+        return builder
+    }
+}
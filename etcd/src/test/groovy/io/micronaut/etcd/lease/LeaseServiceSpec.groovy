@@ -0,0 +1,89 @@
+package io.micronaut.etcd.lease
+
+import io.etcd.jetcd.ByteSequence
+import io.etcd.jetcd.KV
+import io.etcd.jetcd.Lease
+import io.etcd.jetcd.api.DeleteRangeResponse
+import io.etcd.jetcd.api.LeaseGrantResponse
+import io.etcd.jetcd.api.PutResponse
+import io.etcd.jetcd.lease.LeaseKeepAliveResponse
+import io.etcd.jetcd.support.CloseableClient
+import io.grpc.stub.StreamObserver
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+
+import static io.micronaut.etcd.util.TestBytes.bytes
+
+class LeaseServiceSpec extends Specification {
+
+    Lease lease = Mock(Lease)
+    KV kv = Mock(KV)
+    LeaseService leaseService = new LeaseService(lease, kv, 10)
+
+    def cleanup() {
+        leaseService.close()
+    }
+
+    def "test keys of the same TTL share one lease and one keep-alive" () {
+        when:
+        (1..100).each { leaseService.putEphemeral("instances/" + it, "up", 10).get() }
+        leaseService.putEphemeral("sessions/1", "up", 30).get()
+
+        then:
+        1 * lease.grant(10) >> grant(1)
+        1 * lease.grant(30) >> grant(2)
+        1 * lease.keepAlive(1, _) >> Mock(CloseableClient)
+        1 * lease.keepAlive(2, _) >> Mock(CloseableClient)
+        100 * kv.put(_, _, { it.leaseId == 1 }) >> put()
+        1 * kv.put(bytes("sessions/1"), _, { it.leaseId == 2 }) >> put()
+        leaseService.leaseCount == 2
+        leaseService.keyCount == 101
+    }
+
+    def "test keys are put again on a new lease when the lease expires" () {
+        given:
+        StreamObserver<LeaseKeepAliveResponse> observer
+        lease.grant(10) >>> [grant(1), grant(2)]
+        lease.keepAlive(1, _) >> { id, StreamObserver<LeaseKeepAliveResponse> keepAliveObserver ->
+            observer = keepAliveObserver
+            return Mock(CloseableClient)
+        }
+        kv.put(_, _, _) >> put()
+        kv.delete(_) >> CompletableFuture.completedFuture(new io.etcd.jetcd.kv.DeleteResponse(
+                DeleteRangeResponse.newBuilder().setDeleted(1).build(), ByteSequence.EMPTY))
+        leaseService.putEphemeral("instances/1", "up", 10).get()
+        leaseService.putEphemeral("instances/2", "up", 10).get()
+        leaseService.deleteEphemeral("instances/2").get()
+
+        when:
+        observer.onError(new IllegalStateException("etcdserver: requested lease not found"))
+
+        then:
+        1 * kv.put(bytes("instances/1"), bytes("up"), { it.leaseId == 2 }) >> put()
+        0 * kv.put(bytes("instances/2"), _, _)
+    }
+
+    def "test the leases are revoked on close" () {
+        given:
+        lease.grant(10) >> grant(1)
+        kv.put(_, _, _) >> put()
+        leaseService.putEphemeral("instances/1", "up", 10).get()
+
+        when:
+        leaseService.close()
+
+        then:
+        1 * lease.revoke(1)
+    }
+
+    private static CompletableFuture<io.etcd.jetcd.lease.LeaseGrantResponse> grant(long id) {
+        return CompletableFuture.completedFuture(new io.etcd.jetcd.lease.LeaseGrantResponse(
+                LeaseGrantResponse.newBuilder().setID(id).setTTL(10).build()))
+    }
+
+    private static CompletableFuture<io.etcd.jetcd.kv.PutResponse> put() {
+        return CompletableFuture.completedFuture(new io.etcd.jetcd.kv.PutResponse(
+                PutResponse.getDefaultInstance(), ByteSequence.EMPTY))
+    }
+}
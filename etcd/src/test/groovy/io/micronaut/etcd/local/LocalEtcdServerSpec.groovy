@@ -0,0 +1,197 @@
+package io.micronaut.etcd.local
+
+import io.etcd.jetcd.Client
+import io.etcd.jetcd.options.GetOption
+import io.etcd.jetcd.options.PutOption
+import io.etcd.jetcd.watch.WatchEvent
+import io.micronaut.etcd.client.ClientFactory
+import io.micronaut.etcd.config.EtcdFactoryConfig
+import io.micronaut.etcd.config.SingleEtcdFactoryConfig
+import io.micronaut.etcd.kv.AsyncKVService
+import io.micronaut.etcd.kv.KVService
+import io.micronaut.etcd.kv.KVTransactionResult
+import io.micronaut.etcd.watch.WatchService
+import io.grpc.Status
+import io.reactivex.Flowable
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.ExecutionException
+
+import static com.google.common.base.Charsets.UTF_8
+import static io.micronaut.etcd.util.TestBytes.bytes
+
+class LocalEtcdServerSpec extends Specification {
+
+    EtcdFactoryConfig config = new SingleEtcdFactoryConfig()
+    ClientFactory clientFactory = new ClientFactory()
+
+    def setup() {
+        config.setLocalServer(true)
+    }
+
+    def cleanup() {
+        clientFactory.close()
+    }
+
+    def "test past revisions are read until they are compacted" () {
+        given:
+        KVService kvService = new KVService(new AsyncKVService(config, clientFactory))
+        LocalEtcdServer server = clientFactory.getLocalServer(config)
+
+        when:
+        (1..5).each { kvService.put("config/key" + it, "v1") }
+        long revision = server.revision
+        kvService.put("config/key1", "v2")
+        kvService.delete("config/key2")
+
+        then:
+        revision == 6
+        server.revision == 8
+        kvService.get("config/key1") == "v2".getBytes(UTF_8)
+        kvService.get("config/key2") == null
+        kvService.get(bytes("config/key1"), GetOption.newBuilder().withRevision(revision).build()) == bytes("v1")
+        kvService.get(bytes("config/key2"), GetOption.newBuilder().withRevision(revision).build()) == bytes("v1")
+        kvService.count("config/") == 4
+
+        when:
+        clientFactory.etcdClient(config).KVClient.compact(7).get()
+        kvService.get(bytes("config/key1"), GetOption.newBuilder().withRevision(revision).build())
+
+        then:
+        ExecutionException e = thrown()
+        Status.fromThrowable(e).code == Status.Code.OUT_OF_RANGE
+        Status.fromThrowable(e).description == "etcdserver: mvcc: required revision has been compacted"
+        kvService.get(bytes("config/key1"), GetOption.newBuilder().withRevision(7).build()) == bytes("v2")
+    }
+
+    def "test a service built from a configuration closes its own client" () {
+        given:
+        KVService kvService = new KVService(config)
+        kvService.put("foo", "bar")
+
+        when:
+        kvService.close()
+        kvService.get("foo")
+
+        then:
+        thrown(Exception)
+    }
+
+    def "test only the retained revisions are kept" () {
+        given:
+        KVService kvService = new KVService(new AsyncKVService(config, clientFactory))
+        clientFactory.getLocalServer(config).setRetainedRevisions(2)
+
+        when:
+        (1..5).each { kvService.put("foo", "v" + it) }
+        kvService.get(bytes("foo"), GetOption.newBuilder().withRevision(3).build())
+
+        then:
+        ExecutionException e = thrown()
+        Status.fromThrowable(e).code == Status.Code.OUT_OF_RANGE
+        kvService.get(bytes("foo"), GetOption.newBuilder().withRevision(4).build()) == bytes("v3")
+        kvService.get("foo") == "v5".getBytes(UTF_8)
+    }
+
+    def "test transactions compare and write their keys at a single revision" () {
+        given:
+        AsyncKVService asyncKVService = new AsyncKVService(config, clientFactory)
+
+        when:
+        KVTransactionResult first = asyncKVService.transaction()
+                .ifAbsent(bytes("lock"))
+                .thenPut(bytes("lock"), bytes("a"))
+                .thenPut(bytes("owner"), bytes("a"))
+                .commit().get()
+        KVTransactionResult second = asyncKVService.transaction()
+                .ifAbsent(bytes("lock"))
+                .thenPut(bytes("lock"), bytes("b"))
+                .commit().get()
+
+        then:
+        first.succeeded
+        !second.succeeded
+        first.revision == 2
+        asyncKVService.get("lock").get() == "a".getBytes(UTF_8)
+        clientFactory.etcdClient(config).KVClient.get(bytes("owner")).get().kvs[0].modRevision == 2
+    }
+
+    def "test watches replay the writes since their start revision, then follow the new ones" () {
+        given:
+        KVService kvService = new KVService(new AsyncKVService(config, clientFactory))
+        WatchService watchService = new WatchService(config, clientFactory)
+        List<WatchEvent> events = new CopyOnWriteArrayList<>()
+
+        when:
+        kvService.put("config/a", "1")
+        long start = clientFactory.getLocalServer(config).revision
+        kvService.put("config/b", "2")
+        kvService.delete("config/a")
+        kvService.put("other", "0")
+        Flowable.fromPublisher(watchService.watchPrefix(bytes("config/"), start)).subscribe({ events << it })
+        new PollingConditions(timeout: 5).eventually {
+            assert events.size() == 3
+        }
+        kvService.put("config/c", "3")
+
+        then:
+        new PollingConditions(timeout: 5).eventually {
+            assert events*.eventType == [WatchEvent.EventType.PUT, WatchEvent.EventType.PUT,
+                                         WatchEvent.EventType.DELETE, WatchEvent.EventType.PUT]
+            assert events*.keyValue*.key*.toString(UTF_8) == ["config/a", "config/b", "config/a", "config/c"]
+        }
+    }
+
+    def "test the keys of a lease are deleted when it expires" () {
+        given:
+        Client client = clientFactory.etcdClient(config)
+        long leaseId = client.leaseClient.grant(1).get().ID
+
+        when:
+        client.KVClient.put(bytes("session"), bytes("alive"), PutOption.newBuilder().withLeaseId(leaseId).build()).get()
+
+        then:
+        client.KVClient.get(bytes("session")).get().kvs[0].lease == leaseId
+        new PollingConditions(timeout: 5).eventually {
+            assert client.KVClient.get(bytes("session")).get().kvs.isEmpty()
+            assert client.leaseClient.timeToLive(leaseId, io.etcd.jetcd.options.LeaseOption.DEFAULT).get().TTl == -1
+        }
+    }
+
+    def "test latency and failures are injected" () {
+        given:
+        config.setRetryDelay(10)
+        config.setRetryMaxDelay(50)
+        config.setLocalServerLatencyMs(50)
+        KVService kvService = new KVService(new AsyncKVService(config, clientFactory))
+        LocalEtcdServer server = clientFactory.getLocalServer(config)
+
+        when:
+        long started = System.nanoTime()
+        kvService.put("foo", "bar")
+        long elapsedMs = (System.nanoTime() - started) / 1_000_000
+
+        then:
+        elapsedMs >= 50
+
+        when:
+        server.latencyMs = 0
+        server.failureRate = 0.5
+        int failed = (1..20).count { i ->
+            try {
+                kvService.put("key" + i, "value")
+                return false
+            } catch (ExecutionException e) {
+                return Status.fromThrowable(e).code == Status.Code.UNAVAILABLE
+            }
+        }
+        server.failureRate = 0
+
+        then:
+        failed > 0
+        server.injectedFailureCount >= failed
+        kvService.count("key") == 20 - failed
+    }
+}
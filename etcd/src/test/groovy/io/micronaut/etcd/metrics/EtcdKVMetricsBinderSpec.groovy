@@ -0,0 +1,38 @@
+package io.micronaut.etcd.metrics
+
+import io.micrometer.core.instrument.MeterRegistry
+import io.micronaut.context.ApplicationContext
+import io.micronaut.etcd.kv.AsyncKVService
+import io.micronaut.etcd.kv.KVService
+import spock.lang.Specification
+
+class EtcdKVMetricsBinderSpec extends Specification {
+
+    def "test the metrics of the limiter and the coalescer are bound with the services" () {
+        given:
+        ApplicationContext context = ApplicationContext.run(
+                ["spec.name"   : getClass().simpleName
+                 ,"etcd.endpoints": ["http://localhost:2379"]
+                 ,"etcd.coalesce-gets": true
+                 ,"etcd.concurrency-limit": 20
+                 ,"etcd.clusters.bulk.endpoints": ["http://bulk:2379"]
+                ]
+        )
+
+        when:
+        context.getBean(KVService)
+        MeterRegistry registry = context.getBean(MeterRegistry)
+        AsyncKVService asyncKVService = context.getBean(AsyncKVService)
+
+        then:
+        asyncKVService.name == "default"
+        registry.get("etcd.kv.limit").tags("config", "default").gauge().value() == 20
+        registry.get("etcd.kv.inflight").tags("config", "default").gauge().value() == 0
+        registry.get("etcd.kv.rejected").tags("config", "default", "priority", "read").functionCounter().count() == 0
+        registry.get("etcd.kv.gets").tags("config", "default", "coalesced", "true").functionCounter().count() == 0
+        registry.find("etcd.kv.limit").tags("config", "bulk").gauge() == null
+
+        cleanup:
+        context.stop()
+    }
+}
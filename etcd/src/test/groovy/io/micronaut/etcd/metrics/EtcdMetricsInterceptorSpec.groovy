@@ -0,0 +1,133 @@
+package io.micronaut.etcd.metrics
+
+import com.google.protobuf.ByteString
+import io.etcd.jetcd.api.KVGrpc
+import io.etcd.jetcd.api.RangeRequest
+import io.etcd.jetcd.api.RangeResponse
+import io.etcd.jetcd.api.WatchGrpc
+import io.grpc.CallOptions
+import io.grpc.Channel
+import io.grpc.ClientCall
+import io.grpc.Metadata
+import io.grpc.MethodDescriptor
+import io.grpc.Status
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import io.micronaut.etcd.config.SingleEtcdFactoryConfig
+import spock.lang.Specification
+
+class EtcdMetricsInterceptorSpec extends Specification {
+
+    SimpleMeterRegistry registry = new SimpleMeterRegistry()
+    EtcdMetricsInterceptor interceptor = new EtcdMetricsInterceptor(registry, "test")
+
+    def "test unary calls are timed and their sizes recorded" () {
+        given:
+        RangeRequest request = RangeRequest.newBuilder().setKey(ByteString.copyFromUtf8("foo")).build()
+        RangeResponse response = RangeResponse.newBuilder().setCount(1).build()
+        ClientCall<RangeRequest, RangeResponse> call = interceptor.interceptCall(KVGrpc.getRangeMethod(),
+                CallOptions.DEFAULT, channel(response, Status.OK))
+
+        when:
+        call.start(new ClientCall.Listener<RangeResponse>() {}, new Metadata())
+        call.sendMessage(request)
+        call.halfClose()
+
+        then:
+        registry.get(EtcdMetricsInterceptor.REQUESTS)
+                .tags("config", "test", "service", "KV", "method", "Range", "status", "OK").timer().count() == 1
+        registry.get(EtcdMetricsInterceptor.REQUEST_SIZE).tags("method", "Range").summary().totalAmount() ==
+                request.serializedSize
+        registry.get(EtcdMetricsInterceptor.RESPONSE_SIZE).tags("method", "Range").summary().totalAmount() ==
+                response.serializedSize
+        registry.get(EtcdMetricsInterceptor.IN_FLIGHT).gauge().value() == 0
+        registry.find(EtcdMetricsInterceptor.ERRORS).counter() == null
+    }
+
+    def "test failed calls are counted as errors" () {
+        given:
+        ClientCall<RangeRequest, RangeResponse> call = interceptor.interceptCall(KVGrpc.getRangeMethod(),
+                CallOptions.DEFAULT, channel(null, Status.UNAVAILABLE))
+
+        when:
+        call.start(new ClientCall.Listener<RangeResponse>() {}, new Metadata())
+        call.sendMessage(RangeRequest.getDefaultInstance())
+        call.halfClose()
+
+        then:
+        registry.get(EtcdMetricsInterceptor.ERRORS).tags("status", "UNAVAILABLE").counter().count() == 1
+        registry.get(EtcdMetricsInterceptor.REQUESTS).tags("status", "UNAVAILABLE").timer().count() == 1
+    }
+
+    def "test streaming calls are not intercepted" () {
+        given:
+        Channel next = channel(null, Status.OK)
+
+        when:
+        interceptor.interceptCall(WatchGrpc.getWatchMethod(), CallOptions.DEFAULT, next)
+
+        then:
+        registry.find(EtcdMetricsInterceptor.REQUESTS).timer() == null
+    }
+
+    def "test the clients of a configuration share the gauge of calls in flight" () {
+        given:
+        EtcdMetricsInterceptorFactory factory = new EtcdMetricsInterceptorFactory(registry)
+        SingleEtcdFactoryConfig config = new SingleEtcdFactoryConfig()
+        List<ClientCall> calls = (1..2).collect {
+            factory.create(config).interceptCall(KVGrpc.getRangeMethod(), CallOptions.DEFAULT, channel(null, Status.OK))
+        }
+
+        when:
+        calls.each { it.start(new ClientCall.Listener() {}, new Metadata()) }
+
+        then:
+        registry.get(EtcdMetricsInterceptor.IN_FLIGHT).tags("config", config.name).gauge().value() == 2
+
+        when:
+        calls.each { it.halfClose() }
+
+        then:
+        registry.get(EtcdMetricsInterceptor.IN_FLIGHT).tags("config", config.name).gauge().value() == 0
+    }
+
+    private static Channel channel(Object response, Status status) {
+        return new Channel() {
+            @Override
+            <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method, CallOptions options) {
+                return new ClientCall<ReqT, RespT>() {
+                    ClientCall.Listener<RespT> listener
+
+                    @Override
+                    void start(ClientCall.Listener<RespT> responseListener, Metadata headers) {
+                        listener = responseListener
+                    }
+
+                    @Override
+                    void request(int numMessages) {
+                    }
+
+                    @Override
+                    void cancel(String message, Throwable cause) {
+                    }
+
+                    @Override
+                    void halfClose() {
+                        if (response != null) {
+                            listener.onMessage((RespT) response)
+                        }
+                        listener.onClose(status, new Metadata())
+                    }
+
+                    @Override
+                    void sendMessage(ReqT message) {
+                    }
+                }
+            }
+
+            @Override
+            String authority() {
+                return "localhost"
+            }
+        }
+    }
+}
@@ -12,6 +12,12 @@ public class DummyObject implements Serializable {
   private String field1;
   private int field2;
 
+  /**
+   * Constructor, for deserialization.
+   */
+  public DummyObject() {
+  }
+
   /**
    * Constructor.
    * @param field1
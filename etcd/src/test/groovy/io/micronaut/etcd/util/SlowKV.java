@@ -0,0 +1,129 @@
+package io.micronaut.etcd.util;
+
+import com.google.protobuf.ByteString;
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.Txn;
+import io.etcd.jetcd.api.DeleteRangeResponse;
+import io.etcd.jetcd.api.KeyValue;
+import io.etcd.jetcd.api.RangeResponse;
+import io.etcd.jetcd.kv.CompactResponse;
+import io.etcd.jetcd.kv.DeleteResponse;
+import io.etcd.jetcd.kv.GetResponse;
+import io.etcd.jetcd.kv.PutResponse;
+import io.etcd.jetcd.options.CompactOption;
+import io.etcd.jetcd.options.DeleteOption;
+import io.etcd.jetcd.options.GetOption;
+import io.etcd.jetcd.options.PutOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * In-memory {@link KV} to be used for testing, answering single key puts, gets and deletes after
+ * an artificial latency.
+ */
+public class SlowKV implements KV {
+
+  private final Map<ByteSequence, ByteSequence> values = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+    Thread thread = new Thread(runnable, "slow-kv");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private volatile long latencyMs;
+
+  /**
+   * Constructor.
+   * @param latencyMs The latency of every response, in milliseconds
+   */
+  public SlowKV(long latencyMs) {
+    this.latencyMs = latencyMs;
+  }
+
+  /**
+   * @param latencyMs The latency of the next responses, in milliseconds
+   */
+  public void setLatencyMs(long latencyMs) {
+    this.latencyMs = latencyMs;
+  }
+
+  @Override
+  public CompletableFuture<PutResponse> put(ByteSequence key, ByteSequence value) {
+    return put(key, value, PutOption.DEFAULT);
+  }
+
+  @Override
+  public CompletableFuture<PutResponse> put(ByteSequence key, ByteSequence value, PutOption option) {
+    return later(() -> {
+      values.put(key, value);
+      return new PutResponse(io.etcd.jetcd.api.PutResponse.getDefaultInstance(), ByteSequence.EMPTY);
+    });
+  }
+
+  @Override
+  public CompletableFuture<GetResponse> get(ByteSequence key) {
+    return get(key, GetOption.DEFAULT);
+  }
+
+  @Override
+  public CompletableFuture<GetResponse> get(ByteSequence key, GetOption option) {
+    return later(() -> {
+      RangeResponse.Builder response = RangeResponse.newBuilder();
+      ByteSequence value = values.get(key);
+      if (value != null) {
+        response.addKvs(KeyValue.newBuilder()
+            .setKey(ByteString.copyFrom(key.getBytes()))
+            .setValue(ByteString.copyFrom(value.getBytes())));
+        response.setCount(1);
+      }
+      return new GetResponse(response.build(), ByteSequence.EMPTY);
+    });
+  }
+
+  @Override
+  public CompletableFuture<DeleteResponse> delete(ByteSequence key) {
+    return delete(key, DeleteOption.DEFAULT);
+  }
+
+  @Override
+  public CompletableFuture<DeleteResponse> delete(ByteSequence key, DeleteOption option) {
+    return later(() -> new DeleteResponse(DeleteRangeResponse.newBuilder()
+        .setDeleted(values.remove(key) != null ? 1 : 0).build(), ByteSequence.EMPTY));
+  }
+
+  @Override
+  public CompletableFuture<CompactResponse> compact(long rev) {
+    throw new UnsupportedOperationException("compact");
+  }
+
+  @Override
+  public CompletableFuture<CompactResponse> compact(long rev, CompactOption option) {
+    throw new UnsupportedOperationException("compact");
+  }
+
+  @Override
+  public Txn txn() {
+    throw new UnsupportedOperationException("txn");
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+  }
+
+  /**
+   * @param response Computes the response
+   * @param <T> The type of the response
+   * @return The response, completed after the latency
+   */
+  private <T> CompletableFuture<T> later(Supplier<T> response) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    scheduler.schedule(() -> future.complete(response.get()), latencyMs, TimeUnit.MILLISECONDS);
+    return future;
+  }
+}
@@ -0,0 +1,21 @@
+package io.micronaut.etcd.util;
+
+import io.etcd.jetcd.ByteSequence;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte sequences to be used for testing.
+ */
+public final class TestBytes {
+
+  private TestBytes() {
+  }
+
+  /**
+   * @param value A string
+   * @return The UTF-8 bytes of the string
+   */
+  public static ByteSequence bytes(String value) {
+    return ByteSequence.from(value, StandardCharsets.UTF_8);
+  }
+}
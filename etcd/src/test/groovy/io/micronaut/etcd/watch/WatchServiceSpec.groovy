@@ -0,0 +1,167 @@
+package io.micronaut.etcd.watch
+
+import com.google.protobuf.ByteString
+import io.etcd.jetcd.Watch
+import io.etcd.jetcd.api.Event
+import io.etcd.jetcd.api.KeyValue
+import io.etcd.jetcd.api.ResponseHeader
+import io.etcd.jetcd.common.exception.EtcdExceptionFactory
+import io.etcd.jetcd.watch.WatchEvent
+import io.etcd.jetcd.watch.WatchResponse
+import org.reactivestreams.Subscriber
+import org.reactivestreams.Subscription
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import static com.google.common.base.Charsets.UTF_8
+import static io.micronaut.etcd.util.TestBytes.bytes
+
+class WatchServiceSpec extends Specification {
+
+    Watch watch = Mock(Watch)
+    Watch.Listener listener
+    List<Long> watchedRevisions = [].asSynchronized()
+    WatchService watchService = new WatchService(watch, 10)
+
+    def cleanup() {
+        watchService.close()
+    }
+
+    def "test subscribers of the same key share one etcd watch" () {
+        given:
+        Watch.Watcher watcher = Mock(Watch.Watcher)
+        TestSubscriber first = new TestSubscriber(Long.MAX_VALUE)
+        TestSubscriber second = new TestSubscriber(Long.MAX_VALUE)
+
+        when:
+        watchService.watch("foo").subscribe(first)
+        watchService.watch("foo").subscribe(second)
+        listener.onNext(watchResponse(5, ["foo": "bar"]))
+
+        then:
+        1 * watch.watch(bytes("foo"), _, _) >> { key, option, Watch.Listener watchListener ->
+            listener = watchListener
+            return watcher
+        }
+        watchService.watchCount == 1
+        first.values() == ["bar"]
+        second.values() == ["bar"]
+
+        when:
+        first.subscription.cancel()
+        second.subscription.cancel()
+
+        then:
+        1 * watcher.close()
+        watchService.watchCount == 0
+    }
+
+    def "test events are coalesced until the subscriber requests them" () {
+        given:
+        captureListener()
+        TestSubscriber subscriber = new TestSubscriber(0)
+        watchService.watchPrefix("config/").subscribe(subscriber)
+
+        when:
+        listener.onNext(watchResponse(5, ["config/a": "1"]))
+        listener.onNext(watchResponse(6, ["config/b": "1"]))
+        listener.onNext(watchResponse(7, ["config/a": "2"]))
+
+        then:
+        subscriber.values().isEmpty()
+
+        when:
+        subscriber.subscription.request(10)
+
+        then:
+        subscriber.values() == ["1", "2"]
+    }
+
+    def "test a failed watch is reopened after the last revision seen" () {
+        given:
+        captureListener()
+        TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE)
+        watchService.watch("foo").subscribe(subscriber)
+        listener.onNext(watchResponse(5, ["foo": "bar"]))
+
+        when:
+        listener.onError(new IllegalStateException("connection lost"))
+
+        then:
+        new PollingConditions(timeout: 5).eventually {
+            assert watchedRevisions == [0L, 6L]
+        }
+        subscriber.error == null
+    }
+
+    def "test subscribers fail when the revision to resume from is compacted" () {
+        given:
+        captureListener()
+        TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE)
+        watchService.watch("foo").subscribe(subscriber)
+
+        when:
+        listener.onError(EtcdExceptionFactory.newCompactedException(10))
+
+        then:
+        subscriber.error != null
+        watchService.watchCount == 0
+    }
+
+    private void captureListener() {
+        watch.watch(_, _, _) >> { key, option, Watch.Listener watchListener ->
+            watchedRevisions << option.revision
+            listener = watchListener
+            return Mock(Watch.Watcher)
+        }
+    }
+
+    private static WatchResponse watchResponse(long revision, Map<String, String> values) {
+        io.etcd.jetcd.api.WatchResponse.Builder builder = io.etcd.jetcd.api.WatchResponse.newBuilder()
+                .setHeader(ResponseHeader.newBuilder().setRevision(revision))
+        values.each { key, value ->
+            builder.addEvents(Event.newBuilder().setType(Event.EventType.PUT).setKv(KeyValue.newBuilder()
+                    .setKey(ByteString.copyFromUtf8(key)).setValue(ByteString.copyFromUtf8(value))
+                    .setModRevision(revision)))
+        }
+        return new WatchResponse(builder.build())
+    }
+
+
+    private static class TestSubscriber implements Subscriber<WatchEvent> {
+        private final long initialRequest
+        final List<WatchEvent> events = []
+        Subscription subscription
+        Throwable error
+
+        TestSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest
+        }
+
+        List<String> values() {
+            return events.collect { it.keyValue.value.toString(UTF_8) }
+        }
+
+        @Override
+        void onSubscribe(Subscription s) {
+            subscription = s
+            if (initialRequest > 0) {
+                s.request(initialRequest)
+            }
+        }
+
+        @Override
+        void onNext(WatchEvent event) {
+            events << event
+        }
+
+        @Override
+        void onError(Throwable t) {
+            error = t
+        }
+
+        @Override
+        void onComplete() {
+        }
+    }
+}